@@ -0,0 +1,184 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.Agent;
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.channel.QueueChannel;
+import isp.secrecy.channel.TextCodec;
+import isp.secrecy.crypto.Algorithms;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import java.security.AlgorithmParameters;
+import java.security.Key;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end Alice to Bob round trip of {@link isp.secrecy.AgentCommunicationSymmetricCipher}.
+ * <p/>
+ * The benchmark thread plays Alice: it encrypts a message, sends the hex encoded parameters and
+ * cipher text over the queue exactly like the example does, and waits until Bob, running as a
+ * separate agent thread, has decrypted the message and acknowledged it.
+ * <p/>
+ * With channel=binary the same exchange uses a single {@link Frame} over a {@link QueueChannel}
+ * instead of two hex strings.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AgentRoundTripBenchmark {
+
+    @Param({"ALG1", "ALG2", "ALG3", "ALG4", "ALG5", "ALG6"})
+    public String algorithm;
+
+    @Param({"32", "1024", "65536"})
+    public int payloadSize;
+
+    @Param({"hex", "binary"})
+    public String channel;
+
+    private Key key;
+    private String[] alg;
+    private byte[] clearText;
+    private BlockingQueue<String> alice2bob, bob2alice;
+    private QueueChannel alice2bobChannel, bob2aliceChannel;
+    private Agent bob;
+
+    @Setup
+    public void setup() throws Exception {
+        alg = Fixtures.algorithm(algorithm);
+        key = KeyGenerator.getInstance(alg[0]).generateKey();
+        clearText = Fixtures.payload(payloadSize);
+
+        if ("binary".equals(channel)) {
+            alice2bobChannel = new QueueChannel();
+            bob2aliceChannel = new QueueChannel();
+            bob = binaryBob();
+        } else {
+            alice2bob = new LinkedBlockingQueue<>();
+            bob2alice = new LinkedBlockingQueue<>();
+            bob = hexBob();
+        }
+        bob.setDaemon(true);
+        bob.start();
+    }
+
+    private Agent hexBob() {
+        return new Agent(bob2alice, alice2bob, key, alg[1], null, null) {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        final String parametersString = incoming.take();
+                        final String cipherString = incoming.take();
+
+                        final Cipher cipher = Cipher.getInstance(this.cryptoAlgorithm);
+                        if (parametersString.isEmpty()) {
+                            cipher.init(Cipher.DECRYPT_MODE, this.cryptoKey);
+                        } else {
+                            final AlgorithmParameters ap =
+                                    AlgorithmParameters.getInstance(Algorithms.parametersAlgorithm(alg[1]));
+                            ap.init(TextCodec.HEX.decode(parametersString));
+                            cipher.init(Cipher.DECRYPT_MODE, this.cryptoKey, ap);
+                        }
+
+                        final byte[] decryptedText = cipher.doFinal(TextCodec.HEX.decode(cipherString));
+                        outgoing.put(Integer.toString(decryptedText.length));
+                    }
+                } catch (InterruptedException e) {
+                    // benchmark is over
+                } catch (Exception e) {
+                    outgoing.add(e.toString());
+                }
+            }
+        };
+    }
+
+    private Agent binaryBob() {
+        return new Agent(bob2aliceChannel, alice2bobChannel, key, alg[1], null, null) {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        final Frame frame = receive();
+
+                        final Cipher cipher = Cipher.getInstance(this.cryptoAlgorithm);
+                        if (frame.has(FrameField.PARAMETERS)) {
+                            final AlgorithmParameters ap =
+                                    AlgorithmParameters.getInstance(Algorithms.parametersAlgorithm(alg[1]));
+                            ap.init(frame.getBytes(FrameField.PARAMETERS));
+                            cipher.init(Cipher.DECRYPT_MODE, this.cryptoKey, ap);
+                        } else {
+                            cipher.init(Cipher.DECRYPT_MODE, this.cryptoKey);
+                        }
+
+                        final byte[] decryptedText = cipher.doFinal(frame.getBytes(FrameField.CIPHERTEXT));
+                        final byte[] ack = Integer.toString(decryptedText.length).getBytes("UTF-8");
+                        send(new Frame().put(FrameField.CIPHERTEXT, ack));
+                    }
+                } catch (InterruptedException e) {
+                    // benchmark is over
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        bob.interrupt();
+        bob.join();
+    }
+
+    @Benchmark
+    public String roundTrip(ByteCounter counter) throws Exception {
+        final String ack = "binary".equals(channel) ? binaryRoundTrip() : hexRoundTrip();
+        if (!ack.equals(Integer.toString(clearText.length))) {
+            throw new IllegalStateException("Bob failed to decrypt: " + ack);
+        }
+        counter.bytes += clearText.length;
+        return ack;
+    }
+
+    private String hexRoundTrip() throws Exception {
+        final Cipher cipher = Cipher.getInstance(alg[1]);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        final AlgorithmParameters ap = cipher.getParameters();
+        final String parametersString = ap == null ? "" : TextCodec.HEX.encode(ap.getEncoded());
+        final String cipherString = TextCodec.HEX.encode(cipher.doFinal(clearText));
+
+        alice2bob.put(parametersString);
+        alice2bob.put(cipherString);
+        return bob2alice.take();
+    }
+
+    private String binaryRoundTrip() throws Exception {
+        final Cipher cipher = Cipher.getInstance(alg[1]);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        final AlgorithmParameters ap = cipher.getParameters();
+        final Frame frame = new Frame()
+                .put(FrameField.PARAMETERS, ap == null ? null : ap.getEncoded())
+                .put(FrameField.CIPHERTEXT, cipher.doFinal(clearText));
+
+        alice2bobChannel.send(frame.encode());
+        return new String(Frame.decode(bob2aliceChannel.receive()).getBytes(FrameField.CIPHERTEXT), "UTF-8");
+    }
+}
@@ -0,0 +1,85 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.crypto.CipherPool;
+import isp.secrecy.crypto.FrameCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sealing and opening one message through the array based {@link FrameCipher} API, compared to the
+ * ByteBuffer API with reusable heap or direct buffers.
+ * <p/>
+ * Meant to be run with the GC profiler, the interesting column is gc.alloc.rate.norm (bytes per operation):
+ * <pre>
+ *   java -jar target/benchmarks.jar AllocationBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AllocationBenchmark {
+
+    @Param({"ALG3", "ALG4", "ALG5", "ALG6"})
+    public String algorithm;
+
+    @Param({"heap", "direct"})
+    public String buffers;
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private FrameCipher cipher;
+    private byte[] clearText;
+    private ByteBuffer message, frame, received;
+
+    @Setup
+    public void setup() throws Exception {
+        final String[] alg = Fixtures.algorithm(algorithm);
+        final Key key = KeyGenerator.getInstance(alg[0]).generateKey();
+        cipher = new FrameCipher(alg[1], key, new CipherPool(CipherPool.DEFAULT_CAPACITY));
+        clearText = Fixtures.payload(payloadSize);
+
+        message = allocate(payloadSize);
+        message.put(clearText).flip();
+        frame = allocate(cipher.sealedSize(payloadSize));
+        received = allocate(cipher.sealedSize(payloadSize));
+    }
+
+    @Benchmark
+    public byte[] arrays() throws Exception {
+        return cipher.open(Frame.decode(cipher.seal(clearText).encode()));
+    }
+
+    @Benchmark
+    public ByteBuffer byteBuffers() throws Exception {
+        message.rewind();
+        frame.clear();
+        cipher.seal(message, frame);
+        frame.flip();
+        received.clear();
+        cipher.open(frame, received);
+        return received;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return "direct".equals(buffers) ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,74 @@
+package isp.secrecy.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSA encryption with the public and decryption with the private key, as done
+ * in {@link isp.secrecy.AsymmetricCipherExample}.
+ * <p/>
+ * Payload sizes stay below the 245 byte limit of a 2048 bit key with PKCS#1 padding.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AsymmetricCipherBenchmark {
+
+    @Param({"RSA"})
+    public String algorithm;
+
+    @Param({"2048"})
+    public int keySize;
+
+    @Param({"32", "128", "245"})
+    public int payloadSize;
+
+    private KeyPair keyPair;
+    private byte[] clearText, cipherText;
+    private Cipher encryption, decryption;
+
+    @Setup
+    public void setup() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance(algorithm);
+        generator.initialize(keySize);
+        keyPair = generator.generateKeyPair();
+        clearText = Fixtures.payload(payloadSize);
+
+        encryption = Cipher.getInstance(algorithm);
+        decryption = Cipher.getInstance(algorithm);
+
+        encryption.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        cipherText = encryption.doFinal(clearText);
+    }
+
+    @Benchmark
+    public byte[] encrypt(ByteCounter counter) throws Exception {
+        encryption.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        counter.bytes += clearText.length;
+        return encryption.doFinal(clearText);
+    }
+
+    @Benchmark
+    public byte[] decrypt(ByteCounter counter) throws Exception {
+        decryption.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+        counter.bytes += cipherText.length;
+        return decryption.doFinal(cipherText);
+    }
+}
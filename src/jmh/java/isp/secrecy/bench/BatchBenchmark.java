@@ -0,0 +1,129 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.Agent;
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.channel.QueueChannel;
+import isp.secrecy.crypto.FrameCipher;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.KeyGenerator;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sending a burst of small messages one frame per message, compared to {@link Agent#sendAll(List)}.
+ * <p/>
+ * Each invocation sends burst messages from Alice to Bob and waits for Bob's acknowledgement
+ * of the whole burst. The messages counter reports messages/us.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchBenchmark {
+
+    @Param({"ALG4", "ALG6"})
+    public String algorithm;
+
+    @Param({"1", "16", "256"})
+    public int burst;
+
+    @Param({"64"})
+    public int payloadSize;
+
+    private FrameCipher cipher;
+    private List<byte[]> messages;
+    private QueueChannel alice2bob, bob2alice;
+    private Agent bob;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class MessageCounter {
+        public long messages;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            messages = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        final String[] alg = Fixtures.algorithm(algorithm);
+        final Key key = KeyGenerator.getInstance(alg[0]).generateKey();
+        cipher = new FrameCipher(alg[1], key);
+        messages = new ArrayList<>();
+        for (int i = 0; i < burst; i++) {
+            messages.add(Fixtures.payload(payloadSize));
+        }
+        alice2bob = new QueueChannel();
+        bob2alice = new QueueChannel();
+
+        bob = new Agent(bob2alice, alice2bob, key, alg[1], null, null) {
+            @Override
+            public void run() {
+                final List<byte[]> received = new ArrayList<>();
+                try {
+                    while (!isInterrupted()) {
+                        final Frame frame = receive();
+                        if (frame.has(FrameField.BATCH)) {
+                            frameCipher().openBatch(frame, received);
+                        } else {
+                            received.add(frameCipher().open(frame));
+                        }
+                        if (received.size() >= burst) {
+                            received.clear();
+                            send(new Frame());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // benchmark is over
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        bob.setDaemon(true);
+        bob.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        bob.interrupt();
+        bob.join();
+    }
+
+    @Benchmark
+    public Object perMessage(MessageCounter counter) throws Exception {
+        for (byte[] message : messages) {
+            alice2bob.send(cipher.seal(message).encode());
+        }
+        counter.messages += burst;
+        return bob2alice.receive();
+    }
+
+    @Benchmark
+    public Object batch(MessageCounter counter) throws Exception {
+        alice2bob.send(cipher.sealBatch(messages).encode());
+        counter.messages += burst;
+        return bob2alice.receive();
+    }
+}
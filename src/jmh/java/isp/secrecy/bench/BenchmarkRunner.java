@@ -0,0 +1,46 @@
+package isp.secrecy.bench;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of the benchmarks jar.
+ * <p/>
+ * Accepts the usual JMH command line, but unless a result format is given explicitly
+ * results are written as JSON to target/jmh-result.json, so that runs of different
+ * releases can be compared against each other.
+ * <p/>
+ * Examples:
+ * java -jar target/benchmarks.jar SymmetricCipherBenchmark -p algorithm=ALG4,ALG6
+ * java -jar target/benchmarks.jar AgentRoundTripBenchmark -rff round-trip.json
+ */
+public class BenchmarkRunner {
+
+    public static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions cmd;
+        try {
+            cmd = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            Main.main(args);
+            return;
+        }
+
+        final List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        if (!cmd.getResultFormat().hasValue()) {
+            arguments.add("-rf");
+            arguments.add("json");
+        }
+        if (!cmd.getResult().hasValue()) {
+            arguments.add("-rff");
+            arguments.add(DEFAULT_RESULT);
+        }
+        Main.main(arguments.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,138 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.Agent;
+import isp.secrecy.broker.Delivery;
+import isp.secrecy.broker.Mailbox;
+import isp.secrecy.broker.MessageBroker;
+import isp.secrecy.broker.SessionCipher;
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameChannel;
+import isp.secrecy.channel.FrameField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scaled-up version of the agent examples: many senders and receivers exchanging
+ * AES/GCM encrypted messages through a {@link MessageBroker}, each pair with its own session key,
+ * sealed and opened with {@link SessionCipher}s.
+ * <p/>
+ * Every benchmark thread is a sending agent; the number of receiving agents is the agents
+ * parameter. A sender picks receivers round-robin, encrypts and routes a message, and waits
+ * until the receiver has decrypted it and acknowledged. Throughput mode reports aggregate
+ * messages/s over all senders, sample mode the latency percentiles (p99 among them).
+ * Scale the number of senders with -t.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class BrokerBenchmark {
+    @Param({"2", "64", "1024", "4096"})
+    public int agents;
+
+    @Param({"128"})
+    public int payloadSize;
+
+    final MessageBroker broker = new MessageBroker();
+    final AtomicInteger senders = new AtomicInteger();
+    private final List<Agent> receivers = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < agents; i++) {
+            final Agent receiver = receiver("bob-" + i);
+            receiver.setDaemon(true);
+            receiver.start();
+            receivers.add(receiver);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        for (Agent receiver : receivers) {
+            receiver.interrupt();
+        }
+        for (Agent receiver : receivers) {
+            receiver.join();
+        }
+    }
+
+    private Agent receiver(final String name) {
+        final Mailbox mailbox = broker.register(name);
+        final SessionCipher cipher = broker.sessionCipher(name);
+        return new Agent((FrameChannel) null, null, null, SessionCipher.TRANSFORMATION, null, null) {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        final Delivery delivery = mailbox.take();
+                        final byte[] clearText = cipher.open(delivery);
+                        broker.send(name, delivery.sender(), new Frame().putLong(FrameField.CHUNK, clearText.length)
+                                .encode());
+                    }
+                } catch (InterruptedException e) {
+                    // benchmark is over
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+    }
+
+    @State(Scope.Thread)
+    public static class Sender {
+        String name;
+        Mailbox mailbox;
+        SessionCipher cipher;
+        byte[] clearText;
+        int next;
+
+        @Setup
+        public void setup(BrokerBenchmark benchmark) throws Exception {
+            name = "alice-" + benchmark.senders.getAndIncrement();
+            mailbox = benchmark.broker.register(name);
+            cipher = benchmark.broker.sessionCipher(name);
+            // session keys are created up front, not in the measured round trips
+            for (int i = 0; i < benchmark.agents; i++) {
+                benchmark.broker.sessionKey(name, "bob-" + i);
+            }
+            clearText = Fixtures.payload(benchmark.payloadSize);
+        }
+
+        @TearDown
+        public void tearDown(BrokerBenchmark benchmark) {
+            benchmark.broker.unregister(name);
+            benchmark.senders.decrementAndGet();
+        }
+    }
+
+    @Benchmark
+    public long roundTrip(Sender sender) throws Exception {
+        final int recipient = sender.next;
+        sender.next = (recipient + 1) % agents;
+
+        final String name = "bob-" + recipient;
+        broker.send(sender.name, name, sender.cipher.seal(name, sender.clearText).encode());
+
+        return Frame.decode(sender.mailbox.take().frame()).getLong(FrameField.CHUNK);
+    }
+}
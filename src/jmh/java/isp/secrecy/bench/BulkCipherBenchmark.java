@@ -0,0 +1,96 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.crypto.ParallelBulkCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypting one large payload on a single thread, compared to {@link ParallelBulkCipher}
+ * spread over a pool of the given parallelism.
+ * <p/>
+ * The bytes counter reports bytes/us, i.e. MB/s. Direct buffers are used so the payload is
+ * allocated once per trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Thread)
+public class BulkCipherBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"67108864", "1073741824"})
+    public int size;
+
+    private Key key;
+    private Cipher single;
+    private ParallelBulkCipher parallel;
+    private ForkJoinPool pool;
+    private ByteBuffer clearText, cipherText;
+
+    @Setup
+    public void setup() throws Exception {
+        // ParallelBulkCipher always uses GCM, so the baseline does too
+        final String[] alg = Fixtures.algorithm("ALG6");
+        key = KeyGenerator.getInstance(alg[0]).generateKey();
+        single = Cipher.getInstance(alg[1]);
+        single.init(Cipher.ENCRYPT_MODE, key);
+        pool = new ForkJoinPool(threads);
+        parallel = new ParallelBulkCipher(key, ParallelBulkCipher.DEFAULT_SEGMENT_SIZE, pool);
+
+        clearText = ByteBuffer.allocateDirect(size);
+        final byte[] chunk = Fixtures.payload(64 * 1024);
+        while (clearText.hasRemaining()) {
+            clearText.put(chunk, 0, Math.min(chunk.length, clearText.remaining()));
+        }
+        cipherText = ByteBuffer.allocateDirect((int) Math.max(parallel.encryptedSize(size), single.getOutputSize(size)));
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * The single-threaded baseline does not depend on threads; compare it against the threads=1 row.
+     */
+    @Benchmark
+    public Object singleThreaded(ByteCounter counter) throws Exception {
+        clearText.clear();
+        cipherText.clear();
+        // a fresh IV per invocation, GCM refuses to reuse one
+        single.init(Cipher.ENCRYPT_MODE, key);
+        single.doFinal(clearText, cipherText);
+        counter.bytes += size;
+        return cipherText;
+    }
+
+    @Benchmark
+    public Object parallel(ByteCounter counter) throws Exception {
+        clearText.clear();
+        cipherText.clear();
+        parallel.encrypt(clearText, cipherText);
+        counter.bytes += size;
+        return cipherText;
+    }
+}
@@ -0,0 +1,63 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.crypto.CipherPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of Cipher.getInstance + init, as done by the agent examples, compared
+ * to requesting the cipher from a {@link CipherPool}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CipherPoolBenchmark {
+
+    @Param({"ALG1", "ALG3", "ALG4", "ALG6"})
+    public String algorithm;
+
+    @Param({"32", "1024"})
+    public int payloadSize;
+
+    private final CipherPool pool = new CipherPool(CipherPool.DEFAULT_CAPACITY);
+    private String transformation;
+    private Key key;
+    private byte[] clearText;
+
+    @Setup
+    public void setup() throws Exception {
+        final String[] alg = Fixtures.algorithm(algorithm);
+        transformation = alg[1];
+        key = KeyGenerator.getInstance(alg[0]).generateKey();
+        clearText = Fixtures.payload(payloadSize);
+    }
+
+    @Benchmark
+    public byte[] getInstance() throws Exception {
+        final Cipher cipher = Cipher.getInstance(transformation);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        return cipher.doFinal(clearText);
+    }
+
+    @Benchmark
+    public byte[] pooled() throws Exception {
+        return pool.cipher(transformation, Cipher.ENCRYPT_MODE, key).doFinal(clearText);
+    }
+}
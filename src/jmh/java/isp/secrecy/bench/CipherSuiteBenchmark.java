@@ -0,0 +1,63 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.crypto.CipherPool;
+import isp.secrecy.crypto.CipherSuite;
+import isp.secrecy.crypto.FrameCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seal and open one message with every {@link CipherSuite}, with the AES intrinsics enabled (as
+ * the JVM decides for this CPU) and forcibly disabled, to show what the calibration of agents
+ * measures and how much the hardware support matters. The bytes counter reports bytes/us, i.e. MB/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CipherSuiteBenchmark {
+
+    @Param({"AES_128_GCM", "AES_128_CBC_HMAC_SHA256", "AES_128_CTR_HMAC_SHA256", "CHACHA20_POLY1305"})
+    public CipherSuite suite;
+
+    @Param({"64", "1024", "16384", "1048576"})
+    public int payloadSize;
+
+    private FrameCipher initiator, responder;
+    private byte[] clearText;
+
+    @Setup
+    public void setup() throws Exception {
+        final SecretKeySpec secret = new SecretKeySpec(Fixtures.payload(32), "HmacSHA256");
+        initiator = suite.frameCipher(secret, new byte[0], true, new CipherPool(CipherPool.DEFAULT_CAPACITY));
+        responder = suite.frameCipher(secret, new byte[0], false, new CipherPool(CipherPool.DEFAULT_CAPACITY));
+        clearText = Fixtures.payload(payloadSize);
+    }
+
+    @Benchmark
+    public byte[] intrinsics(ByteCounter counter) throws Exception {
+        counter.bytes += payloadSize;
+        return responder.open(initiator.seal(clearText));
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-XX:+UnlockDiagnosticVMOptions", "-XX:-UseAESIntrinsics"})
+    public byte[] noIntrinsics(ByteCounter counter) throws Exception {
+        counter.bytes += payloadSize;
+        return responder.open(initiator.seal(clearText));
+    }
+}
@@ -0,0 +1,120 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.compress.Codec;
+import isp.secrecy.compress.Compression;
+import isp.secrecy.crypto.CipherPool;
+import isp.secrecy.crypto.FrameCipher;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+/**
+ * Size and speed of the compression codecs on text and JSON, alone and in front of the cipher.
+ * <p/>
+ * bytes/us is the clear text throughput in MB/s, wire/us the bytes compressed or sealed per us; their
+ * ratio is the compressed size. NONE seals without compression, as the baseline for the wire size and
+ * the cost of encryption alone. The compressed forms are not verified here, {@code CompressionTest} does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    @Param({"text", "json"})
+    public String content;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    @Param({"NONE", "LZ", "DEFLATE"})
+    public String codec;
+
+    /**
+     * Bytes after compression or sealing.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class WireCounter {
+        public long wire;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            wire = 0;
+        }
+    }
+
+    private byte[] clearText, packed, unpacked;
+    private int packedLength;
+    private Compression compression;
+    private FrameCipher cipher;
+    private ByteBuffer message, frame, opened;
+
+    @Setup
+    public void setup() throws Exception {
+        clearText = "json".equals(content) ? Fixtures.json(size) : Fixtures.text(size);
+        compression = "NONE".equals(codec) ? null
+                : new Compression("LZ".equals(codec) ? Codec.LZ : Codec.DEFLATE);
+        packed = new byte[size];
+        unpacked = new byte[size];
+        packedLength = compression == null ? -1 : compression.compress(clearText, 0, size, packed, 0, size);
+
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        cipher = new FrameCipher("AES/GCM/NoPadding", key, null, null, new CipherPool(CipherPool.DEFAULT_CAPACITY),
+                0, compression);
+        message = ByteBuffer.wrap(clearText);
+        frame = ByteBuffer.allocate(cipher.sealedSize(size));
+        opened = ByteBuffer.allocate(size);
+    }
+
+    @Benchmark
+    public int compress(ByteCounter counter, WireCounter wire) {
+        final int length = compression == null ? size
+                : compression.compress(clearText, 0, size, packed, 0, size);
+        counter.bytes += size;
+        wire.wire += length < 0 ? size : length;
+        return length;
+    }
+
+    @Benchmark
+    public int decompress(ByteCounter counter) throws DataFormatException {
+        if (packedLength < 0) {
+            System.arraycopy(clearText, 0, unpacked, 0, size);
+        } else {
+            Compression.decompress(compression.codec(), packed, 0, packedLength, unpacked, 0);
+        }
+        counter.bytes += size;
+        return unpacked[size - 1];
+    }
+
+    @Benchmark
+    public ByteBuffer sealAndOpen(ByteCounter counter, WireCounter wire) throws Exception {
+        message.rewind();
+        frame.clear();
+        cipher.seal(message, frame);
+        frame.flip();
+        wire.wire += frame.remaining();
+        opened.clear();
+        cipher.open(frame, opened);
+        counter.bytes += size;
+        return opened;
+    }
+}
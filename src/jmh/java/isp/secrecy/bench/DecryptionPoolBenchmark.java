@@ -0,0 +1,118 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.crypto.DecryptionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.crypto.Cipher;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.RSAPrivateKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSA decryptions per second with a {@link DecryptionPool} of 1 to 8 workers, compared to
+ * decrypting serially on one thread with a CRT key and with a key without the CRT parameters.
+ * <p/>
+ * Every invocation submits {@value #BATCH} cipher texts and takes their clear texts, so the
+ * reported throughput is decryptions per second (ops/s).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecryptionPoolBenchmark {
+    static final int BATCH = 64;
+
+    @Param({"PKCS1", "OAEP"})
+    public String padding;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    private String transformation;
+    private AlgorithmParameterSpec parameters;
+    private PrivateKey nonCrtKey, crtKey;
+    private DecryptionPool pool;
+    private Cipher crt, nonCrt;
+    private byte[][] cipherTexts;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        final boolean oaep = "OAEP".equals(padding);
+        transformation = oaep ? DecryptionPool.OAEP : "RSA/ECB/PKCS1Padding";
+        parameters = oaep ? DecryptionPool.OAEP_SHA256 : null;
+
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final KeyPair keyPair = generator.generateKeyPair();
+        final RSAPrivateCrtKey key = (RSAPrivateCrtKey) keyPair.getPrivate();
+        crtKey = key;
+        nonCrtKey = KeyFactory.getInstance("RSA").generatePrivate(
+                new RSAPrivateKeySpec(key.getModulus(), key.getPrivateExponent()));
+
+        final Cipher encryption = Cipher.getInstance(transformation);
+        encryption.init(Cipher.ENCRYPT_MODE, keyPair.getPublic(), parameters);
+        cipherTexts = new byte[BATCH][];
+        for (int i = 0; i < BATCH; i++) {
+            cipherTexts[i] = encryption.doFinal(Fixtures.payload(32 + i));
+        }
+
+        pool = new DecryptionPool(transformation, parameters, nonCrtKey, workers, BATCH);
+        crt = Cipher.getInstance(transformation);
+        crt.init(Cipher.DECRYPT_MODE, crtKey, parameters);
+        nonCrt = Cipher.getInstance(transformation);
+        nonCrt.init(Cipher.DECRYPT_MODE, nonCrtKey, parameters);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void pool(Blackhole blackhole) throws Exception {
+        for (byte[] cipherText : cipherTexts) {
+            pool.submit(cipherText);
+        }
+        for (int i = 0; i < BATCH; i++) {
+            blackhole.consume(pool.take());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void serialCrt(Blackhole blackhole) throws Exception {
+        for (byte[] cipherText : cipherTexts) {
+            blackhole.consume(crt.doFinal(cipherText));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void serialNonCrt(Blackhole blackhole) throws Exception {
+        for (byte[] cipherText : cipherTexts) {
+            blackhole.consume(nonCrt.doFinal(cipherText));
+        }
+    }
+}
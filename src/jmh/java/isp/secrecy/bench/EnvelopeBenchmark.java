@@ -0,0 +1,70 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.crypto.EnvelopeReceiver;
+import isp.secrecy.crypto.EnvelopeSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of encrypting directly with RSA, as in
+ * {@link isp.secrecy.AgentCommunicationAsymmetricCipher}, compared to the envelope scheme in
+ * steady state, i.e. with the session key already unwrapped by the receiver.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EnvelopeBenchmark {
+
+    @Param({"32", "200"})
+    public int payloadSize;
+
+    private KeyPair keyPair;
+    private byte[] clearText;
+    private Cipher rsaEncryption, rsaDecryption;
+    private EnvelopeSender sender;
+    private EnvelopeReceiver receiver;
+
+    @Setup
+    public void setup() throws Exception {
+        keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        clearText = Fixtures.payload(payloadSize);
+        rsaEncryption = Cipher.getInstance("RSA");
+        rsaDecryption = Cipher.getInstance("RSA");
+
+        sender = new EnvelopeSender(keyPair.getPublic());
+        receiver = new EnvelopeReceiver(keyPair.getPrivate());
+        receiver.open(sender.seal(clearText));
+    }
+
+    @Benchmark
+    public byte[] rsaPerMessage() throws Exception {
+        rsaEncryption.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        final byte[] cipherText = rsaEncryption.doFinal(clearText);
+        rsaDecryption.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+        return rsaDecryption.doFinal(cipherText);
+    }
+
+    @Benchmark
+    public byte[] envelope() throws Exception {
+        final Frame frame = sender.seal(clearText);
+        return receiver.open(frame);
+    }
+}
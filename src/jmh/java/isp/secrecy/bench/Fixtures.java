@@ -0,0 +1,81 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.SymmetricCipherExample;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Shared helpers for the benchmark states.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Resolves one of the ALGn constants of {@link SymmetricCipherExample} by its name,
+     * so benchmarks can be parameterized with "ALG1" .. "ALG6".
+     *
+     * @param name name of the constant, e.g. "ALG4"
+     * @return { key algorithm, transformation }
+     */
+    static String[] algorithm(String name) {
+        try {
+            return (String[]) SymmetricCipherExample.class.getField(name).get(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Unknown algorithm constant: " + name, e);
+        }
+    }
+
+    /**
+     * @return a deterministic pseudo random payload of given size
+     */
+    static byte[] payload(int size) {
+        final byte[] payload = new byte[size];
+        new Random(size).nextBytes(payload);
+        return payload;
+    }
+
+    /**
+     * @return deterministic English-like text of given size: words drawn from a small vocabulary
+     * with a skewed distribution, in sentences and lines
+     */
+    static byte[] text(int size) {
+        final String[] words = {"the", "of", "and", "to", "a", "in", "is", "that", "for", "it", "as", "with",
+                "message", "key", "cipher", "alice", "bob", "sends", "receives", "secret", "frame", "agent",
+                "encrypted", "authenticated", "channel", "block", "stream", "random", "order", "payment"};
+        final Random random = new Random(size);
+        final StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            final int sentence = 5 + random.nextInt(12);
+            for (int i = 0; i < sentence; i++) {
+                // squaring favours the first, frequent words
+                final double skew = random.nextDouble();
+                text.append(words[(int) (skew * skew * words.length)]).append(i + 1 < sentence ? ' ' : '.');
+            }
+            text.append(random.nextInt(4) == 0 ? '\n' : ' ');
+        }
+        return text.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return deterministic JSON of given size: an array of records as an API would return them
+     */
+    static byte[] json(int size) {
+        final String[] names = {"alice", "bob", "oscar", "carol", "dave", "eve", "trent", "peggy"};
+        final String[] states = {"PENDING", "SENT", "DELIVERED", "FAILED"};
+        final Random random = new Random(size);
+        final StringBuilder json = new StringBuilder(size + 256).append('[');
+        for (int id = 1000; json.length() < size; id++) {
+            json.append(id > 1000 ? "," : "").append("{\"id\":").append(id)
+                    .append(",\"from\":\"").append(names[random.nextInt(names.length)])
+                    .append("\",\"to\":\"").append(names[random.nextInt(names.length)])
+                    .append("\",\"amount\":").append(random.nextInt(100000) / 100.0)
+                    .append(",\"currency\":\"EUR\",\"state\":\"").append(states[random.nextInt(states.length)])
+                    .append("\",\"timestamp\":").append(1760000000000L + id * 1000L + random.nextInt(1000))
+                    .append(",\"nonce\":\"").append(Long.toHexString(random.nextLong())).append("\"}");
+        }
+        return json.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,97 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.crypto.CipherPool;
+import isp.secrecy.crypto.FrameCipher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.KeyGenerator;
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Authenticated encryption of one message with AES/CBC + HMAC (encrypt-then-MAC) compared to
+ * AES/GCM (ALG6), per payload size.
+ * <p/>
+ * The seal/open benchmarks encrypt and decrypt a message; the forged benchmarks measure
+ * rejecting a frame whose cipher text was modified. The bytes counter reports bytes/us, i.e. MB/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IntegrityBenchmark {
+
+    @Param({"HmacSHA256", "HmacSHA512"})
+    public String macAlgorithm;
+
+    @Param({"64", "1024", "16384", "1048576"})
+    public int payloadSize;
+
+    private final CipherPool pool = new CipherPool(CipherPool.DEFAULT_CAPACITY);
+    private FrameCipher encryptThenMac, gcm;
+    private Frame forgedEtm, forgedGcm;
+    private byte[] clearText;
+
+    @Setup
+    public void setup() throws Exception {
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        final Key macKey = KeyGenerator.getInstance(macAlgorithm).generateKey();
+        encryptThenMac = new FrameCipher(Fixtures.algorithm("ALG4")[1], key, macAlgorithm, macKey, pool);
+        gcm = new FrameCipher(Fixtures.algorithm("ALG6")[1], key, pool);
+        clearText = Fixtures.payload(payloadSize);
+        forgedEtm = forge(encryptThenMac.seal(clearText));
+        forgedGcm = forge(gcm.seal(clearText));
+    }
+
+    @Benchmark
+    public byte[] encryptThenMac(ByteCounter counter) throws Exception {
+        counter.bytes += payloadSize;
+        return encryptThenMac.open(encryptThenMac.seal(clearText));
+    }
+
+    @Benchmark
+    public byte[] gcm(ByteCounter counter) throws Exception {
+        counter.bytes += payloadSize;
+        return gcm.open(gcm.seal(clearText));
+    }
+
+    @Benchmark
+    public boolean forgedEncryptThenMac() throws Exception {
+        return rejects(encryptThenMac, forgedEtm);
+    }
+
+    @Benchmark
+    public boolean forgedGcm() throws Exception {
+        return rejects(gcm, forgedGcm);
+    }
+
+    private static boolean rejects(FrameCipher cipher, Frame frame) throws Exception {
+        try {
+            cipher.open(frame);
+            return false;
+        } catch (AEADBadTagException e) {
+            return true;
+        }
+    }
+
+    private static Frame forge(Frame frame) {
+        final byte[] cipherText = frame.getBytes(FrameField.CIPHERTEXT);
+        cipherText[0] ^= 1;
+        return frame.put(FrameField.CIPHERTEXT, cipherText);
+    }
+}
@@ -0,0 +1,84 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.attack.OffHeapLongSet;
+import isp.secrecy.channel.TextCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counting repeated AES/ECB cipher text blocks, as the leakage analyzer does: a HashSet of hex
+ * Strings compared to the {@link OffHeapLongSet} of 64 bit fingerprints. The clear text repeats
+ * every 4 KB, so most blocks are repeats. The bytes counter reports cipher text bytes/us, i.e. MB/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LeakageBenchmark {
+    private static final int BLOCK_SIZE = 16;
+
+    @Param({"1048576"})
+    public int payloadSize;
+
+    private byte[] cipherText;
+    private OffHeapLongSet set;
+
+    @Setup
+    public void setup() throws Exception {
+        final byte[] pattern = Fixtures.payload(4096);
+        final byte[] clearText = new byte[payloadSize];
+        for (int i = 0; i < payloadSize; i += pattern.length) {
+            System.arraycopy(pattern, 0, clearText, i, Math.min(pattern.length, payloadSize - i));
+        }
+        final Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, KeyGenerator.getInstance("AES").generateKey());
+        cipherText = cipher.doFinal(clearText);
+        set = new OffHeapLongSet(OffHeapLongSet.capacityFor(2L * payloadSize / BLOCK_SIZE * 8));
+    }
+
+    @Benchmark
+    public int hexHashSet(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        final Set<String> blocks = new HashSet<>();
+        int repeated = 0;
+        for (int i = 0; i < payloadSize; i += BLOCK_SIZE) {
+            if (!blocks.add(TextCodec.HEX.encode(cipherText, i, BLOCK_SIZE))) {
+                repeated++;
+            }
+        }
+        return repeated;
+    }
+
+    @Benchmark
+    public int offHeapSet(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        set.clear();
+        final ByteBuffer blocks = ByteBuffer.wrap(cipherText);
+        int repeated = 0;
+        for (int i = 0; i < payloadSize; i += BLOCK_SIZE) {
+            final long fingerprint = blocks.getLong(i) * 0x9e3779b97f4a7c15L ^ blocks.getLong(i + 8);
+            if (!set.add(fingerprint)) {
+                repeated++;
+            }
+        }
+        return repeated;
+    }
+}
@@ -0,0 +1,114 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.crypto.FrameCipher;
+import isp.secrecy.net.Connection;
+import isp.secrecy.net.NetChannel;
+import isp.secrecy.net.NioTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import javax.crypto.KeyGenerator;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypted round trips over loopback TCP with {@link NioTransport}, per number of connections.
+ * <p/>
+ * Every benchmark thread is an agent with its own channel id; threads are spread round-robin over
+ * the client connections, so with fewer connections than threads several agents share a socket.
+ * An echo thread per channel on the server side sends every frame back unchanged; the client
+ * seals the message with AES/GCM and opens the echo. Throughput mode reports aggregate round trips
+ * per microsecond, sample mode the latency percentiles. Scale the number of agents with -t.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class NetworkBenchmark {
+
+    @Param({"1", "2", "4"})
+    public int connections;
+
+    @Param({"128"})
+    public int payloadSize;
+
+    NioTransport server, client;
+    final List<Connection> clientSide = new ArrayList<>();
+    private final List<Thread> echoes = new ArrayList<>();
+
+    @Setup
+    public void setup(BenchmarkParams params) throws Exception {
+        server = new NioTransport();
+        client = new NioTransport();
+        final InetSocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        for (int c = 0; c < connections; c++) {
+            clientSide.add(client.connect(address));
+            final Connection serverSide = server.accept();
+            for (int id = 0; id < params.getThreads(); id++) {
+                final NetChannel channel = serverSide.channel(id);
+                final Thread echo = new Thread(() -> {
+                    try {
+                        for (; ; ) {
+                            channel.send(channel.receive());
+                        }
+                    } catch (IOException | InterruptedException e) {
+                        // benchmark is over
+                    }
+                }, "echo-" + c + "-" + id);
+                echo.setDaemon(true);
+                echo.start();
+                echoes.add(echo);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Agent {
+        NetChannel channel;
+        FrameCipher cipher;
+        byte[] clearText;
+
+        @Setup
+        public void setup(NetworkBenchmark benchmark, ThreadParams thread) throws Exception {
+            final int id = thread.getThreadIndex();
+            channel = benchmark.clientSide.get(id % benchmark.connections).channel(id);
+            cipher = new FrameCipher(Fixtures.algorithm("ALG6")[1], KeyGenerator.getInstance("AES").generateKey());
+            clearText = Fixtures.payload(benchmark.payloadSize);
+        }
+    }
+
+    @Benchmark
+    public byte[] roundTrip(Agent agent) throws Exception {
+        agent.channel.send(agent.cipher.seal(agent.clearText).encode());
+        final ByteBuffer echo = agent.channel.receive();
+        return agent.cipher.open(Frame.decode(echo));
+    }
+}
@@ -0,0 +1,128 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.Agent;
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.channel.QueueChannel;
+import isp.secrecy.channel.SpscRingBuffer;
+import isp.secrecy.channel.WaitStrategy;
+import isp.secrecy.crypto.CipherPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agent round trip over LinkedBlockingQueue compared to {@link SpscRingBuffer} with each wait strategy.
+ * <p/>
+ * Alice (the benchmark thread) encrypts a message with AES/GCM and sends it as a frame,
+ * Bob decrypts it and replies with an empty frame. With crypto=false the frames are passed
+ * without encryption, which isolates the cost of the hand-off itself.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueueRoundTripBenchmark {
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    @Param({"linked", "spin", "yield", "park"})
+    public String queue;
+
+    @Param({"true", "false"})
+    public boolean crypto;
+
+    @Param({"32"})
+    public int payloadSize;
+
+    private Key key;
+    private byte[] clearText;
+    private QueueChannel alice2bob, bob2alice;
+    private Agent bob;
+
+    @Setup
+    public void setup() throws Exception {
+        key = KeyGenerator.getInstance("AES").generateKey();
+        clearText = Fixtures.payload(payloadSize);
+        alice2bob = new QueueChannel(queue());
+        bob2alice = new QueueChannel(queue());
+
+        bob = new Agent(bob2alice, alice2bob, key, TRANSFORMATION, null, null) {
+            @Override
+            public void run() {
+                final ByteBuffer ack = new Frame().encode();
+                try {
+                    while (!isInterrupted()) {
+                        final Frame frame = receive();
+                        if (crypto) {
+                            cipher(Cipher.DECRYPT_MODE, frame).doFinal(frame.getBytes(FrameField.CIPHERTEXT));
+                        }
+                        outgoingChannel.send(ack.duplicate());
+                    }
+                } catch (InterruptedException e) {
+                    // benchmark is over
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+
+            private Cipher cipher(int mode, Frame frame) throws Exception {
+                return CipherPool.shared().cipher(cryptoAlgorithm, mode, cryptoKey,
+                        new GCMParameterSpec(128, frame.getBytes(FrameField.IV)));
+            }
+        };
+        bob.setDaemon(true);
+        bob.start();
+    }
+
+    private BlockingQueue<ByteBuffer> queue() {
+        switch (queue) {
+            case "spin":
+                return new SpscRingBuffer<>(1024, WaitStrategy.SPIN);
+            case "yield":
+                return new SpscRingBuffer<>(1024, WaitStrategy.YIELD);
+            case "park":
+                return new SpscRingBuffer<>(1024, WaitStrategy.PARK);
+            default:
+                return new LinkedBlockingQueue<>();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        bob.interrupt();
+        bob.join();
+    }
+
+    @Benchmark
+    public ByteBuffer roundTrip() throws Exception {
+        final Frame frame = new Frame();
+        if (crypto) {
+            final Cipher cipher = CipherPool.shared().cipher(TRANSFORMATION, Cipher.ENCRYPT_MODE, key);
+            frame.put(FrameField.IV, cipher.getIV()).put(FrameField.CIPHERTEXT, cipher.doFinal(clearText));
+        } else {
+            frame.put(FrameField.CIPHERTEXT, clearText);
+        }
+        alice2bob.send(frame.encode());
+        return bob2alice.receive();
+    }
+}
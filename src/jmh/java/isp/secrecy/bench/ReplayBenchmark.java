@@ -0,0 +1,91 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.crypto.CipherPool;
+import isp.secrecy.crypto.FrameCipher;
+import isp.secrecy.crypto.ReplayWindow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of sequence numbers: the {@link ReplayWindow} alone, with messages in order and slightly
+ * reordered, and a whole seal and open through the ByteBuffer API with random IVs (window 0) compared
+ * to counter IVs and a replay window.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReplayBenchmark {
+
+    @Param({"ALG4", "ALG6"})
+    public String algorithm;
+
+    @Param({"0", "1024"})
+    public int replayWindow;
+
+    private static final int JITTER = 1 << 12;
+
+    private ReplayWindow window;
+    private long sequence;
+    private final long[] jitter = new long[JITTER];
+
+    private FrameCipher alice, bob;
+    private ByteBuffer message, frame, received;
+
+    @Setup
+    public void setup() throws Exception {
+        window = new ReplayWindow(ReplayWindow.DEFAULT_SIZE);
+        final Random random = new Random(1);
+        for (int i = 0; i < JITTER; i++) {
+            jitter[i] = random.nextInt(64);
+        }
+
+        final String[] alg = Fixtures.algorithm(algorithm);
+        final Key key = KeyGenerator.getInstance(alg[0]).generateKey();
+        alice = new FrameCipher(alg[1], key, null, null, new CipherPool(CipherPool.DEFAULT_CAPACITY), replayWindow);
+        bob = new FrameCipher(alg[1], key, null, null, new CipherPool(CipherPool.DEFAULT_CAPACITY), replayWindow);
+        message = ByteBuffer.wrap(Fixtures.payload(64));
+        frame = ByteBuffer.allocate(alice.sealedSize(64));
+        received = ByteBuffer.allocate(alice.sealedSize(64));
+    }
+
+    @Benchmark
+    public boolean windowInOrder() {
+        return window.update(sequence++);
+    }
+
+    @Benchmark
+    public boolean windowReordered() {
+        // up to 63 behind the next number, so some are duplicates
+        final long next = sequence++;
+        return window.update(Math.max(0, next - jitter[(int) next & (JITTER - 1)]));
+    }
+
+    @Benchmark
+    public ByteBuffer sealAndOpen() throws Exception {
+        message.rewind();
+        frame.clear();
+        alice.seal(message, frame);
+        frame.flip();
+        received.clear();
+        bob.open(frame, received);
+        return received;
+    }
+}
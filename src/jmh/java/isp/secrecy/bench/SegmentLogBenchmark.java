@@ -0,0 +1,89 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.crypto.FrameCipher;
+import isp.secrecy.log.SegmentLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.KeyGenerator;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Persisting encrypted frames: appending to a memory-mapped {@link SegmentLog}, compared to one
+ * FileChannel.write system call per frame.
+ * <p/>
+ * Frames are sealed with AES/GCM once in setup, so only the storage cost is measured. The log is
+ * truncated between iterations to bound disk usage. The bytes counter reports bytes/us, i.e. MB/s.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SegmentLogBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private Path directory;
+    private SegmentLog log;
+    private FileChannel file;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setup() throws Exception {
+        final FrameCipher cipher = new FrameCipher(Fixtures.algorithm("ALG6")[1],
+                KeyGenerator.getInstance("AES").generateKey());
+        frame = cipher.seal(Fixtures.payload(payloadSize)).encode();
+        directory = Files.createTempDirectory("segment-log-benchmark");
+        log = new SegmentLog(directory.resolve("log"), SegmentLog.DEFAULT_SEGMENT_SIZE);
+        file = FileChannel.open(directory.resolve("frames"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void truncate() throws IOException {
+        log.deleteBefore(log.endOffset());
+        file.truncate(0);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        file.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long mappedAppend(ByteCounter counter) throws IOException {
+        counter.bytes += frame.remaining();
+        return log.append(frame);
+    }
+
+    @Benchmark
+    public int fileChannelWrite(ByteCounter counter) throws IOException {
+        counter.bytes += frame.remaining();
+        return file.write(frame.duplicate());
+    }
+}
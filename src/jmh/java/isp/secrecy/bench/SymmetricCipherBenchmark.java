@@ -0,0 +1,79 @@
+package isp.secrecy.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import java.security.AlgorithmParameters;
+import java.security.Key;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encryption and decryption of a single message with every ALGn transformation from
+ * {@link isp.secrecy.SymmetricCipherExample}, across payload sizes from 32 B to 16 MB.
+ * <p/>
+ * Each operation initializes the cipher and calls doFinal once, which is what the examples
+ * do per message. Throughput mode gives messages/s (and bytes/s via {@link ByteCounter}),
+ * sample mode gives the per-message latency distribution.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SymmetricCipherBenchmark {
+
+    @Param({"ALG1", "ALG2", "ALG3", "ALG4", "ALG5", "ALG6"})
+    public String algorithm;
+
+    @Param({"32", "1024", "16384", "1048576", "16777216"})
+    public int payloadSize;
+
+    private Key key;
+    private byte[] clearText, cipherText;
+    private AlgorithmParameters parameters;
+    private Cipher encryption, decryption;
+
+    @Setup
+    public void setup() throws Exception {
+        final String[] alg = Fixtures.algorithm(algorithm);
+        key = KeyGenerator.getInstance(alg[0]).generateKey();
+        clearText = Fixtures.payload(payloadSize);
+
+        encryption = Cipher.getInstance(alg[1]);
+        decryption = Cipher.getInstance(alg[1]);
+
+        encryption.init(Cipher.ENCRYPT_MODE, key);
+        parameters = encryption.getParameters();
+        cipherText = encryption.doFinal(clearText);
+    }
+
+    @Benchmark
+    public byte[] encrypt(ByteCounter counter) throws Exception {
+        encryption.init(Cipher.ENCRYPT_MODE, key);
+        counter.bytes += clearText.length;
+        return encryption.doFinal(clearText);
+    }
+
+    @Benchmark
+    public byte[] decrypt(ByteCounter counter) throws Exception {
+        if (parameters == null) {
+            decryption.init(Cipher.DECRYPT_MODE, key);
+        } else {
+            decryption.init(Cipher.DECRYPT_MODE, key, parameters);
+        }
+        counter.bytes += cipherText.length;
+        return decryption.doFinal(cipherText);
+    }
+}
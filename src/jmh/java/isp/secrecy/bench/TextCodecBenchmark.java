@@ -0,0 +1,122 @@
+package isp.secrecy.bench;
+
+import isp.secrecy.channel.TextCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.bind.DatatypeConverter;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary-to-text encoding as done on the string channels: {@link TextCodec} compared to
+ * DatatypeConverter (hex) and java.util.Base64.
+ * <p/>
+ * The String benchmarks produce and consume Strings as the channels do; the array benchmarks
+ * encode into and decode out of reusable arrays. Run with -prof gc to compare allocation. The
+ * bytes counter reports binary bytes/us, i.e. MB/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TextCodecBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private byte[] bytes, hexAscii, base64Ascii, decoded;
+    private String hex, base64;
+
+    @Setup
+    public void setup() {
+        bytes = Fixtures.payload(payloadSize);
+        hex = TextCodec.HEX.encode(bytes);
+        base64 = TextCodec.BASE64.encode(bytes);
+        hexAscii = new byte[TextCodec.HEX.encodedLength(payloadSize)];
+        base64Ascii = new byte[TextCodec.BASE64.encodedLength(payloadSize)];
+        decoded = new byte[payloadSize];
+    }
+
+    @Benchmark
+    public String encodeHexDatatypeConverter(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return DatatypeConverter.printHexBinary(bytes);
+    }
+
+    @Benchmark
+    public String encodeHex(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return TextCodec.HEX.encode(bytes);
+    }
+
+    @Benchmark
+    public byte[] encodeHexIntoArray(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        TextCodec.HEX.encode(bytes, 0, payloadSize, hexAscii, 0);
+        return hexAscii;
+    }
+
+    @Benchmark
+    public byte[] decodeHexDatatypeConverter(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return DatatypeConverter.parseHexBinary(hex);
+    }
+
+    @Benchmark
+    public byte[] decodeHexIntoArray(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        TextCodec.HEX.decode(hex, 0, hex.length(), decoded, 0);
+        return decoded;
+    }
+
+    @Benchmark
+    public String encodeBase64Jdk(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    @Benchmark
+    public String encodeBase64(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return TextCodec.BASE64.encode(bytes);
+    }
+
+    @Benchmark
+    public byte[] encodeBase64JdkIntoArray(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        Base64.getEncoder().encode(bytes, base64Ascii);
+        return base64Ascii;
+    }
+
+    @Benchmark
+    public byte[] encodeBase64IntoArray(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        TextCodec.BASE64.encode(bytes, 0, payloadSize, base64Ascii, 0);
+        return base64Ascii;
+    }
+
+    @Benchmark
+    public byte[] decodeBase64Jdk(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        return Base64.getDecoder().decode(base64);
+    }
+
+    @Benchmark
+    public byte[] decodeBase64IntoArray(ByteCounter counter) {
+        counter.bytes += payloadSize;
+        TextCodec.BASE64.decode(base64, 0, base64.length(), decoded, 0);
+        return decoded;
+    }
+}
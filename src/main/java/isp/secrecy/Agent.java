@@ -8,7 +8,24 @@ package isp.secrecy; /**
  * @version 1
  */
 
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameChannel;
+import isp.secrecy.channel.StringQueueChannel;
+import isp.secrecy.compress.Compression;
+import isp.secrecy.crypto.Calibration;
+import isp.secrecy.crypto.CipherPool;
+import isp.secrecy.crypto.CipherSuite;
+import isp.secrecy.crypto.FrameCipher;
+import isp.secrecy.crypto.Negotiation;
+import isp.secrecy.crypto.ReplayWindow;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import java.io.IOException;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 /**
@@ -17,20 +34,155 @@ import java.util.concurrent.BlockingQueue;
  * <p/>
  * Agent's behavior is implemented by extending Agents class and
  * overriding run(...) method.
+ * <p/>
+ * Agents either exchange strings over blocking queues (outgoing, incoming) or
+ * binary frames over frame channels (outgoingChannel, incomingChannel). Agents
+ * created with string queues can use both, frames are then sent hex encoded over
+ * the same queues. Agents created with frame channels have no string queues.
  */
 public abstract class Agent extends Thread {
     protected final BlockingQueue<String> outgoing, incoming;
+    protected final FrameChannel outgoingChannel, incomingChannel;
 
     protected final Key macKey, cryptoKey;
     protected final String cryptoAlgorithm, macAlgorithm;
 
+    private FrameCipher frameCipher;
+
     public Agent(final BlockingQueue<String> outgoing, final BlockingQueue<String> incoming, final Key cryptoKey,
                  final String cryptoAlgorithm, final Key macKey, final String macAlgorithm) {
+        this(outgoing, incoming, outgoing == null ? null : new StringQueueChannel(outgoing),
+                incoming == null ? null : new StringQueueChannel(incoming),
+                cryptoKey, cryptoAlgorithm, macKey, macAlgorithm);
+    }
+
+    public Agent(final FrameChannel outgoing, final FrameChannel incoming, final Key cryptoKey,
+                 final String cryptoAlgorithm, final Key macKey, final String macAlgorithm) {
+        this(null, null, outgoing, incoming, cryptoKey, cryptoAlgorithm, macKey, macAlgorithm);
+    }
+
+    private Agent(final BlockingQueue<String> outgoing, final BlockingQueue<String> incoming,
+                  final FrameChannel outgoingChannel, final FrameChannel incomingChannel, final Key cryptoKey,
+                  final String cryptoAlgorithm, final Key macKey, final String macAlgorithm) {
         this.outgoing = outgoing;
         this.incoming = incoming;
+        this.outgoingChannel = outgoingChannel;
+        this.incomingChannel = incomingChannel;
         this.cryptoKey = cryptoKey;
         this.cryptoAlgorithm = cryptoAlgorithm;
         this.macKey = macKey;
         this.macAlgorithm = macAlgorithm;
     }
+
+    /**
+     * Encodes the frame and sends it over the outgoing channel.
+     */
+    protected void send(final Frame frame) throws IOException, InterruptedException {
+        outgoingChannel.send(frame.encode());
+    }
+
+    /**
+     * Waits for the next frame on the incoming channel.
+     */
+    protected Frame receive() throws IOException, InterruptedException {
+        return Frame.decode(incomingChannel.receive());
+    }
+
+    /**
+     * Returns a cipher for the agent's crypto algorithm and key, initialized in given mode.
+     * Instances are reused through {@link CipherPool#shared()}; when encrypting, a fresh IV
+     * is generated on every call.
+     */
+    protected Cipher cipher(final int mode) throws GeneralSecurityException {
+        return CipherPool.shared().cipher(cryptoAlgorithm, mode, cryptoKey);
+    }
+
+    /**
+     * Returns a cipher for the agent's crypto algorithm and key, initialized in given mode
+     * with given parameters.
+     */
+    protected Cipher cipher(final int mode, final AlgorithmParameters parameters) throws GeneralSecurityException {
+        return CipherPool.shared().cipher(cryptoAlgorithm, mode, cryptoKey, parameters);
+    }
+
+    /**
+     * Returns a MAC for the agent's MAC algorithm and key.
+     */
+    protected Mac mac() throws GeneralSecurityException {
+        return CipherPool.shared().mac(macAlgorithm, macKey);
+    }
+
+    /**
+     * Encrypts a batch of messages with a single cipher initialization and sends it as one frame.
+     * Returns as soon as the frame is handed to the channel, so the receiver can decrypt this
+     * batch while the next one is being prepared.
+     */
+    protected void sendAll(final List<byte[]> messages)
+            throws IOException, InterruptedException, GeneralSecurityException {
+        send(frameCipher().sealBatch(messages));
+    }
+
+    /**
+     * Waits for the next batch sent with {@link #sendAll(List)}, decrypts it and adds its messages to the sink.
+     *
+     * @return number of messages added
+     */
+    protected int drainTo(final List<byte[]> sink) throws IOException, InterruptedException, GeneralSecurityException {
+        return frameCipher().openBatch(receive(), sink);
+    }
+
+    /**
+     * @return frame cipher for the agent's crypto algorithm and key; if the agent has a MAC
+     * algorithm, frames are also authenticated with encrypt-then-MAC. Frames carry sequence numbers,
+     * replayed ones are rejected, see {@link ReplayWindow}; each agent seals with keys of its own,
+     * derived from the shared ones, and rejects its own frames. Clear texts are compressed with
+     * {@link #compression()}.
+     */
+    protected FrameCipher frameCipher() {
+        if (frameCipher == null) {
+            frameCipher = new FrameCipher(cryptoAlgorithm, cryptoKey, macAlgorithm, macKey, CipherPool.shared(),
+                    ReplayWindow.DEFAULT_SIZE, compression());
+        }
+        return frameCipher;
+    }
+
+    /**
+     * Override to compress messages before they are encrypted, e.g. with
+     * new Compression(Codec.DEFLATE). Frames from peers are opened either way.
+     *
+     * @return compression of outgoing messages or null, by default, if they are not compressed
+     */
+    protected Compression compression() {
+        return null;
+    }
+
+    /**
+     * Agrees with the peer on the fastest cipher suite both support for messages of given size and
+     * derives its keys from the shared secret, separate ones per direction; {@link #frameCipher()} then
+     * uses the negotiated suite instead of the agent's crypto algorithm and keys. Exactly one of the two
+     * agents is the initiator.
+     * The first call calibrates the suites, which takes about a second.
+     *
+     * @see Negotiation
+     */
+    protected CipherSuite negotiate(final Key secret, final int messageSize, final boolean initiator)
+            throws IOException, InterruptedException, GeneralSecurityException {
+        final Calibration calibration = Calibration.shared(messageSize);
+        final Frame offer, answer;
+        final CipherSuite suite;
+        if (initiator) {
+            offer = Negotiation.offer(calibration);
+            send(offer);
+            answer = receive();
+            suite = Negotiation.accept(offer, answer);
+        } else {
+            offer = receive();
+            suite = Negotiation.choose(offer, calibration);
+            answer = Negotiation.answer(suite);
+            send(answer);
+        }
+        frameCipher = suite.frameCipher(secret, Negotiation.transcript(offer, answer), initiator,
+                CipherPool.shared(), ReplayWindow.DEFAULT_SIZE, compression());
+        return suite;
+    }
 }
@@ -17,6 +17,9 @@ import java.util.logging.Logger;
  * Both agents are started at the end of the main method definition below.
  * <p/>
  * Task:Study example.
+ * <p/>
+ * {@link isp.secrecy.load.LoadGenerator} runs this exchange, and its encrypted variants, under
+ * sustained load.
  *
  * @author Iztok Starc <iztok.starc@fri.uni-lj.si>
  * @version 1
@@ -52,8 +55,10 @@ public class AgentCommunication {
                      */
                     final String message = "I love you Bob. Kisses, Alice.";
                     outgoing.put(message);
-                    LOG.info("[Alice]: Sending to Bob: " + message);
+                    LOG.log(Level.INFO, "[Alice]: Sending to Bob: {0}", message);
                 } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.log(Level.WARNING, "[Alice]: Interrupted before sending", e);
                 }
             }
         };
@@ -78,8 +83,10 @@ public class AgentCommunication {
                      * This action is recorded in Bob's log.
                      */
                     final String message = incoming.take();
-                    LOG.log(Level.INFO, "[Bob]: I have received: " + message);
-                } catch (Exception ex) {
+                    LOG.log(Level.INFO, "[Bob]: I have received: {0}", message);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.log(Level.WARNING, "[Bob]: Interrupted while waiting for a message", e);
                 }
             }
         };
@@ -1,12 +1,14 @@
 package isp.secrecy;
 
+import isp.secrecy.channel.TextCodec;
+import isp.secrecy.crypto.KeyManager;
+
 import javax.crypto.Cipher;
-import javax.xml.bind.DatatypeConverter;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * I0->I1->A1->B1->A2->B2->A3->B3->A4->[B4]
@@ -43,15 +45,20 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 
 public class AgentCommunicationAsymmetricCipher {
+    private final static Logger LOG = Logger.getLogger(AgentCommunicationAsymmetricCipher.class.getCanonicalName());
 
-    public static void main(String[] args) throws NoSuchAlgorithmException {
+    public static void main(String[] args) {
         final String encryptionAlg = "RSA";
 
         /**
          * STEP 1.
          * Bob creates his key pair and public and private key. Alice receives Bob's public key securely.
+         * The key manager generates RSA key pairs on a background thread.
          */
-        final KeyPair bobKP = KeyPairGenerator.getInstance(encryptionAlg).generateKeyPair();
+        final KeyPair bobKP;
+        try (KeyManager keys = new KeyManager()) {
+            bobKP = keys.keyPair();
+        }
 
         /**
          * STEP 2.
@@ -78,14 +85,16 @@ public class AgentCommunicationAsymmetricCipher {
 
 
 
-                    final Cipher encryptionCipher = Cipher.getInstance(this.cryptoAlgorithm);
-                    encryptionCipher.init(Cipher.ENCRYPT_MODE, this.cryptoKey);
+                    final Cipher encryptionCipher = cipher(Cipher.ENCRYPT_MODE);
                     final byte[] cipherText = encryptionCipher.doFinal(clearTextHEX);
 
 
 
-                    System.out.println("[Alice] Cipher text in HEX:\n" + DatatypeConverter.printHexBinary(cipherText));
-                    outgoing.put(DatatypeConverter.printHexBinary(cipherText));
+                    final String cipherTextHEX = TextCodec.HEX.encode(cipherText);
+                    if (LOG.isLoggable(Level.INFO)) {
+                        LOG.info("[Alice] Cipher text in HEX:\n" + cipherTextHEX);
+                    }
+                    outgoing.put(cipherTextHEX);
 
                 } catch (Exception ex) {
                     ex.printStackTrace();
@@ -106,19 +115,22 @@ public class AgentCommunicationAsymmetricCipher {
                 try {
                     // STEP 4.1: Bob receives the message
                     final String cipherTextHEX = incoming.take();
-                    final byte[] cipherText = DatatypeConverter.parseHexBinary(cipherTextHEX);
+                    final byte[] cipherText = TextCodec.HEX.decode(cipherTextHEX);
                     System.out.println("Size: " + cipherTextHEX.length());
 
-                    System.out.println("[Bob]: Received " + cipherTextHEX);
+                    if (LOG.isLoggable(Level.INFO)) {
+                        LOG.info("[Bob]: Received " + cipherTextHEX);
+                    }
 
 
 
-                    final Cipher decryptionCipher = Cipher.getInstance(this.cryptoAlgorithm);
-                    decryptionCipher.init(Cipher.DECRYPT_MODE, this.cryptoKey);
+                    final Cipher decryptionCipher = cipher(Cipher.DECRYPT_MODE);
                     final byte[] decryptedText = decryptionCipher.doFinal(cipherText);
 
 
-                    System.out.println("Decrypted text in HEX:\n" + DatatypeConverter.printHexBinary(decryptedText));
+                    if (LOG.isLoggable(Level.INFO)) {
+                        LOG.info("Decrypted text in HEX:\n" + TextCodec.HEX.encode(decryptedText));
+                    }
                     final String decryptedTextAsString = new String(decryptedText, "UTF-8");
                     System.out.println("Decrypted text:\n" + decryptedTextAsString);
                 } catch (Exception ex) {
@@ -0,0 +1,95 @@
+package isp.secrecy;
+
+import isp.secrecy.channel.TextCodec;
+import isp.secrecy.crypto.DecryptionPool;
+import isp.secrecy.crypto.KeyManager;
+
+import javax.crypto.Cipher;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * I0->I1->A1->B1->A2->B2->A3->B3->A4->B4->[B4']
+ * <p/>
+ * EXERCISE B4': {@link AgentCommunicationAsymmetricCipher} with several senders.
+ * <p/>
+ * Alice, Carol and Dave send messages encrypted with Bob's public key (RSA with OAEP) over the
+ * same queue. Private key operations are slow, so Bob hands the cipher texts to a
+ * {@link DecryptionPool}, which decrypts them on all cores and gives them back in the order they
+ * arrived.
+ * <p/>
+ * EXERCISE:
+ * - Change the number of workers to 1 and compare the time Bob needs.
+ *
+ * @version 1
+ */
+public class AgentCommunicationDecryptionPool {
+    static final int MESSAGES = 100;
+
+    public static void main(String[] args) throws Exception {
+        final KeyPair bobKP;
+        try (KeyManager keys = new KeyManager()) {
+            bobKP = keys.keyPair();
+        }
+
+        final String[] senders = {"Alice", "Carol", "Dave"};
+        final BlockingQueue<String> toBob = new LinkedBlockingQueue<>();
+
+        for (String name : senders) {
+            new Agent(toBob, null, bobKP.getPublic(), DecryptionPool.OAEP, null, null) {
+                @Override
+                public void run() {
+                    try {
+                        final Cipher cipher = Cipher.getInstance(DecryptionPool.OAEP);
+                        cipher.init(Cipher.ENCRYPT_MODE, cryptoKey, DecryptionPool.OAEP_SHA256);
+                        for (int i = 0; i < MESSAGES; i++) {
+                            final byte[] clearText = (name + " #" + i).getBytes(StandardCharsets.UTF_8);
+                            outgoing.put(TextCodec.HEX.encode(cipher.doFinal(clearText)));
+                        }
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        System.err.println("[" + name + "] Exception: " + ex.getMessage());
+                    }
+                }
+            }.start();
+        }
+
+        final Agent bob = new Agent(null, toBob, bobKP.getPrivate(), DecryptionPool.OAEP, null, null) {
+            @Override
+            public void run() {
+                final int workers = Runtime.getRuntime().availableProcessors();
+                try (DecryptionPool pool = new DecryptionPool(cryptoAlgorithm, DecryptionPool.OAEP_SHA256,
+                        (PrivateKey) cryptoKey, workers, 64)) {
+                    final Thread receiver = new Thread(() -> {
+                        try {
+                            for (int i = 0; i < MESSAGES * senders.length; i++) {
+                                pool.submit(TextCodec.HEX.decode(incoming.take()));
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }, "bob-receiver");
+                    receiver.start();
+
+                    final long start = System.nanoTime();
+                    for (int i = 0; i < MESSAGES * senders.length; i++) {
+                        final String message = new String(pool.take(), StandardCharsets.UTF_8);
+                        if (i % MESSAGES == 0) {
+                            System.out.println("[Bob] Decrypted: " + message);
+                        }
+                    }
+                    System.out.printf("[Bob] Decrypted %d messages with %d workers in %d ms%n",
+                            MESSAGES * senders.length, workers, (System.nanoTime() - start) / 1_000_000);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    System.err.println("[Bob] Exception: " + ex.getMessage());
+                }
+            }
+        };
+        bob.start();
+        bob.join();
+    }
+}
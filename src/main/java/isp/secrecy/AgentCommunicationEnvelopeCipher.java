@@ -0,0 +1,106 @@
+package isp.secrecy;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.QueueChannel;
+import isp.secrecy.crypto.EnvelopeReceiver;
+import isp.secrecy.crypto.EnvelopeSender;
+import isp.secrecy.crypto.KeyManager;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * I0->I1->A1->B1->A2->B2->A3->B3->A4->B4->[B4']
+ * <p/>
+ * EXERCISE B4': A variant of {@link AgentCommunicationAsymmetricCipher} using hybrid (envelope) encryption.
+ * <p/>
+ * Alice creates a random AES session key, encrypts (wraps) it with Bob's public key and sends it to Bob
+ * with her first message. All messages are encrypted with AES in GCM mode under the session key.
+ * Bob unwraps the session key once and keeps it for the remaining messages of the session.
+ * <p/>
+ * Compared to encrypting every message with RSA:
+ * - messages are not limited to the size of the RSA modulus,
+ * - the expensive private key operation runs once per session instead of once per message,
+ * - messages are authenticated, since GCM is an authenticated encryption mode.
+ * <p/>
+ * EXERCISE:
+ * - Study this example.
+ * - Observe which frames carry the wrapped key.
+ * - Why is the key wrapped with OAEP padding instead of textbook RSA?
+ *
+ * @version 1
+ */
+public class AgentCommunicationEnvelopeCipher {
+
+    public static void main(String[] args) {
+        /**
+         * STEP 1.
+         * Bob takes his key pair from a key manager, which generates them on a background thread.
+         * Alice receives Bob's public key securely.
+         */
+        final KeyPair bobKP;
+        try (KeyManager keys = new KeyManager()) {
+            bobKP = keys.keyPair();
+        }
+
+        /**
+         * STEP 2.
+         * Setup an insecure communication channel.
+         */
+        final QueueChannel alice2bob = new QueueChannel();
+        final QueueChannel bob2alice = new QueueChannel();
+
+        final String[] messages = {
+                "I love you Bob. Kisses, Alice.",
+                "Did you get my last message?",
+                "Call me when you read this."
+        };
+
+        /**
+         * STEP 3.
+         * Alice seals every message with the session key; the first one also carries the wrapped key.
+         */
+        final Agent alice = new Agent(alice2bob, bob2alice, bobKP.getPublic(), EnvelopeSender.WRAP_ALGORITHM,
+                null, null) {
+            @Override
+            public void run() {
+                try {
+                    final EnvelopeSender sender = new EnvelopeSender((PublicKey) this.cryptoKey);
+                    for (String message : messages) {
+                        final Frame frame = sender.seal(message.getBytes("UTF-8"));
+                        send(frame);
+                        System.out.println("[Alice] Sent " + frame.encodedLength() + " bytes: " + message);
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    System.err.println("[Alice] Exception: " + ex.getMessage());
+                }
+            }
+        };
+
+        /**
+         * STEP 4.
+         * Bob unwraps the session key from the first message and decrypts all of them.
+         */
+        final Agent bob = new Agent(bob2alice, alice2bob, bobKP.getPrivate(), EnvelopeSender.WRAP_ALGORITHM,
+                null, null) {
+            @Override
+            public void run() {
+                try {
+                    final EnvelopeReceiver receiver = new EnvelopeReceiver((PrivateKey) this.cryptoKey);
+                    for (int i = 0; i < messages.length; i++) {
+                        final byte[] decryptedText = receiver.open(receive());
+                        System.out.println("[Bob] Decrypted text: " + new String(decryptedText, "UTF-8"));
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    System.out.println("[Bob]: Exception: " + ex.getLocalizedMessage());
+                }
+            }
+        };
+
+        alice.start();
+        bob.start();
+    }
+}
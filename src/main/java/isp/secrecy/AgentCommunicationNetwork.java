@@ -0,0 +1,114 @@
+package isp.secrecy;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.net.Connection;
+import isp.secrecy.net.NetChannel;
+import isp.secrecy.net.NioTransport;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+
+/**
+ * I0->I1->A1->B1->A2->B2->A3->B3->A4->B4->A5->B5->[B5']
+ * <p/>
+ * EXERCISE B5': {@link AgentCommunicationSymmetricCipher} with Alice and Bob in separate JVMs.
+ * <p/>
+ * The agents communicate over TCP with {@link NioTransport}. Run Bob first, then Alice:
+ * <pre>
+ *   java isp.secrecy.AgentCommunicationNetwork bob 5000
+ *   java isp.secrecy.AgentCommunicationNetwork alice localhost 5000
+ * </pre>
+ * Without arguments, both run in this JVM and talk over the loopback interface.
+ * <p/>
+ * Alice and Bob may run on different hardware, so they first negotiate the cipher suite that is
+ * fastest on both (see {@link Agent#negotiate}) and derive its keys from a secret. Both derive the
+ * secret from the same passphrase, which is only acceptable in an exercise; see
+ * {@link AgentCommunicationEnvelopeCipher} for how to agree on a key properly.
+ * <p/>
+ * EXERCISE:
+ * - Capture the traffic (e.g. with Wireshark on the loopback interface) and find the IV and
+ * cipher text of each frame.
+ *
+ * @version 1
+ */
+public class AgentCommunicationNetwork {
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    static final int CHANNEL = 1;
+    static final int MESSAGE_SIZE = 64;
+
+    public static void main(String[] args) throws Exception {
+        final byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest("correct horse battery staple".getBytes(StandardCharsets.UTF_8));
+        final Key key = new SecretKeySpec(digest, 0, 16, "AES");
+
+        try (NioTransport transport = new NioTransport()) {
+            if (args.length == 0) {
+                final InetSocketAddress address = transport.listen(
+                        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+                final Agent alice = alice(transport.connect(address).channel(CHANNEL), key);
+                final Agent bob = bob(transport.accept().channel(CHANNEL), key);
+                alice.start();
+                bob.start();
+                alice.join();
+                bob.join();
+            } else if ("bob".equals(args[0])) {
+                transport.listen(new InetSocketAddress(Integer.parseInt(args[1])));
+                System.out.println("[Bob] Waiting for Alice on port " + args[1]);
+                final Agent bob = bob(transport.accept().channel(CHANNEL), key);
+                bob.start();
+                bob.join();
+            } else {
+                final Connection connection = transport.connect(
+                        new InetSocketAddress(args[1], Integer.parseInt(args[2])));
+                final Agent alice = alice(connection.channel(CHANNEL), key);
+                alice.start();
+                alice.join();
+            }
+        }
+    }
+
+    static Agent alice(final NetChannel channel, final Key key) {
+        return new Agent(channel, channel, key, TRANSFORMATION, null, null) {
+            @Override
+            public void run() {
+                try {
+                    System.out.println("[Alice] Negotiated " + negotiate(key, MESSAGE_SIZE, true));
+                    final String message = "I love you Bob. Kisses, Alice.";
+                    System.out.println("[Alice] Message: " + message);
+                    send(frameCipher().seal(message.getBytes(StandardCharsets.UTF_8)));
+
+                    final Frame reply = receive();
+                    System.out.println("[Alice] Bob replied: "
+                            + new String(frameCipher().open(reply), StandardCharsets.UTF_8));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    System.err.println("[Alice] Exception: " + ex.getMessage());
+                }
+            }
+        };
+    }
+
+    static Agent bob(final NetChannel channel, final Key key) {
+        return new Agent(channel, channel, key, TRANSFORMATION, null, null) {
+            @Override
+            public void run() {
+                try {
+                    System.out.println("[Bob] Negotiated " + negotiate(key, MESSAGE_SIZE, false));
+                    final Frame frame = receive();
+                    System.out.println("[Bob] Received " + frame.encodedLength() + " bytes");
+                    final String message = new String(frameCipher().open(frame), StandardCharsets.UTF_8);
+                    System.out.println("[Bob] Decrypted text: " + message);
+
+                    send(frameCipher().seal("Kisses back, Bob.".getBytes(StandardCharsets.UTF_8)));
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    System.err.println("[Bob] Exception: " + ex.getMessage());
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,100 @@
+package isp.secrecy;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+
+import javax.crypto.KeyGenerator;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * I0->I1->A1->B1->A2->B2->A3->B3->A4->B4->A5->B5->[B5'']
+ * <p/>
+ * EXERCISE B5'': Oscar cannot read or forge the frames of {@link AgentCommunicationSymmetricCipher}
+ * once they are authenticated, but he can still record them and send them again.
+ * <p/>
+ * Alice sends three orders to Bob with {@link SymmetricCipherExample#ALG6}. Oscar sits on the queue
+ * between them: he delivers the frames out of order and replays two of them. Every frame carries a
+ * sequence number, authenticated with the message, and Bob rejects the numbers he has already seen
+ * (see {@link isp.secrecy.crypto.ReplayWindow}), so each order is executed once. Alice's IVs are
+ * derived from the same counter, so no IV is ever used twice under the key.
+ * <p/>
+ * EXERCISE:
+ * - Remove the sequence numbers (replay window 0 in {@link Agent#frameCipher()}) and run again.
+ * - Oscar changes the SEQUENCE field of a replayed frame. What happens, and why?
+ *
+ * @version 1
+ */
+public class AgentCommunicationReplay {
+
+    public static void main(String[] args) throws Exception {
+        final Key key = KeyGenerator.getInstance(SymmetricCipherExample.ALG6[0]).generateKey();
+        final BlockingQueue<String> alice2oscar = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> oscar2bob = new LinkedBlockingQueue<>();
+        final String[] orders = {"Pay Oscar 10 EUR", "Buy 1 flower", "Send 1 kiss"};
+
+        final Agent alice = new Agent(alice2oscar, null, key, SymmetricCipherExample.ALG6[1], null, null) {
+            @Override
+            public void run() {
+                try {
+                    for (String order : orders) {
+                        send(frameCipher().seal(order.getBytes(StandardCharsets.UTF_8)));
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                    System.err.println("[Alice] Exception: " + ex.getMessage());
+                }
+            }
+        };
+
+        final Agent oscar = new Agent(oscar2bob, alice2oscar, null, null, null, null) {
+            @Override
+            public void run() {
+                try {
+                    final List<String> recorded = new ArrayList<>();
+                    for (int i = 0; i < orders.length; i++) {
+                        recorded.add(incoming.take());
+                    }
+                    // out of order, and the payment twice more
+                    for (int i : new int[]{1, 0, 0, 2, 0}) {
+                        outgoing.put(recorded.get(i));
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        final Agent bob = new Agent(null, oscar2bob, key, SymmetricCipherExample.ALG6[1], null, null) {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5; i++) {
+                    try {
+                        final Frame frame = receive();
+                        final long sequence = frame.getLong(FrameField.SEQUENCE);
+                        try {
+                            final String order = new String(frameCipher().open(frame), StandardCharsets.UTF_8);
+                            System.out.printf("[Bob] #%d executed: %s%n", sequence, order);
+                        } catch (GeneralSecurityException ex) {
+                            System.out.printf("[Bob] #%d rejected: %s%n", sequence, ex.getMessage());
+                        }
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                        System.err.println("[Bob] Exception: " + ex.getMessage());
+                        return;
+                    }
+                }
+            }
+        };
+
+        alice.start();
+        oscar.start();
+        bob.start();
+        bob.join();
+    }
+}
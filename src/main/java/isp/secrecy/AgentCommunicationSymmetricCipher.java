@@ -22,6 +22,11 @@ package isp.secrecy; /**
  * facility in order to enable message integrity. You should use separate keys for
  * encryption and MAC.
  * - Provide Authenticated Encryption using the built in GCM mode
+ * - Oscar can still replay or reorder authenticated messages on alice2bob; see
+ * {@link AgentCommunicationReplay} for sequence numbers that stop him
+ * - Send long repetitive messages through {@link Agent#frameCipher()} with
+ * {@link Agent#compression()} overridden and compare the cipher text lengths. What
+ * does the length tell Oscar about the clear text?
  * <p/>
  * INFO:
  * http://docs.oracle.com/javase/6/docs/technotes/guides/security/crypto/CryptoSpec.html#Cipher
@@ -31,16 +36,21 @@ package isp.secrecy; /**
  * @version 1
  */
 
+import isp.secrecy.channel.TextCodec;
+
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
-import javax.xml.bind.DatatypeConverter;
 import java.security.AlgorithmParameters;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class AgentCommunicationSymmetricCipher {
+    private final static Logger LOG = Logger.getLogger(AgentCommunicationSymmetricCipher.class.getCanonicalName());
+
     // BLOCK CIPHER
     public static String[] ALG1 = { "DES", "DES/ECB/PKCS5Padding" };
     public static String[] ALG2 = { "DESede", "DESede/ECB/PKCS5Padding" };
@@ -76,15 +86,14 @@ public class AgentCommunicationSymmetricCipher {
                     System.out.println("[Alice] Message: " + message);
 
                     final byte[] clearText = message.getBytes("UTF-8");
-                    final Cipher cipher = Cipher.getInstance(this.cryptoAlgorithm);
-                    cipher.init(Cipher.ENCRYPT_MODE, this.cryptoKey);
+                    final Cipher cipher = cipher(Cipher.ENCRYPT_MODE);
                     final AlgorithmParameters ap = cipher.getParameters();
                     //patrametrs
                     final byte[] parametrsText = ap.getEncoded();
-                    final String parametersString = DatatypeConverter.printHexBinary(parametrsText);
+                    final String parametersString = TextCodec.HEX.encode(parametrsText);
 
                     final byte[] cipherText = cipher.doFinal(clearText);
-                    final String cipherString = DatatypeConverter.printHexBinary(cipherText);
+                    final String cipherString = TextCodec.HEX.encode(cipherText);
 
                     //send out
                     outgoing.put(parametersString);
@@ -105,20 +114,21 @@ public class AgentCommunicationSymmetricCipher {
                     final String parametersString = incoming.take();
                     final String cipherString = incoming.take();
 
-                    final byte[] parametersHEX  =DatatypeConverter.parseHexBinary(parametersString);
-                    final byte[] cipherHEX = DatatypeConverter.parseHexBinary(cipherString);
+                    final byte[] parametersHEX  =TextCodec.HEX.decode(parametersString);
+                    final byte[] cipherHEX = TextCodec.HEX.decode(cipherString);
 
                     //Parametrs init
                     final AlgorithmParameters ap = AlgorithmParameters.getInstance("AES");
                     ap.init(parametersHEX);
 
-                    final Cipher cipher2 = Cipher.getInstance(this.cryptoAlgorithm);
-                    cipher2.init(Cipher.DECRYPT_MODE, this.cryptoKey, ap);
+                    final Cipher cipher2 = cipher(Cipher.DECRYPT_MODE, ap);
 
                     final byte[] decryptedText = cipher2.doFinal(cipherHEX);
 
-                    System.out.println("[Bob]: Received from Alice: Parameters: " + parametersString);
-                    System.out.println("[Bob]: Received from Alice: EncString: " + cipherString);
+                    if (LOG.isLoggable(Level.INFO)) {
+                        LOG.info("[Bob]: Received from Alice: Parameters: " + parametersString);
+                        LOG.info("[Bob]: Received from Alice: EncString: " + cipherString);
+                    }
                     System.out.println("[Bob]: Received from Alice: Original: " + new String(decryptedText));
 
                 } catch (Exception ex) {
@@ -1,10 +1,11 @@
 package isp.secrecy;
 
+import isp.secrecy.channel.TextCodec;
+
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import javax.xml.bind.DatatypeConverter;
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
 import java.security.KeyPair;
@@ -40,7 +41,7 @@ public class AsymmetricCipherExample {
 
         System.out.println("Clear text:\n" + text);
         System.out.println("Size :" + clearText.length);
-        System.out.println("Clear text in HEX:\n" + DatatypeConverter.printHexBinary(clearText));
+        System.out.println("Clear text in HEX:\n" + TextCodec.HEX.encode(clearText));
 
         // STEP 1: Bob creates his public and private key pair.
         // Alice receives Bob's public key.
@@ -56,7 +57,7 @@ public class AsymmetricCipherExample {
 
         // STEP 3: Display cipher text in hex. This is what an attacker would see,
         // if she intercepted the message.
-        System.out.println("Cipher text in HEX:\n" + DatatypeConverter.printHexBinary(cipherText));
+        System.out.println("Cipher text in HEX:\n" + TextCodec.HEX.encode(cipherText));
 
         // STEP 4: Bob decrypts the cipher text using the same algorithm and his private key.
         final Cipher decryptionCipher = Cipher.getInstance(algorithm);
@@ -64,7 +65,7 @@ public class AsymmetricCipherExample {
         final byte[] decryptedText = decryptionCipher.doFinal(cipherText);
 
         // STEP 5: Bob displays the clear text
-        System.out.println("Decrypted text in HEX:\n" + DatatypeConverter.printHexBinary(decryptedText));
+        System.out.println("Decrypted text in HEX:\n" + TextCodec.HEX.encode(decryptedText));
         final String decryptedTextAsString = new String(decryptedText, "UTF-8");
         System.out.println("Decrypted text:\n" + decryptedTextAsString);
     }
@@ -0,0 +1,88 @@
+package isp.secrecy;
+
+import isp.secrecy.attack.KeySearch;
+import isp.secrecy.channel.TextCodec;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+
+/**
+ * I0->I1->A1->B1->A2->B2->A3->B3->A4->B4->A5->[A5']
+ * <p/>
+ * EXERCISE A5': the homework of {@link SymmetricCipherExample}. Alice encrypts her message with
+ * {@link SymmetricCipherExample#ALG1} and a poor key, of which Oscar knows all but a few bits.
+ * Oscar knows the clear text and finds the key with {@link KeySearch}:
+ * <pre>
+ *   java isp.secrecy.KeySearchExample [unknown bits] [threads] [checkpoint file]
+ * </pre>
+ * The defaults are 24 unknown bits, one thread per core and key-search.properties. Interrupt the
+ * search and run it again to resume from the checkpoint; delete the file to start over. Note that
+ * Alice picks a new key on every run, so resuming is only meaningful with a fixed key (see STEP 1).
+ * <p/>
+ * EXERCISE:
+ * - How does the time to find the key grow with the number of unknown bits? Estimate how long a
+ * search of all 56 bits would take on your machine.
+ * - How does the number of threads affect the rate of tested keys?
+ *
+ * @version 1
+ */
+public class KeySearchExample {
+
+    public static void main(String[] args) throws Exception {
+        final int unknownBits = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final Path checkpoint = Paths.get(args.length > 2 ? args[2] : "key-search.properties");
+
+        /**
+         * STEP 1.
+         * Alice picks a poor key: only the lowest unknown bits are random, the rest is zero.
+         * For a fixed key, replace the random candidate with a constant.
+         */
+        final long secret = new SecureRandom().nextLong() & ((1L << unknownBits) - 1);
+        final byte[] key = KeySearch.key(new byte[8], unknownBits, secret);
+
+        final String message = "I would like to keep this text confidential Bob. Kind regards, Alice.";
+        final byte[] clearText = message.getBytes(StandardCharsets.UTF_8);
+        final Cipher cipher = Cipher.getInstance(SymmetricCipherExample.ALG1[1]);
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, SymmetricCipherExample.ALG1[0]));
+        final byte[] cipherText = cipher.doFinal(clearText);
+        System.out.println("[CIPHER_TEXT] " + TextCodec.HEX.encode(cipherText));
+
+        /**
+         * STEP 2.
+         * Oscar intercepts the cipher text and, knowing the clear text, searches the key space.
+         */
+        final KeySearch search = new KeySearch(new byte[8], unknownBits, clearText, null, cipherText, threads);
+        final long from = KeySearch.load(checkpoint);
+        System.out.printf("[Oscar] Searching 2^%d keys with %d threads from %d%n", unknownBits, threads, from);
+
+        final long start = System.nanoTime();
+        final byte[] found = search.search(from, (tested, position, keysPerSecond) -> {
+            System.out.printf("[Oscar] %,d keys tested, %.1f%% done, %,.0f keys/s%n",
+                    tested, 100.0 * position / search.candidates(), keysPerSecond);
+            KeySearch.save(checkpoint, position);
+        }, 1000);
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (found == null) {
+            System.out.printf("[Oscar] Key not found in %.1f s%n", seconds);
+            KeySearch.save(checkpoint, search.checkpoint());
+            return;
+        }
+
+        /**
+         * STEP 3.
+         * Oscar decrypts the whole message with the key found.
+         */
+        final Cipher decryption = Cipher.getInstance(SymmetricCipherExample.ALG1[1]);
+        decryption.init(Cipher.DECRYPT_MODE, new SecretKeySpec(found, SymmetricCipherExample.ALG1[0]));
+        System.out.printf("[Oscar] Found key %s in %.1f s, %,.0f keys/s%n", TextCodec.HEX.encode(found),
+                seconds, search.tested() / seconds);
+        System.out.println("[Oscar] " + new String(decryption.doFinal(cipherText), StandardCharsets.UTF_8));
+        checkpoint.toFile().delete();
+    }
+}
@@ -0,0 +1,83 @@
+package isp.secrecy;
+
+import isp.secrecy.attack.LeakageAnalyzer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * I0->I1->A1->B1->A2->B2->A3->B3->A4->B4->A5->[A5'']
+ * <p/>
+ * EXERCISE A5'': the ECB question of {@link SymmetricCipherExample}, measured. Oscar cannot decrypt,
+ * but he sees which cipher text blocks repeat. {@link LeakageAnalyzer} encrypts a file with every
+ * ALG of {@link SymmetricCipherExample} and counts the repeated blocks:
+ * <pre>
+ *   java isp.secrecy.PatternLeakageExample [file] [threads] [memory MB per algorithm]
+ * </pre>
+ * Without a file, a synthetic 48 MB image is written to a temporary file: a raw RGB raster of flat
+ * areas like a logo or a drawing, the kind of image whose outline famously survives ECB encryption.
+ * The defaults are one thread per core and 64 MB per algorithm; the sets live in direct memory,
+ * raise its limit with -XX:MaxDirectMemorySize for larger ones.
+ * <p/>
+ * EXERCISE:
+ * - Compare the repeated blocks of ECB and CBC. What could Oscar learn from the ECB cipher text?
+ * - Analyze a file of your own: a text document, a disk image, a compressed archive.
+ *
+ * @version 1
+ */
+public class PatternLeakageExample {
+
+    public static void main(String[] args) throws Exception {
+        final Path file = args.length > 0 ? Paths.get(args[0]) : syntheticImage(4096, 4096);
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final long memory = (args.length > 2 ? Long.parseLong(args[2]) : 64) << 20;
+
+        final String[][] algorithms = {
+                SymmetricCipherExample.ALG1, SymmetricCipherExample.ALG2, SymmetricCipherExample.ALG3,
+                SymmetricCipherExample.ALG4, SymmetricCipherExample.ALG5, SymmetricCipherExample.ALG6
+        };
+        final LeakageAnalyzer analyzer = new LeakageAnalyzer(algorithms, threads, LeakageAnalyzer.DEFAULT_CHUNK_SIZE,
+                memory);
+
+        final long start = System.nanoTime();
+        final List<LeakageAnalyzer.Report> reports = analyzer.analyze(file);
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("[Oscar] %s, %,d bytes, %d threads, %.1f s, %.0f MB/s%n", file, Files.size(file),
+                threads, seconds, Files.size(file) / seconds / 1e6);
+        for (LeakageAnalyzer.Report report : reports) {
+            System.out.println("[Oscar] " + report);
+        }
+        if (args.length == 0) {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Writes a raw 24 bit RGB image of concentric rings and stripes in a few flat colors.
+     */
+    static Path syntheticImage(final int width, final int height) throws IOException {
+        final int[] palette = {0xFFFFFF, 0x1F3A93, 0xF2C500, 0x000000};
+        final Path file = Files.createTempFile("pattern-leakage", ".rgb");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            final byte[] row = new byte[3 * width];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    final int dx = x - width / 2, dy = y - height / 2;
+                    final int ring = (int) Math.sqrt((double) dx * dx + (double) dy * dy) / (width / 16);
+                    final int color = palette[(ring + (y / (height / 8) % 2)) % palette.length];
+                    row[3 * x] = (byte) (color >>> 16);
+                    row[3 * x + 1] = (byte) (color >>> 8);
+                    row[3 * x + 2] = (byte) color;
+                }
+                out.write(row);
+            }
+        }
+        return file;
+    }
+}
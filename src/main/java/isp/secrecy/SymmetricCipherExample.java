@@ -1,11 +1,12 @@
 package isp.secrecy;
 
+import isp.secrecy.channel.TextCodec;
+
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
-import javax.xml.bind.DatatypeConverter;
 import java.io.IOException;
 import java.security.AlgorithmParameters;
 import java.security.InvalidAlgorithmParameterException;
@@ -21,14 +22,15 @@ import java.security.NoSuchAlgorithmException;
  * EXERCISE:
  * - Study the example.
  * - What happens if ECB modes is preferred over CBC (or other modes) operation
- * of cipher algorithm? (see http://en.wikipedia.org/wiki/Initialization_vector)
+ * of cipher algorithm? (see http://en.wikipedia.org/wiki/Initialization_vector,
+ * and measure it with {@link PatternLeakageExample})
  * - Which security properties have to preserved when sending Algorithm Parameters
  * such as Initialization Vector?
  * <p/>
  * - Homework: Oscar intercepts the message and would like to decrypt the ciphertext. Help Oscar to
  * decrypt the ciphertext using brute force key search (exhaustive key search) if Oscar knows
  * that Alice has send the following message "I would like to keep this text confidential Bob. Kind regards, Alice."
- * (Known-plaintext attack) (Use DES and manually set a poor key)
+ * (Known-plaintext attack) (Use DES and manually set a poor key, see {@link KeySearchExample})
  * <p/>
  * INFO:
  * http://docs.oracle.com/javase/6/docs/technotes/guides/security/crypto/CryptoSpec.html#Cipher
@@ -65,7 +67,7 @@ public class SymmetricCipherExample {
         System.out.println("[MESSAGE] " + message);
 
         final byte[] clearText = message.getBytes("UTF-8");
-        System.out.println("[CLEAR_TEXT] " + DatatypeConverter.printHexBinary(clearText));
+        System.out.println("[CLEAR_TEXT] " + TextCodec.HEX.encode(clearText));
 
         /**
          * STEP 2.
@@ -81,7 +83,7 @@ public class SymmetricCipherExample {
         final byte[] cipherText = cipher.doFinal(clearText);
 
         //STEP 3: Print out cipher text (hex). This is what an attacker would see
-        System.out.println("[CIPHER_TEXT] " + DatatypeConverter.printHexBinary(cipherText));
+        System.out.println("[CIPHER_TEXT] " + TextCodec.HEX.encode(cipherText));
 
         // Optional
         // What happens if an attacker changes a value in the cipher text?
@@ -99,7 +101,7 @@ public class SymmetricCipherExample {
         // what happens if our key is incorrect? (make sure to set ALG5[0] to all algorithm selections
         //cipher2.init(Cipher.DECRYPT_MODE, KeyGenerator.getInstance(ALG5[0]).generateKey(), ap);
         final byte[] decryptedText = cipher2.doFinal(cipherText);
-        System.out.println("[DECRYPTED_TEXT] " + DatatypeConverter.printHexBinary(decryptedText));
+        System.out.println("[DECRYPTED_TEXT] " + TextCodec.HEX.encode(decryptedText));
 
         /**
          * STEP 5.
@@ -0,0 +1,297 @@
+package isp.secrecy.attack;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exhaustive DES key search with a known clear text, on all cores.
+ * <p/>
+ * The attacker knows all but the lowest {@code unknownBits} effective bits of the key. DES ignores
+ * the lowest bit of every key byte (the parity bit), so a key has 56 effective bits, 7 per byte;
+ * unknown bit {@code j} is bit {@code 1 + j % 7} of key byte {@code 7 - j / 7}. Every additional
+ * unknown bit doubles the cost of the search.
+ * <p/>
+ * A candidate is tested on the first block only: it is the key if it encrypts the first clear text
+ * block (XOR the IV in CBC mode) to the first cipher text block. Since DES blocks have 64 bits and
+ * there are at most 2^56 candidates, a false match is unlikely; decrypt the whole cipher text with
+ * the key found to be sure.
+ * <p/>
+ * The key space is split into chunks of {@value #CHUNK_SIZE} candidates that workers claim in
+ * increasing order. Every worker reuses a single DES/ECB/NoPadding {@link Cipher} and key. Progress
+ * is a {@link #checkpoint()}: all candidates below it have been tested, so a search can be stopped
+ * and later resumed from there, see {@link #save(Path, long)} and {@link #load(Path)}.
+ */
+public class KeySearch {
+    public static final int CHUNK_SIZE = 1 << 16;
+    public static final int BLOCK_SIZE = 8;
+
+    /**
+     * Receives progress while a search runs.
+     */
+    public interface Progress {
+        /**
+         * @param tested       candidates tested by this search so far
+         * @param checkpoint   candidate below which the whole key space has been tested
+         * @param keysPerSecond candidates tested per second since the previous call
+         */
+        void update(long tested, long checkpoint, double keysPerSecond) throws IOException;
+    }
+
+    private final byte[] knownKey;
+    private final int unknownBits;
+    private final byte[] clearBlock, cipherBlock;
+    private final int threads;
+
+    private final AtomicLong nextChunk = new AtomicLong();
+    private final AtomicLongArray current;
+    private final LongAdder tested = new LongAdder();
+    private final AtomicReference<byte[]> found = new AtomicReference<>();
+    private final AtomicReference<GeneralSecurityException> failure = new AtomicReference<>();
+    private volatile boolean stopped;
+
+    /**
+     * @param knownKey    8 byte DES key; its unknown bits are ignored
+     * @param unknownBits number of unknown effective key bits, 1 to 56
+     * @param clearText   known clear text, at least one block
+     * @param iv          IV of CBC mode, or null for ECB mode
+     * @param cipherText  intercepted cipher text, at least one block
+     * @param threads     number of worker threads
+     */
+    public KeySearch(final byte[] knownKey, final int unknownBits, final byte[] clearText, final byte[] iv,
+                     final byte[] cipherText, final int threads) {
+        if (knownKey.length != BLOCK_SIZE) {
+            throw new IllegalArgumentException("DES keys have 8 bytes: " + knownKey.length);
+        }
+        if (unknownBits < 1 || unknownBits > 56) {
+            throw new IllegalArgumentException("Unknown bits must be between 1 and 56: " + unknownBits);
+        }
+        if (clearText.length < BLOCK_SIZE || cipherText.length < BLOCK_SIZE) {
+            throw new IllegalArgumentException("Clear and cipher text must have at least one block");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be positive: " + threads);
+        }
+        this.knownKey = key(knownKey, unknownBits, 0);
+        this.unknownBits = unknownBits;
+        this.clearBlock = new byte[BLOCK_SIZE];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            clearBlock[i] = (byte) (clearText[i] ^ (iv == null ? 0 : iv[i]));
+        }
+        this.cipherBlock = Arrays.copyOf(cipherText, BLOCK_SIZE);
+        this.threads = threads;
+        this.current = new AtomicLongArray(threads);
+    }
+
+    /**
+     * @return number of candidate keys
+     */
+    public long candidates() {
+        return 1L << unknownBits;
+    }
+
+    /**
+     * @return the known key with given candidate filled into its unknown bits
+     */
+    public static byte[] key(final byte[] knownKey, final int unknownBits, final long candidate) {
+        final byte[] key = knownKey.clone();
+        fill(knownKey, unknownBits, candidate, key);
+        return key;
+    }
+
+    /**
+     * @return the candidate in the unknown bits of given key
+     */
+    public static long candidate(final byte[] key, final int unknownBits) {
+        long candidate = 0;
+        for (int j = 0; j < unknownBits; j++) {
+            candidate |= (long) ((key[7 - j / 7] >>> (1 + j % 7)) & 1) << j;
+        }
+        return candidate;
+    }
+
+    private static void fill(final byte[] knownKey, final int unknownBits, final long candidate, final byte[] key) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            final int bits = Math.min(7, Math.max(0, unknownBits - 7 * i));
+            final int mask = ((1 << bits) - 1) << 1;
+            final int value = (int) (candidate >>> (7 * i)) << 1;
+            key[7 - i] = (byte) ((knownKey[7 - i] & ~mask) | (value & mask));
+        }
+    }
+
+    /**
+     * Searches candidates from given one on, reporting progress to the listener on the calling
+     * thread every interval until the key is found, the key space is exhausted or {@link #stop()}
+     * is called. A search runs once.
+     *
+     * @return the key, or null if it is not in the searched part of the key space
+     */
+    public byte[] search(final long from, final Progress progress, final long intervalMillis)
+            throws GeneralSecurityException, IOException, InterruptedException {
+        if (from < 0 || from > candidates()) {
+            throw new IllegalArgumentException("Start outside of the key space: " + from);
+        }
+        final long firstChunk = from / CHUNK_SIZE;
+        nextChunk.set(firstChunk);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            current.set(i, firstChunk);
+            final int worker = i;
+            final Thread thread = new Thread(() -> {
+                try {
+                    work(worker, from);
+                } catch (GeneralSecurityException e) {
+                    failure.compareAndSet(null, e);
+                    stopped = true;
+                } finally {
+                    done.countDown();
+                }
+            }, "key-search-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try {
+            long lastTested = 0, lastNanos = System.nanoTime();
+            while (!done.await(intervalMillis, TimeUnit.MILLISECONDS)) {
+                if (progress != null) {
+                    final long now = System.nanoTime(), count = tested.sum();
+                    progress.update(count, checkpoint(), (count - lastTested) * 1e9 / (now - lastNanos));
+                    lastTested = count;
+                    lastNanos = now;
+                }
+            }
+        } finally {
+            stop();
+            done.await();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return found.get();
+    }
+
+    private void work(final int worker, final long from) throws GeneralSecurityException {
+        final Cipher cipher = Cipher.getInstance("DES/ECB/NoPadding");
+        final CandidateKey key = new CandidateKey();
+        final byte[] block = new byte[BLOCK_SIZE];
+        final long chunks = (candidates() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        while (!stopped) {
+            // publish the chunk before claiming it, so the checkpoint never passes an unfinished chunk
+            long chunk;
+            do {
+                chunk = nextChunk.get();
+                current.set(worker, chunk);
+            } while (chunk < chunks && !nextChunk.compareAndSet(chunk, chunk + 1));
+            if (chunk >= chunks) {
+                return;
+            }
+
+            final long first = Math.max(from, chunk * CHUNK_SIZE);
+            final long last = Math.min(candidates(), (chunk + 1) * CHUNK_SIZE);
+            for (long candidate = first; candidate < last; candidate++) {
+                fill(knownKey, unknownBits, candidate, key.bytes);
+                cipher.init(Cipher.ENCRYPT_MODE, key);
+                cipher.doFinal(clearBlock, 0, BLOCK_SIZE, block, 0);
+                if (Arrays.equals(block, cipherBlock)) {
+                    found.compareAndSet(null, key.bytes.clone());
+                    stopped = true;
+                    break;
+                }
+            }
+            tested.add(last - first);
+        }
+    }
+
+    /**
+     * @return candidate below which every candidate has been tested; a search resumed from here
+     * tests no candidate twice but misses none
+     */
+    public long checkpoint() {
+        long checkpoint = nextChunk.get();
+        for (int i = 0; i < threads; i++) {
+            checkpoint = Math.min(checkpoint, current.get(i));
+        }
+        return Math.min(candidates(), checkpoint * CHUNK_SIZE);
+    }
+
+    /**
+     * @return candidates tested so far
+     */
+    public long tested() {
+        return tested.sum();
+    }
+
+    /**
+     * Stops the workers after their current chunk.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Writes the checkpoint to given file, atomically replacing it.
+     */
+    public static void save(final Path file, final long checkpoint) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty("checkpoint", Long.toString(checkpoint));
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            properties.store(out, "DES key search");
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return checkpoint stored in given file, or 0 if there is none
+     */
+    public static long load(final Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        return Long.parseLong(properties.getProperty("checkpoint", "0"));
+    }
+
+    /**
+     * Key whose bytes are overwritten for every candidate, so testing one does not allocate a key.
+     */
+    private static final class CandidateKey implements SecretKey {
+        private static final long serialVersionUID = 1L;
+
+        final byte[] bytes = new byte[BLOCK_SIZE];
+
+        @Override
+        public String getAlgorithm() {
+            return "DES";
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            return bytes.clone();
+        }
+    }
+}
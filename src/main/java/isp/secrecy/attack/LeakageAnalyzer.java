@@ -0,0 +1,294 @@
+package isp.secrecy.attack;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how much structure of a clear text shows through its cipher text: encrypts a file with
+ * several transformations at once and counts the cipher text blocks that repeat an earlier block.
+ * <p/>
+ * In ECB mode equal clear text blocks give equal cipher text blocks, so the repeats of the clear
+ * text stay visible; with an IV, chaining or a key stream, repeats are as rare as in random data.
+ * Stream ciphers have no blocks; their cipher text is cut into {@value #STREAM_BLOCK_SIZE} byte
+ * blocks.
+ * <p/>
+ * The file is read once, in chunks that worker threads claim in turn, and every chunk is encrypted
+ * with every transformation. ECB encrypts blocks independently, so its chunks are encrypted with
+ * one key exactly as the whole file would be. Other modes are sequential, so every chunk is
+ * encrypted as a message of its own: with a new random IV, or with a new key if the transformation
+ * has no IV (restarting a key stream under the same key would produce repeats that are an artifact
+ * of the chunking). Blocks are remembered by a 64 bit fingerprint in an {@link OffHeapLongSet} per
+ * transformation, so memory is bounded by the configured size of the sets and the chunk buffers.
+ * Once a set is three quarters full, blocks are only looked up: those not found are counted as
+ * unchecked and the number of repeats becomes a lower bound.
+ */
+public class LeakageAnalyzer {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    public static final int STREAM_BLOCK_SIZE = 16;
+
+    /**
+     * Slots a worker reserves at a time, so workers rarely touch the shared budget.
+     */
+    private static final int BUDGET = 4096;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Statistics of one transformation.
+     */
+    public static final class Report {
+        public final String transformation;
+        public final int blockSize;
+        public final long blocks, distinct, repeated, unchecked;
+
+        Report(String transformation, int blockSize, long blocks, long distinct, long repeated, long unchecked) {
+            this.transformation = transformation;
+            this.blockSize = blockSize;
+            this.blocks = blocks;
+            this.distinct = distinct;
+            this.repeated = repeated;
+            this.unchecked = unchecked;
+        }
+
+        /**
+         * @return share of blocks that repeat an earlier block
+         */
+        public double repeatedFraction() {
+            return blocks == 0 ? 0 : (double) repeated / blocks;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-22s %,15d blocks %,15d distinct %,15d repeated (%6.2f%%)%s", transformation,
+                    blocks, distinct, repeated, 100 * repeatedFraction(),
+                    unchecked == 0 ? "" : String.format(", %,d unchecked", unchecked));
+        }
+    }
+
+    private final String[][] algorithms;
+    private final int threads, chunkSize;
+    private final long capacity;
+
+    /**
+     * @param algorithms pairs of key algorithm and transformation, like the ALG arrays of
+     *                   {@link isp.secrecy.SymmetricCipherExample}
+     * @param threads    number of worker threads
+     * @param chunkSize  bytes read and encrypted at a time, a multiple of 16
+     * @param memory     bytes of direct memory for the set of every transformation
+     */
+    public LeakageAnalyzer(final String[][] algorithms, final int threads, final int chunkSize, final long memory) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be positive: " + threads);
+        }
+        if (chunkSize < STREAM_BLOCK_SIZE || chunkSize % STREAM_BLOCK_SIZE != 0) {
+            throw new IllegalArgumentException("Chunk size must be a positive multiple of 16: " + chunkSize);
+        }
+        this.algorithms = algorithms.clone();
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.capacity = OffHeapLongSet.capacityFor(memory);
+    }
+
+    /**
+     * @return one report per transformation, in the order given to the constructor
+     */
+    public List<Report> analyze(final Path file) throws IOException, GeneralSecurityException, InterruptedException {
+        final List<Analysis> analyses = new ArrayList<>();
+        for (String[] algorithm : algorithms) {
+            analyses.add(new Analysis(algorithm[0], algorithm[1], capacity));
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long chunks = (size + chunkSize - 1) / chunkSize;
+            final AtomicLong nextChunk = new AtomicLong();
+            final AtomicReference<Exception> failure = new AtomicReference<>();
+            final CountDownLatch done = new CountDownLatch(threads);
+            for (int i = 0; i < threads; i++) {
+                final Thread thread = new Thread(() -> {
+                    try {
+                        final Worker worker = new Worker(analyses);
+                        for (long chunk; failure.get() == null && (chunk = nextChunk.getAndIncrement()) < chunks; ) {
+                            final long position = chunk * chunkSize;
+                            worker.process(channel, position, (int) Math.min(chunkSize, size - position));
+                        }
+                    } catch (IOException | GeneralSecurityException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        done.countDown();
+                    }
+                }, "leakage-analyzer-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            done.await();
+
+            final Exception e = failure.get();
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e != null) {
+                throw (GeneralSecurityException) e;
+            }
+        }
+
+        final List<Report> reports = new ArrayList<>();
+        for (Analysis analysis : analyses) {
+            reports.add(analysis.report());
+        }
+        return reports;
+    }
+
+    /**
+     * @return 64 bit fingerprint of a block; 8 byte blocks are their own fingerprint
+     */
+    static long fingerprint(final byte[] bytes, final int offset, final int length) {
+        if (length == 8) {
+            return (long) LONGS.get(bytes, offset);
+        }
+        long hash = length;
+        for (int i = 0; i < length; i += 8) {
+            hash = Long.rotateLeft(hash * 0x9e3779b97f4a7c15L, 31) ^ (long) LONGS.get(bytes, offset + i);
+        }
+        return OffHeapLongSet.mix(hash);
+    }
+
+    /**
+     * Shared state of one transformation.
+     */
+    private static final class Analysis {
+        final String algorithm, transformation;
+        final Key key;
+        final int blockSize;
+        final boolean perChunkKey, perChunkIv;
+        final OffHeapLongSet blocks;
+        final AtomicLong budget;
+        final LongAdder total = new LongAdder(), distinct = new LongAdder(), repeated = new LongAdder(),
+                unchecked = new LongAdder();
+
+        Analysis(String algorithm, String transformation, long capacity) throws GeneralSecurityException {
+            this.algorithm = algorithm;
+            this.transformation = transformation;
+            this.key = KeyGenerator.getInstance(algorithm).generateKey();
+            final Cipher cipher = Cipher.getInstance(transformation);
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+            this.blockSize = cipher.getBlockSize() > 0 ? cipher.getBlockSize() : STREAM_BLOCK_SIZE;
+            this.perChunkIv = cipher.getIV() != null;
+            this.perChunkKey = !perChunkIv && cipher.getBlockSize() == 0;
+            this.blocks = new OffHeapLongSet(capacity);
+            this.budget = new AtomicLong(capacity / 4 * 3);
+        }
+
+        /**
+         * @return number of set slots reserved, up to {@link #BUDGET}; 0 once the set is full
+         */
+        int reserve() {
+            return (int) Math.max(0, Math.min(BUDGET, budget.getAndAdd(-BUDGET)));
+        }
+
+        Report report() {
+            return new Report(transformation, blockSize, total.sum(), distinct.sum(), repeated.sum(), unchecked.sum());
+        }
+    }
+
+    /**
+     * Buffers and ciphers of one worker thread.
+     */
+    private final class Worker {
+        final List<Analysis> analyses;
+        final Cipher[] ciphers;
+        final KeyGenerator[] generators;
+        final int[] budgets;
+        final byte[] in;
+        final ByteBuffer buffer;
+        byte[] out = new byte[0];
+
+        Worker(List<Analysis> analyses) throws GeneralSecurityException {
+            this.analyses = analyses;
+            this.ciphers = new Cipher[analyses.size()];
+            this.generators = new KeyGenerator[analyses.size()];
+            this.budgets = new int[analyses.size()];
+            this.in = new byte[chunkSize];
+            this.buffer = ByteBuffer.wrap(in);
+            for (int i = 0; i < ciphers.length; i++) {
+                final Analysis analysis = analyses.get(i);
+                ciphers[i] = Cipher.getInstance(analysis.transformation);
+                ciphers[i].init(Cipher.ENCRYPT_MODE, analysis.key);
+                if (analysis.perChunkKey) {
+                    generators[i] = KeyGenerator.getInstance(analysis.algorithm);
+                }
+            }
+        }
+
+        void process(final FileChannel channel, final long position, final int length)
+                throws IOException, GeneralSecurityException {
+            buffer.clear().limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("File shrank while reading at " + (position + buffer.position()));
+                }
+            }
+            for (int i = 0; i < ciphers.length; i++) {
+                encrypt(i, length);
+            }
+        }
+
+        private void encrypt(final int index, final int length) throws GeneralSecurityException {
+            final Analysis analysis = analyses.get(index);
+            final Cipher cipher = ciphers[index];
+            if (analysis.perChunkKey) {
+                cipher.init(Cipher.ENCRYPT_MODE, generators[index].generateKey());
+            } else if (analysis.perChunkIv) {
+                cipher.init(Cipher.ENCRYPT_MODE, analysis.key);
+            }
+            final int outputSize = cipher.getOutputSize(length);
+            if (out.length < outputSize) {
+                out = new byte[outputSize];
+            }
+            // a chunk ends with padding or a tag, which is not part of the file's cipher text
+            cipher.doFinal(in, 0, length, out, 0);
+
+            final int size = analysis.blockSize, blocks = length / size;
+            long distinct = 0, repeated = 0, unchecked = 0;
+            for (int offset = 0; offset < blocks * size; offset += size) {
+                final long fingerprint = fingerprint(out, offset, size);
+                if (budgets[index] == 0) {
+                    // -1 once the set is full, so the shared budget is not asked again
+                    final int reserved = analysis.reserve();
+                    budgets[index] = reserved > 0 ? reserved : -1;
+                }
+                if (budgets[index] > 0) {
+                    if (analysis.blocks.add(fingerprint)) {
+                        budgets[index]--;
+                        distinct++;
+                    } else {
+                        repeated++;
+                    }
+                } else if (analysis.blocks.contains(fingerprint)) {
+                    repeated++;
+                } else {
+                    unchecked++;
+                }
+            }
+            analysis.total.add(blocks);
+            analysis.distinct.add(distinct);
+            analysis.repeated.add(repeated);
+            analysis.unchecked.add(unchecked);
+        }
+    }
+}
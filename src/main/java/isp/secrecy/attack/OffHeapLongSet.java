@@ -0,0 +1,143 @@
+package isp.secrecy.attack;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent set of longs in direct memory, for counting distinct values among billions.
+ * <p/>
+ * Values are stored unboxed in open addressing tables with linear probing, outside of the Java heap,
+ * so a full set costs 8 bytes per slot and nothing per value, and the garbage collector never scans
+ * it. Tables hold up to 2^27 slots (1 GB) each; larger sets are split into several tables, chosen by
+ * the high bits of a value's hash. Slots are claimed with compare-and-set, so any number of threads
+ * add values without locking. Values are only removed all at once and the set never grows: keep it
+ * below about three quarters of its {@link #capacity()}, probing gets slow beyond that.
+ * <p/>
+ * 0 marks empty slots, so it is tracked apart. The memory is released when the set is garbage
+ * collected.
+ */
+public final class OffHeapLongSet {
+    public static final long MAX_CAPACITY = 1L << 34;
+
+    private static final int TABLE_BITS = 27;
+    private static final VarHandle SLOTS = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private final ByteBuffer[] tables;
+    private final int tableMask, slotMask;
+    private final LongAdder size = new LongAdder();
+    private final AtomicBoolean zero = new AtomicBoolean();
+
+    /**
+     * @param capacity number of slots, a power of two up to {@link #MAX_CAPACITY}
+     */
+    public OffHeapLongSet(final long capacity) {
+        if (capacity < 1 || capacity > MAX_CAPACITY || Long.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two up to 2^34: " + capacity);
+        }
+        final int slots = (int) Math.min(capacity, 1L << TABLE_BITS);
+        tables = new ByteBuffer[(int) (capacity / slots)];
+        for (int i = 0; i < tables.length; i++) {
+            // plain view var handles require aligned access for compare-and-set
+            tables[i] = ByteBuffer.allocateDirect(slots * 8 + 8).alignedSlice(8);
+        }
+        tableMask = tables.length - 1;
+        slotMask = slots - 1;
+    }
+
+    /**
+     * @return largest capacity whose slots fit into given number of bytes, at least 1
+     */
+    public static long capacityFor(final long bytes) {
+        return Long.highestOneBit(Math.max(1, Math.min(MAX_CAPACITY, bytes / 8)));
+    }
+
+    /**
+     * @return true if the value was not in the set yet
+     * @throws IllegalStateException if the value is new and its table has no empty slot left
+     */
+    public boolean add(final long value) {
+        if (value == 0) {
+            if (zero.compareAndSet(false, true)) {
+                size.increment();
+                return true;
+            }
+            return false;
+        }
+        final long hash = mix(value);
+        final ByteBuffer table = tables[(int) (hash >>> 40) & tableMask];
+        int slot = (int) hash & slotMask;
+        for (int probes = 0; probes <= slotMask; probes++) {
+            long current = (long) SLOTS.getAcquire(table, slot << 3);
+            if (current == 0) {
+                if (SLOTS.compareAndSet(table, slot << 3, 0L, value)) {
+                    size.increment();
+                    return true;
+                }
+                // another thread took the slot, possibly for the same value
+                current = (long) SLOTS.getAcquire(table, slot << 3);
+            }
+            if (current == value) {
+                return false;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        throw new IllegalStateException("Set is full");
+    }
+
+    public boolean contains(final long value) {
+        if (value == 0) {
+            return zero.get();
+        }
+        final long hash = mix(value);
+        final ByteBuffer table = tables[(int) (hash >>> 40) & tableMask];
+        int slot = (int) hash & slotMask;
+        for (int probes = 0; probes <= slotMask; probes++) {
+            final long current = (long) SLOTS.getAcquire(table, slot << 3);
+            if (current == value) {
+                return true;
+            }
+            if (current == 0) {
+                return false;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes all values. Must not run concurrently with other methods.
+     */
+    public void clear() {
+        for (ByteBuffer table : tables) {
+            for (int offset = 0; offset < table.capacity(); offset += 8) {
+                table.putLong(offset, 0);
+            }
+        }
+        zero.set(false);
+        size.reset();
+    }
+
+    public long size() {
+        return size.sum();
+    }
+
+    public long capacity() {
+        return (long) tables.length * (slotMask + 1);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads every bit of the value over the whole hash.
+     */
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        return value ^ value >>> 33;
+    }
+}
@@ -0,0 +1,35 @@
+package isp.secrecy.broker;
+
+import isp.secrecy.channel.FrameChannel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frame channel of an agent registered with a {@link MessageBroker}, so that it can be
+ * passed to {@link isp.secrecy.Agent} as both the outgoing and the incoming channel.
+ * <p/>
+ * Frames sent are routed to one fixed recipient. Frames received come from the agent's own
+ * mailbox and may originate from any sender; use {@link Mailbox#take()} directly when the
+ * sender matters.
+ */
+public class BrokerChannel implements FrameChannel {
+    private final MessageBroker broker;
+    private final Mailbox mailbox;
+    private final String recipient;
+
+    BrokerChannel(final MessageBroker broker, final Mailbox mailbox, final String recipient) {
+        this.broker = broker;
+        this.mailbox = mailbox;
+        this.recipient = recipient;
+    }
+
+    @Override
+    public void send(ByteBuffer frame) throws InterruptedException {
+        broker.send(mailbox.name(), recipient, frame);
+    }
+
+    @Override
+    public ByteBuffer receive() throws InterruptedException {
+        return mailbox.take().frame();
+    }
+}
@@ -0,0 +1,24 @@
+package isp.secrecy.broker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A frame delivered to a mailbox, together with the name of the agent that sent it.
+ */
+public final class Delivery {
+    private final String sender;
+    private final ByteBuffer frame;
+
+    public Delivery(final String sender, final ByteBuffer frame) {
+        this.sender = sender;
+        this.frame = frame;
+    }
+
+    public String sender() {
+        return sender;
+    }
+
+    public ByteBuffer frame() {
+        return frame;
+    }
+}
@@ -0,0 +1,57 @@
+package isp.secrecy.broker;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inbox of a single agent registered with a {@link MessageBroker}.
+ * Frames from all senders are queued in the order they were routed, up to the mailbox's capacity;
+ * beyond that, senders wait until the agent takes frames out.
+ */
+public class Mailbox {
+    private final String name;
+    private final BlockingQueue<Delivery> inbox;
+
+    /**
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    Mailbox(final String name, final int capacity) {
+        this.name = name;
+        this.inbox = new LinkedBlockingQueue<>(capacity);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Waits for the next delivery.
+     */
+    public Delivery take() throws InterruptedException {
+        return inbox.take();
+    }
+
+    /**
+     * Waits up to the given time for the next delivery.
+     *
+     * @return next delivery or null, if none arrived in time
+     */
+    public Delivery poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return inbox.poll(timeout, unit);
+    }
+
+    /**
+     * @return number of deliveries waiting in the inbox
+     */
+    public int size() {
+        return inbox.size();
+    }
+
+    /**
+     * Queues a delivery, waiting if the mailbox is full.
+     */
+    void deliver(final Delivery delivery) throws InterruptedException {
+        inbox.put(delivery);
+    }
+}
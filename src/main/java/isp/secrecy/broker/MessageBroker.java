@@ -0,0 +1,156 @@
+package isp.secrecy.broker;
+
+import isp.secrecy.crypto.CipherPool;
+import isp.secrecy.crypto.KeyManager;
+
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Routes frames between any number of named agents.
+ * <p/>
+ * Every agent registers under a unique name and receives a {@link Mailbox}. Frames can be sent
+ * to a single recipient or broadcast to every other registered agent. Broadcast frames share
+ * their content; each recipient gets its own view of it and must not modify it. Mailboxes are
+ * bounded, so senders wait for agents that fall behind instead of queueing without limit.
+ * <p/>
+ * The broker also hands out a shared session key per pair of agents, created on first use and
+ * rotated by its {@link KeyManager}; {@link #sessionCipher(String)} seals and opens messages with
+ * them. All methods are thread-safe.
+ */
+public class MessageBroker {
+    public static final String SESSION_KEY_ALGORITHM = KeyManager.SESSION_KEY_ALGORITHM;
+    public static final int DEFAULT_MAILBOX_CAPACITY = 1024;
+
+    private final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final KeyManager keys;
+    private final int mailboxCapacity;
+
+    /**
+     * Creates a broker whose session keys are kept for up to 65536 agent pairs and never rotated,
+     * with mailboxes of {@link #DEFAULT_MAILBOX_CAPACITY} frames.
+     */
+    public MessageBroker() {
+        this(new KeyManager(1 << 16, KeyManager.NEVER, KeyManager.NEVER));
+    }
+
+    /**
+     * Creates a broker with mailboxes of {@link #DEFAULT_MAILBOX_CAPACITY} frames.
+     */
+    public MessageBroker(final KeyManager keys) {
+        this(keys, DEFAULT_MAILBOX_CAPACITY);
+    }
+
+    /**
+     * @param mailboxCapacity number of frames a mailbox holds before senders wait
+     */
+    public MessageBroker(final KeyManager keys, final int mailboxCapacity) {
+        if (mailboxCapacity < 1) {
+            throw new IllegalArgumentException("Invalid mailbox capacity: " + mailboxCapacity);
+        }
+        this.keys = keys;
+        this.mailboxCapacity = mailboxCapacity;
+    }
+
+    /**
+     * @return key manager holding the session keys
+     */
+    public KeyManager keys() {
+        return keys;
+    }
+
+    /**
+     * Registers a new agent.
+     *
+     * @throws IllegalStateException if the name is already taken
+     */
+    public Mailbox register(final String name) {
+        final Mailbox mailbox = new Mailbox(name, mailboxCapacity);
+        if (mailboxes.putIfAbsent(name, mailbox) != null) {
+            throw new IllegalStateException("Agent already registered: " + name);
+        }
+        return mailbox;
+    }
+
+    /**
+     * Removes an agent; frames still in its mailbox are discarded.
+     */
+    public void unregister(final String name) {
+        mailboxes.remove(name);
+    }
+
+    /**
+     * @return mailbox of given agent or null, if no such agent is registered
+     */
+    public Mailbox mailbox(final String name) {
+        return mailboxes.get(name);
+    }
+
+    /**
+     * @return number of registered agents
+     */
+    public int size() {
+        return mailboxes.size();
+    }
+
+    /**
+     * Returns a channel through which a registered agent sends to one recipient and reads its own mailbox.
+     *
+     * @throws IllegalArgumentException if the agent is not registered
+     */
+    public BrokerChannel channel(final String from, final String to) {
+        return new BrokerChannel(this, registered(from), to);
+    }
+
+    /**
+     * Returns a cipher with which an agent seals messages for other agents and opens theirs, with the
+     * session key of each pair.
+     */
+    public SessionCipher sessionCipher(final String name) {
+        return new SessionCipher(keys, name, CipherPool.shared());
+    }
+
+    /**
+     * Routes a frame to a single recipient, waiting if its mailbox is full.
+     *
+     * @throws IllegalArgumentException if the recipient is not registered
+     */
+    public void send(final String from, final String to, final ByteBuffer frame) throws InterruptedException {
+        registered(to).deliver(new Delivery(from, frame));
+    }
+
+    /**
+     * Sends a frame to every registered agent except the sender, waiting for each full mailbox in turn.
+     *
+     * @return number of recipients
+     */
+    public int broadcast(final String from, final ByteBuffer frame) throws InterruptedException {
+        int recipients = 0;
+        for (Mailbox mailbox : mailboxes.values()) {
+            if (!mailbox.name().equals(from)) {
+                mailbox.deliver(new Delivery(from, frame.duplicate()));
+                recipients++;
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * Returns the current session key shared by two agents, the same regardless of argument order.
+     * Use a {@link #sessionCipher(String)} to have keys rotated.
+     */
+    public Key sessionKey(final String a, final String b) throws NoSuchAlgorithmException {
+        return keys.current(a, b).key();
+    }
+
+    private Mailbox registered(final String name) {
+        final Mailbox mailbox = mailboxes.get(name);
+        if (mailbox == null) {
+            throw new IllegalArgumentException("Unknown agent: " + name);
+        }
+        return mailbox;
+    }
+}
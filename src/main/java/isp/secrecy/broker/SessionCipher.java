@@ -0,0 +1,88 @@
+package isp.secrecy.broker;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.crypto.CipherPool;
+import isp.secrecy.crypto.KeyManager;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+/**
+ * Seals messages of one agent registered with a {@link MessageBroker} for other agents, and opens
+ * theirs, with AES/GCM under the session key of each pair from the broker's {@link KeyManager}.
+ * <p/>
+ * Every sealed message counts towards the rotation of its pair's key, and its frame carries the
+ * EPOCH of the key, so messages sealed just before a rotation still open afterwards. The epoch and
+ * the names of sender and recipient are authenticated as additional data: since both directions of
+ * a pair share a key, a frame can neither be reflected to its sender nor passed off as coming from
+ * another agent.
+ * <p/>
+ * Instances are thread-safe.
+ */
+public class SessionCipher {
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BITS = 128;
+
+    private final KeyManager keys;
+    private final String name;
+    private final CipherPool pool;
+
+    SessionCipher(final KeyManager keys, final String name, final CipherPool pool) {
+        this.keys = keys;
+        this.name = name;
+        this.pool = pool;
+    }
+
+    /**
+     * Encrypts a message for given recipient.
+     */
+    public Frame seal(final String recipient, final byte[] message) throws GeneralSecurityException {
+        final KeyManager.SessionKey key = keys.next(name, recipient);
+        final Cipher cipher = pool.cipher(TRANSFORMATION, Cipher.ENCRYPT_MODE, key.key());
+        cipher.updateAAD(additionalData(key.epoch(), name, recipient));
+        return new Frame()
+                .put(FrameField.IV, cipher.getIV())
+                .put(FrameField.CIPHERTEXT, cipher.doFinal(message))
+                .putLong(FrameField.EPOCH, key.epoch());
+    }
+
+    /**
+     * Decrypts a delivered message, sealed by the sender's session cipher.
+     *
+     * @throws GeneralSecurityException if the epoch is unknown or no longer kept, or the message is not authentic
+     */
+    public byte[] open(final Delivery delivery) throws GeneralSecurityException {
+        return open(delivery.sender(), Frame.decode(delivery.frame()));
+    }
+
+    /**
+     * Decrypts a message that given sender sealed for this agent.
+     *
+     * @throws GeneralSecurityException if the epoch is unknown or no longer kept, or the message is not authentic
+     */
+    public byte[] open(final String sender, final Frame frame) throws GeneralSecurityException {
+        final long epoch = frame.getLong(FrameField.EPOCH);
+        final Key key = keys.key(name, sender, epoch);
+        if (key == null) {
+            throw new GeneralSecurityException("Unknown or expired epoch " + epoch + " of " + sender);
+        }
+        final Cipher cipher = pool.cipher(TRANSFORMATION, Cipher.DECRYPT_MODE, key,
+                new GCMParameterSpec(TAG_BITS, frame.getBytes(FrameField.IV)));
+        cipher.updateAAD(additionalData(epoch, sender, name));
+        return cipher.doFinal(frame.getBytes(FrameField.CIPHERTEXT));
+    }
+
+    /**
+     * @return epoch, sender and recipient, the names with their lengths so they cannot be shifted
+     */
+    private static byte[] additionalData(final long epoch, final String sender, final String recipient) {
+        final byte[] from = sender.getBytes(StandardCharsets.UTF_8), to = recipient.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(8 + 4 + from.length + 4 + to.length)
+                .putLong(epoch).putInt(from.length).put(from).putInt(to.length).put(to).array();
+    }
+}
@@ -0,0 +1,175 @@
+package isp.secrecy.channel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A binary message exchanged between agents.
+ * <p/>
+ * Wire format, all integers are big-endian:
+ * <pre>
+ *   int   length                 number of bytes that follow
+ *   field *                      zero or more fields, in tag order
+ *     byte  tag                  see {@link FrameField}
+ *     int   size                 number of value bytes
+ *     byte[size] value
+ * </pre>
+ * Unknown tags are skipped when decoding. Decoded field values are slices of the
+ * source buffer, so decoding does not copy the cipher text.
+ */
+public final class Frame {
+    public static final int LENGTH_SIZE = 4;
+    public static final int FIELD_HEADER_SIZE = 5;
+
+    private final ByteBuffer[] fields = new ByteBuffer[FrameField.VALUES.length];
+
+    /**
+     * Sets a field. The value's remaining bytes are referenced, not copied.
+     *
+     * @return this frame
+     */
+    public Frame put(FrameField field, ByteBuffer value) {
+        fields[field.ordinal()] = value == null ? null : value.slice();
+        return this;
+    }
+
+    /**
+     * Sets a field. The array is referenced, not copied.
+     *
+     * @return this frame
+     */
+    public Frame put(FrameField field, byte[] value) {
+        fields[field.ordinal()] = value == null ? null : ByteBuffer.wrap(value);
+        return this;
+    }
+
+    /**
+     * Sets a field to an 8 byte value.
+     *
+     * @return this frame
+     */
+    public Frame putLong(FrameField field, long value) {
+        final ByteBuffer buffer = ByteBuffer.allocate(8);
+        buffer.putLong(0, value);
+        fields[field.ordinal()] = buffer;
+        return this;
+    }
+
+    public boolean has(FrameField field) {
+        return fields[field.ordinal()] != null;
+    }
+
+    /**
+     * @return read-only view of the field value or null, if the field is not set
+     */
+    public ByteBuffer get(FrameField field) {
+        final ByteBuffer value = fields[field.ordinal()];
+        return value == null ? null : value.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return 8 byte value of the field
+     * @throws IllegalArgumentException if the field is not set or is not 8 bytes long
+     */
+    public long getLong(FrameField field) {
+        final ByteBuffer value = fields[field.ordinal()];
+        if (value == null || value.remaining() != 8) {
+            throw new IllegalArgumentException("Field " + field + " does not hold a long");
+        }
+        return value.getLong(value.position());
+    }
+
+    /**
+     * @return copy of the field value or null, if the field is not set
+     */
+    public byte[] getBytes(FrameField field) {
+        final ByteBuffer value = fields[field.ordinal()];
+        if (value == null) {
+            return null;
+        }
+        final byte[] bytes = new byte[value.remaining()];
+        value.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return number of bytes {@link #writeTo(ByteBuffer)} will write, including the length prefix
+     */
+    public int encodedLength() {
+        int length = LENGTH_SIZE;
+        for (ByteBuffer value : fields) {
+            if (value != null) {
+                length += FIELD_HEADER_SIZE + value.remaining();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the frame at the destination's position.
+     *
+     * @throws java.nio.BufferOverflowException if the destination has less than
+     *                                          {@link #encodedLength()} bytes remaining
+     */
+    public void writeTo(ByteBuffer destination) {
+        destination.putInt(encodedLength() - LENGTH_SIZE);
+        for (FrameField field : FrameField.VALUES) {
+            final ByteBuffer value = fields[field.ordinal()];
+            if (value != null) {
+                destination.put(field.tag());
+                destination.putInt(value.remaining());
+                destination.put(value.duplicate());
+            }
+        }
+    }
+
+    /**
+     * @return a new heap buffer holding the encoded frame, ready to be read
+     */
+    public ByteBuffer encode() {
+        final ByteBuffer buffer = ByteBuffer.allocate(encodedLength());
+        writeTo(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decodes the frame at the source's position and advances the position past it.
+     *
+     * @throws IllegalArgumentException if the source does not hold a well-formed frame
+     */
+    public static Frame decode(ByteBuffer source) {
+        if (source.remaining() < LENGTH_SIZE) {
+            throw new IllegalArgumentException("Truncated frame: missing length");
+        }
+        final int length = source.getInt();
+        if (length < 0 || length > source.remaining()) {
+            throw new IllegalArgumentException("Truncated frame: length " + length + ", available "
+                    + source.remaining());
+        }
+
+        final ByteBuffer body = source.slice();
+        body.limit(length);
+        source.position(source.position() + length);
+
+        final Frame frame = new Frame();
+        while (body.hasRemaining()) {
+            if (body.remaining() < FIELD_HEADER_SIZE) {
+                throw new IllegalArgumentException("Truncated field header");
+            }
+            final byte tag = body.get();
+            final int size = body.getInt();
+            if (size < 0 || size > body.remaining()) {
+                throw new IllegalArgumentException("Truncated field " + tag + ": size " + size);
+            }
+            final ByteBuffer value = body.slice();
+            value.limit(size);
+            body.position(body.position() + size);
+
+            final FrameField field = FrameField.forTag(tag);
+            if (field != null) {
+                frame.fields[field.ordinal()] = value;
+            }
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,16 @@
+package isp.secrecy.channel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * One direction of a communication channel carrying encoded {@link Frame}s, sent as by any
+ * {@link FrameSink} and pulled by the receiver.
+ */
+public interface FrameChannel extends FrameSink {
+
+    /**
+     * Receives the next frame, waiting if necessary until one becomes available.
+     */
+    ByteBuffer receive() throws IOException, InterruptedException;
+}
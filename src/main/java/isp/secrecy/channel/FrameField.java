@@ -0,0 +1,94 @@
+package isp.secrecy.channel;
+
+/**
+ * Typed header fields of a {@link Frame}.
+ * <p/>
+ * Every field is identified on the wire by its tag. Tags must never be reused or
+ * renumbered, since frames may be persisted or sent to agents running older code.
+ */
+public enum FrameField {
+    /**
+     * Encoded {@link java.security.AlgorithmParameters}, as returned by getEncoded().
+     */
+    PARAMETERS(1),
+    /**
+     * Raw initialization vector or nonce.
+     */
+    IV(2),
+    /**
+     * Cipher text.
+     */
+    CIPHERTEXT(3),
+    /**
+     * Index of a chunk within a stream, 8 bytes.
+     */
+    CHUNK(4),
+    /**
+     * Marks the last chunk of a stream, no value.
+     */
+    END(5),
+    /**
+     * Identifier of the session a message belongs to, 8 bytes.
+     */
+    SESSION(6),
+    /**
+     * Session key, wrapped with the recipient's public key.
+     */
+    WRAPPED_KEY(7),
+    /**
+     * Number of messages packed into the cipher text of a batch, 8 bytes.
+     */
+    BATCH(8),
+    /**
+     * Message authentication code over all other fields of the frame, as encoded.
+     */
+    MAC(9),
+    /**
+     * Cipher suites offered or chosen during negotiation, see {@link isp.secrecy.crypto.Negotiation}.
+     */
+    SUITES(10),
+    /**
+     * Number of a message within its session, 8 bytes, see {@link isp.secrecy.crypto.ReplayWindow}.
+     */
+    SEQUENCE(11),
+    /**
+     * Id of the {@link isp.secrecy.compress.Codec} the clear text was compressed with, 1 byte.
+     */
+    CODEC(12),
+    /**
+     * Random id of the end that sealed a sequenced frame, 8 bytes, see
+     * {@link isp.secrecy.crypto.FrameCipher}.
+     */
+    SENDER(13),
+    /**
+     * Epoch of the session key a message was sealed with, 8 bytes, see
+     * {@link isp.secrecy.crypto.KeyManager}.
+     */
+    EPOCH(14);
+
+    private final byte tag;
+
+    FrameField(int tag) {
+        this.tag = (byte) tag;
+    }
+
+    public byte tag() {
+        return tag;
+    }
+
+    /**
+     * @return field with given tag or null, if the tag is unknown
+     */
+    public static FrameField forTag(byte tag) {
+        return BY_TAG[tag & 0xFF];
+    }
+
+    static final FrameField[] VALUES = values();
+    private static final FrameField[] BY_TAG = new FrameField[256];
+
+    static {
+        for (FrameField field : VALUES) {
+            BY_TAG[field.tag & 0xFF] = field;
+        }
+    }
+}
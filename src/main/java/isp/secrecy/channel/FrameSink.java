@@ -0,0 +1,19 @@
+package isp.secrecy.channel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sending end of a communication channel carrying encoded {@link Frame}s.
+ * <p/>
+ * A buffer passed to {@link #send(ByteBuffer)} holds exactly one frame between its position
+ * and limit. Ownership of the buffer passes to the sink; the sender must not modify it
+ * afterwards.
+ */
+public interface FrameSink {
+
+    /**
+     * Sends a frame, waiting if necessary for the sink to accept it.
+     */
+    void send(ByteBuffer frame) throws IOException, InterruptedException;
+}
@@ -0,0 +1,35 @@
+package isp.secrecy.channel;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * In-process frame channel backed by a blocking queue. Frames are handed over by
+ * reference, nothing is copied or encoded.
+ */
+public class QueueChannel implements FrameChannel {
+    private final BlockingQueue<ByteBuffer> queue;
+
+    public QueueChannel() {
+        this(new LinkedBlockingQueue<ByteBuffer>());
+    }
+
+    public QueueChannel(final BlockingQueue<ByteBuffer> queue) {
+        this.queue = queue;
+    }
+
+    @Override
+    public void send(ByteBuffer frame) throws InterruptedException {
+        queue.put(frame);
+    }
+
+    @Override
+    public ByteBuffer receive() throws InterruptedException {
+        return queue.take();
+    }
+
+    public BlockingQueue<ByteBuffer> queue() {
+        return queue;
+    }
+}
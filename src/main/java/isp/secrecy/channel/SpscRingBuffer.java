@@ -0,0 +1,350 @@
+package isp.secrecy.channel;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free queue for exactly one producer thread and one consumer thread.
+ * <p/>
+ * Slots are pre-allocated in an array whose size is a power of two; offering and polling only
+ * move two sequence counters, so the queue allocates nothing in steady state. When the queue
+ * is full, put blocks the producer (backpressure) instead of growing. Blocking operations wait
+ * according to the configured {@link WaitStrategy}.
+ * <p/>
+ * It is a drop-in replacement for LinkedBlockingQueue as the outgoing/incoming pair of two
+ * agents, provided each queue has a single writer and a single reader:
+ * <pre>
+ *   final BlockingQueue&lt;String&gt; alice2bob = new SpscRingBuffer&lt;&gt;(1024, WaitStrategy.YIELD);
+ * </pre>
+ * Using it from more than one producer or more than one consumer thread corrupts it.
+ * Iteration, and the collection methods built on it, such as contains, remove(Object) and toArray,
+ * belong to the consumer thread, see {@link #iterator()}.
+ */
+public class SpscRingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Object[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    // written by the producer, read by the consumer; its cache is the producer's view of head
+    private final Sequence tail = new Sequence();
+    // written by the consumer, read by the producer; its cache is the consumer's view of tail
+    private final Sequence head = new Sequence();
+
+    private volatile Thread parkedProducer, parkedConsumer;
+
+    /**
+     * @param capacity     minimal capacity, rounded up to a power of two
+     * @param waitStrategy how blocked producers and consumers wait
+     */
+    public SpscRingBuffer(final int capacity, final WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.slots = new Object[size];
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        final long t = tail.getPlain();
+        if (t - tail.cache >= slots.length) {
+            tail.cache = head.getAcquire();
+            if (t - tail.cache >= slots.length) {
+                return false;
+            }
+        }
+        slots[(int) t & mask] = e;
+        tail.setRelease(t + 1);
+        if (waitStrategy == WaitStrategy.PARK) {
+            VarHandle.fullFence();
+            final Thread consumer = parkedConsumer;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final long h = head.getPlain();
+        if (h >= head.cache) {
+            head.cache = tail.getAcquire();
+            if (h >= head.cache) {
+                return null;
+            }
+        }
+        final int index = (int) h & mask;
+        final E e = (E) slots[index];
+        slots[index] = null;
+        advanceHead(h);
+        return e;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        final long h = head.getPlain();
+        if (h >= tail.getAcquire()) {
+            return null;
+        }
+        return (E) slots[(int) h & mask];
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        for (int attempt = 0; !offer(e); attempt++) {
+            idle(attempt, true);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int attempt = 0; !offer(e); attempt++) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            idle(attempt, true);
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        for (int attempt = 0; (e = poll()) == null; attempt++) {
+            idle(attempt, false);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        for (int attempt = 0; (e = poll()) == null; attempt++) {
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            idle(attempt, false);
+        }
+        return e;
+    }
+
+    @Override
+    public int size() {
+        // read head first, so that the difference is never negative
+        final long h = head.getAcquire();
+        return (int) Math.min(tail.getAcquire() - h, slots.length);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return slots.length - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the queued elements, in order. Like poll, it may only be
+     * called on the consumer thread, which owns the slots between head and tail: elements offered
+     * later are not included and elements polled meanwhile are still returned. Its remove takes the
+     * last returned element out of the queue, shifting the elements before it, and throws
+     * IllegalStateException if the element has been polled or moved meanwhile.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Snapshot(head.getPlain(), tail.getAcquire());
+    }
+
+    @Override
+    public String toString() {
+        return "SpscRingBuffer[size=" + size() + ", capacity=" + slots.length + ", " + waitStrategy + "]";
+    }
+
+    /**
+     * Frees the slot at h, the head, for the producer.
+     */
+    private void advanceHead(final long h) {
+        head.setRelease(h + 1);
+        if (waitStrategy == WaitStrategy.PARK) {
+            VarHandle.fullFence();
+            final Thread producer = parkedProducer;
+            if (producer != null) {
+                LockSupport.unpark(producer);
+            }
+        }
+    }
+
+    /**
+     * Consumer side iterator over the elements queued when it was created.
+     */
+    private final class Snapshot implements Iterator<E> {
+        private final long first;
+        private final Object[] elements;
+        private int next;
+        private int last = -1;
+
+        Snapshot(final long h, final long t) {
+            this.first = h;
+            this.elements = new Object[(int) (t - h)];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = slots[(int) (h + i) & mask];
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < elements.length;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (next >= elements.length) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return (E) elements[last];
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            final long h = head.getPlain(), at = first + last;
+            if (at < h || slots[(int) at & mask] != elements[last]) {
+                throw new IllegalStateException("Element was polled or moved since it was returned");
+            }
+            // the producer does not write the slots from head to at, so they can be shifted in place
+            for (long i = at; i > h; i--) {
+                slots[(int) i & mask] = slots[(int) (i - 1) & mask];
+            }
+            slots[(int) h & mask] = null;
+            advanceHead(h);
+            last = -1;
+        }
+    }
+
+    private void idle(final int attempt, final boolean producer) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        switch (waitStrategy) {
+            case SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                if (attempt < SPINS) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+                break;
+            case PARK:
+                if (attempt < SPINS) {
+                    Thread.onSpinWait();
+                } else if (attempt < SPINS + YIELDS) {
+                    Thread.yield();
+                } else {
+                    park(producer);
+                }
+                break;
+        }
+    }
+
+    private void park(final boolean producer) {
+        final Thread current = Thread.currentThread();
+        if (producer) {
+            parkedProducer = current;
+            if (tail.getPlain() - head.getVolatile() >= slots.length) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            parkedProducer = null;
+        } else {
+            parkedConsumer = current;
+            if (head.getPlain() >= tail.getVolatile()) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+            }
+            parkedConsumer = null;
+        }
+    }
+
+    /**
+     * A counter padded on both sides, so that head and tail never share a cache line, next to its
+     * owner's cached view of the other counter, which only the owner touches.
+     */
+    @SuppressWarnings("unused")
+    private static final class Sequence {
+        private static final VarHandle VALUE;
+
+        static {
+            try {
+                VALUE = MethodHandles.lookup().findVarHandle(Sequence.class, "value", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private long p01, p02, p03, p04, p05, p06, p07;
+        private long value;
+        /**
+         * Plain field of the thread that writes value.
+         */
+        private long cache;
+        private long p11, p12, p13, p14, p15, p16, p17;
+
+        long getPlain() {
+            return value;
+        }
+
+        long getAcquire() {
+            return (long) VALUE.getAcquire(this);
+        }
+
+        long getVolatile() {
+            return (long) VALUE.getVolatile(this);
+        }
+
+        void setRelease(long newValue) {
+            VALUE.setRelease(this, newValue);
+        }
+    }
+}
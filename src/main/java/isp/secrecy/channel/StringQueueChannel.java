@@ -0,0 +1,32 @@
+package isp.secrecy.channel;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Adapts the string-based communication channel of the examples to a frame channel.
+ * Each frame is sent as a single string, hexadecimal unless another {@link TextCodec} is given.
+ */
+public class StringQueueChannel implements FrameChannel {
+    private final BlockingQueue<String> queue;
+    private final TextCodec codec;
+
+    public StringQueueChannel(final BlockingQueue<String> queue) {
+        this(queue, TextCodec.HEX);
+    }
+
+    public StringQueueChannel(final BlockingQueue<String> queue, final TextCodec codec) {
+        this.queue = queue;
+        this.codec = codec;
+    }
+
+    @Override
+    public void send(ByteBuffer frame) throws InterruptedException {
+        queue.put(codec.encode(frame));
+    }
+
+    @Override
+    public ByteBuffer receive() throws InterruptedException {
+        return ByteBuffer.wrap(codec.decode(queue.take()));
+    }
+}
@@ -0,0 +1,406 @@
+package isp.secrecy.channel;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Table-driven binary-to-text codecs for sending binary data over the string-based channels.
+ * <p/>
+ * {@link #HEX} doubles the size of the data and is easy to read; {@link #BASE64} (RFC 4648, with
+ * padding) adds only a third. Both encode into and decode from caller-provided arrays and buffers
+ * without allocating; the methods returning a String or a new array allocate only their result.
+ * Text is decoded directly from any {@link CharSequence}, so a received String is not copied into
+ * a char array first. Malformed text is rejected with an {@link IllegalArgumentException}.
+ */
+public abstract class TextCodec {
+    public static final TextCodec HEX = new Hex();
+    public static final TextCodec BASE64 = new Base64();
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+    private static final int CHUNK = 3 * 1024;
+
+    TextCodec() {
+    }
+
+    /**
+     * @return number of characters the encoding of given number of bytes has
+     */
+    public abstract int encodedLength(int length);
+
+    /**
+     * @return number of bytes given text decodes into
+     * @throws IllegalArgumentException if the text cannot be well-formed because of its length
+     */
+    public abstract int decodedLength(CharSequence text, int offset, int length);
+
+    /**
+     * Encodes bytes into ASCII characters, one byte each.
+     *
+     * @return number of bytes written
+     */
+    public abstract int encode(byte[] source, int offset, int length, byte[] destination, int destinationOffset);
+
+    /**
+     * Encodes bytes into characters.
+     *
+     * @return number of characters written
+     */
+    public abstract int encode(byte[] source, int offset, int length, char[] destination, int destinationOffset);
+
+    /**
+     * Decodes characters into bytes. The destination needs room for
+     * {@link #decodedLength(CharSequence, int, int)} bytes.
+     *
+     * @return number of bytes written
+     */
+    public abstract int decode(CharSequence source, int offset, int length, byte[] destination, int destinationOffset);
+
+    public String encode(final byte[] bytes) {
+        return encode(bytes, 0, bytes.length);
+    }
+
+    public String encode(final byte[] bytes, final int offset, final int length) {
+        final byte[] text = SCRATCH.get().text(encodedLength(length));
+        return new String(text, 0, encode(bytes, offset, length, text, 0), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Encodes the buffer's remaining bytes and advances its position past them.
+     */
+    public String encode(final ByteBuffer source) {
+        final int length = source.remaining();
+        final String text;
+        if (source.hasArray()) {
+            text = encode(source.array(), source.arrayOffset() + source.position(), length);
+        } else {
+            final byte[] bytes = SCRATCH.get().bytes(length);
+            source.get(source.position(), bytes, 0, length);
+            text = encode(bytes, 0, length);
+        }
+        source.position(source.limit());
+        return text;
+    }
+
+    /**
+     * Encodes the source's remaining bytes into the destination. Both positions are advanced.
+     *
+     * @throws BufferOverflowException if the destination has less than {@link #encodedLength(int)}
+     *                                 characters remaining; neither buffer is modified then
+     */
+    public void encode(final ByteBuffer source, final CharBuffer destination) {
+        if (destination.remaining() < encodedLength(source.remaining())) {
+            throw new BufferOverflowException();
+        }
+        final Scratch scratch = SCRATCH.get();
+        while (source.hasRemaining()) {
+            // whole groups only, so chunks encode exactly like the whole
+            final int length = Math.min(source.remaining(), CHUNK);
+            final byte[] in;
+            final int inOffset;
+            if (source.hasArray()) {
+                in = source.array();
+                inOffset = source.arrayOffset() + source.position();
+            } else {
+                in = scratch.bytes(length);
+                inOffset = 0;
+                source.get(source.position(), in, 0, length);
+            }
+            if (destination.hasArray()) {
+                final int written = encode(in, inOffset, length, destination.array(),
+                        destination.arrayOffset() + destination.position());
+                destination.position(destination.position() + written);
+            } else {
+                final char[] out = scratch.chars(encodedLength(length));
+                destination.put(out, 0, encode(in, inOffset, length, out, 0));
+            }
+            source.position(source.position() + length);
+        }
+    }
+
+    /**
+     * @return new array holding the decoded text
+     */
+    public byte[] decode(final CharSequence text) {
+        final byte[] bytes = new byte[decodedLength(text, 0, text.length())];
+        decode(text, 0, text.length(), bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Decodes the text into the destination and advances its position. If the text is a
+     * {@link CharBuffer}, its remaining characters are decoded and its position is advanced too.
+     *
+     * @throws BufferOverflowException if the destination is too small; it is not modified then
+     */
+    public void decode(final CharSequence text, final ByteBuffer destination) {
+        final int length = decodedLength(text, 0, text.length());
+        if (destination.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        if (destination.hasArray()) {
+            decode(text, 0, text.length(), destination.array(), destination.arrayOffset() + destination.position());
+            destination.position(destination.position() + length);
+        } else {
+            final byte[] bytes = SCRATCH.get().bytes(length);
+            decode(text, 0, text.length(), bytes, 0);
+            destination.put(bytes, 0, length);
+        }
+        if (text instanceof CharBuffer) {
+            final CharBuffer buffer = (CharBuffer) text;
+            buffer.position(buffer.limit());
+        }
+    }
+
+    static IllegalArgumentException malformed(final CharSequence text, final int index, final int length) {
+        return new IllegalArgumentException("Malformed text at " + index + ": '"
+                + text.subSequence(index, index + length) + "'");
+    }
+
+    /**
+     * @return table of 128 entries mapping the characters to their values, -1 for other characters
+     */
+    static byte[] values(final String alphabet) {
+        final byte[] values = new byte[128];
+        Arrays.fill(values, (byte) -1);
+        for (int i = 0; i < alphabet.length(); i++) {
+            values[alphabet.charAt(i)] = (byte) i;
+        }
+        return values;
+    }
+
+    /**
+     * Upper case hexadecimal, decodes either case.
+     */
+    private static final class Hex extends TextCodec {
+        /**
+         * Both digits of every byte value, so encoding takes one lookup per byte.
+         */
+        private static final char[] PAIRS = new char[512];
+        private static final byte[] VALUES = values("0123456789ABCDEF");
+
+        static {
+            final String digits = "0123456789ABCDEF";
+            for (int i = 0; i < 256; i++) {
+                PAIRS[2 * i] = digits.charAt(i >>> 4);
+                PAIRS[2 * i + 1] = digits.charAt(i & 0xF);
+            }
+            for (char c = 'a'; c <= 'f'; c++) {
+                VALUES[c] = (byte) (c - 'a' + 10);
+            }
+        }
+
+        @Override
+        public int encodedLength(final int length) {
+            return 2 * length;
+        }
+
+        @Override
+        public int decodedLength(final CharSequence text, final int offset, final int length) {
+            if ((length & 1) != 0) {
+                throw new IllegalArgumentException("Hexadecimal text has an odd length: " + length);
+            }
+            return length / 2;
+        }
+
+        @Override
+        public int encode(byte[] source, int offset, int length, byte[] destination, int destinationOffset) {
+            for (int i = 0, j = destinationOffset; i < length; i++, j += 2) {
+                final int pair = (source[offset + i] & 0xFF) << 1;
+                destination[j] = (byte) PAIRS[pair];
+                destination[j + 1] = (byte) PAIRS[pair + 1];
+            }
+            return 2 * length;
+        }
+
+        @Override
+        public int encode(byte[] source, int offset, int length, char[] destination, int destinationOffset) {
+            for (int i = 0, j = destinationOffset; i < length; i++, j += 2) {
+                final int pair = (source[offset + i] & 0xFF) << 1;
+                destination[j] = PAIRS[pair];
+                destination[j + 1] = PAIRS[pair + 1];
+            }
+            return 2 * length;
+        }
+
+        @Override
+        public int decode(CharSequence source, int offset, int length, byte[] destination, int destinationOffset) {
+            final int bytes = decodedLength(source, offset, length);
+            for (int i = 0, j = offset; i < bytes; i++, j += 2) {
+                final char high = source.charAt(j), low = source.charAt(j + 1);
+                if ((high | low) >= 128) {
+                    throw malformed(source, j, 2);
+                }
+                final int value = VALUES[high] << 4 | VALUES[low];
+                if (value < 0) {
+                    throw malformed(source, j, 2);
+                }
+                destination[destinationOffset + i] = (byte) value;
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * RFC 4648 Base64 with padding; decodes text with or without padding.
+     */
+    private static final class Base64 extends TextCodec {
+        private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        private static final char[] CHARS = ALPHABET.toCharArray();
+        private static final byte[] VALUES = values(ALPHABET);
+        /**
+         * Both characters of every 12 bit value, so a group of three bytes takes two lookups.
+         */
+        private static final char[] PAIRS = new char[2 * 4096];
+
+        static {
+            for (int i = 0; i < 4096; i++) {
+                PAIRS[2 * i] = CHARS[i >>> 6];
+                PAIRS[2 * i + 1] = CHARS[i & 0x3F];
+            }
+        }
+
+        @Override
+        public int encodedLength(final int length) {
+            return (length + 2) / 3 * 4;
+        }
+
+        @Override
+        public int decodedLength(final CharSequence text, final int offset, final int length) {
+            final int unpadded = unpadded(text, offset, length);
+            if (unpadded % 4 == 1 || unpadded < length && length % 4 != 0) {
+                throw new IllegalArgumentException("Base64 text has an impossible length: " + length);
+            }
+            return unpadded / 4 * 3 + Math.max(0, unpadded % 4 - 1);
+        }
+
+        private static int unpadded(final CharSequence text, final int offset, final int length) {
+            int unpadded = length;
+            while (unpadded > 0 && length - unpadded < 2 && text.charAt(offset + unpadded - 1) == '=') {
+                unpadded--;
+            }
+            return unpadded;
+        }
+
+        @Override
+        public int encode(byte[] source, int offset, int length, byte[] destination, int destinationOffset) {
+            int i = offset, j = destinationOffset;
+            final int full = offset + length / 3 * 3;
+            for (; i < full; i += 3, j += 4) {
+                final int bits = (source[i] & 0xFF) << 16 | (source[i + 1] & 0xFF) << 8 | source[i + 2] & 0xFF;
+                final int high = bits >>> 12 << 1, low = (bits & 0xFFF) << 1;
+                destination[j] = (byte) PAIRS[high];
+                destination[j + 1] = (byte) PAIRS[high + 1];
+                destination[j + 2] = (byte) PAIRS[low];
+                destination[j + 3] = (byte) PAIRS[low + 1];
+            }
+            final int rest = offset + length - i;
+            if (rest > 0) {
+                final int bits = (source[i] & 0xFF) << 16 | (rest == 2 ? (source[i + 1] & 0xFF) << 8 : 0);
+                destination[j] = (byte) CHARS[bits >>> 18];
+                destination[j + 1] = (byte) CHARS[bits >>> 12 & 0x3F];
+                destination[j + 2] = rest == 2 ? (byte) CHARS[bits >>> 6 & 0x3F] : (byte) '=';
+                destination[j + 3] = (byte) '=';
+                j += 4;
+            }
+            return j - destinationOffset;
+        }
+
+        @Override
+        public int encode(byte[] source, int offset, int length, char[] destination, int destinationOffset) {
+            int i = offset, j = destinationOffset;
+            final int full = offset + length / 3 * 3;
+            for (; i < full; i += 3, j += 4) {
+                final int bits = (source[i] & 0xFF) << 16 | (source[i + 1] & 0xFF) << 8 | source[i + 2] & 0xFF;
+                final int high = bits >>> 12 << 1, low = (bits & 0xFFF) << 1;
+                destination[j] = PAIRS[high];
+                destination[j + 1] = PAIRS[high + 1];
+                destination[j + 2] = PAIRS[low];
+                destination[j + 3] = PAIRS[low + 1];
+            }
+            final int rest = offset + length - i;
+            if (rest > 0) {
+                final int bits = (source[i] & 0xFF) << 16 | (rest == 2 ? (source[i + 1] & 0xFF) << 8 : 0);
+                destination[j] = CHARS[bits >>> 18];
+                destination[j + 1] = CHARS[bits >>> 12 & 0x3F];
+                destination[j + 2] = rest == 2 ? CHARS[bits >>> 6 & 0x3F] : '=';
+                destination[j + 3] = '=';
+                j += 4;
+            }
+            return j - destinationOffset;
+        }
+
+        @Override
+        public int decode(CharSequence source, int offset, int length, byte[] destination, int destinationOffset) {
+            final int bytes = decodedLength(source, offset, length);
+            final int unpadded = unpadded(source, offset, length);
+            int i = offset, j = destinationOffset;
+            final int full = offset + unpadded / 4 * 4;
+            for (; i < full; i += 4, j += 3) {
+                final char c0 = source.charAt(i), c1 = source.charAt(i + 1);
+                final char c2 = source.charAt(i + 2), c3 = source.charAt(i + 3);
+                // one check per group: characters beyond ASCII, and invalid ones, whose value -1 makes bits negative
+                if ((c0 | c1 | c2 | c3) >= 128) {
+                    throw malformed(source, i, 4);
+                }
+                final int bits = VALUES[c0] << 18 | VALUES[c1] << 12 | VALUES[c2] << 6 | VALUES[c3];
+                if (bits < 0) {
+                    throw malformed(source, i, 4);
+                }
+                destination[j] = (byte) (bits >>> 16);
+                destination[j + 1] = (byte) (bits >>> 8);
+                destination[j + 2] = (byte) bits;
+            }
+            final int rest = offset + unpadded - i;
+            if (rest > 0) {
+                final int bits = value(source, i) << 18 | value(source, i + 1) << 12
+                        | (rest == 3 ? value(source, i + 2) << 6 : 0);
+                destination[j] = (byte) (bits >>> 16);
+                if (rest == 3) {
+                    destination[j + 1] = (byte) (bits >>> 8);
+                }
+            }
+            return bytes;
+        }
+
+        private static int value(final CharSequence text, final int index) {
+            final char c = text.charAt(index);
+            final int value = c < 128 ? VALUES[c] : -1;
+            if (value < 0) {
+                throw malformed(text, index, 1);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Per-thread buffers for staging data of buffers without an accessible array.
+     */
+    private static final class Scratch {
+        private byte[] bytes = new byte[0], text = new byte[0];
+        private char[] chars = new char[0];
+
+        byte[] bytes(int length) {
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            return bytes;
+        }
+
+        byte[] text(int length) {
+            if (text.length < length) {
+                text = new byte[Math.max(length, 2 * text.length)];
+            }
+            return text;
+        }
+
+        char[] chars(int length) {
+            if (chars.length < length) {
+                chars = new char[Math.max(length, 2 * chars.length)];
+            }
+            return chars;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package isp.secrecy.channel;
+
+/**
+ * How a thread waits for a {@link SpscRingBuffer} to become non-empty (consumer)
+ * or non-full (producer).
+ */
+public enum WaitStrategy {
+    /**
+     * Busy spin. Lowest latency, burns a core per waiting thread. Only use it when producer
+     * and consumer each have a dedicated core, otherwise the spinning thread starves the other.
+     */
+    SPIN,
+    /**
+     * Spin briefly, then yield the processor between checks.
+     */
+    YIELD,
+    /**
+     * Spin and yield briefly, then park until woken by the other side.
+     * Highest latency, but idle threads use no CPU.
+     */
+    PARK
+}
@@ -0,0 +1,306 @@
+package isp.secrecy.compress;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Lossless compression codecs for clear texts, identified on the wire by a one byte id.
+ * <p/>
+ * {@link #DEFLATE} (raw deflate, without zlib header and checksum, which the MAC or AEAD tag makes
+ * redundant) compresses best; {@link #LZ} is a byte oriented LZ77 in the style of LZ4 that compresses
+ * less but several times faster, and decompresses faster still. Both compress into and decompress from
+ * caller-provided arrays. Deflaters and inflaters hold native memory and are expensive to create, so
+ * every thread reuses one of each.
+ * <p/>
+ * Ids must never be reused or renumbered, like frame tags.
+ */
+public abstract class Codec {
+    public static final Codec DEFLATE = new Deflate(Deflater.DEFAULT_COMPRESSION);
+    public static final Codec LZ = new Lz();
+
+    private static final Codec[] BY_ID = {null, DEFLATE, LZ};
+
+    Codec() {
+    }
+
+    /**
+     * @return id on the wire
+     */
+    public abstract byte id();
+
+    /**
+     * Compresses the source into at most maxLength bytes of the destination.
+     *
+     * @return number of bytes written, or -1 if the compressed form does not fit into maxLength
+     */
+    public abstract int compress(byte[] source, int offset, int length, byte[] destination, int destinationOffset,
+                                 int maxLength);
+
+    /**
+     * Decompresses the source, which must decompress into exactly length bytes.
+     *
+     * @throws DataFormatException if the source is malformed or does not decompress into length bytes
+     */
+    public abstract void decompress(byte[] source, int offset, int length, byte[] destination,
+                                    int destinationOffset, int decompressedLength) throws DataFormatException;
+
+    /**
+     * @return codec with given id or null, if the id is unknown
+     */
+    public static Codec forId(final byte id) {
+        return id > 0 && id < BY_ID.length ? BY_ID[id] : null;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName().toUpperCase();
+    }
+
+    /**
+     * java.util.zip with per-thread instances.
+     */
+    private static final class Deflate extends Codec {
+        private final ThreadLocal<Deflater> deflaters;
+        private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+        Deflate(final int level) {
+            this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+        }
+
+        @Override
+        public byte id() {
+            return 1;
+        }
+
+        @Override
+        public int compress(byte[] source, int offset, int length, byte[] destination, int destinationOffset,
+                            int maxLength) {
+            final Deflater deflater = deflaters.get();
+            try {
+                deflater.setInput(source, offset, length);
+                deflater.finish();
+                final int written = deflater.deflate(destination, destinationOffset, maxLength);
+                return deflater.finished() ? written : -1;
+            } finally {
+                deflater.reset();
+            }
+        }
+
+        @Override
+        public void decompress(byte[] source, int offset, int length, byte[] destination, int destinationOffset,
+                               int decompressedLength) throws DataFormatException {
+            final Inflater inflater = inflaters.get();
+            try {
+                inflater.setInput(source, offset, length);
+                final int written = inflater.inflate(destination, destinationOffset, decompressedLength);
+                if (written != decompressedLength || !inflater.finished()) {
+                    throw new DataFormatException("Decompressed " + written + " bytes instead of "
+                            + decompressedLength);
+                }
+            } finally {
+                inflater.reset();
+            }
+        }
+    }
+
+    /**
+     * LZ77 with a single hash table probe per position, in the block format of LZ4:
+     * <pre>
+     *   sequence *
+     *     byte      token                 literal length (high 4 bits), match length - 4 (low 4 bits)
+     *     byte *    more literal length   if 15: bytes added until one is not 255
+     *     byte[]    literals
+     *     short     offset                little-endian, back from the current position, 1 to 65535
+     *     byte *    more match length     as for literals
+     * </pre>
+     * The last sequence has literals only and ends the block.
+     */
+    private static final class Lz extends Codec {
+        private static final int MIN_MATCH = 4;
+        private static final int MAX_OFFSET = 0xFFFF;
+        /**
+         * Matches must end this far before the end, so the last bytes are always literals.
+         */
+        private static final int LAST_LITERALS = 5;
+        private static final int HASH_BITS = 12;
+        /**
+         * The search skips faster the longer it finds no match, so incompressible input passes quickly.
+         */
+        private static final int SKIP_SHIFT = 6;
+
+        /**
+         * Positions by hash of the 4 bytes there. Entries left over from earlier calls are mere hints,
+         * every candidate is verified, so the table is never cleared.
+         */
+        private static final ThreadLocal<int[]> TABLES = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+        @Override
+        public byte id() {
+            return 2;
+        }
+
+        @Override
+        public int compress(byte[] source, int offset, int length, byte[] destination, int destinationOffset,
+                            int maxLength) {
+            final int[] table = TABLES.get();
+            final int end = offset + length, matchLimit = end - LAST_LITERALS;
+            final int limit = destinationOffset + maxLength;
+            int anchor = offset, position = offset, out = destinationOffset;
+
+            while (position + MIN_MATCH <= matchLimit) {
+                final int sequence = readInt(source, position);
+                final int hash = hash(sequence);
+                int candidate = table[hash];
+                table[hash] = position;
+                if (candidate < offset || candidate >= position || position - candidate > MAX_OFFSET
+                        || readInt(source, candidate) != sequence) {
+                    position += 1 + ((position - anchor) >>> SKIP_SHIFT);
+                    continue;
+                }
+                int matchLength = MIN_MATCH;
+                while (position + matchLength < matchLimit
+                        && source[candidate + matchLength] == source[position + matchLength]) {
+                    matchLength++;
+                }
+                // the match may start before the position that was hashed
+                int back = 0;
+                while (position - back > anchor && candidate - back > offset
+                        && source[position - back - 1] == source[candidate - back - 1]) {
+                    back++;
+                }
+                position -= back;
+                candidate -= back;
+                matchLength += back;
+                final int token = out, more = matchLength - MIN_MATCH;
+                out = sequence(source, anchor, position - anchor, destination, out, limit);
+                if (out < 0 || out + 2 + (more >= 15 ? (more - 15) / 255 + 1 : 0) > limit) {
+                    return -1;
+                }
+                final int distance = position - candidate;
+                destination[out++] = (byte) distance;
+                destination[out++] = (byte) (distance >>> 8);
+                destination[token] |= (byte) Math.min(more, 15);
+                if (more >= 15) {
+                    out = writeLength(destination, out, more - 15);
+                }
+                position += matchLength;
+                anchor = position;
+                if (position + MIN_MATCH <= matchLimit) {
+                    // the next match may start within this one
+                    table[hash(readInt(source, position - 2))] = position - 2;
+                }
+            }
+            out = sequence(source, anchor, end - anchor, destination, out, limit);
+            return out < 0 ? -1 : out - destinationOffset;
+        }
+
+        /**
+         * Writes the token with the literal length, leaving its match length 0, and the literals.
+         *
+         * @return position after the literals, or -1 if they do not fit
+         */
+        private static int sequence(final byte[] source, final int from, final int literals, final byte[] destination,
+                                    int out, final int limit) {
+            if (out + 1 + literalLengthBytes(literals) + literals > limit) {
+                return -1;
+            }
+            destination[out++] = (byte) (Math.min(literals, 15) << 4);
+            if (literals >= 15) {
+                out = writeLength(destination, out, literals - 15);
+            }
+            System.arraycopy(source, from, destination, out, literals);
+            return out + literals;
+        }
+
+        private static int literalLengthBytes(final int literals) {
+            return literals < 15 ? 0 : (literals - 15) / 255 + 1;
+        }
+
+        private static int writeLength(final byte[] destination, int out, int length) {
+            while (length >= 255) {
+                destination[out++] = (byte) 255;
+                length -= 255;
+            }
+            destination[out++] = (byte) length;
+            return out;
+        }
+
+        @Override
+        public void decompress(byte[] source, int offset, int length, byte[] destination, int destinationOffset,
+                               int decompressedLength) throws DataFormatException {
+            final int end = offset + length, outEnd = destinationOffset + decompressedLength;
+            int in = offset, out = destinationOffset;
+            while (true) {
+                if (in >= end) {
+                    throw new DataFormatException("Truncated sequence at " + (in - offset));
+                }
+                final int token = source[in++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int more;
+                    do {
+                        if (in >= end) {
+                            throw new DataFormatException("Truncated literal length");
+                        }
+                        more = source[in++] & 0xFF;
+                        literals += more;
+                    } while (more == 255);
+                }
+                if (literals > end - in || literals > outEnd - out) {
+                    throw new DataFormatException("Literals beyond the end");
+                }
+                System.arraycopy(source, in, destination, out, literals);
+                in += literals;
+                out += literals;
+                if (in == end) {
+                    break;
+                }
+
+                if (end - in < 2) {
+                    throw new DataFormatException("Truncated offset");
+                }
+                final int distance = source[in] & 0xFF | (source[in + 1] & 0xFF) << 8;
+                in += 2;
+                int match = token & 0x0F;
+                if (match == 15) {
+                    int more;
+                    do {
+                        if (in >= end) {
+                            throw new DataFormatException("Truncated match length");
+                        }
+                        more = source[in++] & 0xFF;
+                        match += more;
+                    } while (more == 255);
+                }
+                match += MIN_MATCH;
+                if (distance == 0 || distance > out - destinationOffset || match > outEnd - out) {
+                    throw new DataFormatException("Match outside of the output");
+                }
+                final int from = out - distance;
+                if (distance >= match) {
+                    System.arraycopy(destination, from, destination, out, match);
+                } else {
+                    // overlapping: the match repeats its own beginning
+                    for (int i = 0; i < match; i++) {
+                        destination[out + i] = destination[from + i];
+                    }
+                }
+                out += match;
+            }
+            if (out != outEnd) {
+                throw new DataFormatException("Decompressed " + (out - destinationOffset) + " bytes instead of "
+                        + decompressedLength);
+            }
+        }
+
+        private static int hash(final int sequence) {
+            return sequence * 0x9E3779B1 >>> (32 - HASH_BITS);
+        }
+
+        private static int readInt(final byte[] bytes, final int index) {
+            return bytes[index] & 0xFF | (bytes[index + 1] & 0xFF) << 8 | (bytes[index + 2] & 0xFF) << 16
+                    | bytes[index + 3] << 24;
+        }
+    }
+}
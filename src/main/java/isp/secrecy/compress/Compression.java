@@ -0,0 +1,150 @@
+package isp.secrecy.compress;
+
+import isp.secrecy.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+
+/**
+ * When and how clear texts are compressed before they are encrypted.
+ * <p/>
+ * A compressed clear text is packed as the 4 byte length of the original, followed by the output of
+ * the {@link Codec}. Messages shorter than the threshold are never compressed: headers and the length
+ * would eat most of the gain and the codec's setup dominates the cost. Neither are messages that do not
+ * shrink by at least 1/32, e.g. data that is already compressed or encrypted; for long messages this
+ * is first probed on their beginning, so incompressible data is skipped after compressing a few KB.
+ * Decompression trusts no length: packed forms that are malformed, declare more than
+ * {@link #MAX_LENGTH} bytes or do not decompress into exactly the declared length are rejected.
+ * <p/>
+ * Compression before encryption leaks through the length of the cipher text how well the clear text
+ * compresses. When an attacker can mix own data with secrets in the same message and watch the
+ * lengths, the secrets can be guessed byte by byte (CRIME, BREACH). Do not compress messages that
+ * combine secrets with attacker controlled data.
+ * <p/>
+ * Bytes before and after compression are counted in {@link Metrics#global()} under
+ * compression.&lt;codec&gt;.in and .out, skipped messages under compression.skipped.
+ */
+public final class Compression {
+    public static final int DEFAULT_THRESHOLD = 256;
+    /**
+     * Largest clear text a packed form may declare, 64 MB.
+     */
+    public static final int MAX_LENGTH = 1 << 26;
+    public static final int LENGTH_SIZE = 4;
+
+    private static final int PROBE_FROM = 16 << 10, PROBE_LENGTH = 4 << 10;
+    private static final ThreadLocal<byte[]> PROBES = ThreadLocal.withInitial(() -> new byte[PROBE_LENGTH]);
+
+    private final Codec codec;
+    private final int threshold;
+    private final LongAdder in, out, skipped;
+
+    public Compression(final Codec codec) {
+        this(codec, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold length below which messages are not compressed
+     */
+    public Compression(final Codec codec, final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Negative threshold: " + threshold);
+        }
+        this.codec = codec;
+        this.threshold = threshold;
+        final Metrics metrics = Metrics.global();
+        this.in = metrics.counter("compression." + codec + ".in");
+        this.out = metrics.counter("compression." + codec + ".out");
+        this.skipped = metrics.counter("compression.skipped");
+    }
+
+    public Codec codec() {
+        return codec;
+    }
+
+    public int threshold() {
+        return threshold;
+    }
+
+    /**
+     * Packs the source into the destination, if it is worth it.
+     *
+     * @param maxLength longest packed form the caller accepts; the destination must have room for it
+     * @return length of the packed form, or -1 if the source is not compressed
+     */
+    public int compress(final byte[] source, final int offset, final int length, final byte[] destination,
+                        final int destinationOffset, final int maxLength) {
+        final int limit = Math.min(maxLength, length - length / 32) - LENGTH_SIZE;
+        if (length < threshold || limit <= 0 || length > MAX_LENGTH || !probe(source, offset, length)) {
+            skipped.increment();
+            return -1;
+        }
+        final int written = codec.compress(source, offset, length, destination, destinationOffset + LENGTH_SIZE,
+                limit);
+        if (written < 0) {
+            skipped.increment();
+            return -1;
+        }
+        destination[destinationOffset] = (byte) (length >>> 24);
+        destination[destinationOffset + 1] = (byte) (length >>> 16);
+        destination[destinationOffset + 2] = (byte) (length >>> 8);
+        destination[destinationOffset + 3] = (byte) length;
+        in.add(length);
+        out.add(LENGTH_SIZE + written);
+        return LENGTH_SIZE + written;
+    }
+
+    /**
+     * @return packed form of the message, or null if it is not compressed
+     */
+    public byte[] compress(final byte[] message, final int maxLength) {
+        final int limit = Math.min(maxLength, message.length);
+        final byte[] packed = new byte[Math.max(0, limit)];
+        final int length = compress(message, 0, message.length, packed, 0, limit);
+        return length < 0 ? null : Arrays.copyOf(packed, length);
+    }
+
+    /**
+     * Compresses the beginning of long messages to tell whether the rest is worth it.
+     */
+    private boolean probe(final byte[] source, final int offset, final int length) {
+        return length < PROBE_FROM
+                || codec.compress(source, offset, PROBE_LENGTH, PROBES.get(), 0, PROBE_LENGTH - PROBE_LENGTH / 32) >= 0;
+    }
+
+    /**
+     * @return length of the clear text the packed form declares
+     * @throws DataFormatException if it is negative, larger than {@link #MAX_LENGTH} or the length is missing
+     */
+    public static int length(final byte[] packed, final int offset, final int length) throws DataFormatException {
+        if (length < LENGTH_SIZE) {
+            throw new DataFormatException("Truncated length");
+        }
+        final int declared = (packed[offset] & 0xFF) << 24 | (packed[offset + 1] & 0xFF) << 16
+                | (packed[offset + 2] & 0xFF) << 8 | packed[offset + 3] & 0xFF;
+        if (declared < 0 || declared > MAX_LENGTH) {
+            throw new DataFormatException("Declared length out of range: " + declared);
+        }
+        return declared;
+    }
+
+    /**
+     * Unpacks into the destination, which must have room for {@link #length(byte[], int, int)} bytes.
+     *
+     * @return number of bytes written
+     */
+    public static int decompress(final Codec codec, final byte[] packed, final int offset, final int length,
+                                 final byte[] destination, final int destinationOffset) throws DataFormatException {
+        final int declared = length(packed, offset, length);
+        codec.decompress(packed, offset + LENGTH_SIZE, length - LENGTH_SIZE, destination, destinationOffset,
+                declared);
+        return declared;
+    }
+
+    public static byte[] decompress(final Codec codec, final byte[] packed) throws DataFormatException {
+        final byte[] clearText = new byte[length(packed, 0, packed.length)];
+        decompress(codec, packed, 0, packed.length, clearText, 0);
+        return clearText;
+    }
+}
@@ -0,0 +1,69 @@
+package isp.secrecy.crypto;
+
+import java.io.IOException;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+
+/**
+ * Helpers for working with cipher transformation strings such as "AES/CBC/PKCS5Padding".
+ */
+public final class Algorithms {
+
+    private Algorithms() {
+    }
+
+    /**
+     * @return algorithm part of the transformation, e.g. "AES" for "AES/CBC/PKCS5Padding"
+     */
+    public static String keyAlgorithm(final String transformation) {
+        final int slash = transformation.indexOf('/');
+        return slash < 0 ? transformation : transformation.substring(0, slash);
+    }
+
+    /**
+     * @return mode part of the transformation or null, if the transformation has none
+     */
+    public static String mode(final String transformation) {
+        final String[] parts = transformation.split("/");
+        return parts.length > 1 ? parts[1] : null;
+    }
+
+    /**
+     * @return false for transformations that must not be chosen automatically: ECB modes (also AES
+     * without a mode, which defaults to ECB), since they leak repeated blocks, RC4, which has biased key
+     * streams, and DES and DESede, whose keys or blocks are too short
+     */
+    public static boolean isSecure(final String transformation) {
+        final String algorithm = keyAlgorithm(transformation).toUpperCase();
+        final String mode = mode(transformation);
+        return !("ECB".equalsIgnoreCase(mode) || algorithm.equals("RC4") || algorithm.equals("ARCFOUR")
+                || algorithm.equals("DES") || algorithm.equals("DESEDE")
+                || mode == null && (algorithm.equals("AES") || algorithm.startsWith("AES_")));
+    }
+
+    /**
+     * @return name under which AlgorithmParameters of given transformation are registered
+     */
+    public static String parametersAlgorithm(final String transformation) {
+        return "GCM".equals(mode(transformation)) ? "GCM" : keyAlgorithm(transformation);
+    }
+
+    /**
+     * Decodes parameters produced by AlgorithmParameters.getEncoded() for given transformation.
+     *
+     * @return decoded parameters or null, if encoded is null
+     */
+    public static AlgorithmParameters parameters(final String transformation, final byte[] encoded)
+            throws GeneralSecurityException {
+        if (encoded == null) {
+            return null;
+        }
+        final AlgorithmParameters parameters = AlgorithmParameters.getInstance(parametersAlgorithm(transformation));
+        try {
+            parameters.init(encoded);
+        } catch (IOException e) {
+            throw new GeneralSecurityException("Malformed algorithm parameters", e);
+        }
+        return parameters;
+    }
+}
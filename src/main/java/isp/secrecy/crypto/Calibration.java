@@ -0,0 +1,177 @@
+package isp.secrecy.crypto;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures how fast every {@link CipherSuite} seals and opens messages of a given size on this
+ * JVM and CPU.
+ * <p/>
+ * Which suite is fastest depends on the hardware: with AES instructions (AES-NI on x86, the
+ * cryptography extensions on ARM) and the JIT intrinsics that use them, AES/GCM is usually the
+ * fastest; without them ChaCha20-Poly1305 is. Small messages favour suites with the cheapest
+ * initialization, large ones those with the highest throughput. Rather than guessing, every suite
+ * seals and opens messages for a short while and the time per message is recorded. Suites not
+ * supported by the installed providers are left out.
+ * <p/>
+ * The state of the intrinsics is reported by {@link #aesIntrinsics()}; they can be switched off
+ * with -XX:+UnlockDiagnosticVMOptions -XX:-UseAESIntrinsics to see their effect on the calibration.
+ */
+public final class Calibration {
+    public static final long DEFAULT_NANOS_PER_SUITE = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private static final int ROUNDS = 10;
+
+    private static final Logger LOG = Logger.getLogger(Calibration.class.getCanonicalName());
+    private static final ConcurrentMap<Integer, Calibration> SHARED = new ConcurrentHashMap<>();
+
+    private final int messageSize;
+    private final Map<CipherSuite, Long> nanos;
+
+    Calibration(final int messageSize, final Map<CipherSuite, Long> nanos) {
+        this.messageSize = messageSize;
+        this.nanos = new EnumMap<>(nanos);
+    }
+
+    /**
+     * @return calibration for messages of given size, measured once per JVM
+     */
+    public static Calibration shared(final int messageSize) {
+        return SHARED.computeIfAbsent(messageSize, size -> run(size, DEFAULT_NANOS_PER_SUITE));
+    }
+
+    /**
+     * Calibrates all suites, spending about given time on each. Suites take turns in several short
+     * rounds, so all of them run JIT-compiled code in the later rounds; the fastest round counts.
+     */
+    public static Calibration run(final int messageSize, final long nanosPerSuite) {
+        final byte[] message = new byte[messageSize];
+        new Random(messageSize).nextBytes(message);
+        final byte[] secret = new byte[32];
+        new Random(0).nextBytes(secret);
+
+        // the initiator's and the responder's cipher, one seals and the other opens
+        final Map<CipherSuite, FrameCipher[]> ciphers = new EnumMap<>(CipherSuite.class);
+        for (CipherSuite suite : CipherSuite.values()) {
+            try {
+                final FrameCipher[] pair = new FrameCipher[2];
+                for (int i = 0; i < pair.length; i++) {
+                    pair[i] = suite.frameCipher(new SecretKeySpec(secret, "HmacSHA256"), new byte[0], i == 0,
+                            new CipherPool(4));
+                }
+                pair[1].open(pair[0].seal(message));
+                ciphers.put(suite, pair);
+            } catch (GeneralSecurityException e) {
+                LOG.log(Level.FINE, "Cipher suite " + suite + " is not available", e);
+            }
+        }
+
+        final Map<CipherSuite, Long> nanos = new EnumMap<>(CipherSuite.class);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Map.Entry<CipherSuite, FrameCipher[]> cipher : ciphers.entrySet()) {
+                try {
+                    final long time = measure(cipher.getValue()[0], cipher.getValue()[1], message,
+                            nanosPerSuite / ROUNDS);
+                    nanos.merge(cipher.getKey(), time, Math::min);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException("Cipher suite " + cipher.getKey() + " failed", e);
+                }
+            }
+        }
+        final Calibration calibration = new Calibration(messageSize, nanos);
+        LOG.log(Level.INFO, "{0}", calibration);
+        return calibration;
+    }
+
+    /**
+     * @return average nanoseconds to seal and open one message
+     */
+    private static long measure(final FrameCipher sealing, final FrameCipher opening, final byte[] message,
+                                final long duration) throws GeneralSecurityException {
+        final long start = System.nanoTime();
+        long now, count = 0;
+        do {
+            opening.open(sealing.seal(message));
+            count++;
+            now = System.nanoTime();
+        } while (now - start < duration);
+        return Math.max(1, (now - start) / count);
+    }
+
+    public int messageSize() {
+        return messageSize;
+    }
+
+    /**
+     * @return average nanoseconds to seal and open one message, or -1 if the suite is not available
+     */
+    public long nanos(final CipherSuite suite) {
+        final Long value = nanos.get(suite);
+        return value == null ? -1 : value;
+    }
+
+    /**
+     * @return available suites, fastest first
+     */
+    public List<CipherSuite> ranking() {
+        final List<CipherSuite> ranking = new ArrayList<>(nanos.keySet());
+        ranking.sort((a, b) -> Long.compare(nanos.get(a), nanos.get(b)));
+        return Collections.unmodifiableList(ranking);
+    }
+
+    /**
+     * @return fastest available suite
+     */
+    public CipherSuite fastest() {
+        return ranking().get(0);
+    }
+
+    /**
+     * @return whether the JIT uses AES instructions, or null if the JVM does not tell. This is the
+     * UseAESIntrinsics VM option where it is visible (it is a diagnostic option in some JVMs, see
+     * -XX:+UnlockDiagnosticVMOptions), otherwise UseAES, which the JVM enables if the CPU supports it.
+     */
+    public static Boolean aesIntrinsics() {
+        final HotSpotDiagnosticMXBean hotSpot;
+        try {
+            hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (hotSpot == null) {
+            return null;
+        }
+        for (String option : new String[]{"UseAESIntrinsics", "UseAES"}) {
+            try {
+                return Boolean.valueOf(hotSpot.getVMOption(option).getValue());
+            } catch (IllegalArgumentException e) {
+                // not present in this JVM
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder("Calibration of ").append(messageSize)
+                .append(" byte messages, AES intrinsics ").append(aesIntrinsics()).append(':');
+        for (CipherSuite suite : ranking()) {
+            result.append(' ').append(suite).append('=').append(nanos.get(suite)).append("ns");
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,200 @@
+package isp.secrecy.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches initialized {@link Cipher} and {@link Mac} instances per thread.
+ * <p/>
+ * Cipher.getInstance performs a provider lookup and creates a new object every time. The pool
+ * keeps one instance per thread, transformation, mode and key (compared by identity), so that
+ * a steady stream of messages only pays for init, or for nothing at all:
+ * <ul>
+ * <li>if algorithm parameters are given, the cached cipher is re-initialized with them;</li>
+ * <li>if a cipher that uses an IV is requested for encryption (or wrapping) without parameters,
+ * it is re-initialized, which makes the provider generate a fresh IV;</li>
+ * <li>otherwise (ECB, stream ciphers, RSA, decryption without parameters and all MACs) the
+ * instance is returned as is, since doFinal resets it to its initialized state.</li>
+ * </ul>
+ * Instances are confined to the calling thread and must not be handed to other threads.
+ * Every operation has to be completed with doFinal before the same instance is requested again.
+ * Each thread keeps at most capacity instances, the least recently used are dropped first.
+ * Lookups of cached instances do not allocate.
+ */
+public final class CipherPool {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final CipherPool SHARED = new CipherPool(DEFAULT_CAPACITY);
+
+    private static final int MAC_MODE = 0;
+
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+    private final ThreadLocal<Instances> instances;
+
+    public CipherPool(final int capacity) {
+        this.instances = ThreadLocal.withInitial(() -> new Instances(capacity));
+    }
+
+    /**
+     * @return pool shared by the whole application
+     */
+    public static CipherPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns an initialized cipher. For encryption with an IV based mode, the provider
+     * generates a fresh IV that can be read with getIV() or getParameters().
+     */
+    public Cipher cipher(final String transformation, final int mode, final Key key)
+            throws GeneralSecurityException {
+        Cipher cipher = (Cipher) lookup(transformation, mode, key);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            cipher.init(mode, key);
+            store(transformation, mode, key, cipher);
+        } else if ((mode == Cipher.ENCRYPT_MODE || mode == Cipher.WRAP_MODE) && cipher.getIV() != null) {
+            cipher.init(mode, key);
+        }
+        return cipher;
+    }
+
+    /**
+     * Returns a cipher initialized with given algorithm parameters.
+     */
+    public Cipher cipher(final String transformation, final int mode, final Key key,
+                         final AlgorithmParameters parameters) throws GeneralSecurityException {
+        Cipher cipher = (Cipher) lookup(transformation, mode, key);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            cipher.init(mode, key, parameters);
+            store(transformation, mode, key, cipher);
+        } else {
+            cipher.init(mode, key, parameters);
+        }
+        return cipher;
+    }
+
+    /**
+     * Returns a cipher initialized with given algorithm parameters, e.g. an IvParameterSpec.
+     */
+    public Cipher cipher(final String transformation, final int mode, final Key key,
+                         final AlgorithmParameterSpec parameters) throws GeneralSecurityException {
+        Cipher cipher = (Cipher) lookup(transformation, mode, key);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            cipher.init(mode, key, parameters);
+            store(transformation, mode, key, cipher);
+        } else {
+            cipher.init(mode, key, parameters);
+        }
+        return cipher;
+    }
+
+    /**
+     * Returns an initialized MAC, reset and ready for update.
+     */
+    public Mac mac(final String algorithm, final Key key) throws GeneralSecurityException {
+        Mac mac = (Mac) lookup(algorithm, MAC_MODE, key);
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            mac.init(key);
+            store(algorithm, MAC_MODE, key, mac);
+        } else {
+            mac.reset();
+        }
+        return mac;
+    }
+
+    /**
+     * @return number of requests served by a cached instance
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of requests that had to create a new instance
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CipherPool[hits=" + hits() + ", misses=" + misses() + "]";
+    }
+
+    private Object lookup(final String algorithm, final int mode, final Key key) {
+        final Instances cached = instances.get();
+        final Object instance = cached.get(cached.probe.set(algorithm, mode, key));
+        if (instance == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return instance;
+    }
+
+    private void store(final String algorithm, final int mode, final Key key, final Object instance) {
+        instances.get().put(new PoolKey().set(algorithm, mode, key), instance);
+    }
+
+    /**
+     * LRU map of one thread's instances, with a reusable key for lookups.
+     */
+    private static final class Instances extends LinkedHashMap<PoolKey, Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final PoolKey probe = new PoolKey();
+
+        Instances(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PoolKey, Object> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /**
+     * Key of a cached instance. Stored keys are never modified; only the probe of
+     * {@link Instances} is set anew for every lookup.
+     */
+    private static final class PoolKey {
+        private String algorithm;
+        private int mode;
+        private Key key;
+
+        PoolKey set(String algorithm, int mode, Key key) {
+            this.algorithm = algorithm;
+            this.mode = mode;
+            this.key = key;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PoolKey)) {
+                return false;
+            }
+            final PoolKey other = (PoolKey) o;
+            return key == other.key && mode == other.mode && algorithm.equals(other.algorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            return (algorithm.hashCode() * 31 + mode) * 31 + System.identityHashCode(key);
+        }
+    }
+}
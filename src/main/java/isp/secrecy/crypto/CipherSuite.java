@@ -0,0 +1,114 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.compress.Compression;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+/**
+ * Combinations of a cipher and a MAC that agents may choose automatically, see {@link Calibration}
+ * and {@link Negotiation}.
+ * <p/>
+ * Every suite authenticates frames, either with an AEAD mode or with encrypt-then-MAC. Transformations
+ * that {@link Algorithms#isSecure(String)} rejects, such as ECB modes and RC4, are never suites; they
+ * remain available for the exercises, but only when chosen by hand.
+ */
+public enum CipherSuite {
+    AES_128_GCM("AES/GCM/NoPadding", "AES", 16, null, 0),
+    AES_128_CBC_HMAC_SHA256("AES/CBC/PKCS5Padding", "AES", 16, "HmacSHA256", 32),
+    AES_128_CTR_HMAC_SHA256("AES/CTR/NoPadding", "AES", 16, "HmacSHA256", 32),
+    CHACHA20_POLY1305("ChaCha20-Poly1305", "ChaCha20", 32, null, 0);
+
+    private static final String INITIATOR = "initiator", RESPONDER = "responder";
+
+    private final String transformation, keyAlgorithm, macAlgorithm;
+    private final int keySize, macKeySize;
+
+    CipherSuite(String transformation, String keyAlgorithm, int keySize, String macAlgorithm, int macKeySize) {
+        if (!Algorithms.isSecure(transformation)) {
+            throw new IllegalArgumentException("Insecure transformation: " + transformation);
+        }
+        this.transformation = transformation;
+        this.keyAlgorithm = keyAlgorithm;
+        this.keySize = keySize;
+        this.macAlgorithm = macAlgorithm;
+        this.macKeySize = macKeySize;
+    }
+
+    public String transformation() {
+        return transformation;
+    }
+
+    /**
+     * @return MAC algorithm or null, if the transformation authenticates by itself
+     */
+    public String macAlgorithm() {
+        return macAlgorithm;
+    }
+
+    /**
+     * @return suite with given name or null, if there is none
+     */
+    public static CipherSuite forName(final String name) {
+        for (CipherSuite suite : values()) {
+            if (suite.name().equals(name)) {
+                return suite;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Derives the cipher keys and, if needed, the MAC keys from a shared secret and creates a frame
+     * cipher for one of the two agents. Keys are derived from the secret and the context with
+     * {@link KeyDerivation}, labelled with the suite's name, the key's purpose and the role of the agent
+     * that seals with it, so each suite, purpose and direction gets independent keys: the initiator
+     * seals with the initiator keys and opens with the responder keys, and the other way round, so
+     * neither accepts its own frames.
+     *
+     * @param secret    secret shared by both agents, at least 16 bytes
+     * @param context   bytes both agents agree on, e.g. the negotiation transcript; changing any
+     *                  of them yields different keys
+     * @param initiator whether the cipher is the initiator's, exactly one of the agents must be
+     */
+    public FrameCipher frameCipher(final Key secret, final byte[] context, final boolean initiator,
+                                   final CipherPool pool) throws GeneralSecurityException {
+        return frameCipher(secret, context, initiator, pool, 0);
+    }
+
+    /**
+     * Like {@link #frameCipher(Key, byte[], boolean, CipherPool)}, for frames with sequence numbers
+     * checked by a replay window of given size, or without if it is 0.
+     */
+    public FrameCipher frameCipher(final Key secret, final byte[] context, final boolean initiator,
+                                   final CipherPool pool, final int replayWindow) throws GeneralSecurityException {
+        return frameCipher(secret, context, initiator, pool, replayWindow, null);
+    }
+
+    /**
+     * Like {@link #frameCipher(Key, byte[], boolean, CipherPool, int)}, compressing clear texts with
+     * given compression, or not if it is null.
+     */
+    public FrameCipher frameCipher(final Key secret, final byte[] context, final boolean initiator,
+                                   final CipherPool pool, final int replayWindow, final Compression compression)
+            throws GeneralSecurityException {
+        final String own = initiator ? INITIATOR : RESPONDER, peer = initiator ? RESPONDER : INITIATOR;
+        final Key sealKey = key(secret, "cipher/" + own, context), openKey = key(secret, "cipher/" + peer, context);
+        final Key sealMacKey = macKey(secret, "mac/" + own, context);
+        final Key openMacKey = macKey(secret, "mac/" + peer, context);
+        return new FrameCipher(transformation, sealKey, openKey, macAlgorithm, sealMacKey, openMacKey, pool,
+                replayWindow, compression);
+    }
+
+    private Key key(final Key secret, final String purpose, final byte[] context) throws GeneralSecurityException {
+        return new SecretKeySpec(KeyDerivation.derive(secret, name() + "/" + purpose, context, keySize),
+                keyAlgorithm);
+    }
+
+    private Key macKey(final Key secret, final String purpose, final byte[] context) throws GeneralSecurityException {
+        return macAlgorithm == null ? null
+                : new SecretKeySpec(KeyDerivation.derive(secret, name() + "/" + purpose, context, macKeySize),
+                macAlgorithm);
+    }
+}
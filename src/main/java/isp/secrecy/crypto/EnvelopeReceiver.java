@@ -0,0 +1,88 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Receiving side of the hybrid encryption scheme, see {@link EnvelopeSender}.
+ * <p/>
+ * Session keys are unwrapped with the private key when the first message of a session arrives
+ * and cached, so the private key operation runs once per session. A key is cached only once the
+ * message it came with is authentic, and never replaces the key of a known session, so a forged
+ * first message, which anyone with the public key can produce, cannot take over an existing
+ * session. At most maxSessions keys are kept, the least recently used are dropped first.
+ */
+public class EnvelopeReceiver {
+    public static final int DEFAULT_MAX_SESSIONS = 1024;
+
+    private final PrivateKey privateKey;
+    private final CipherPool pool;
+    private final Map<Long, Key> sessions;
+
+    public EnvelopeReceiver(final PrivateKey privateKey) {
+        this(privateKey, DEFAULT_MAX_SESSIONS, CipherPool.shared());
+    }
+
+    public EnvelopeReceiver(final PrivateKey privateKey, final int maxSessions, final CipherPool pool) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("Invalid maximum number of sessions: " + maxSessions);
+        }
+        this.privateKey = privateKey;
+        this.pool = pool;
+        this.sessions = Collections.synchronizedMap(new LinkedHashMap<Long, Key>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Key> eldest) {
+                return size() > maxSessions;
+            }
+        });
+    }
+
+    /**
+     * Decrypts a message produced by {@link EnvelopeSender#seal(byte[])}.
+     *
+     * @throws GeneralSecurityException if the session is unknown or the message is not authentic
+     */
+    public byte[] open(final Frame frame) throws GeneralSecurityException {
+        final long sessionId = frame.getLong(FrameField.SESSION);
+        final Key known = sessions.get(sessionId);
+        final Key sessionKey;
+        if (known != null) {
+            // a wrapped key of a known session is a resent first message or a forgery, the cached key decides
+            sessionKey = known;
+        } else if (frame.has(FrameField.WRAPPED_KEY)) {
+            final Cipher unwrap = pool.cipher(EnvelopeSender.WRAP_ALGORITHM, Cipher.UNWRAP_MODE, privateKey);
+            sessionKey = unwrap.unwrap(frame.getBytes(FrameField.WRAPPED_KEY), EnvelopeSender.SESSION_ALGORITHM,
+                    Cipher.SECRET_KEY);
+        } else {
+            throw new GeneralSecurityException("Unknown session " + Long.toHexString(sessionId));
+        }
+
+        final Cipher cipher = pool.cipher(EnvelopeSender.SESSION_CIPHER, Cipher.DECRYPT_MODE, sessionKey,
+                new GCMParameterSpec(EnvelopeSender.TAG_LENGTH, frame.getBytes(FrameField.IV)));
+        cipher.updateAAD(EnvelopeSender.sessionAad(sessionId));
+        final byte[] message = cipher.doFinal(frame.getBytes(FrameField.CIPHERTEXT));
+        if (known == null) {
+            final Key raced = sessions.putIfAbsent(sessionId, sessionKey);
+            if (raced != null && !raced.equals(sessionKey)) {
+                throw new GeneralSecurityException("Session " + Long.toHexString(sessionId) + " already exists");
+            }
+        }
+        return message;
+    }
+
+    /**
+     * @return number of cached session keys
+     */
+    public int sessions() {
+        return sessions.size();
+    }
+}
@@ -0,0 +1,88 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+
+/**
+ * Sending side of the hybrid (envelope) encryption scheme.
+ * <p/>
+ * Instead of encrypting every message with RSA, the sender generates a random AES session key
+ * once, wraps it with the recipient's public key and encrypts every message with AES/GCM (ALG6
+ * of {@link isp.secrecy.SymmetricCipherExample}). The wrapped key travels only with the first
+ * message of the session; all messages carry the session id, which is also authenticated as
+ * additional data. Message size is therefore not limited by the RSA modulus, and the expensive
+ * public key operation is paid once per session.
+ * <p/>
+ * Instances are not thread-safe.
+ */
+public class EnvelopeSender {
+    public static final String WRAP_ALGORITHM = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+    public static final String SESSION_ALGORITHM = "AES";
+    public static final String SESSION_CIPHER = "AES/GCM/NoPadding";
+    public static final int SESSION_KEY_SIZE = 128;
+    public static final int TAG_LENGTH = 128;
+
+    private final PublicKey recipientKey;
+    private final CipherPool pool;
+    private SecretKey sessionKey;
+    private long sessionId;
+    private byte[] wrappedKey;
+
+    public EnvelopeSender(final PublicKey recipientKey) {
+        this(recipientKey, CipherPool.shared());
+    }
+
+    public EnvelopeSender(final PublicKey recipientKey, final CipherPool pool) {
+        this.recipientKey = recipientKey;
+        this.pool = pool;
+    }
+
+    /**
+     * Encrypts a message. The first message of a session also carries the wrapped session key.
+     */
+    public Frame seal(final byte[] message) throws GeneralSecurityException {
+        final Frame frame = new Frame();
+        if (sessionKey == null) {
+            newSession();
+            frame.put(FrameField.WRAPPED_KEY, wrappedKey);
+        }
+
+        final Cipher cipher = pool.cipher(SESSION_CIPHER, Cipher.ENCRYPT_MODE, sessionKey);
+        cipher.updateAAD(sessionAad(sessionId));
+        return frame
+                .putLong(FrameField.SESSION, sessionId)
+                .put(FrameField.IV, cipher.getIV())
+                .put(FrameField.CIPHERTEXT, cipher.doFinal(message));
+    }
+
+    /**
+     * Discards the current session key; the next message starts a new session.
+     */
+    public void rekey() {
+        sessionKey = null;
+        wrappedKey = null;
+    }
+
+    private void newSession() throws GeneralSecurityException {
+        final KeyGenerator generator = KeyGenerator.getInstance(SESSION_ALGORITHM);
+        generator.init(SESSION_KEY_SIZE);
+        sessionKey = generator.generateKey();
+        sessionId = new SecureRandom().nextLong();
+
+        final Cipher wrap = Cipher.getInstance(WRAP_ALGORITHM);
+        wrap.init(Cipher.WRAP_MODE, recipientKey);
+        wrappedKey = wrap.wrap(sessionKey);
+    }
+
+    static byte[] sessionAad(final long sessionId) {
+        return ByteBuffer.allocate(8).putLong(0, sessionId).array();
+    }
+}
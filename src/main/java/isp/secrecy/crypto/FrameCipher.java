@@ -0,0 +1,1103 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.compress.Codec;
+import isp.secrecy.compress.Compression;
+import isp.secrecy.metrics.Histogram;
+import isp.secrecy.metrics.Metrics;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+
+/**
+ * Encrypts messages into frames and back, for any of the transformations used in the examples.
+ * <p/>
+ * A sealed frame carries the cipher text and, for modes that have them, the encoded algorithm
+ * PARAMETERS. Ciphers come from a {@link CipherPool}, so instances are thread-safe as long as
+ * the pool is.
+ * <p/>
+ * Batches pack many messages into the clear text of a single frame, each prefixed with its
+ * 4 byte length, and encrypt them with one cipher initialization:
+ * <pre>
+ *   clear text = (int length, byte[length] message)*
+ * </pre>
+ * When created with a MAC algorithm and key, frames are additionally authenticated with
+ * encrypt-then-MAC: the MAC field holds a tag over every other field as encoded, i.e. tag,
+ * size and value, in tag order. The tag is checked in constant time before any decryption
+ * takes place, so forged frames are rejected without initializing a cipher. Use a key that
+ * is independent of the encryption key.
+ * <p/>
+ * When created with a replay window, a frame cipher is one end of a session: every frame it seals
+ * carries the next value of a counter as its SEQUENCE, and every frame it opens must carry a
+ * SEQUENCE that its {@link ReplayWindow} has not seen yet, so replayed frames and frames delayed
+ * beyond the window are rejected. The sequence number is covered by the MAC, or passed to AEAD
+ * ciphers as additional data; without either, an attacker can change it and the window only catches
+ * accidental duplicates.
+ * <p/>
+ * Every sequenced end draws a random 8 byte id when it is created and carries it in the SENDER field
+ * of the frames it seals, which it encrypts with a key derived from the given one and its id. The
+ * receiving end derives the same key from the SENDER, accepts frames of a single sender, the first
+ * authentic one, and rejects its own frames reflected back to it. SENDER is covered by the MAC or
+ * passed to AEAD ciphers as additional data like SEQUENCE, so a frame cannot be passed off as coming
+ * from another end. The MAC key is not derived, so frames of unknown senders are checked before a key
+ * is derived for them; without a MAC the tag can only be checked with the derived key, and frames of
+ * unknown senders are decrypted with ciphers outside the pool. Either way forged SENDERs neither miss
+ * the pool nor evict the ciphers of real senders. Unsequenced ends keep the keys of the last
+ * {@value #KNOWN_SENDERS} authentic senders.
+ * <p/>
+ * Since the keys of two ends differ unless their ids collide, with a probability of 2^-64 per pair,
+ * the counter never repeats under a key, and IVs are derived from it instead of being drawn from a
+ * SecureRandom for every message: AEAD nonces and CTR IVs are the sequence number after 4 zero bytes,
+ * CBC IVs with AES are the encryption of that block, since CBC needs unpredictable IVs. Other
+ * transformations keep provider generated IVs.
+ * <p/>
+ * When created with a {@link Compression}, clear texts are compressed before they are encrypted,
+ * unless they are too short or do not compress well, and the frame names the codec in its CODEC
+ * field. Frames are compressed only when that makes them shorter than {@link #sealedSize(int)}, so
+ * buffers are sized as without compression. Any frame cipher opens compressed frames, whatever its
+ * own compression. SEQUENCE, CODEC and SENDER, as encoded, are passed to AEAD ciphers as additional
+ * data. Mind the length leak described in {@link Compression}.
+ * <p/>
+ * {@link #seal(ByteBuffer, ByteBuffer)} and {@link #open(ByteBuffer, ByteBuffer)} work on
+ * caller-supplied, reusable heap or direct buffers and encode or parse the frame in place, without
+ * intermediate arrays or {@link Frame} objects. They carry the raw IV instead of encoded PARAMETERS;
+ * both kinds of frames can be opened by either method. With stream ciphers the buffer path allocates
+ * nothing in steady state. IVs are derived into and read through per-thread arrays, but IV based modes
+ * still allocate per message: the parameter spec, which the JCE API requires and which copies the IV,
+ * and the copy Cipher.init makes of it; transformations with provider generated IVs also copy the IV
+ * out of the cipher, and frames with encoded PARAMETERS are decoded into fresh objects. Inside the
+ * JCE, block ciphers further allocate for the final block and, with GCM, a copy of the cipher text
+ * when decrypting.
+ * <p/>
+ * Latencies, bytes and failures are recorded in {@link Metrics#global()} under
+ * cipher.&lt;transformation&gt;.*, rejected MACs under mac.failures and rejected sequence numbers
+ * and senders under replay.failures.
+ */
+public class FrameCipher {
+    private static final int LENGTH_SIZE = 4;
+    private static final int GCM_TAG_BITS = 128;
+    private static final int SEQUENCE_FIELD_SIZE = Frame.FIELD_HEADER_SIZE + 8;
+    private static final int CODEC_FIELD_SIZE = Frame.FIELD_HEADER_SIZE + 1;
+    private static final int SENDER_FIELD_SIZE = Frame.FIELD_HEADER_SIZE + 8;
+    /**
+     * Number of authentic senders whose keys an unsequenced end keeps.
+     */
+    private static final int KNOWN_SENDERS = 16;
+    /**
+     * Largest block of the transformations, by which padding can grow a shorter clear text.
+     */
+    private static final int MAX_BLOCK_SIZE = 16;
+    private static final FrameField[] FIELDS = FrameField.values();
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final String transformation, macAlgorithm;
+    /**
+     * Keys frames are opened with; the cipher key is derived from openKey if they carry a SENDER.
+     */
+    private final Key openKey, openMacKey;
+    private final CipherPool pool;
+    private final boolean gcm, aead;
+    private final ReplayWindow window;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Nonce nonce;
+    /**
+     * Length of provider generated IVs, the same for every cipher of the transformation, -1 until known.
+     */
+    private int providerIvLength = -1;
+    /**
+     * Keys this end seals with and those of frames without a SENDER.
+     */
+    private final Keys self, unidentified;
+    /**
+     * Keys of the sender whose frames are accepted, null until the first authentic frame.
+     */
+    private final AtomicReference<Keys> peer = new AtomicReference<>();
+    /**
+     * Keys of the last authentic senders of an unsequenced end, guarded by itself.
+     */
+    private final Map<Long, Keys> senders = new LinkedHashMap<Long, Keys>(KNOWN_SENDERS, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, Keys> eldest) {
+            return size() > KNOWN_SENDERS;
+        }
+    };
+    private final Compression compression;
+    private final Histogram encryptNanos, decryptNanos;
+    private final LongAdder bytes, failures, macFailures, replayFailures;
+
+    /**
+     * How IVs of sequenced frames are derived from the sequence number.
+     */
+    private enum Nonce {
+        /**
+         * Provider generated.
+         */
+        RANDOM,
+        /**
+         * 12 bytes: 4 zero bytes, sequence number.
+         */
+        COUNTER,
+        /**
+         * 16 bytes: 4 zero bytes, sequence number and 4 zero bytes, where CTR counts the blocks of the
+         * message.
+         */
+        COUNTER_BLOCK,
+        /**
+         * Encryption of {@link #COUNTER_BLOCK} with the message key.
+         */
+        ENCRYPTED_COUNTER_BLOCK
+    }
+
+    public FrameCipher(final String transformation, final Key key) {
+        this(transformation, key, CipherPool.shared());
+    }
+
+    public FrameCipher(final String transformation, final Key key, final CipherPool pool) {
+        this(transformation, key, null, null, pool);
+    }
+
+    /**
+     * @param macAlgorithm MAC algorithm used to authenticate frames or null, if frames are not authenticated
+     * @param macKey       MAC key, ignored if macAlgorithm is null
+     */
+    public FrameCipher(final String transformation, final Key key, final String macAlgorithm, final Key macKey,
+                       final CipherPool pool) {
+        this(transformation, key, macAlgorithm, macKey, pool, 0);
+    }
+
+    /**
+     * @param macAlgorithm MAC algorithm used to authenticate frames or null, if frames are not authenticated
+     * @param macKey       MAC key, ignored if macAlgorithm is null
+     * @param replayWindow size of the {@link ReplayWindow}, a multiple of 64, or 0 for frames without
+     *                     sequence numbers
+     */
+    public FrameCipher(final String transformation, final Key key, final String macAlgorithm, final Key macKey,
+                       final CipherPool pool, final int replayWindow) {
+        this(transformation, key, macAlgorithm, macKey, pool, replayWindow, null);
+    }
+
+    /**
+     * @param macAlgorithm MAC algorithm used to authenticate frames or null, if frames are not authenticated
+     * @param macKey       MAC key, ignored if macAlgorithm is null
+     * @param replayWindow size of the {@link ReplayWindow}, a multiple of 64, or 0 for frames without
+     *                     sequence numbers
+     * @param compression  compression of sealed clear texts or null, if they are not compressed
+     */
+    public FrameCipher(final String transformation, final Key key, final String macAlgorithm, final Key macKey,
+                       final CipherPool pool, final int replayWindow, final Compression compression) {
+        this(transformation, key, key, macAlgorithm, macKey, macKey, pool, replayWindow, compression);
+    }
+
+    /**
+     * Sealing with other keys than opening, e.g. with keys per direction, where the seal keys of one
+     * end are the open keys of the other.
+     *
+     * @param macAlgorithm MAC algorithm used to authenticate frames or null, if frames are not authenticated
+     * @param sealMacKey   MAC key of sealed frames, ignored if macAlgorithm is null
+     * @param openMacKey   MAC key of opened frames, ignored if macAlgorithm is null
+     * @param replayWindow size of the {@link ReplayWindow}, a multiple of 64, or 0 for frames without
+     *                     sequence numbers
+     * @param compression  compression of sealed clear texts or null, if they are not compressed
+     * @throws IllegalArgumentException if keys cannot be derived from the given ones, see {@link FrameCipher}
+     */
+    public FrameCipher(final String transformation, final Key sealKey, final Key openKey, final String macAlgorithm,
+                       final Key sealMacKey, final Key openMacKey, final CipherPool pool, final int replayWindow,
+                       final Compression compression) {
+        this.transformation = transformation;
+        this.openKey = openKey;
+        this.macAlgorithm = macAlgorithm;
+        this.openMacKey = openMacKey;
+        this.pool = pool;
+        this.gcm = "GCM".equals(Algorithms.mode(transformation));
+        this.aead = gcm || transformation.equalsIgnoreCase("ChaCha20-Poly1305");
+        this.window = replayWindow == 0 ? null : new ReplayWindow(replayWindow);
+        this.nonce = window == null ? Nonce.RANDOM : nonce(transformation, aead);
+        this.unidentified = new Keys(false, 0, openKey, openMacKey, true);
+        try {
+            this.self = window == null ? new Keys(false, 0, sealKey, sealMacKey, true)
+                    : keys(new SecureRandom().nextLong(), sealKey, sealMacKey, true);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Cannot derive keys from " + sealKey, e);
+        }
+        this.compression = compression;
+
+        final Metrics metrics = Metrics.global();
+        final String prefix = "cipher." + transformation + ".";
+        this.encryptNanos = metrics.histogram(prefix + "encrypt.nanos");
+        this.decryptNanos = metrics.histogram(prefix + "decrypt.nanos");
+        this.bytes = metrics.counter(prefix + "bytes");
+        this.failures = metrics.counter(prefix + "failures");
+        this.macFailures = metrics.counter("mac.failures");
+        this.replayFailures = metrics.counter("replay.failures");
+    }
+
+    /**
+     * @param pooled whether ciphers of the keys come from the pool
+     * @return keys of given sender, the cipher key derived from the given one
+     */
+    private static Keys keys(final long sender, final Key key, final Key macKey, final boolean pooled)
+            throws GeneralSecurityException {
+        return new Keys(true, sender, KeyDerivation.derive(key, "frame/cipher", sender), macKey, pooled);
+    }
+
+    private static Nonce nonce(final String transformation, final boolean aead) {
+        final String mode = Algorithms.mode(transformation);
+        if (aead) {
+            return Nonce.COUNTER;
+        } else if (!"AES".equalsIgnoreCase(Algorithms.keyAlgorithm(transformation))) {
+            return Nonce.RANDOM;
+        } else if ("CTR".equalsIgnoreCase(mode)) {
+            return Nonce.COUNTER_BLOCK;
+        } else if ("CBC".equalsIgnoreCase(mode)) {
+            return Nonce.ENCRYPTED_COUNTER_BLOCK;
+        }
+        return Nonce.RANDOM;
+    }
+
+    public String transformation() {
+        return transformation;
+    }
+
+    /**
+     * Encrypts a single message.
+     */
+    public Frame seal(final byte[] message) throws GeneralSecurityException {
+        final long start = System.nanoTime();
+        final long sequence = nextSequence();
+        final byte[] packed = compression == null ? null : compression.compress(message, packedLimit(message.length));
+        final Cipher cipher = encryption(sequence);
+        final Frame frame = new Frame();
+        putParameters(frame, cipher);
+        putTrailer(frame, cipher, sequence, packed == null ? null : compression.codec());
+        authenticate(frame.put(FrameField.CIPHERTEXT, cipher.doFinal(packed == null ? message : packed)), self);
+        encryptNanos.recordSince(start);
+        bytes.add(message.length);
+        return frame;
+    }
+
+    /**
+     * Decrypts a message sealed by {@link #seal(byte[])}.
+     *
+     * @throws AEADBadTagException if frames are authenticated and the MAC is missing or wrong
+     */
+    public byte[] open(final Frame frame) throws GeneralSecurityException {
+        final long start = System.nanoTime();
+        try {
+            final boolean identified = frame.has(FrameField.SENDER);
+            final long id = identified ? frame.getLong(FrameField.SENDER) : 0;
+            final Keys known = sender(identified, id);
+            verify(frame);
+            final boolean sequenced = frame.has(FrameField.SEQUENCE);
+            final long sequence = sequenced ? frame.getLong(FrameField.SEQUENCE) : -1;
+            checkSequence(sequenced, sequence);
+            final Codec codec = frame.has(FrameField.CODEC) ? codec(frame.getBytes(FrameField.CODEC)) : null;
+            final Keys sender = known != null ? known : keys(id, openKey, openMacKey, false);
+            final Cipher cipher = decryption(frame, sender);
+            associate(cipher, SCRATCH.get().trailer(sequence, codec, sender));
+            byte[] clearText = cipher.doFinal(frame.getBytes(FrameField.CIPHERTEXT));
+            if (codec != null) {
+                clearText = decompress(codec, clearText);
+            }
+            acceptSequence(sequence);
+            accept(sender);
+            decryptNanos.recordSince(start);
+            bytes.add(clearText.length);
+            return clearText;
+        } catch (GeneralSecurityException e) {
+            failures.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of bytes {@link #seal(ByteBuffer, ByteBuffer)} needs at most for a message of given
+     * length; meant for sizing reusable buffers, since it initializes a cipher
+     */
+    public int sealedSize(final int messageLength) throws GeneralSecurityException {
+        return sealedSize(pool.cipher(transformation, Cipher.ENCRYPT_MODE, self.key), messageLength);
+    }
+
+    /**
+     * Encrypts the message's remaining bytes and writes the encoded frame at the destination's position.
+     * Both positions are advanced past the processed bytes.
+     *
+     * @throws ShortBufferException if the destination has less than {@link #sealedSize(int)} bytes
+     *                              remaining; neither buffer is modified then
+     */
+    public void seal(final ByteBuffer message, final ByteBuffer frame) throws GeneralSecurityException {
+        final long start = System.nanoTime();
+        final int length = message.remaining();
+        final long sequence = nextSequence();
+        final Cipher cipher = encryption(sequence);
+        if (frame.remaining() < sealedSize(cipher, message.remaining())) {
+            throw new ShortBufferException("Need " + sealedSize(cipher, message.remaining())
+                    + " bytes, have " + frame.remaining());
+        }
+        final Mac mac = macAlgorithm == null ? null : pool.mac(macAlgorithm, self.macKey);
+        final ByteBuffer packed = compress(message);
+        final int begin = frame.position();
+        frame.position(begin + LENGTH_SIZE);
+
+        if (derivesIv(sequence)) {
+            frame.put(FrameField.IV.tag()).putInt(ivLength()).put(SCRATCH.get().iv(ivLength()), 0, ivLength());
+        } else {
+            final byte[] iv = cipher.getIV();
+            if (iv != null) {
+                frame.put(FrameField.IV.tag()).putInt(iv.length).put(iv);
+            }
+        }
+        final ByteBuffer trailer = SCRATCH.get().trailer(sequence, packed == null ? null : compression.codec(), self);
+        associate(cipher, trailer);
+        frame.put(FrameField.CIPHERTEXT.tag());
+        final int sizeAt = frame.position();
+        frame.position(sizeAt + 4);
+        if (packed == null) {
+            frame.putInt(sizeAt, crypt(cipher, aead, message, frame));
+        } else {
+            frame.putInt(sizeAt, crypt(cipher, aead, packed, frame));
+            message.position(message.position() + length);
+        }
+
+        if (mac != null) {
+            final int end = frame.position(), limit = frame.limit();
+            frame.position(begin + LENGTH_SIZE).limit(end);
+            mac.update(frame);
+            frame.limit(limit);
+            // the MAC covers fields in tag order, SEQUENCE, CODEC and SENDER come after MAC on the wire
+            mac.update(trailer);
+            trailer.rewind();
+            final byte[] tag = SCRATCH.get().mac(mac.getMacLength());
+            mac.doFinal(tag, 0);
+            frame.put(FrameField.MAC.tag()).putInt(mac.getMacLength()).put(tag, 0, mac.getMacLength());
+        }
+        frame.put(trailer);
+        frame.putInt(begin, frame.position() - begin - LENGTH_SIZE);
+        encryptNanos.recordSince(start);
+        bytes.add(length);
+    }
+
+    /**
+     * Decrypts the frame at the source's position into the destination's position. The frame is parsed
+     * in place; both positions are advanced past the processed bytes.
+     *
+     * @throws AEADBadTagException      if frames are authenticated and the MAC is missing or wrong
+     * @throws ShortBufferException     if the destination is too small for the clear text
+     * @throws IllegalArgumentException if the source does not hold a well-formed frame
+     */
+    public void open(final ByteBuffer frame, final ByteBuffer message) throws GeneralSecurityException {
+        final long start = System.nanoTime();
+        final int length = message.position();
+        try {
+            openInPlace(frame, message);
+        } catch (GeneralSecurityException e) {
+            message.position(length);
+            failures.increment();
+            throw e;
+        }
+        decryptNanos.recordSince(start);
+        bytes.add(message.position() - length);
+    }
+
+    private void openInPlace(final ByteBuffer frame, final ByteBuffer message) throws GeneralSecurityException {
+        final int start = frame.position();
+        if (frame.remaining() < LENGTH_SIZE) {
+            throw new IllegalArgumentException("Truncated frame: missing length");
+        }
+        final int length = frame.getInt(start);
+        if (length < 0 || length > frame.remaining() - LENGTH_SIZE) {
+            throw new IllegalArgumentException("Truncated frame: length " + length);
+        }
+        final int end = start + LENGTH_SIZE + length, limit = frame.limit();
+
+        int iv = -1, parameters = -1, cipherText = -1, tag = -1, sequenceAt = -1, codecAt = -1, senderAt = -1;
+        for (int position = start + LENGTH_SIZE; position < end; ) {
+            if (end - position < Frame.FIELD_HEADER_SIZE) {
+                throw new IllegalArgumentException("Truncated field header");
+            }
+            final FrameField field = FrameField.forTag(frame.get(position));
+            final int size = frame.getInt(position + 1);
+            final int next = position + Frame.FIELD_HEADER_SIZE + size;
+            if (size < 0 || size > end - position - Frame.FIELD_HEADER_SIZE) {
+                throw new IllegalArgumentException("Truncated field " + field + ": size " + size);
+            }
+            if (field == FrameField.MAC) {
+                tag = position;
+            } else if (field == FrameField.IV) {
+                iv = position;
+            } else if (field == FrameField.PARAMETERS) {
+                parameters = position;
+            } else if (field == FrameField.CIPHERTEXT) {
+                cipherText = position;
+            } else if (field == FrameField.SEQUENCE || field == FrameField.SENDER) {
+                if (size != 8) {
+                    throw new IllegalArgumentException("Field " + field + " does not hold a long");
+                }
+                if (field == FrameField.SEQUENCE) {
+                    sequenceAt = position;
+                } else {
+                    senderAt = position;
+                }
+            } else if (field == FrameField.CODEC) {
+                if (size != 1) {
+                    throw new IllegalArgumentException("Field " + field + " does not hold a byte");
+                }
+                codecAt = position;
+            }
+            position = next;
+        }
+        if (cipherText < 0) {
+            throw new IllegalArgumentException("Frame holds no " + FrameField.CIPHERTEXT);
+        }
+        final long id = senderAt < 0 ? 0 : frame.getLong(senderAt + Frame.FIELD_HEADER_SIZE);
+        final Keys known;
+        try {
+            known = sender(senderAt >= 0, id);
+        } catch (GeneralSecurityException e) {
+            frame.position(start);
+            throw e;
+        }
+        if (macAlgorithm != null) {
+            final Mac mac = pool.mac(macAlgorithm, openMacKey);
+            authenticate(mac, frame, start + LENGTH_SIZE, end);
+            final byte[] computed = SCRATCH.get().mac(mac.getMacLength());
+            mac.doFinal(computed, 0);
+            if (tag < 0 || !equal(computed, mac.getMacLength(), frame, tag)) {
+                macFailures.increment();
+                frame.position(start);
+                throw new AEADBadTagException("MAC check failed");
+            }
+        }
+        final long sequence = sequenceAt < 0 ? -1 : frame.getLong(sequenceAt + Frame.FIELD_HEADER_SIZE);
+        final Codec codec;
+        final Keys sender;
+        try {
+            checkSequence(sequenceAt >= 0, sequence);
+            codec = codecAt < 0 ? null : codec(frame.get(codecAt + Frame.FIELD_HEADER_SIZE));
+            sender = known != null ? known : keys(id, openKey, openMacKey, false);
+        } catch (GeneralSecurityException e) {
+            frame.position(start);
+            throw e;
+        }
+
+        final Cipher cipher;
+        if (iv >= 0) {
+            final int ivLength = frame.getInt(iv + 1);
+            final byte[] bytes = SCRATCH.get().iv(ivLength);
+            frame.get(iv + Frame.FIELD_HEADER_SIZE, bytes, 0, ivLength);
+            cipher = decryption(sender, parameterSpec(bytes, ivLength), null);
+        } else if (parameters >= 0) {
+            final byte[] bytes = new byte[frame.getInt(parameters + 1)];
+            frame.position(parameters + Frame.FIELD_HEADER_SIZE);
+            frame.get(bytes);
+            cipher = decryption(sender, null, Algorithms.parameters(transformation, bytes));
+        } else {
+            cipher = decryption(sender, null, null);
+        }
+        associate(cipher, SCRATCH.get().trailer(sequence, codec, sender));
+        frame.position(cipherText + Frame.FIELD_HEADER_SIZE)
+                .limit(cipherText + Frame.FIELD_HEADER_SIZE + frame.getInt(cipherText + 1));
+        try {
+            if (codec == null) {
+                crypt(cipher, aead, frame, message);
+            } else {
+                decompress(cipher, codec, frame, message);
+            }
+            acceptSequence(sequence);
+            accept(sender);
+        } catch (GeneralSecurityException e) {
+            frame.position(start);
+            throw e;
+        } finally {
+            frame.limit(limit);
+        }
+        frame.position(end);
+    }
+
+    /**
+     * Encrypts a batch of messages into a single frame, with a single cipher initialization.
+     */
+    public Frame sealBatch(final List<byte[]> messages) throws GeneralSecurityException {
+        final long start = System.nanoTime();
+        int length = 0;
+        for (byte[] message : messages) {
+            length += LENGTH_SIZE + message.length;
+        }
+
+        final long sequence = nextSequence();
+        // compression needs the whole clear text at once
+        final byte[] clearText = compression == null ? null : concatenate(messages, length);
+        final byte[] packed = clearText == null ? null : compression.compress(clearText, packedLimit(length));
+        final Cipher cipher = encryption(sequence);
+        final Frame frame = new Frame();
+        putTrailer(frame, cipher, sequence, packed == null ? null : compression.codec());
+        final byte[] cipherText;
+        if (clearText != null) {
+            cipherText = cipher.doFinal(packed == null ? clearText : packed);
+        } else {
+            final byte[] output = new byte[cipher.getOutputSize(length)];
+            final byte[] prefix = new byte[LENGTH_SIZE];
+            int offset = 0;
+            for (byte[] message : messages) {
+                ByteBuffer.wrap(prefix).putInt(0, message.length);
+                offset += cipher.update(prefix, 0, LENGTH_SIZE, output, offset);
+                offset += cipher.update(message, 0, message.length, output, offset);
+            }
+            offset += cipher.doFinal(output, offset);
+            cipherText = offset == output.length ? output : Arrays.copyOf(output, offset);
+        }
+
+        putParameters(frame, cipher);
+        authenticate(frame
+                .putLong(FrameField.BATCH, messages.size())
+                .put(FrameField.CIPHERTEXT, cipherText), self);
+        encryptNanos.recordSince(start);
+        bytes.add(length);
+        return frame;
+    }
+
+    /**
+     * Decrypts a batch sealed by {@link #sealBatch(List)} and adds its messages to the sink in order.
+     *
+     * @return number of messages added
+     * @throws GeneralSecurityException if the decrypted batch is malformed
+     */
+    public int openBatch(final Frame frame, final List<byte[]> sink) throws GeneralSecurityException {
+        final long count = frame.getLong(FrameField.BATCH);
+        final ByteBuffer clearText = ByteBuffer.wrap(open(frame));
+        for (long i = 0; i < count; i++) {
+            if (clearText.remaining() < LENGTH_SIZE) {
+                throw new GeneralSecurityException("Malformed batch: message " + i + " of " + count + " missing");
+            }
+            final int length = clearText.getInt();
+            if (length < 0 || length > clearText.remaining()) {
+                throw new GeneralSecurityException("Malformed batch: message " + i + " truncated");
+            }
+            final byte[] message = new byte[length];
+            clearText.get(message);
+            sink.add(message);
+        }
+        if (clearText.hasRemaining()) {
+            throw new GeneralSecurityException("Malformed batch: trailing bytes");
+        }
+        return (int) count;
+    }
+
+    /**
+     * @return next sequence number to send, or -1 if frames are not sequenced
+     */
+    private long nextSequence() {
+        return window == null ? -1 : sequence.getAndIncrement();
+    }
+
+    /**
+     * @return cipher initialized for encryption, with an IV derived from the sequence number if there is one
+     */
+    private Cipher encryption(final long sequence) throws GeneralSecurityException {
+        if (!derivesIv(sequence)) {
+            return pool.cipher(transformation, Cipher.ENCRYPT_MODE, self.key);
+        }
+        // derived into the per-thread array, where seal(ByteBuffer, ByteBuffer) picks it up
+        final int length = ivLength();
+        final byte[] iv = SCRATCH.get().iv(length);
+        Arrays.fill(iv, 0, length, (byte) 0);
+        for (int i = 0; i < 8; i++) {
+            iv[4 + i] = (byte) (sequence >>> (56 - 8 * i));
+        }
+        if (nonce == Nonce.ENCRYPTED_COUNTER_BLOCK) {
+            final Cipher block = pool.cipher(Algorithms.keyAlgorithm(transformation) + "/ECB/NoPadding",
+                    Cipher.ENCRYPT_MODE, self.key);
+            block.doFinal(iv, 0, length, iv, 0);
+        }
+        return pool.cipher(transformation, Cipher.ENCRYPT_MODE, self.key, parameterSpec(iv, length));
+    }
+
+    /**
+     * @return whether the IV of a frame with given sequence number is derived from it
+     */
+    private boolean derivesIv(final long sequence) {
+        return sequence >= 0 && nonce != Nonce.RANDOM;
+    }
+
+    /**
+     * @return length of derived IVs
+     */
+    private int ivLength() {
+        return nonce == Nonce.COUNTER ? 12 : 16;
+    }
+
+    /**
+     * Adds the SEQUENCE, CODEC and SENDER fields, if any, and passes them to AEAD ciphers.
+     */
+    private void putTrailer(final Frame frame, final Cipher cipher, final long sequence, final Codec codec) {
+        if (sequence >= 0) {
+            frame.putLong(FrameField.SEQUENCE, sequence);
+        }
+        if (codec != null) {
+            frame.put(FrameField.CODEC, new byte[]{codec.id()});
+        }
+        if (self.identified) {
+            frame.putLong(FrameField.SENDER, self.sender);
+        }
+        associate(cipher, SCRATCH.get().trailer(sequence, codec, self));
+    }
+
+    /**
+     * Passes the encoded SEQUENCE, CODEC and SENDER fields to AEAD ciphers as additional data, so none
+     * can be changed, added or removed.
+     */
+    private void associate(final Cipher cipher, final ByteBuffer trailer) {
+        if (aead && trailer.hasRemaining()) {
+            cipher.updateAAD(trailer.array(), 0, trailer.limit());
+        }
+    }
+
+    /**
+     * @return longest packed clear text that still seals into at most {@link #sealedSize(int)} bytes,
+     * with the CODEC field and padding up to a block more
+     */
+    private static int packedLimit(final int length) {
+        return length - CODEC_FIELD_SIZE - MAX_BLOCK_SIZE;
+    }
+
+    /**
+     * @return packed remaining bytes of the message in a per-thread array, or null if they are not
+     * compressed; the message's position is not changed
+     */
+    private ByteBuffer compress(final ByteBuffer message) {
+        if (compression == null) {
+            return null;
+        }
+        final Scratch scratch = SCRATCH.get();
+        final int length = message.remaining(), limit = packedLimit(length);
+        final byte[] source;
+        final int offset;
+        if (message.hasArray()) {
+            source = message.array();
+            offset = message.arrayOffset() + message.position();
+        } else if (length >= compression.threshold()) {
+            source = scratch.input(length);
+            offset = 0;
+            message.get(message.position(), source, 0, length);
+        } else {
+            return null;
+        }
+        final byte[] packed = scratch.packed(Math.max(0, limit));
+        final int packedLength = compression.compress(source, offset, length, packed, 0, limit);
+        return packedLength < 0 ? null : ByteBuffer.wrap(packed, 0, packedLength);
+    }
+
+    /**
+     * Decrypts the packed clear text into a per-thread array and unpacks it into the message.
+     */
+    private void decompress(final Cipher cipher, final Codec codec, final ByteBuffer frame, final ByteBuffer message)
+            throws GeneralSecurityException {
+        final Scratch scratch = SCRATCH.get();
+        final ByteBuffer packed = ByteBuffer.wrap(scratch.packed(cipher.getOutputSize(frame.remaining())));
+        final int packedLength = crypt(cipher, aead, frame, packed);
+        try {
+            final int length = Compression.length(packed.array(), 0, packedLength);
+            if (message.remaining() < length) {
+                throw new ShortBufferException("Need " + length + " bytes, have " + message.remaining());
+            }
+            if (message.hasArray()) {
+                Compression.decompress(codec, packed.array(), 0, packedLength, message.array(),
+                        message.arrayOffset() + message.position());
+                message.position(message.position() + length);
+            } else {
+                final byte[] clearText = scratch.output(length);
+                Compression.decompress(codec, packed.array(), 0, packedLength, clearText, 0);
+                message.put(clearText, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new GeneralSecurityException("Malformed compressed clear text", e);
+        }
+    }
+
+    private static byte[] decompress(final Codec codec, final byte[] packed) throws GeneralSecurityException {
+        try {
+            return Compression.decompress(codec, packed);
+        } catch (DataFormatException e) {
+            throw new GeneralSecurityException("Malformed compressed clear text", e);
+        }
+    }
+
+    /**
+     * @return codec with the id held by a CODEC field
+     */
+    private static Codec codec(final byte[] value) throws GeneralSecurityException {
+        if (value.length != 1) {
+            throw new IllegalArgumentException("Field " + FrameField.CODEC + " does not hold a byte");
+        }
+        return codec(value[0]);
+    }
+
+    private static Codec codec(final byte id) throws GeneralSecurityException {
+        final Codec codec = Codec.forId(id);
+        if (codec == null) {
+            throw new GeneralSecurityException("Unknown codec: " + id);
+        }
+        return codec;
+    }
+
+    private static byte[] concatenate(final List<byte[]> messages, final int length) {
+        final ByteBuffer clearText = ByteBuffer.allocate(length);
+        for (byte[] message : messages) {
+            clearText.putInt(message.length).put(message);
+        }
+        return clearText.array();
+    }
+
+    /**
+     * Rejects frames without a sequence number and replayed or too old ones, before decryption.
+     */
+    private void checkSequence(final boolean sequenced, final long sequence) throws GeneralSecurityException {
+        if (window != null && (!sequenced || !window.check(sequence))) {
+            replayFailures.increment();
+            throw new GeneralSecurityException(sequenced
+                    ? "Replayed or too old frame: sequence " + sequence + ", highest " + window.highest()
+                    : "Frame holds no " + FrameField.SEQUENCE);
+        }
+    }
+
+    /**
+     * @return keys of the frames of given sender, of frames without a SENDER if it is not identified,
+     * or null if the sender is unknown and its keys have to be derived
+     * @throws GeneralSecurityException if a sequenced end gets a frame without a SENDER, its own frame
+     *                                  or one from another sender than the one it accepted
+     */
+    private Keys sender(final boolean identified, final long sender) throws GeneralSecurityException {
+        if (!identified) {
+            if (window != null) {
+                replayFailures.increment();
+                throw new GeneralSecurityException("Frame holds no " + FrameField.SENDER);
+            }
+            return unidentified;
+        }
+        if (self.identified && sender == self.sender) {
+            replayFailures.increment();
+            throw new GeneralSecurityException("Reflected frame: sent by this end");
+        }
+        final Keys known = peer.get();
+        if (known != null && known.sender == sender) {
+            return known;
+        } else if (known != null && window != null) {
+            replayFailures.increment();
+            throw new GeneralSecurityException("Frame from another sender than the accepted one");
+        } else if (window != null) {
+            return null;
+        }
+        synchronized (senders) {
+            return senders.get(sender);
+        }
+    }
+
+    /**
+     * Remembers the keys of the sender of an authentic frame. A sequenced end accepts frames of that
+     * sender only, since it has a single window, and rejects the frame if another sender was faster.
+     */
+    private void accept(final Keys sender) throws GeneralSecurityException {
+        if (!sender.identified || peer.get() == sender) {
+            return;
+        }
+        final Keys authentic = sender.pooled ? sender
+                : new Keys(true, sender.sender, sender.key, sender.macKey, true);
+        if (window == null) {
+            peer.set(authentic);
+            synchronized (senders) {
+                senders.put(authentic.sender, authentic);
+            }
+        } else if (!peer.compareAndSet(null, authentic) && peer.get().sender != authentic.sender) {
+            replayFailures.increment();
+            throw new GeneralSecurityException("Frame from another sender than the accepted one");
+        }
+    }
+
+    /**
+     * Records the sequence number of an authentic frame, rejecting it if another thread was faster.
+     */
+    private void acceptSequence(final long sequence) throws GeneralSecurityException {
+        if (window != null && !window.update(sequence)) {
+            replayFailures.increment();
+            throw new GeneralSecurityException("Replayed frame: sequence " + sequence);
+        }
+    }
+
+    private Frame authenticate(final Frame frame, final Keys keys) throws GeneralSecurityException {
+        return macAlgorithm == null ? frame : frame.put(FrameField.MAC, tag(frame, keys.macKey));
+    }
+
+    private void verify(final Frame frame) throws GeneralSecurityException {
+        if (macAlgorithm == null) {
+            return;
+        }
+        final byte[] received = frame.getBytes(FrameField.MAC);
+        if (received == null || !MessageDigest.isEqual(received, tag(frame, openMacKey))) {
+            macFailures.increment();
+            throw new AEADBadTagException("MAC check failed");
+        }
+    }
+
+    private byte[] tag(final Frame frame, final Key macKey) throws GeneralSecurityException {
+        final Mac mac = pool.mac(macAlgorithm, macKey);
+        final ByteBuffer header = ByteBuffer.allocate(Frame.FIELD_HEADER_SIZE);
+        for (FrameField field : FIELDS) {
+            final ByteBuffer value = field == FrameField.MAC ? null : frame.get(field);
+            if (value != null) {
+                header.clear();
+                header.put(field.tag()).putInt(value.remaining()).flip();
+                mac.update(header);
+                mac.update(value);
+            }
+        }
+        return mac.doFinal();
+    }
+
+    /**
+     * Feeds the fields between the positions to the MAC as encoded, all but the MAC itself.
+     */
+    private static void authenticate(final Mac mac, final ByteBuffer frame, final int from, final int end) {
+        final int limit = frame.limit();
+        for (int position = from; position < end; ) {
+            final int next = position + Frame.FIELD_HEADER_SIZE + frame.getInt(position + 1);
+            final FrameField field = FrameField.forTag(frame.get(position));
+            if (field != null && field != FrameField.MAC) {
+                frame.position(position).limit(next);
+                mac.update(frame);
+                frame.limit(limit);
+            }
+            position = next;
+        }
+    }
+
+    private Cipher decryption(final Frame frame, final Keys sender) throws GeneralSecurityException {
+        if (frame.has(FrameField.IV)) {
+            return decryption(sender, parameterSpec(frame.getBytes(FrameField.IV)), null);
+        }
+        return decryption(sender, null, Algorithms.parameters(transformation, frame.getBytes(FrameField.PARAMETERS)));
+    }
+
+    /**
+     * @param spec       parameters or null
+     * @param parameters parameters, if spec is null, or null
+     * @return cipher decrypting with the sender's key, from the pool if the sender is known to be authentic
+     */
+    private Cipher decryption(final Keys sender, final AlgorithmParameterSpec spec,
+                              final AlgorithmParameters parameters) throws GeneralSecurityException {
+        if (sender.pooled) {
+            return spec != null ? pool.cipher(transformation, Cipher.DECRYPT_MODE, sender.key, spec)
+                    : parameters != null ? pool.cipher(transformation, Cipher.DECRYPT_MODE, sender.key, parameters)
+                    : pool.cipher(transformation, Cipher.DECRYPT_MODE, sender.key);
+        }
+        final Cipher cipher = Cipher.getInstance(transformation);
+        if (spec != null) {
+            cipher.init(Cipher.DECRYPT_MODE, sender.key, spec);
+        } else if (parameters != null) {
+            cipher.init(Cipher.DECRYPT_MODE, sender.key, parameters);
+        } else {
+            cipher.init(Cipher.DECRYPT_MODE, sender.key);
+        }
+        return cipher;
+    }
+
+    private AlgorithmParameterSpec parameterSpec(final byte[] iv) {
+        return parameterSpec(iv, iv.length);
+    }
+
+    /**
+     * @return spec of the first length bytes of the array, which it copies
+     */
+    private AlgorithmParameterSpec parameterSpec(final byte[] iv, final int length) {
+        return gcm ? new GCMParameterSpec(GCM_TAG_BITS, iv, 0, length) : new IvParameterSpec(iv, 0, length);
+    }
+
+    private int sealedSize(final Cipher cipher, final int messageLength) throws GeneralSecurityException {
+        final int ivLength = window != null && nonce != Nonce.RANDOM ? ivLength() : providerIvLength(cipher);
+        return LENGTH_SIZE
+                + (ivLength == 0 ? 0 : Frame.FIELD_HEADER_SIZE + ivLength)
+                + Frame.FIELD_HEADER_SIZE + cipher.getOutputSize(messageLength)
+                + (window == null ? 0 : SEQUENCE_FIELD_SIZE + SENDER_FIELD_SIZE)
+                + (macAlgorithm == null ? 0
+                : Frame.FIELD_HEADER_SIZE + pool.mac(macAlgorithm, self.macKey).getMacLength());
+    }
+
+    /**
+     * @return length of the IVs the provider generates, caching it, since getIV copies them
+     */
+    private int providerIvLength(final Cipher cipher) {
+        if (providerIvLength < 0) {
+            final byte[] iv = cipher.getIV();
+            providerIvLength = iv == null ? 0 : iv.length;
+        }
+        return providerIvLength;
+    }
+
+    /**
+     * Runs the cipher over the input's remaining bytes into the output, like doFinal(ByteBuffer, ByteBuffer).
+     * <p/>
+     * The JCE copies the whole message when doFinal pads or unpads it, and copies direct buffers into
+     * fresh temporary arrays. Here the bulk goes through update and only the last block through doFinal,
+     * and direct buffers are staged through per-thread arrays that are reused between calls.
+     *
+     * @return number of bytes written to the output
+     */
+    private static int crypt(final Cipher cipher, final boolean aead, final ByteBuffer input, final ByteBuffer output)
+            throws GeneralSecurityException {
+        final int length = input.remaining();
+        if (output.remaining() < cipher.getOutputSize(length)) {
+            // exactly sized clear text buffer, only doFinal knows the padding is going to be removed
+            return cipher.doFinal(input, output);
+        }
+        final Scratch scratch = SCRATCH.get();
+        final byte[] in, out;
+        final int inOffset, outOffset;
+        if (input.hasArray()) {
+            in = input.array();
+            inOffset = input.arrayOffset() + input.position();
+        } else {
+            in = scratch.input(length);
+            inOffset = 0;
+            input.get(input.position(), in, 0, length);
+        }
+        if (output.hasArray()) {
+            out = output.array();
+            outOffset = output.arrayOffset() + output.position();
+        } else {
+            out = scratch.output(output.remaining());
+            outOffset = 0;
+        }
+
+        int written;
+        if (aead) {
+            // GCM and ChaCha20-Poly1305 buffer everything passed to update when decrypting, in one go is cheaper
+            written = cipher.doFinal(in, inOffset, length, out, outOffset);
+        } else {
+            written = cipher.update(in, inOffset, length, out, outOffset);
+            written += cipher.doFinal(out, outOffset + written);
+        }
+
+        input.position(input.position() + length);
+        if (output.hasArray()) {
+            output.position(output.position() + written);
+        } else {
+            output.put(out, 0, written);
+        }
+        return written;
+    }
+
+    /**
+     * Compares the computed tag with the value of the MAC field at given position, in constant time.
+     */
+    private static boolean equal(final byte[] computed, final int length, final ByteBuffer frame, final int field) {
+        int difference = frame.getInt(field + 1) ^ length;
+        for (int i = 0; i < length && i < frame.getInt(field + 1); i++) {
+            difference |= computed[i] ^ frame.get(field + Frame.FIELD_HEADER_SIZE + i);
+        }
+        return difference == 0;
+    }
+
+    /**
+     * Per-thread arrays reused by the buffer API.
+     */
+    private static final class Scratch {
+        private byte[] input = new byte[0], output = new byte[0], packed = new byte[0], mac = new byte[64],
+                iv = new byte[16];
+        private final ByteBuffer trailer = ByteBuffer.allocate(SEQUENCE_FIELD_SIZE + CODEC_FIELD_SIZE
+                + SENDER_FIELD_SIZE);
+
+        /**
+         * @return the encoded SEQUENCE field, if the number is not negative, CODEC field, if there is
+         * a codec, and SENDER field, if the sender is identified, ready to be read
+         */
+        ByteBuffer trailer(long sequence, Codec codec, Keys sender) {
+            trailer.clear();
+            if (sequence >= 0) {
+                trailer.put(FrameField.SEQUENCE.tag()).putInt(8).putLong(sequence);
+            }
+            if (codec != null) {
+                trailer.put(FrameField.CODEC.tag()).putInt(1).put(codec.id());
+            }
+            if (sender.identified) {
+                trailer.put(FrameField.SENDER.tag()).putInt(8).putLong(sender.sender);
+            }
+            return trailer.flip();
+        }
+
+        byte[] packed(int length) {
+            return packed.length >= length ? packed : (packed = new byte[length]);
+        }
+
+        byte[] input(int length) {
+            return input.length >= length ? input : (input = new byte[length]);
+        }
+
+        byte[] output(int length) {
+            return output.length >= length ? output : (output = new byte[length]);
+        }
+
+        byte[] mac(int length) {
+            return mac.length >= length ? mac : (mac = new byte[length]);
+        }
+
+        byte[] iv(int length) {
+            return iv.length >= length ? iv : (iv = new byte[length]);
+        }
+    }
+
+    /**
+     * Keys of the frames of one sender.
+     */
+    private static final class Keys {
+        /**
+         * Whether the frames carry the sender's id in a SENDER field.
+         */
+        private final boolean identified;
+        private final long sender;
+        private final Key key, macKey;
+        /**
+         * Whether ciphers come from the pool, false for senders not yet known to be authentic.
+         */
+        private final boolean pooled;
+
+        Keys(final boolean identified, final long sender, final Key key, final Key macKey, final boolean pooled) {
+            this.identified = identified;
+            this.sender = sender;
+            this.key = key;
+            this.macKey = macKey;
+            this.pooled = pooled;
+        }
+    }
+
+    private static void putParameters(final Frame frame, final Cipher cipher) throws GeneralSecurityException {
+        final AlgorithmParameters parameters = cipher.getParameters();
+        if (parameters != null) {
+            try {
+                frame.put(FrameField.PARAMETERS, parameters.getEncoded());
+            } catch (IOException e) {
+                throw new GeneralSecurityException("Cannot encode algorithm parameters", e);
+            }
+        }
+    }
+}
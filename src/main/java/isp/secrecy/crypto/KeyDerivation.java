@@ -0,0 +1,58 @@
+package isp.secrecy.crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+/**
+ * HKDF-Expand (RFC 5869) with HMAC-SHA256: independent keys for distinct purposes from one secret.
+ * <p/>
+ * The info of the expansion is the label, a zero byte and the context, so keys derived for distinct
+ * labels or contexts are independent of each other and of the secret.
+ */
+final class KeyDerivation {
+    private static final String HMAC = "HmacSHA256";
+    private static final int HASH_SIZE = 32;
+
+    private KeyDerivation() {
+    }
+
+    /**
+     * @return size bytes derived from the secret for given label and context
+     */
+    static byte[] derive(final Key secret, final String label, final byte[] context, final int size)
+            throws GeneralSecurityException {
+        if (size < 0 || size > 255 * HASH_SIZE) {
+            throw new IllegalArgumentException("Cannot derive " + size + " bytes");
+        }
+        final Mac mac = Mac.getInstance(HMAC);
+        mac.init(new SecretKeySpec(secret.getEncoded(), HMAC));
+        final byte[] output = new byte[size];
+        byte[] block = new byte[0];
+        for (int counter = 1, offset = 0; offset < size; counter++, offset += HASH_SIZE) {
+            mac.update(block);
+            mac.update(label.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(context);
+            mac.update((byte) counter);
+            block = mac.doFinal();
+            System.arraycopy(block, 0, output, offset, Math.min(HASH_SIZE, size - offset));
+        }
+        return output;
+    }
+
+    /**
+     * @return key of the same algorithm and size as the given one, derived from it for given label and
+     * id, or null if the key is null
+     */
+    static Key derive(final Key key, final String label, final long id) throws GeneralSecurityException {
+        if (key == null) {
+            return null;
+        }
+        final byte[] context = ByteBuffer.allocate(8).putLong(id).array();
+        return new SecretKeySpec(derive(key, label, context, key.getEncoded().length), key.getAlgorithm());
+    }
+}
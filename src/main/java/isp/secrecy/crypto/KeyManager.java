@@ -0,0 +1,395 @@
+package isp.secrecy.crypto;
+
+import javax.crypto.KeyGenerator;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out key pairs and per-pair session keys, so agents do not generate keys on their critical path.
+ * <p/>
+ * Key pairs: generating an RSA pair takes hundreds of milliseconds. A background thread keeps up to
+ * pregenerated pairs ready; {@link #keyPair()} takes one of them and only generates a pair inline if
+ * none is ready.
+ * <p/>
+ * Session keys: every unordered pair of agent names shares an AES session key. Keys are identified by
+ * an epoch, unique within the manager. Senders call {@link #next(String, String)} once per message and
+ * send the epoch along, see {@link isp.secrecy.broker.SessionCipher}; after rotateAfterMessages
+ * messages or rotateAfterMillis the pair gets a new key with a new epoch. Another background thread
+ * keeps {@link #READY_SESSION_KEYS} keys ready, so neither the first message of a pair nor a rotation
+ * generates one unless they run out; rotation then only swaps a reference, and senders of the pair
+ * are not held up. Receivers keep resolving the last {@link #KEPT_EPOCHS} epochs of a pair with
+ * {@link #key(String, String, long)}, so messages in flight during several rotations in quick
+ * succession still open.
+ * <p/>
+ * Pairs are looked up without a global lock. At most capacity pairs are kept; beyond that, the least
+ * recently used are dropped, a sixteenth of the capacity at a time so the cost of finding them is
+ * spread over many new pairs. A dropped pair starts over with a new key, so capacity should exceed
+ * the number of active pairs.
+ * <p/>
+ * All methods are thread-safe. Close the manager to stop its background threads.
+ */
+public class KeyManager implements AutoCloseable {
+    public static final String SESSION_KEY_ALGORITHM = "AES";
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long NEVER = Long.MAX_VALUE;
+    /**
+     * Number of session keys kept ready for new pairs and rotations.
+     */
+    public static final int READY_SESSION_KEYS = 64;
+    /**
+     * Number of most recent epochs of a pair whose keys still open messages.
+     */
+    public static final int KEPT_EPOCHS = 8;
+
+    private final String keyPairAlgorithm;
+    private final int keyPairSize;
+    private final int capacity;
+    private final long rotateAfterMessages, rotateAfterNanos;
+    private final BlockingQueue<KeyPair> keyPairs;
+    private final BlockingQueue<Key> sessionKeys = new ArrayBlockingQueue<>(READY_SESSION_KEYS);
+    private final Thread keyPairGenerator, sessionKeyGenerator;
+    private final ConcurrentMap<String, Pair> pairs = new ConcurrentHashMap<>();
+    private final ReentrantLock eviction = new ReentrantLock();
+    private final AtomicLong epochs = new AtomicLong();
+    private final AtomicLong inlineKeyPairs = new AtomicLong(), inlineSessionKeys = new AtomicLong(),
+            rotations = new AtomicLong();
+
+    /**
+     * Creates a manager for 2048 bit RSA pairs, keeping 4 of them ready, with session keys for
+     * {@link #DEFAULT_CAPACITY} pairs that are never rotated.
+     */
+    public KeyManager() {
+        this("RSA", 2048, 4, DEFAULT_CAPACITY, NEVER, NEVER);
+    }
+
+    /**
+     * Creates a manager for session keys only; 2048 bit RSA pairs are generated inline.
+     *
+     * @see #KeyManager(String, int, int, int, long, long)
+     */
+    public KeyManager(final int capacity, final long rotateAfterMessages, final long rotateAfterMillis) {
+        this("RSA", 2048, 0, capacity, rotateAfterMessages, rotateAfterMillis);
+    }
+
+    /**
+     * @param pregenerated        number of key pairs to keep ready; 0 disables their background thread
+     * @param capacity            maximum number of agent pairs to keep session keys for
+     * @param rotateAfterMessages number of messages after which a session key is rotated or {@link #NEVER}
+     * @param rotateAfterMillis   age in milliseconds after which a session key is rotated or {@link #NEVER}
+     * @throws IllegalArgumentException if the key pair algorithm or size is not supported
+     */
+    public KeyManager(final String keyPairAlgorithm, final int keyPairSize, final int pregenerated,
+                      final int capacity, final long rotateAfterMessages, final long rotateAfterMillis) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.keyPairAlgorithm = keyPairAlgorithm;
+        this.keyPairSize = keyPairSize;
+        this.capacity = capacity;
+        this.rotateAfterMessages = rotateAfterMessages;
+        this.rotateAfterNanos = rotateAfterMillis == NEVER ? NEVER : TimeUnit.MILLISECONDS.toNanos(rotateAfterMillis);
+
+        final KeyPairGenerator generator = keyPairGenerator();
+        if (pregenerated > 0) {
+            keyPairs = new ArrayBlockingQueue<>(pregenerated);
+            keyPairGenerator = daemon(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        keyPairs.put(generator.generateKeyPair());
+                    }
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }, "key-pair-generator");
+        } else {
+            keyPairs = null;
+            keyPairGenerator = null;
+        }
+        final KeyGenerator sessionKeyGenerator = sessionKeyGenerator();
+        this.sessionKeyGenerator = daemon(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    sessionKeys.put(sessionKeyGenerator.generateKey());
+                }
+            } catch (InterruptedException e) {
+                // closed
+            }
+        }, "session-key-generator");
+    }
+
+    /**
+     * @return a fresh key pair, pregenerated if one is ready
+     */
+    public KeyPair keyPair() {
+        final KeyPair keyPair = keyPairs == null ? null : keyPairs.poll();
+        if (keyPair != null) {
+            return keyPair;
+        }
+        inlineKeyPairs.incrementAndGet();
+        return keyPairGenerator().generateKeyPair();
+    }
+
+    /**
+     * Returns the session key to seal one message between two agents with, the same regardless of
+     * argument order. Counts the message and rotates the key first, if it is due.
+     */
+    public SessionKey next(final String a, final String b) throws NoSuchAlgorithmException {
+        final Pair pair = pair(a, b);
+        for (; ; ) {
+            final SessionKey key = pair.current();
+            if (key.uses.incrementAndGet() <= rotateAfterMessages && !expired(key)) {
+                return key;
+            }
+            rotate(pair, key);
+        }
+    }
+
+    /**
+     * Returns the current session key of two agents without counting a message. The key is rotated
+     * first, if it is older than rotateAfterMillis.
+     */
+    public SessionKey current(final String a, final String b) throws NoSuchAlgorithmException {
+        final Pair pair = pair(a, b);
+        SessionKey key = pair.current();
+        while (expired(key)) {
+            rotate(pair, key);
+            key = pair.current();
+        }
+        return key;
+    }
+
+    /**
+     * Resolves a session key by its epoch, for opening a received message.
+     *
+     * @return the key or null, if the epoch is not among the last {@link #KEPT_EPOCHS} of the pair
+     */
+    public Key key(final String a, final String b, final long epoch) {
+        final Pair pair = pairs.get(pairName(a, b));
+        if (pair == null) {
+            return null;
+        }
+        pair.used = System.nanoTime();
+        for (SessionKey key : pair.keys) {
+            if (key.epoch == epoch) {
+                return key.key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of agent pairs session keys are kept for
+     */
+    public int size() {
+        return pairs.size();
+    }
+
+    /**
+     * @return number of pregenerated key pairs ready to be taken
+     */
+    public int readyKeyPairs() {
+        return keyPairs == null ? 0 : keyPairs.size();
+    }
+
+    /**
+     * @return number of key pairs that had to be generated inline, because none was ready
+     */
+    public long inlineKeyPairs() {
+        return inlineKeyPairs.get();
+    }
+
+    /**
+     * @return number of pregenerated session keys ready to be taken
+     */
+    public int readySessionKeys() {
+        return sessionKeys.size();
+    }
+
+    /**
+     * @return number of session keys that had to be generated inline, because none was ready
+     */
+    public long inlineSessionKeys() {
+        return inlineSessionKeys.get();
+    }
+
+    /**
+     * @return number of session keys rotated so far
+     */
+    public long rotations() {
+        return rotations.get();
+    }
+
+    /**
+     * Stops the background key generation.
+     */
+    @Override
+    public void close() {
+        if (keyPairGenerator != null) {
+            keyPairGenerator.interrupt();
+        }
+        sessionKeyGenerator.interrupt();
+    }
+
+    @Override
+    public String toString() {
+        return "KeyManager[pairs=" + size() + ", rotations=" + rotations() + ", inlineKeyPairs="
+                + inlineKeyPairs() + ", inlineSessionKeys=" + inlineSessionKeys() + "]";
+    }
+
+    private Pair pair(final String a, final String b) throws NoSuchAlgorithmException {
+        final String name = pairName(a, b);
+        Pair pair = pairs.get(name);
+        if (pair == null) {
+            // created before inserting, a key lost to a faster thread is merely wasted
+            final Pair created = new Pair(newSessionKey());
+            pair = pairs.putIfAbsent(name, created);
+            if (pair == null) {
+                pair = created;
+                evict();
+            }
+        }
+        pair.used = System.nanoTime();
+        return pair;
+    }
+
+    /**
+     * Drops the least recently used pairs beyond the capacity, and a sixteenth of the capacity more.
+     * Only one thread evicts at a time, the others go on.
+     */
+    private void evict() {
+        if (pairs.size() <= capacity || !eviction.tryLock()) {
+            return;
+        }
+        try {
+            final long[] used = pairs.values().stream().mapToLong(pair -> pair.used).toArray();
+            if (used.length <= capacity) {
+                return;
+            }
+            final int excess = used.length - capacity + capacity / 16;
+            Arrays.sort(used);
+            final long threshold = used[Math.min(excess, used.length) - 1];
+            pairs.values().removeIf(pair -> pair.used <= threshold);
+        } finally {
+            eviction.unlock();
+        }
+    }
+
+    /**
+     * Makes a pregenerated key the current one, unless another thread has already rotated the expired key.
+     */
+    private void rotate(final Pair pair, final SessionKey expired) throws NoSuchAlgorithmException {
+        synchronized (pair) {
+            if (pair.current() == expired) {
+                final SessionKey[] keys = pair.keys;
+                final SessionKey[] rotated = new SessionKey[Math.min(keys.length + 1, KEPT_EPOCHS)];
+                rotated[0] = newSessionKey();
+                System.arraycopy(keys, 0, rotated, 1, rotated.length - 1);
+                pair.keys = rotated;
+                rotations.incrementAndGet();
+            }
+        }
+    }
+
+    private boolean expired(final SessionKey key) {
+        return rotateAfterNanos != NEVER && System.nanoTime() - key.created >= rotateAfterNanos;
+    }
+
+    /**
+     * @return session key with a new epoch, pregenerated if one is ready
+     */
+    private SessionKey newSessionKey() throws NoSuchAlgorithmException {
+        Key key = sessionKeys.poll();
+        if (key == null) {
+            inlineSessionKeys.incrementAndGet();
+            key = KeyGenerator.getInstance(SESSION_KEY_ALGORITHM).generateKey();
+        }
+        return new SessionKey(epochs.incrementAndGet(), key);
+    }
+
+    private KeyPairGenerator keyPairGenerator() {
+        try {
+            final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(keyPairAlgorithm);
+            keyPairGenerator.initialize(keyPairSize);
+            return keyPairGenerator;
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported key pair: " + keyPairAlgorithm + " " + keyPairSize, e);
+        }
+    }
+
+    private static KeyGenerator sessionKeyGenerator() {
+        try {
+            return KeyGenerator.getInstance(SESSION_KEY_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No " + SESSION_KEY_ALGORITHM + " provider", e);
+        }
+    }
+
+    private static Thread daemon(final Runnable task, final String name) {
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static String pairName(final String a, final String b) {
+        return a.compareTo(b) < 0 ? a + '\u0000' + b : b + '\u0000' + a;
+    }
+
+    /**
+     * A session key and its epoch.
+     */
+    public static final class SessionKey {
+        private final long epoch;
+        private final Key key;
+        /**
+         * Time the key became current, not when it was generated, so waiting keys do not age.
+         */
+        private final long created = System.nanoTime();
+        private final AtomicLong uses = new AtomicLong();
+
+        SessionKey(long epoch, Key key) {
+            this.epoch = epoch;
+            this.key = key;
+        }
+
+        public long epoch() {
+            return epoch;
+        }
+
+        public Key key() {
+            return key;
+        }
+    }
+
+    private static final class Pair {
+        /**
+         * The current key first, then up to {@link #KEPT_EPOCHS} - 1 previous ones, newest first;
+         * replaced as a whole on rotation, so readers need no lock.
+         */
+        private volatile SessionKey[] keys;
+        /**
+         * Time of the last use, for eviction.
+         */
+        private volatile long used;
+
+        Pair(SessionKey current) {
+            this.keys = new SessionKey[]{current};
+            this.used = System.nanoTime();
+        }
+
+        SessionKey current() {
+            return keys[0];
+        }
+    }
+}
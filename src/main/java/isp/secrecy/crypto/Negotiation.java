@@ -0,0 +1,117 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Agreement on a {@link CipherSuite} between two agents with possibly different hardware.
+ * <p/>
+ * The initiator sends an offer: every suite it supports with its {@link Calibration} cost, as the
+ * {@link FrameField#SUITES} field "NAME=nanos,NAME=nanos,...". The responder chooses the common suite
+ * with the lowest sum of both costs, since each message is sealed on one side and opened on the
+ * other, and answers with its name. Both then derive their keys from the shared secret with the
+ * {@link #transcript(Frame, Frame)} as context, so an attacker who changes the offer or answer
+ * only causes the first frame to fail authentication.
+ */
+public final class Negotiation {
+
+    private Negotiation() {
+    }
+
+    /**
+     * @return offer of all suites the calibration measured
+     */
+    public static Frame offer(final Calibration calibration) {
+        final StringBuilder suites = new StringBuilder();
+        for (CipherSuite suite : calibration.ranking()) {
+            if (suites.length() > 0) {
+                suites.append(',');
+            }
+            suites.append(suite.name()).append('=').append(calibration.nanos(suite));
+        }
+        return new Frame().put(FrameField.SUITES, suites.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Chooses the suite for an offer; suites unknown to this agent are ignored.
+     *
+     * @throws NoSuchAlgorithmException if no offered suite is available here
+     */
+    public static CipherSuite choose(final Frame offer, final Calibration own) throws NoSuchAlgorithmException {
+        CipherSuite best = null;
+        long bestNanos = Long.MAX_VALUE;
+        for (Map.Entry<CipherSuite, Long> offered : suites(offer).entrySet()) {
+            final long nanos = own.nanos(offered.getKey());
+            if (nanos >= 0 && nanos + offered.getValue() < bestNanos) {
+                best = offered.getKey();
+                bestNanos = nanos + offered.getValue();
+            }
+        }
+        if (best == null) {
+            throw new NoSuchAlgorithmException("No common cipher suite in " + suites(offer).keySet());
+        }
+        return best;
+    }
+
+    /**
+     * @return answer announcing the chosen suite
+     */
+    public static Frame answer(final CipherSuite suite) {
+        return new Frame().put(FrameField.SUITES, suite.name().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return suite chosen by the responder
+     * @throws NoSuchAlgorithmException if the answer names a suite that was not offered
+     */
+    public static CipherSuite accept(final Frame offer, final Frame answer) throws NoSuchAlgorithmException {
+        final String name = new String(field(answer), StandardCharsets.UTF_8);
+        final CipherSuite suite = CipherSuite.forName(name);
+        if (suite == null || !suites(offer).containsKey(suite)) {
+            throw new NoSuchAlgorithmException("Cipher suite was not offered: " + name);
+        }
+        return suite;
+    }
+
+    /**
+     * @return both frames as encoded, to bind the derived keys to the negotiation
+     */
+    public static byte[] transcript(final Frame offer, final Frame answer) {
+        final ByteBuffer transcript = ByteBuffer.allocate(offer.encodedLength() + answer.encodedLength());
+        offer.writeTo(transcript);
+        answer.writeTo(transcript);
+        return transcript.array();
+    }
+
+    /**
+     * @return offered suites known to this agent with the offering agent's costs
+     */
+    static Map<CipherSuite, Long> suites(final Frame offer) {
+        final Map<CipherSuite, Long> suites = new EnumMap<>(CipherSuite.class);
+        for (String entry : new String(field(offer), StandardCharsets.UTF_8).split(",")) {
+            final int equals = entry.indexOf('=');
+            final CipherSuite suite = CipherSuite.forName(equals < 0 ? entry : entry.substring(0, equals));
+            if (suite != null && equals >= 0) {
+                try {
+                    suites.put(suite, Math.max(0, Long.parseLong(entry.substring(equals + 1))));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Malformed offer: " + entry, e);
+                }
+            }
+        }
+        return suites;
+    }
+
+    private static byte[] field(final Frame frame) {
+        if (!frame.has(FrameField.SUITES)) {
+            throw new IllegalArgumentException("Not a negotiation frame");
+        }
+        return frame.getBytes(FrameField.SUITES);
+    }
+}
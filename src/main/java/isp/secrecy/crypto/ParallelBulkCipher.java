@@ -0,0 +1,247 @@
+package isp.secrecy.crypto;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Encrypts large payloads on all cores by splitting them into independently authenticated segments.
+ * <p/>
+ * Every segment is encrypted with AES/GCM under the same key. Its 12 byte IV is a random 8 byte
+ * nonce, chosen once per payload, followed by the 4 byte segment index, so IVs never repeat within
+ * a payload (and repeat across payloads only with negligible probability). The total clear text
+ * length and the segment index are authenticated as additional data, so reordering, dropping or
+ * truncating segments is detected. Since segment offsets follow from the segment size alone, all
+ * segments are encrypted and decrypted in parallel directly into their final position.
+ * <p/>
+ * Layout of the cipher text:
+ * <pre>
+ *   byte[8] nonce
+ *   int     segment size
+ *   long    clear text length
+ *   segment *                      cipher text of up to segment size bytes followed by a 16 byte tag
+ * </pre>
+ * Buffers may be heap, direct or memory mapped, which allows payloads beyond the 2 GB array limit
+ * when processed in pieces.
+ */
+public class ParallelBulkCipher {
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    public static final int HEADER_SIZE = 8 + 4 + 8;
+    public static final int TAG_SIZE = 16;
+
+    private static final int AAD_SIZE = 8 + 4;
+
+    private final Key key;
+    private final int segmentSize;
+    private final ForkJoinPool pool;
+    private final SecureRandom random = new SecureRandom();
+
+    public ParallelBulkCipher(final Key key) {
+        this(key, DEFAULT_SEGMENT_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public ParallelBulkCipher(final Key key, final int segmentSize, final ForkJoinPool pool) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+        }
+        this.key = key;
+        this.segmentSize = segmentSize;
+        this.pool = pool;
+    }
+
+    /**
+     * @return size of the cipher text for a clear text of given length
+     */
+    public long encryptedSize(final long clearTextLength) {
+        return HEADER_SIZE + clearTextLength + segments(clearTextLength, segmentSize) * TAG_SIZE;
+    }
+
+    public byte[] encrypt(final byte[] clearText) throws GeneralSecurityException {
+        final long size = encryptedSize(clearText.length);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Cipher text does not fit into an array, use ByteBuffers");
+        }
+        final byte[] cipherText = new byte[(int) size];
+        encrypt(ByteBuffer.wrap(clearText), ByteBuffer.wrap(cipherText));
+        return cipherText;
+    }
+
+    /**
+     * @throws AEADBadTagException if the header does not match the cipher text or any segment is not
+     *                             authentic; nothing is allocated for a malformed header
+     */
+    public byte[] decrypt(final byte[] cipherText) throws GeneralSecurityException {
+        final ByteBuffer source = ByteBuffer.wrap(cipherText);
+        final byte[] clearText = new byte[(int) checkHeader(source)];
+        decrypt(source, ByteBuffer.wrap(clearText));
+        return clearText;
+    }
+
+    /**
+     * Encrypts the clear text's remaining bytes into the destination, starting at its position.
+     * Both positions are advanced past the processed bytes.
+     */
+    public void encrypt(final ByteBuffer clearText, final ByteBuffer cipherText) throws GeneralSecurityException {
+        final long length = clearText.remaining();
+        if (cipherText.remaining() < encryptedSize(length)) {
+            throw new IllegalArgumentException("Destination too small: " + cipherText.remaining() + " < "
+                    + encryptedSize(length));
+        }
+        final byte[] nonce = new byte[8];
+        random.nextBytes(nonce);
+        cipherText.put(nonce).putInt(segmentSize).putLong(length);
+
+        run(new SegmentTask(true, nonce, segmentSize, length, clearText.slice(), cipherText.slice(),
+                0, segments(length, segmentSize)));
+
+        clearText.position(clearText.limit());
+        cipherText.position(cipherText.position() + (int) (encryptedSize(length) - HEADER_SIZE));
+    }
+
+    /**
+     * Reads the clear text length from the header at the source's position, without consuming it.
+     */
+    public static long clearTextLength(final ByteBuffer cipherText) {
+        return cipherText.getLong(cipherText.position() + 12);
+    }
+
+    /**
+     * Decrypts and verifies all segments. The destination must have room for
+     * {@link #clearTextLength(ByteBuffer)} bytes. Both positions are advanced past the processed bytes.
+     * If an exception is thrown, the destination may hold unverified clear text and must be discarded.
+     *
+     * @throws AEADBadTagException if any segment is not authentic
+     */
+    public void decrypt(final ByteBuffer cipherText, final ByteBuffer clearText) throws GeneralSecurityException {
+        final long length = checkHeader(cipherText);
+        final byte[] nonce = new byte[8];
+        cipherText.get(nonce);
+        final int segment = cipherText.getInt();
+        cipherText.getLong();
+        if (clearText.remaining() < length) {
+            throw new IllegalArgumentException("Destination too small: " + clearText.remaining() + " < " + length);
+        }
+
+        run(new SegmentTask(false, nonce, segment, length, cipherText.slice(), clearText.slice(),
+                0, segments(length, segment)));
+
+        cipherText.position(cipherText.limit());
+        clearText.position(clearText.position() + (int) length);
+    }
+
+    /**
+     * Checks the header at the source's position against the remaining bytes, without consuming it.
+     *
+     * @return clear text length
+     * @throws AEADBadTagException if the header is truncated, holds an invalid segment size or length,
+     *                             or does not match the number of remaining bytes
+     */
+    private static long checkHeader(final ByteBuffer cipherText) throws AEADBadTagException {
+        final int position = cipherText.position(), available = cipherText.remaining() - HEADER_SIZE;
+        if (available < 0) {
+            throw new AEADBadTagException("Truncated header");
+        }
+        final int segment = cipherText.getInt(position + 8);
+        final long length = clearTextLength(cipherText);
+        // checked before adding the tags, which could overflow for a forged length
+        if (segment <= 0 || length < 0 || length > available
+                || available != length + segments(length, segment) * TAG_SIZE) {
+            throw new AEADBadTagException("Cipher text length does not match its header");
+        }
+        return length;
+    }
+
+    private void run(final SegmentTask task) throws GeneralSecurityException {
+        try {
+            pool.invoke(task);
+        } catch (SegmentException e) {
+            throw e.cause;
+        }
+    }
+
+    static long segments(final long length, final int segmentSize) {
+        return length == 0 ? 1 : (length + segmentSize - 1) / segmentSize;
+    }
+
+    private static final class SegmentException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final GeneralSecurityException cause;
+
+        SegmentException(GeneralSecurityException cause) {
+            super(cause);
+            this.cause = cause;
+        }
+    }
+
+    /**
+     * Processes segments [from, to), splitting the range until it is small enough. Never serialized,
+     * it only extends a serializable class.
+     */
+    @SuppressWarnings("serial")
+    private final class SegmentTask extends RecursiveAction {
+        private final boolean encrypt;
+        private final byte[] nonce;
+        private final int segmentSize;
+        private final long length;
+        private final ByteBuffer source, destination;
+        private final long from, to;
+
+        SegmentTask(boolean encrypt, byte[] nonce, int segmentSize, long length, ByteBuffer source,
+                    ByteBuffer destination, long from, long to) {
+            this.encrypt = encrypt;
+            this.nonce = nonce;
+            this.segmentSize = segmentSize;
+            this.length = length;
+            this.source = source;
+            this.destination = destination;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final long middle = (from + to) >>> 1;
+                invokeAll(new SegmentTask(encrypt, nonce, segmentSize, length, source, destination, from, middle),
+                        new SegmentTask(encrypt, nonce, segmentSize, length, source, destination, middle, to));
+                return;
+            }
+            try {
+                process(from);
+            } catch (GeneralSecurityException e) {
+                throw new SegmentException(e);
+            }
+        }
+
+        private void process(final long index) throws GeneralSecurityException {
+            final long clearOffset = index * segmentSize;
+            final int clearLength = (int) Math.min(segmentSize, length - clearOffset);
+            final long cipherOffset = clearOffset + index * TAG_SIZE;
+
+            final ByteBuffer iv = ByteBuffer.allocate(12).put(nonce).putInt((int) index);
+            final ByteBuffer aad = ByteBuffer.allocate(AAD_SIZE).putLong(length).putInt((int) index);
+            final Cipher cipher = CipherPool.shared().cipher(TRANSFORMATION, encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE,
+                    key, new GCMParameterSpec(TAG_SIZE * 8, iv.array()));
+            cipher.updateAAD(aad.array());
+
+            final ByteBuffer in = source.duplicate();
+            final ByteBuffer out = destination.duplicate();
+            if (encrypt) {
+                in.limit((int) clearOffset + clearLength).position((int) clearOffset);
+                out.position((int) cipherOffset);
+            } else {
+                in.limit((int) cipherOffset + clearLength + TAG_SIZE).position((int) cipherOffset);
+                out.position((int) clearOffset);
+            }
+            cipher.doFinal(in, out);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package isp.secrecy.crypto;
+
+/**
+ * Sliding window of received sequence numbers, to reject replayed messages as IPsec does.
+ * <p/>
+ * The window covers the highest sequence number received so far and the size - 1 numbers below it;
+ * a bitmap records which of them have been received. Numbers above the window are new and slide it
+ * forward; numbers below it are rejected as too old, since they can no longer be told apart from
+ * replays. Messages may therefore arrive out of order, as long as they are at most size - 1 behind.
+ * <p/>
+ * The bitmap is a ring of words, one spare word more than the window needs (RFC 6479): sliding the
+ * window only clears the words it enters, without shifting any bits, so both checking and updating
+ * take constant time and memory is fixed. A window is meant for one sender's numbers; methods are
+ * synchronized, so a session may be opened by several threads.
+ * <p/>
+ * Call {@link #check(long)} before and {@link #update(long)} only after a message has been
+ * authenticated, so that forged messages cannot move the window.
+ */
+public final class ReplayWindow {
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final long[] bitmap;
+    private final int mask;
+    private final long size;
+    private long highest = -1;
+
+    /**
+     * @param size number of sequence numbers covered, a positive multiple of 64
+     */
+    public ReplayWindow(final int size) {
+        if (size <= 0 || size % 64 != 0) {
+            throw new IllegalArgumentException("Window size must be a positive multiple of 64: " + size);
+        }
+        this.bitmap = new long[Integer.highestOneBit(size / 64) * 2];
+        this.mask = bitmap.length - 1;
+        this.size = size;
+    }
+
+    /**
+     * @return true if the sequence number has not been received and is not too old
+     */
+    public synchronized boolean check(final long sequence) {
+        if (sequence < 0) {
+            return false;
+        }
+        if (sequence > highest) {
+            return true;
+        }
+        if (highest - sequence >= size) {
+            return false;
+        }
+        return (bitmap[(int) (sequence >>> 6) & mask] & 1L << sequence) == 0;
+    }
+
+    /**
+     * Marks the sequence number as received, sliding the window if needed.
+     *
+     * @return false if the number was rejected by {@link #check(long)}, e.g. because another thread
+     * received the same number in the meantime
+     */
+    public synchronized boolean update(final long sequence) {
+        if (!check(sequence)) {
+            return false;
+        }
+        if (sequence > highest) {
+            final long word = sequence >>> 6, current = highest >> 6;
+            // words the window enters, at most the whole ring
+            final long entered = Math.min(word - current, bitmap.length);
+            for (long i = 1; i <= entered; i++) {
+                bitmap[(int) (current + i) & mask] = 0;
+            }
+            highest = sequence;
+        }
+        bitmap[(int) (sequence >>> 6) & mask] |= 1L << sequence;
+        return true;
+    }
+
+    /**
+     * @return highest sequence number received, -1 if none
+     */
+    public synchronized long highest() {
+        return highest;
+    }
+
+    public long size() {
+        return size;
+    }
+}
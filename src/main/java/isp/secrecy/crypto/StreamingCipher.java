@@ -0,0 +1,177 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameChannel;
+import isp.secrecy.channel.FrameField;
+
+import javax.crypto.Cipher;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+/**
+ * Encrypts payloads of arbitrary size as an ordered sequence of frames.
+ * <p/>
+ * The sender reads the source in chunks of chunkSize bytes and passes each chunk through
+ * Cipher.update; the receiver decrypts every frame as it arrives and writes the clear text
+ * to the sink. Neither side holds more than one chunk at a time, so memory use does not
+ * depend on the payload size, provided the channel in between is bounded.
+ * <p/>
+ * Frames of a stream carry a CHUNK index starting at 0. The first frame also carries the
+ * algorithm PARAMETERS, the last one the END marker and the output of doFinal.
+ * <p/>
+ * Note that AES/GCM decryption in the JDK providers buffers the whole stream internally until
+ * the tag has been verified. Use a mode such as CBC or CTR (authenticated separately) when
+ * constant memory on the receiving side matters.
+ * <p/>
+ * Typical use in an agent:
+ * <pre>
+ *   new StreamingCipher(cryptoAlgorithm, cryptoKey).encrypt(new FileInputStream(file), outgoingChannel);
+ * </pre>
+ */
+public class StreamingCipher {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final String transformation;
+    private final Key key;
+    private final int chunkSize;
+
+    public StreamingCipher(final String transformation, final Key key) {
+        this(transformation, key, DEFAULT_CHUNK_SIZE);
+    }
+
+    public StreamingCipher(final String transformation, final Key key, final int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.transformation = transformation;
+        this.key = key;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Encrypts everything the stream provides and sends it over the channel.
+     *
+     * @return number of clear text bytes read
+     */
+    public long encrypt(final InputStream source, final FrameChannel sink)
+            throws IOException, InterruptedException, GeneralSecurityException {
+        return encrypt(Channels.newChannel(source), sink);
+    }
+
+    /**
+     * Encrypts everything the byte channel (e.g. a FileChannel) provides until end of stream and
+     * sends it over the frame channel. The byte channel must be in blocking mode.
+     *
+     * @return number of clear text bytes read
+     */
+    public long encrypt(final ReadableByteChannel source, final FrameChannel sink)
+            throws IOException, InterruptedException, GeneralSecurityException {
+        final Cipher cipher = Cipher.getInstance(transformation);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        final AlgorithmParameters parameters = cipher.getParameters();
+
+        final byte[] chunk = new byte[chunkSize];
+        final ByteBuffer input = ByteBuffer.wrap(chunk);
+        long index = 0, total = 0;
+        boolean end = false;
+
+        while (!end) {
+            input.clear();
+            while (input.hasRemaining()) {
+                if (source.read(input) < 0) {
+                    end = true;
+                    break;
+                }
+            }
+            final int length = input.position();
+            total += length;
+
+            final byte[] cipherText = end ? cipher.doFinal(chunk, 0, length) : cipher.update(chunk, 0, length);
+            final Frame frame = new Frame()
+                    .putLong(FrameField.CHUNK, index)
+                    .put(FrameField.CIPHERTEXT, cipherText == null ? new byte[0] : cipherText);
+            if (index == 0 && parameters != null) {
+                frame.put(FrameField.PARAMETERS, parameters.getEncoded());
+            }
+            if (end) {
+                frame.put(FrameField.END, new byte[0]);
+            }
+            sink.send(frame.encode());
+            index++;
+        }
+        return total;
+    }
+
+    /**
+     * Receives one stream from the channel, decrypts it and writes the clear text to the output stream.
+     *
+     * @return number of clear text bytes written
+     */
+    public long decrypt(final FrameChannel source, final OutputStream sink)
+            throws IOException, InterruptedException, GeneralSecurityException {
+        return decrypt(source, Channels.newChannel(sink));
+    }
+
+    /**
+     * Receives one stream from the frame channel, decrypts it and writes the clear text to the
+     * byte channel (e.g. a FileChannel).
+     *
+     * @return number of clear text bytes written
+     * @throws IOException if frames arrive out of order
+     */
+    public long decrypt(final FrameChannel source, final WritableByteChannel sink)
+            throws IOException, InterruptedException, GeneralSecurityException {
+        final Cipher cipher = Cipher.getInstance(transformation);
+        ByteBuffer output = ByteBuffer.allocate(0);
+        long expected = 0, total = 0;
+
+        while (true) {
+            final Frame frame = Frame.decode(source.receive());
+            final long index = frame.getLong(FrameField.CHUNK);
+            if (index != expected) {
+                throw new IOException("Stream chunk " + index + " received, expected " + expected);
+            }
+            if (index == 0) {
+                final AlgorithmParameters parameters = Algorithms.parameters(transformation,
+                        frame.getBytes(FrameField.PARAMETERS));
+                if (parameters == null) {
+                    cipher.init(Cipher.DECRYPT_MODE, key);
+                } else {
+                    cipher.init(Cipher.DECRYPT_MODE, key, parameters);
+                }
+            }
+
+            final ByteBuffer cipherText = frame.get(FrameField.CIPHERTEXT);
+            final boolean end = frame.has(FrameField.END);
+            final int outputSize = cipher.getOutputSize(cipherText.remaining());
+            if (output.capacity() < outputSize) {
+                output = ByteBuffer.allocate(Math.max(outputSize, chunkSize));
+            }
+            output.clear();
+            if (end) {
+                cipher.doFinal(cipherText, output);
+            } else {
+                cipher.update(cipherText, output);
+            }
+
+            output.flip();
+            total += output.remaining();
+            while (output.hasRemaining()) {
+                sink.write(output);
+            }
+
+            if (end) {
+                return total;
+            }
+            expected++;
+        }
+    }
+}
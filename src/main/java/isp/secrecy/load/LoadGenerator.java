@@ -0,0 +1,445 @@
+package isp.secrecy.load;
+
+import isp.secrecy.Agent;
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.TextCodec;
+import isp.secrecy.crypto.Algorithms;
+import isp.secrecy.crypto.EnvelopeReceiver;
+import isp.secrecy.crypto.EnvelopeSender;
+import isp.secrecy.crypto.KeyManager;
+import isp.secrecy.metrics.Histogram;
+import isp.secrecy.metrics.HistogramSnapshot;
+
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Drives the agent examples with a configurable load and checks that every message arrives intact,
+ * once and in order.
+ * <p/>
+ * Each of the given number of agent pairs has a sender, Alice, and a receiver, Bob, connected by a
+ * bounded queue of strings as in {@link isp.secrecy.AgentCommunication}. Alice sends messages of
+ * random size, paced at the given rate, for the given duration; Bob decodes, decrypts and checks
+ * them. Every message starts with a header:
+ * <pre>
+ *   int    checksum      CRC32 of the rest of the message
+ *   long   sequence      0, 1, ... per sender
+ *   long   intended      System.nanoTime() at which the message was due
+ *   byte[] payload
+ * </pre>
+ * Latencies run from the time a message was due, not from when it was sent, so a sender that falls
+ * behind does not hide the delay it causes (coordinated omission, as HdrHistogram corrects it).
+ * They are recorded in a {@link Histogram}, to within 1/16 of their value.
+ * <p/>
+ * A run fails on any error: a message Bob cannot decode, decrypt or authenticate, a wrong checksum,
+ * a duplicate or reordered message, or any message that does not arrive within 10 s. Runs with
+ * the same seed send the same messages, and with a rate, the same number of them; only timings vary.
+ * <p/>
+ * Run from the command line as
+ * <pre>
+ *   LoadGenerator scenario transformation agents rate sizes seconds [seed]
+ *   LoadGenerator AUTHENTICATED AES/CBC/PKCS5Padding 4 5000 16~16384 600
+ * </pre>
+ * with a rate in messages per second per agent, 0 for as fast as possible, and sizes as parsed by
+ * {@link MessageSizes#parse(String)}. The exit status is 1 if the run failed.
+ */
+public class LoadGenerator {
+    /**
+     * What the agents do with a message.
+     */
+    public enum Scenario {
+        /**
+         * Sent in clear, as in {@link isp.secrecy.AgentCommunication}.
+         */
+        PLAIN,
+        /**
+         * Sealed into a frame, as in {@link isp.secrecy.AgentCommunicationSymmetricCipher}.
+         */
+        SYMMETRIC,
+        /**
+         * Sealed into a frame that is also authenticated with {@link #MAC_ALGORITHM}.
+         */
+        AUTHENTICATED,
+        /**
+         * Sealed with a session key wrapped with the receiver's RSA public key, as in
+         * {@link isp.secrecy.AgentCommunicationEnvelopeCipher}; the transformation is ignored. Senders
+         * start a new session every {@link #ENVELOPE_SESSION_MESSAGES} messages, so receivers unwrap
+         * keys with their private key under load.
+         */
+        ENVELOPE
+    }
+
+    public static final String MAC_ALGORITHM = "HmacSHA256";
+    public static final int HEADER_SIZE = 4 + 8 + 8;
+    public static final int ENVELOPE_SESSION_MESSAGES = 256;
+
+    private static final Logger LOG = Logger.getLogger(LoadGenerator.class.getCanonicalName());
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long DRAIN_SECONDS = 10;
+    /**
+     * Sent after the last message.
+     */
+    private static final String END = "";
+
+    private final Scenario scenario;
+    private final String transformation;
+    private final int agents;
+    private final double rate;
+    private final MessageSizes sizes;
+    private final Duration duration;
+    private final long seed;
+
+    /**
+     * @param transformation cipher transformation, ignored by {@link Scenario#PLAIN} and {@link Scenario#ENVELOPE}
+     * @param agents         number of sender and receiver pairs
+     * @param rate           messages per second sent by each sender, or 0 for as fast as possible
+     * @param sizes          distribution of payload sizes, without the header
+     * @param seed           seed of the sizes and payloads
+     */
+    public LoadGenerator(final Scenario scenario, final String transformation, final int agents, final double rate,
+                         final MessageSizes sizes, final Duration duration, final long seed) {
+        if (agents < 1 || rate < 0 || duration.isNegative()) {
+            throw new IllegalArgumentException("Invalid load: " + agents + " agents, rate " + rate + ", "
+                    + duration);
+        }
+        this.scenario = scenario;
+        this.transformation = transformation;
+        this.agents = agents;
+        this.rate = rate;
+        this.sizes = sizes;
+        this.duration = duration;
+        this.seed = seed;
+    }
+
+    /**
+     * Runs the load to completion.
+     */
+    public Report run() throws GeneralSecurityException, InterruptedException {
+        return run(null);
+    }
+
+    /**
+     * Runs the load with every message passed through the wire on its way, which may change it or
+     * drop it by returning null; no wire is faster.
+     */
+    Report run(final UnaryOperator<String> wire) throws GeneralSecurityException, InterruptedException {
+        final Run run = new Run();
+        final List<Thread> senders = new ArrayList<>(), others = new ArrayList<>();
+        try (KeyManager keyPairs = scenario == Scenario.ENVELOPE ? new KeyManager() : null) {
+            for (int i = 0; i < agents; i++) {
+                final KeyPair keyPair = keyPairs == null ? null : keyPairs.keyPair();
+                final Key key = scenario == Scenario.PLAIN || keyPair != null ? null
+                        : KeyGenerator.getInstance(Algorithms.keyAlgorithm(transformation)).generateKey();
+                final Key macKey = scenario == Scenario.AUTHENTICATED
+                        ? KeyGenerator.getInstance(MAC_ALGORITHM).generateKey() : null;
+                final BlockingQueue<String> alice2wire = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+                final BlockingQueue<String> wire2bob = wire == null ? alice2wire
+                        : new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+                senders.add(new Sender(run, i, alice2wire, keyPair == null ? key : keyPair.getPublic(), macKey));
+                others.add(new Receiver(run, i, wire2bob, keyPair == null ? key : keyPair.getPrivate(), macKey));
+                if (wire != null) {
+                    others.add(new Wire(alice2wire, wire2bob, wire));
+                }
+            }
+        }
+
+        final long start = System.nanoTime();
+        others.forEach(Thread::start);
+        senders.forEach(Thread::start);
+        for (Thread thread : senders) {
+            thread.join();
+        }
+        for (Thread thread : others) {
+            thread.join(TimeUnit.SECONDS.toMillis(2 * DRAIN_SECONDS));
+            thread.interrupt();
+        }
+        return run.report(System.nanoTime() - start);
+    }
+
+    /**
+     * State shared by the agents of one run.
+     */
+    private final class Run {
+        private final Histogram latency = new Histogram();
+        private final AtomicLong sent = new AtomicLong(), received = new AtomicLong(), rejected = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong(), errors = new AtomicLong();
+        private final AtomicReference<Exception> firstError = new AtomicReference<>();
+
+        void fail(final String agent, final Exception e) {
+            errors.incrementAndGet();
+            if (firstError.compareAndSet(null, e)) {
+                LOG.log(Level.WARNING, "[" + agent + "]: First error, the run fails", e);
+            }
+        }
+
+        Report report(final long nanos) {
+            final long lost = Math.max(0, sent.get() - received.get() - rejected.get());
+            return new Report(LoadGenerator.this.toString(), sent.get(), received.get(), lost, errors.get(),
+                    bytes.get(), nanos, latency.snapshot(), firstError.get());
+        }
+    }
+
+    /**
+     * Alice: sends paced messages and the end marker.
+     */
+    private final class Sender extends Agent {
+        private final Run run;
+        private final int index;
+
+        Sender(final Run run, final int index, final BlockingQueue<String> outgoing, final Key key, final Key macKey) {
+            super(outgoing, null, key, cryptoAlgorithm(), macKey, macKey == null ? null : MAC_ALGORITHM);
+            setName("alice-" + index);
+            this.run = run;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            final Random random = new Random(seed * 31 + index);
+            final CRC32 checksum = new CRC32();
+            final long start = System.nanoTime(), end = start + duration.toNanos();
+            final long count = rate > 0 ? Math.round(rate * duration.toNanos() / 1e9) : Long.MAX_VALUE;
+            final EnvelopeSender envelope = scenario == Scenario.ENVELOPE
+                    ? new EnvelopeSender((PublicKey) cryptoKey) : null;
+            try {
+                for (long sequence = 0; sequence < count && (rate > 0 || System.nanoTime() < end); sequence++) {
+                    long intended = System.nanoTime();
+                    if (rate > 0) {
+                        intended = start + (long) (sequence * 1e9 / rate);
+                        for (long wait = intended - System.nanoTime(); wait > 0; wait = intended - System.nanoTime()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    final byte[] message = new byte[HEADER_SIZE + sizes.next(random)];
+                    random.nextBytes(message);
+                    ByteBuffer.wrap(message).putLong(4, sequence).putLong(12, intended);
+                    checksum.reset();
+                    checksum.update(message, 4, message.length - 4);
+                    ByteBuffer.wrap(message).putInt(0, (int) checksum.getValue());
+                    if (envelope != null && sequence > 0 && sequence % ENVELOPE_SESSION_MESSAGES == 0) {
+                        envelope.rekey();
+                    }
+                    outgoing.put(scenario == Scenario.PLAIN ? TextCodec.HEX.encode(message)
+                            : TextCodec.HEX.encode((envelope == null ? frameCipher().seal(message)
+                            : envelope.seal(message)).encode()));
+                    run.sent.incrementAndGet();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                run.fail(getName(), e);
+            } catch (GeneralSecurityException | RuntimeException e) {
+                run.fail(getName(), e);
+            } finally {
+                try {
+                    outgoing.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Bob: checks every message until the end marker.
+     */
+    private final class Receiver extends Agent {
+        private final Run run;
+
+        Receiver(final Run run, final int index, final BlockingQueue<String> incoming, final Key key,
+                 final Key macKey) {
+            super(null, incoming, key, cryptoAlgorithm(), macKey, macKey == null ? null : MAC_ALGORITHM);
+            setName("bob-" + index);
+            this.run = run;
+        }
+
+        @Override
+        public void run() {
+            final CRC32 checksum = new CRC32();
+            final EnvelopeReceiver envelope = scenario == Scenario.ENVELOPE
+                    ? new EnvelopeReceiver((PrivateKey) cryptoKey) : null;
+            long expected = 0;
+            try {
+                for (String text = incoming.poll(DRAIN_SECONDS, TimeUnit.SECONDS); ;
+                     text = incoming.poll(DRAIN_SECONDS, TimeUnit.SECONDS)) {
+                    if (text == null) {
+                        run.fail(getName(), new TimeoutException("No message for " + DRAIN_SECONDS + " s"));
+                        return;
+                    } else if (text.equals(END)) {
+                        return;
+                    }
+                    try {
+                        final Frame frame = scenario == Scenario.PLAIN ? null
+                                : Frame.decode(ByteBuffer.wrap(TextCodec.HEX.decode(text)));
+                        final byte[] message = frame == null ? TextCodec.HEX.decode(text)
+                                : envelope == null ? frameCipher().open(frame) : envelope.open(frame);
+                        if (message.length < HEADER_SIZE) {
+                            throw new GeneralSecurityException("Truncated message: " + message.length + " bytes");
+                        }
+                        final ByteBuffer header = ByteBuffer.wrap(message);
+                        checksum.reset();
+                        checksum.update(message, 4, message.length - 4);
+                        if (header.getInt() != (int) checksum.getValue()) {
+                            throw new GeneralSecurityException("Corrupted message after " + (expected - 1));
+                        }
+                        final long sequence = header.getLong(), intended = header.getLong();
+                        if (sequence < expected) {
+                            throw new GeneralSecurityException("Duplicate or reordered message " + sequence
+                                    + ", expected " + expected);
+                        }
+                        // gaps are counted as lost at the end
+                        expected = sequence + 1;
+                        run.latency.recordSince(intended);
+                        run.received.incrementAndGet();
+                        run.bytes.addAndGet(message.length - HEADER_SIZE);
+                    } catch (GeneralSecurityException | RuntimeException e) {
+                        run.rejected.incrementAndGet();
+                        run.fail(getName(), e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                run.fail(getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Passes messages between Alice and Bob through a function, like Oscar in the examples.
+     */
+    private static final class Wire extends Thread {
+        private final BlockingQueue<String> incoming, outgoing;
+        private final UnaryOperator<String> wire;
+
+        Wire(final BlockingQueue<String> incoming, final BlockingQueue<String> outgoing,
+             final UnaryOperator<String> wire) {
+            this.incoming = incoming;
+            this.outgoing = outgoing;
+            this.wire = wire;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (String text = incoming.take(); ; text = incoming.take()) {
+                    final String passed = text.equals(END) ? END : wire.apply(text);
+                    if (passed != null) {
+                        outgoing.put(passed);
+                    }
+                    if (text.equals(END)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return algorithm of the agents' keys
+     */
+    private String cryptoAlgorithm() {
+        return scenario == Scenario.ENVELOPE ? EnvelopeSender.WRAP_ALGORITHM : transformation;
+    }
+
+    @Override
+    public String toString() {
+        return scenario + (scenario == Scenario.PLAIN || scenario == Scenario.ENVELOPE ? "" : " " + transformation)
+                + ", " + agents + " agents, "
+                + (rate > 0 ? rate + " msg/s each" : "unpaced") + ", sizes " + sizes + ", " + duration
+                + ", seed " + seed;
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static final class Report {
+        public final String load;
+        public final long sent, received, lost, errors, bytes, nanos;
+        /**
+         * Nanoseconds from the time a message was due until it was checked.
+         */
+        public final HistogramSnapshot latency;
+        /**
+         * First error or null, if there was none.
+         */
+        public final Exception firstError;
+
+        Report(final String load, final long sent, final long received, final long lost, final long errors,
+               final long bytes, final long nanos, final HistogramSnapshot latency, final Exception firstError) {
+            this.load = load;
+            this.sent = sent;
+            this.received = received;
+            this.lost = lost;
+            this.errors = errors;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.latency = latency;
+            this.firstError = firstError;
+        }
+
+        /**
+         * @return true if every message arrived intact, once and in order
+         */
+        public boolean passed() {
+            return errors == 0 && lost == 0 && received == sent;
+        }
+
+        public double messagesPerSecond() {
+            return received * 1e9 / nanos;
+        }
+
+        public double megabytesPerSecond() {
+            return bytes * 1e3 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%n%s: sent=%d received=%d lost=%d errors=%d%n"
+                            + "throughput: %.0f msg/s, %.2f MB/s of payload%n"
+                            + "latency us: p50=%.1f p90=%.1f p99=%.1f p999=%.1f max=%.1f%s",
+                    load, passed() ? "PASSED" : "FAILED", sent, received, lost, errors,
+                    messagesPerSecond(), megabytesPerSecond(),
+                    latency.getP50() / 1e3, latency.getP90() / 1e3, latency.getP99() / 1e3,
+                    latency.getP999() / 1e3, latency.getMax() / 1e3,
+                    firstError == null ? "" : String.format("%nfirst error: %s", firstError));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 6) {
+            System.err.println("Usage: LoadGenerator scenario transformation agents rate sizes seconds [seed]");
+            System.err.println("  e.g. LoadGenerator AUTHENTICATED AES/CBC/PKCS5Padding 4 5000 16~16384 600");
+            System.exit(2);
+        }
+        final LoadGenerator generator = new LoadGenerator(Scenario.valueOf(args[0]), args[1],
+                Integer.parseInt(args[2]), Double.parseDouble(args[3]), MessageSizes.parse(args[4]),
+                Duration.ofMillis((long) (Double.parseDouble(args[5]) * 1000)),
+                args.length > 6 ? Long.parseLong(args[6]) : 1);
+        final Report report = generator.run();
+        System.out.println(report);
+        if (!report.passed()) {
+            System.exit(1);
+        }
+    }
+}
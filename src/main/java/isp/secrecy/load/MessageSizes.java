@@ -0,0 +1,77 @@
+package isp.secrecy.load;
+
+import java.util.Random;
+
+/**
+ * Distribution of the payload sizes a {@link LoadGenerator} sends.
+ */
+public final class MessageSizes {
+    private final int min, max;
+    private final boolean logarithmic;
+
+    private MessageSizes(final int min, final int max, final boolean logarithmic) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Invalid sizes: " + min + " to " + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.logarithmic = logarithmic;
+    }
+
+    public static MessageSizes fixed(final int size) {
+        return new MessageSizes(size, size, false);
+    }
+
+    /**
+     * @return sizes from min to max inclusive, all equally likely
+     */
+    public static MessageSizes uniform(final int min, final int max) {
+        return new MessageSizes(min, max, false);
+    }
+
+    /**
+     * @return sizes from min to max inclusive, with every power of two equally likely, so small
+     * messages are frequent and large ones rare, as in most traffic
+     */
+    public static MessageSizes logUniform(final int min, final int max) {
+        return new MessageSizes(min, max, true);
+    }
+
+    /**
+     * Parses "n" as {@link #fixed(int)}, "min-max" as {@link #uniform(int, int)} and "min~max" as
+     * {@link #logUniform(int, int)}.
+     */
+    public static MessageSizes parse(final String text) {
+        try {
+            final int dash = text.indexOf('-'), tilde = text.indexOf('~');
+            if (dash > 0) {
+                return uniform(Integer.parseInt(text.substring(0, dash)), Integer.parseInt(text.substring(dash + 1)));
+            } else if (tilde > 0) {
+                return logUniform(Integer.parseInt(text.substring(0, tilde)),
+                        Integer.parseInt(text.substring(tilde + 1)));
+            }
+            return fixed(Integer.parseInt(text));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid sizes: " + text, e);
+        }
+    }
+
+    public int next(final Random random) {
+        if (min == max) {
+            return min;
+        } else if (!logarithmic) {
+            return min + random.nextInt(max - min + 1);
+        }
+        final double low = Math.log(min + 1), high = Math.log(max + 1);
+        return (int) Math.min(max, Math.exp(low + random.nextDouble() * (high - low)) - 1);
+    }
+
+    public int max() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return min == max ? Integer.toString(min) : min + (logarithmic ? "~" : "-") + max;
+    }
+}
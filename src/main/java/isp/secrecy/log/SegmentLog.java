@@ -0,0 +1,264 @@
+package isp.secrecy.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Append-only log of encoded frames, stored in memory-mapped segment files.
+ * <p/>
+ * Appending copies the frame into the mapped segment; there is no write system call per frame, the
+ * operating system writes dirty pages back on its own or when {@link #force()} is called. Frames
+ * are stored as they are sent, i.e. encrypted, and are read back as read-only slices of the
+ * mapping, so readers decrypt only what they actually open.
+ * <p/>
+ * Every record is addressed by its offset, counted in bytes from the start of the first segment
+ * ever written. The segment holding offset o starts at o - o % segmentSize and is stored in a file
+ * named after that base offset. Record layout:
+ * <pre>
+ *   int  size                    size of the frame; 0 ends the written part of the segment,
+ *                                -1 marks a segment that was rolled over before it was full
+ *   byte[size] frame
+ * </pre>
+ * A frame that does not fit into the rest of the current segment starts a new one. Reopening a
+ * directory continues after the last record. Records appended after the last {@link #force()} may
+ * be lost or torn if the machine (not just the JVM) crashes; authenticated frames detect the latter.
+ * <p/>
+ * Appends are serialized; any number of {@link Cursor}s may read concurrently.
+ */
+public class SegmentLog implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int HEADER_SIZE = 4;
+    private static final int ROLLED = -1;
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final ConcurrentNavigableMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+    private volatile long endOffset;
+    private int waiting;
+
+    /**
+     * Opens the log in given directory, creating the directory if necessary. An existing log must be
+     * opened with the segment size it was written with.
+     */
+    public SegmentLog(final Path directory, final int segmentSize) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                final String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), map(file));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, map(file(0)));
+        }
+        final Map.Entry<Long, MappedByteBuffer> last = segments.lastEntry();
+        endOffset = last.getKey() + recover(last.getValue());
+    }
+
+    /**
+     * Appends the frame's remaining bytes. The buffer's position is not changed.
+     *
+     * @return offset of the new record
+     * @throws IllegalArgumentException if the frame is empty or does not fit into a segment
+     */
+    public synchronized long append(final ByteBuffer frame) throws IOException {
+        final int size = frame.remaining();
+        if (size == 0 || size > segmentSize - HEADER_SIZE) {
+            throw new IllegalArgumentException("Cannot append " + size + " bytes to segments of " + segmentSize);
+        }
+        long offset = endOffset;
+        long base = offset - offset % segmentSize;
+        MappedByteBuffer segment = segments.get(base);
+        int position = (int) (offset - base);
+        if (segment == null) {
+            // the previous segment was filled up exactly
+            segment = map(file(base));
+            segments.put(base, segment);
+        } else if (segmentSize - position < HEADER_SIZE + size) {
+            if (segmentSize - position >= HEADER_SIZE) {
+                segment.putInt(position, ROLLED);
+            }
+            base += segmentSize;
+            segment = map(file(base));
+            segments.put(base, segment);
+            offset = base;
+            position = 0;
+        }
+
+        segment.put(position + HEADER_SIZE, frame, frame.position(), size);
+        segment.putInt(position, size);
+        endOffset = offset + HEADER_SIZE + size;
+        if (waiting > 0) {
+            notifyAll();
+        }
+        return offset;
+    }
+
+    /**
+     * @return offset of the first record still stored
+     */
+    public long startOffset() {
+        return segments.firstKey();
+    }
+
+    /**
+     * @return offset the next record will be appended at, unless it starts a new segment
+     */
+    public long endOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Waits until a record is appended at or after given offset.
+     */
+    public synchronized void awaitAppend(final long offset) throws InterruptedException {
+        waiting++;
+        try {
+            while (endOffset <= offset) {
+                wait();
+            }
+        } finally {
+            waiting--;
+        }
+    }
+
+    /**
+     * @return cursor reading records starting at given offset, which must be the offset of a record
+     * or {@link #endOffset()}
+     */
+    public Cursor cursor(final long offset) {
+        return new Cursor(offset);
+    }
+
+    /**
+     * Writes all appended records to the storage device.
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments.values()) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Deletes the segments that only hold records before given offset. The segment being appended to is kept.
+     *
+     * @return number of deleted segments
+     */
+    public int deleteBefore(final long offset) throws IOException {
+        int deleted = 0;
+        final long active = segments.lastKey();
+        for (Long base : segments.keySet()) {
+            if (base == active || base + segmentSize > offset) {
+                break;
+            }
+            segments.remove(base);
+            Files.deleteIfExists(file(base));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Drops the segments; their mappings are released once garbage collected. The log must not be
+     * used afterwards.
+     */
+    @Override
+    public void close() {
+        segments.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentLog[" + directory + ", segments=" + segments.size() + ", end=" + endOffset + "]";
+    }
+
+    private Path file(final long base) {
+        return directory.resolve(String.format("%020d%s", base, SUFFIX));
+    }
+
+    private MappedByteBuffer map(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    /**
+     * @return position in the segment after its last record
+     */
+    private int recover(final MappedByteBuffer segment) {
+        int position = 0;
+        while (segmentSize - position >= HEADER_SIZE) {
+            final int size = segment.getInt(position);
+            if (size == ROLLED) {
+                return segmentSize;
+            }
+            if (size <= 0 || size > segmentSize - position - HEADER_SIZE) {
+                break;
+            }
+            position += HEADER_SIZE + size;
+        }
+        return position;
+    }
+
+    /**
+     * Reads records in order. Not thread-safe; use one cursor per reader.
+     */
+    public final class Cursor {
+        private long offset;
+
+        private Cursor(long offset) {
+            this.offset = offset;
+        }
+
+        /**
+         * @return position of the cursor, the offset of the next record or the end of the last record
+         * read, if the segment was rolled over after it; a new cursor at this offset reads the same records
+         */
+        public long offset() {
+            return offset;
+        }
+
+        /**
+         * @return read-only view of the next frame or null, if no further record has been appended yet
+         * @throws IllegalStateException if the cursor's segment has been deleted
+         */
+        public ByteBuffer next() {
+            for (; ; ) {
+                if (offset >= endOffset) {
+                    return null;
+                }
+                final long base = offset - offset % segmentSize;
+                final MappedByteBuffer segment = segments.get(base);
+                if (segment == null) {
+                    throw new IllegalStateException("Offset " + offset + " has been deleted");
+                }
+                final int position = (int) (offset - base);
+                final int size = segmentSize - position < HEADER_SIZE ? ROLLED : segment.getInt(position);
+                if (size == ROLLED) {
+                    offset = base + segmentSize;
+                    continue;
+                }
+                offset += HEADER_SIZE + size;
+                return segment.slice(position + HEADER_SIZE, size).asReadOnlyBuffer();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package isp.secrecy.log;
+
+import isp.secrecy.channel.FrameChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Durable frame channel backed by a {@link SegmentLog}.
+ * <p/>
+ * Sent frames are appended to the log; received frames are read from it starting at a given
+ * offset, so a restarted agent can replay everything it has not processed yet. Received frames
+ * are read-only views of the mapped log and stay encrypted until the agent opens them.
+ * Usable wherever an {@link isp.secrecy.Agent} takes a frame channel.
+ */
+public class SegmentLogChannel implements FrameChannel {
+    private final SegmentLog log;
+    private final SegmentLog.Cursor cursor;
+
+    /**
+     * Creates a channel that receives every frame still stored in the log.
+     */
+    public SegmentLogChannel(final SegmentLog log) {
+        this(log, log.startOffset());
+    }
+
+    /**
+     * Creates a channel that receives frames starting at given record offset.
+     */
+    public SegmentLogChannel(final SegmentLog log, final long offset) {
+        this.log = log;
+        this.cursor = log.cursor(offset);
+    }
+
+    @Override
+    public void send(ByteBuffer frame) throws IOException {
+        log.append(frame);
+    }
+
+    @Override
+    public ByteBuffer receive() throws InterruptedException {
+        ByteBuffer frame;
+        while ((frame = cursor.next()) == null) {
+            log.awaitAppend(cursor.offset());
+        }
+        return frame;
+    }
+
+    /**
+     * @return offset to resume receiving from after a restart
+     */
+    public long position() {
+        return cursor.offset();
+    }
+
+    public SegmentLog log() {
+        return log;
+    }
+}
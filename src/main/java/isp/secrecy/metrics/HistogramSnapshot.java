@@ -0,0 +1,95 @@
+package isp.secrecy.metrics;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * Summary of a {@link Histogram} at one point in time. Percentiles are upper bounds of the bucket
+ * holding them, never larger than the maximum.
+ */
+public final class HistogramSnapshot {
+    private final long count, max, p50, p90, p99, p999;
+    private final double mean;
+    private final long[] counts;
+
+    HistogramSnapshot(final long[] counts, final long count, final long sum, final long max) {
+        this.counts = counts;
+        this.count = count;
+        this.max = max;
+        this.mean = count == 0 ? 0 : (double) sum / count;
+        this.p50 = valueAt(50);
+        this.p90 = valueAt(90);
+        this.p99 = valueAt(99);
+        this.p999 = valueAt(99.9);
+    }
+
+    /**
+     * Used by JMX to reconstruct snapshots read through an MXBean proxy.
+     */
+    @ConstructorParameters({"count", "mean", "p50", "p90", "p99", "p999", "max"})
+    public HistogramSnapshot(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+        this.counts = null;
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /**
+     * @return value below or at which given percentage of the recorded values lie
+     * @throws IllegalStateException if this snapshot was reconstructed from its summary
+     */
+    public long valueAt(final double percentile) {
+        if (counts == null) {
+            throw new IllegalStateException("Snapshot holds no buckets");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(Histogram.highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p999=%d max=%d",
+                count, mean, p50, p90, p99, p999, max);
+    }
+}
@@ -0,0 +1,59 @@
+package isp.secrecy.metrics;
+
+import isp.secrecy.channel.FrameChannel;
+import isp.secrecy.channel.QueueChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Frame channel that records how long senders and receivers block, and how much is sent.
+ * <p/>
+ * Records channel.&lt;name&gt;.send.nanos and .receive.nanos, counts channel.&lt;name&gt;.frames
+ * and .bytes and, if the delegate is a {@link QueueChannel}, registers its size as the gauge
+ * channel.&lt;name&gt;.depth.
+ */
+public class InstrumentedChannel implements FrameChannel {
+    private final FrameChannel delegate;
+    private final Histogram sendNanos, receiveNanos;
+    private final LongAdder frames, bytes;
+
+    public InstrumentedChannel(final String name, final FrameChannel delegate) {
+        this(name, delegate, Metrics.global());
+    }
+
+    public InstrumentedChannel(final String name, final FrameChannel delegate, final Metrics metrics) {
+        this.delegate = delegate;
+        final String prefix = "channel." + name + ".";
+        sendNanos = metrics.histogram(prefix + "send.nanos");
+        receiveNanos = metrics.histogram(prefix + "receive.nanos");
+        frames = metrics.counter(prefix + "frames");
+        bytes = metrics.counter(prefix + "bytes");
+        if (delegate instanceof QueueChannel) {
+            metrics.gauge(prefix + "depth", ((QueueChannel) delegate).queue()::size);
+        }
+    }
+
+    @Override
+    public void send(ByteBuffer frame) throws IOException, InterruptedException {
+        final int size = frame.remaining();
+        final long start = System.nanoTime();
+        delegate.send(frame);
+        sendNanos.recordSince(start);
+        frames.increment();
+        bytes.add(size);
+    }
+
+    @Override
+    public ByteBuffer receive() throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final ByteBuffer frame = delegate.receive();
+        receiveNanos.recordSince(start);
+        return frame;
+    }
+
+    public FrameChannel delegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,149 @@
+package isp.secrecy.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Named counters, gauges and histograms.
+ * <p/>
+ * Counters are {@link LongAdder}s and histograms {@link Histogram}s, so recording from hot paths is
+ * cheap and does not contend. Look instruments up once and keep the reference; the lookup by name is
+ * a map access. Gauges are sampled only when metrics are read.
+ * <p/>
+ * The {@link #global()} registry is exposed over JMX as {@value #OBJECT_NAME} and can be written to
+ * a file with {@link #dump(Path)}. Names used by this project:
+ * <ul>
+ * <li>cipher.&lt;transformation&gt;.encrypt.nanos, .decrypt.nanos - latency histograms;</li>
+ * <li>cipher.&lt;transformation&gt;.bytes - clear text bytes encrypted and decrypted;</li>
+ * <li>cipher.&lt;transformation&gt;.failures - frames that could not be opened;</li>
+ * <li>mac.failures - frames rejected because of a wrong or missing MAC;</li>
+ * <li>channel.&lt;name&gt;.send.nanos, .receive.nanos - time blocked in send (put) and receive (take);</li>
+ * <li>channel.&lt;name&gt;.frames, .bytes - frames and bytes sent; channel.&lt;name&gt;.depth - queue depth.</li>
+ * </ul>
+ */
+public final class Metrics implements MetricsMXBean {
+    public static final String OBJECT_NAME = "isp.secrecy:type=Metrics";
+
+    private static final Logger LOG = Logger.getLogger(Metrics.class.getCanonicalName());
+    private static final Metrics GLOBAL = new Metrics();
+
+    static {
+        try {
+            GLOBAL.register(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            LOG.log(Level.WARNING, "Cannot register metrics with JMX", e);
+        }
+    }
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @return registry shared by the whole application
+     */
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    public LongAdder counter(final String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public Histogram histogram(final String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge, replacing an existing one with the same name.
+     */
+    public void gauge(final String name, final LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public void removeGauge(final String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Registers this registry with the platform MBean server.
+     */
+    public void register(final ObjectName name) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (!server.isRegistered(name)) {
+            server.registerMBean(this, name);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        final Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        final Map<String, Long> values = new TreeMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    @Override
+    public Map<String, HistogramSnapshot> getHistograms() {
+        final Map<String, HistogramSnapshot> values = new TreeMap<>();
+        histograms.forEach((name, histogram) -> values.put(name, histogram.snapshot()));
+        return values;
+    }
+
+    @Override
+    public void dump(final String file) throws IOException {
+        dump(Paths.get(file));
+    }
+
+    /**
+     * Writes all metrics to given file, one per line, replacing the file.
+     */
+    public void dump(final Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            dump(out);
+        }
+    }
+
+    /**
+     * Writes all metrics, one per line: name, a space and the value or the histogram summary.
+     */
+    public void dump(final Appendable out) throws IOException {
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            out.append(counter.getKey()).append(' ').append(counter.getValue().toString()).append('\n');
+        }
+        for (Map.Entry<String, Long> gauge : getGauges().entrySet()) {
+            out.append(gauge.getKey()).append(' ').append(gauge.getValue().toString()).append('\n');
+        }
+        for (Map.Entry<String, HistogramSnapshot> histogram : getHistograms().entrySet()) {
+            out.append(histogram.getKey()).append(' ').append(histogram.getValue().toString()).append('\n');
+        }
+    }
+
+    @Override
+    public void reset() {
+        counters.values().forEach(LongAdder::reset);
+        histograms.values().forEach(Histogram::reset);
+    }
+}
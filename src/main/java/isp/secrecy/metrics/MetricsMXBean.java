@@ -0,0 +1,26 @@
+package isp.secrecy.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Management interface of {@link Metrics}.
+ */
+public interface MetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getGauges();
+
+    Map<String, HistogramSnapshot> getHistograms();
+
+    /**
+     * Writes all metrics to given file, replacing it.
+     */
+    void dump(String file) throws IOException;
+
+    /**
+     * Clears counters and histograms.
+     */
+    void reset();
+}
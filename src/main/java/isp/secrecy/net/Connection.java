@@ -0,0 +1,297 @@
+package isp.secrecy.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A TCP connection of a {@link NioTransport}, multiplexing any number of {@link NetChannel}s.
+ * <p/>
+ * A connection holds on to a bounded amount of memory whatever the peer does: senders wait while
+ * {@link #MAX_QUEUED_BYTES} or more are queued for writing, and the connection stops reading from
+ * the socket while {@link #MAX_RECEIVED_BYTES} or more have been received but not taken from any of
+ * its channels, so a fast peer is held back by TCP flow control; the peer can make the connection
+ * create at most {@link #MAX_CHANNELS} channels, and the read buffer, which grows to fit a large
+ * frame, shrinks back once the frame has been dispatched. A peer exceeding the limits is
+ * disconnected. Since all channels share the connection, a channel whose frames are not taken holds
+ * up the others once the limit is reached.
+ * <p/>
+ * Everything but {@link #channel(int)}, {@link #enqueue(int, ByteBuffer)} and {@link #close()}
+ * runs on the selector thread.
+ */
+public class Connection {
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    /**
+     * Queued bytes beyond which senders wait; a single larger frame is still accepted into an empty queue.
+     */
+    public static final int MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+    /**
+     * Received bytes not taken yet, beyond which the connection stops reading; the frame that crosses
+     * the limit is still delivered.
+     */
+    public static final int MAX_RECEIVED_BYTES = 4 * 1024 * 1024;
+    /**
+     * Maximum number of channels, beyond which frames for new channel ids are a protocol violation.
+     */
+    public static final int MAX_CHANNELS = 1024;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_GATHER = 64;
+    private static final int FRAME_LENGTH_SIZE = 4;
+
+    private final NioTransport transport;
+    private final SocketChannel socket;
+    private final ConcurrentMap<Integer, NetChannel> channels = new ConcurrentHashMap<>();
+    private final Queue<ByteBuffer> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * Bytes queued but not written yet, guarded by outgoing.
+     */
+    private long queued;
+    /**
+     * Bytes of frames in the channels' queues.
+     */
+    private final AtomicLong received = new AtomicLong();
+    private final Runnable flush = this::flush, resume = this::resume;
+    /**
+     * Interest in writes and whether reading is paused, only accessed by the selector thread.
+     */
+    private int writeInterest;
+    private boolean paused;
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private int gathered, gatherOffset;
+    private ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    SelectionKey key;
+
+    Connection(final NioTransport transport, final SocketChannel socket) {
+        this.transport = transport;
+        this.socket = socket;
+    }
+
+    /**
+     * @return channel with given id, created if necessary
+     */
+    public NetChannel channel(final int id) {
+        final NetChannel channel = channels.computeIfAbsent(id, i -> new NetChannel(this, i));
+        if (closed.get()) {
+            channel.closed();
+        }
+        return channel;
+    }
+
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * Closes the socket. Channels deliver frames already received and then fail with an IOException,
+     * as do senders waiting for the queue to drain.
+     */
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            NioTransport.close(socket);
+            for (NetChannel channel : channels.values()) {
+                channel.closed();
+            }
+            synchronized (outgoing) {
+                outgoing.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return "Connection[" + socket.getLocalAddress() + " -> " + socket.getRemoteAddress() + "]";
+        } catch (IOException e) {
+            return "Connection[closed]";
+        }
+    }
+
+    /**
+     * Queues a frame for sending, waiting while {@link #MAX_QUEUED_BYTES} or more are queued; the
+     * selector thread is woken only if no flush is pending yet.
+     */
+    void enqueue(final int channel, final ByteBuffer frame) throws IOException, InterruptedException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0, channel);
+        // header and frame are queued as one unit, gathered writes keep them in order
+        synchronized (outgoing) {
+            while (queued >= MAX_QUEUED_BYTES && !closed.get()) {
+                outgoing.wait();
+            }
+            if (closed.get()) {
+                throw new IOException("Connection closed");
+            }
+            queued += HEADER_SIZE + frame.remaining();
+            outgoing.add(header);
+            outgoing.add(frame);
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            transport.execute(flush);
+        }
+    }
+
+    /**
+     * Writes queued messages with gathering writes until the queue is empty or the socket is full.
+     */
+    void flush() {
+        try {
+            for (; ; ) {
+                while (gathered < MAX_GATHER) {
+                    final ByteBuffer buffer = outgoing.poll();
+                    if (buffer == null) {
+                        break;
+                    }
+                    gather[gathered++] = buffer;
+                }
+                if (gatherOffset == gathered) {
+                    gatherOffset = gathered = 0;
+                    scheduled.set(false);
+                    if (outgoing.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        interest(0);
+                        return;
+                    }
+                    continue;
+                }
+
+                written(socket.write(gather, gatherOffset, gathered - gatherOffset));
+                while (gatherOffset < gathered && !gather[gatherOffset].hasRemaining()) {
+                    gather[gatherOffset++] = null;
+                }
+                if (gatherOffset < gathered) {
+                    // socket buffer full, continue when writable
+                    interest(SelectionKey.OP_WRITE);
+                    return;
+                }
+                gatherOffset = gathered = 0;
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Reads what is available and dispatches complete frames to their channels.
+     */
+    void read() {
+        try {
+            if (socket.read(input) < 0) {
+                close();
+                return;
+            }
+            input.flip();
+            int pending = 0;
+            while (input.remaining() >= HEADER_SIZE + FRAME_LENGTH_SIZE) {
+                final int position = input.position();
+                final int length = input.getInt(position + HEADER_SIZE);
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                final int size = HEADER_SIZE + FRAME_LENGTH_SIZE + length;
+                if (input.remaining() < size) {
+                    pending = size;
+                    if (input.capacity() < size) {
+                        input = ByteBuffer.allocate(size).put(input);
+                        input.flip();
+                    }
+                    break;
+                }
+                final ByteBuffer frame = ByteBuffer.allocate(FRAME_LENGTH_SIZE + length);
+                frame.put(0, input, position + HEADER_SIZE, frame.capacity());
+                received.addAndGet(frame.capacity());
+                remoteChannel(input.getInt(position)).received(frame);
+                input.position(position + size);
+            }
+            if (received.get() >= MAX_RECEIVED_BYTES) {
+                // resumed by the receiver that takes enough frames
+                paused = true;
+                interest(writeInterest);
+            }
+            if (input.capacity() > READ_BUFFER_SIZE && pending <= READ_BUFFER_SIZE
+                    && input.remaining() <= READ_BUFFER_SIZE) {
+                // the large frame has been dispatched, do not hold on to its buffer
+                input = ByteBuffer.allocate(READ_BUFFER_SIZE).put(input);
+            } else {
+                input.compact();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Releases the bytes of a frame taken from a channel and resumes reading, if there is room again.
+     */
+    void taken(final ByteBuffer frame) {
+        final long bytes = frame.capacity();
+        final long left = received.addAndGet(-bytes);
+        if (left < MAX_RECEIVED_BYTES && left + bytes >= MAX_RECEIVED_BYTES) {
+            transport.execute(resume);
+        }
+    }
+
+    private void resume() {
+        if (paused && received.get() < MAX_RECEIVED_BYTES) {
+            paused = false;
+            interest(writeInterest);
+        }
+    }
+
+    /**
+     * @return capacity of the read buffer, for tests
+     */
+    int readBufferSize() {
+        return input.capacity();
+    }
+
+    /**
+     * @return channel a received frame belongs to, created if the limit allows it
+     */
+    private NetChannel remoteChannel(final int id) throws IOException {
+        final NetChannel channel = channels.get(id);
+        if (channel != null) {
+            return channel;
+        }
+        if (channels.size() >= MAX_CHANNELS) {
+            throw new IOException("Peer opened more than " + MAX_CHANNELS + " channels");
+        }
+        return channel(id);
+    }
+
+    /**
+     * Releases written bytes from the queue and wakes waiting senders, if there is room again.
+     */
+    private void written(final long bytes) {
+        if (bytes > 0) {
+            synchronized (outgoing) {
+                final boolean full = queued >= MAX_QUEUED_BYTES;
+                queued -= bytes;
+                if (full && queued < MAX_QUEUED_BYTES) {
+                    outgoing.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void interest(final int ops) {
+        writeInterest = ops;
+        try {
+            if (key != null && key.isValid()) {
+                key.interestOps((paused ? 0 : SelectionKey.OP_READ) | ops);
+            }
+        } catch (CancelledKeyException e) {
+            // closed by another thread meanwhile
+        }
+    }
+}
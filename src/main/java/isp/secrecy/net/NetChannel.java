@@ -0,0 +1,68 @@
+package isp.secrecy.net;
+
+import isp.secrecy.channel.FrameChannel;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * One logical channel of a {@link Connection}, identified by an id that both ends agree on.
+ * Frames sent with the same id on one end are received in order on the other end. Received frames
+ * count towards the connection's {@link Connection#MAX_RECEIVED_BYTES} until they are taken.
+ */
+public class NetChannel implements FrameChannel {
+    private static final ByteBuffer CLOSED = ByteBuffer.allocate(0);
+
+    private final Connection connection;
+    private final int id;
+    private final BlockingQueue<ByteBuffer> incoming = new LinkedBlockingQueue<>();
+
+    NetChannel(final Connection connection, final int id) {
+        this.connection = connection;
+        this.id = id;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public Connection connection() {
+        return connection;
+    }
+
+    /**
+     * Queues the frame for sending; returns immediately unless {@link Connection#MAX_QUEUED_BYTES} or
+     * more are queued on the connection, then waits until the selector thread has written enough.
+     *
+     * @throws IOException if the connection is closed
+     */
+    @Override
+    public void send(ByteBuffer frame) throws IOException, InterruptedException {
+        connection.enqueue(id, frame);
+    }
+
+    /**
+     * @throws EOFException if the connection has been closed and every frame received before has been taken
+     */
+    @Override
+    public ByteBuffer receive() throws IOException, InterruptedException {
+        final ByteBuffer frame = incoming.take();
+        if (frame == CLOSED) {
+            incoming.add(CLOSED);
+            throw new EOFException("Connection closed");
+        }
+        connection.taken(frame);
+        return frame;
+    }
+
+    void received(final ByteBuffer frame) {
+        incoming.add(frame);
+    }
+
+    void closed() {
+        incoming.add(CLOSED);
+    }
+}
@@ -0,0 +1,194 @@
+package isp.secrecy.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Carries frames between JVMs over TCP, using a single selector thread for any number of connections.
+ * <p/>
+ * A {@link Connection} multiplexes many {@link NetChannel}s, so many pairs of agents can share one
+ * socket. Wire format of every message, all integers big-endian:
+ * <pre>
+ *   int   channel                id of the channel within the connection
+ *   frame                        the encoded frame, starting with its own int length
+ * </pre>
+ * Senders never touch the socket: messages are queued on their connection and written by the
+ * selector thread with gathering writes, many messages per system call, without copying the frames.
+ * Senders wait when too much is queued, see {@link Connection}.
+ * Incoming frames are copied out of the read buffer and queued on their channel, which is created
+ * on the first frame if the receiver has not opened it yet.
+ * <p/>
+ * Typical use: one side calls {@link #listen(SocketAddress)} and {@link #accept()}, the other
+ * {@link #connect(SocketAddress)}; both then open the same channel ids.
+ */
+public class NioTransport implements Closeable {
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final BlockingQueue<Connection> accepted = new LinkedBlockingQueue<>();
+    private volatile boolean closed;
+
+    public NioTransport() throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this::run, "nio-transport");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts accepting connections on given address; port 0 picks a free port.
+     *
+     * @return the address actually bound
+     */
+    public InetSocketAddress listen(final SocketAddress address) throws IOException {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        execute(() -> {
+            try {
+                server.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (IOException e) {
+                close(server);
+            }
+        });
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    /**
+     * Waits for the next connection accepted by a listening socket.
+     */
+    public Connection accept() throws InterruptedException {
+        return accepted.take();
+    }
+
+    /**
+     * Connects to a listening transport, waiting until the connection is established.
+     */
+    public Connection connect(final SocketAddress address) throws IOException {
+        final SocketChannel socket = SocketChannel.open(address);
+        return register(socket);
+    }
+
+    /**
+     * Stops the selector thread and closes all connections. Frames still queued are written as far
+     * as the sockets accept them without blocking.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs a task on the selector thread.
+     */
+    void execute(final Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    private Connection register(final SocketChannel socket) throws IOException {
+        socket.configureBlocking(false);
+        socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        final Connection connection = new Connection(this, socket);
+        execute(() -> {
+            try {
+                connection.key = socket.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                connection.close();
+            }
+        });
+        return connection;
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                runTasks();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // the selector itself failed, nothing left to serve
+        } finally {
+            runTasks();
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    final Connection connection = (Connection) key.attachment();
+                    connection.flush();
+                    connection.close();
+                } else {
+                    close(key.channel());
+                }
+            }
+            close(selector);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void handle(final SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            try {
+                final SocketChannel socket = ((ServerSocketChannel) key.channel()).accept();
+                if (socket != null) {
+                    accepted.add(register(socket));
+                }
+            } catch (IOException e) {
+                close(key.channel());
+            }
+            return;
+        }
+        final Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.flush();
+            }
+        } catch (CancelledKeyException e) {
+            // the connection was closed by another thread meanwhile
+        }
+    }
+
+    static void close(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing more to release
+        }
+    }
+}
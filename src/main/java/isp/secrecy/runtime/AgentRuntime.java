@@ -0,0 +1,91 @@
+package isp.secrecy.runtime;
+
+import isp.secrecy.Agent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs agents as tasks on an executor instead of dedicated platform threads.
+ * <p/>
+ * Two kinds of agents are supported:
+ * <ul>
+ * <li>Existing {@link Agent}s with a blocking run() method, started with {@link #start(Agent)}.
+ * run() executes on an executor thread; the agent's own Thread is never started, so inside run()
+ * interruption must be checked with Thread.currentThread().isInterrupted(). Each such agent
+ * occupies an executor thread while it blocks in take(), which is cheap only with virtual threads,
+ * i.e. an executor from Executors.newVirtualThreadPerTaskExecutor() on Java 21 or later.</li>
+ * <li>Event-driven agents, created with {@link #spawn(FrameHandler)}. They hold no thread while
+ * idle and are scheduled when a frame arrives, so 100k of them fit on a fork-join pool or a single
+ * event loop thread.</li>
+ * </ul>
+ */
+public class AgentRuntime implements AutoCloseable {
+    private final ExecutorService executor;
+
+    public AgentRuntime(final ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Runtime backed by a fork-join pool of given parallelism, in asynchronous (FIFO) mode.
+     */
+    public static AgentRuntime forkJoin(final int parallelism) {
+        return new AgentRuntime(new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, true));
+    }
+
+    /**
+     * Runtime executing everything on a single thread. Only suitable for event-driven agents.
+     */
+    public static AgentRuntime eventLoop() {
+        return new AgentRuntime(Executors.newSingleThreadExecutor(r -> {
+            final Thread thread = new Thread(r, "agent-event-loop");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Runs the agent's run() method as a task.
+     *
+     * @return future completing when run() returns; cancel(true) interrupts the agent
+     */
+    public Future<?> start(final Agent agent) {
+        return executor.submit(agent);
+    }
+
+    /**
+     * Creates an event-driven agent.
+     *
+     * @return the agent's inbox; frames sent to it are passed to the handler
+     */
+    public Inbox spawn(final FrameHandler handler) {
+        return new Inbox(handler, executor);
+    }
+
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * Stops accepting tasks and waits up to the given time for running ones to finish.
+     *
+     * @return true, if all tasks finished in time
+     */
+    public boolean shutdown(final long timeout, final TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Interrupts all running agents and stops the executor.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,15 @@
+package isp.secrecy.runtime;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Behavior of an event-driven agent: invoked once for every frame delivered to its {@link Inbox}.
+ * <p/>
+ * Invocations for the same inbox never overlap, so a handler needs no synchronization of its own
+ * state, but they may happen on different threads of the runtime's executor. Handlers must not
+ * block; they react to a frame and return.
+ */
+public interface FrameHandler {
+
+    void onFrame(ByteBuffer frame) throws Exception;
+}
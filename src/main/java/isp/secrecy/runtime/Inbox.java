@@ -0,0 +1,79 @@
+package isp.secrecy.runtime;
+
+import isp.secrecy.channel.FrameSink;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Mailbox of an event-driven agent, see {@link AgentRuntime#spawn(FrameHandler)}.
+ * <p/>
+ * Sending a frame queues it and, unless the agent is already scheduled, submits a task that
+ * hands queued frames to the handler one at a time. An idle agent therefore costs a queue and
+ * a flag, not a thread.
+ * <p/>
+ * Frames are pushed to the handler, so an inbox is only a {@link FrameSink}; there is nothing
+ * to receive from it.
+ */
+public class Inbox implements FrameSink {
+    private static final Logger LOG = Logger.getLogger(Inbox.class.getCanonicalName());
+
+    /**
+     * Maximum number of frames handled per scheduling, so that busy agents do not starve others.
+     */
+    static final int BATCH = 64;
+
+    private final Queue<ByteBuffer> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final FrameHandler handler;
+    private final Executor executor;
+    private final Runnable drain = this::drain;
+
+    Inbox(final FrameHandler handler, final Executor executor) {
+        this.handler = handler;
+        this.executor = executor;
+    }
+
+    @Override
+    public void send(ByteBuffer frame) {
+        frames.add(frame);
+        schedule();
+    }
+
+    /**
+     * @return number of frames waiting to be handled
+     */
+    public int size() {
+        return frames.size();
+    }
+
+    private void schedule() {
+        if (!frames.isEmpty() && scheduled.compareAndSet(false, true)) {
+            executor.execute(drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < BATCH; i++) {
+                final ByteBuffer frame = frames.poll();
+                if (frame == null) {
+                    break;
+                }
+                try {
+                    handler.onFrame(frame);
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Frame handler failed", e);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package isp.secrecy.attack;
+
+import junit.framework.TestCase;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Known clear text DES key search.
+ */
+public class KeySearchTest extends TestCase {
+    private static final byte[] KNOWN_KEY = {0x13, 0x34, 0x57, 0x79, (byte) 0x9b, (byte) 0xbc, (byte) 0xdf, (byte) 0xf1};
+    private static final byte[] CLEAR_TEXT = "Known clear text, two blocks at least".getBytes(StandardCharsets.UTF_8);
+
+    public void testCandidateBits() {
+        for (int bits : new int[]{1, 7, 8, 20, 56}) {
+            final long candidate = 0x5a5a5a5a5a5a5aL & ((1L << bits) - 1);
+            final byte[] key = KeySearch.key(KNOWN_KEY, bits, candidate);
+            assertEquals(candidate, KeySearch.candidate(key, bits));
+            for (int i = 0; i < key.length; i++) {
+                assertEquals("parity bit", KNOWN_KEY[i] & 1, key[i] & 1);
+            }
+        }
+        assertTrue(Arrays.equals(KNOWN_KEY, KeySearch.key(KNOWN_KEY, 56, KeySearch.candidate(KNOWN_KEY, 56))));
+    }
+
+    public void testFindsEcbKey() throws Exception {
+        final byte[] key = KeySearch.key(KNOWN_KEY, 18, 200000);
+        final Cipher cipher = Cipher.getInstance("DES/ECB/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "DES"));
+        final byte[] cipherText = cipher.doFinal(CLEAR_TEXT);
+
+        final KeySearch search = new KeySearch(KNOWN_KEY, 18, CLEAR_TEXT, null, cipherText, 2);
+        final byte[] found = search.search(0, null, 100);
+        assertTrue(Arrays.equals(key, found));
+        assertTrue(search.tested() > 0 && search.tested() <= search.candidates());
+    }
+
+    public void testFindsCbcKeyAndResumesFromCheckpoint() throws Exception {
+        final byte[] key = KeySearch.key(KNOWN_KEY, 17, 5000);
+        final byte[] iv = "12345678".getBytes(StandardCharsets.UTF_8);
+        final Cipher cipher = Cipher.getInstance("DES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "DES"), new IvParameterSpec(iv));
+        final byte[] cipherText = cipher.doFinal(CLEAR_TEXT);
+
+        // resuming past the key does not find it, and exhausts the rest of the key space
+        final KeySearch past = new KeySearch(KNOWN_KEY, 17, CLEAR_TEXT, iv, cipherText, 3);
+        assertNull(past.search(KeySearch.CHUNK_SIZE, null, 100));
+        assertEquals(past.candidates(), past.checkpoint());
+        assertEquals(past.candidates() - KeySearch.CHUNK_SIZE, past.tested());
+
+        final Path file = Files.createTempFile("key-search", ".properties");
+        try {
+            KeySearch.save(file, 4096);
+            final KeySearch resumed = new KeySearch(KNOWN_KEY, 17, CLEAR_TEXT, iv, cipherText, 3);
+            assertTrue(Arrays.equals(key, resumed.search(KeySearch.load(file), null, 100)));
+            assertTrue(resumed.checkpoint() <= 5000);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
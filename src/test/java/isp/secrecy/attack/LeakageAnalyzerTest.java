@@ -0,0 +1,117 @@
+package isp.secrecy.attack;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Off-heap set and ECB pattern leakage.
+ */
+public class LeakageAnalyzerTest extends TestCase {
+    private static final String[][] ALGORITHMS = {
+            {"AES", "AES/ECB/PKCS5Padding"}, {"AES", "AES/CBC/PKCS5Padding"}, {"RC4", "RC4"}
+    };
+
+    public void testSetAddsOnce() {
+        final OffHeapLongSet set = new OffHeapLongSet(1024);
+        for (long value : new long[]{0, 1, -1, Long.MIN_VALUE, 42}) {
+            assertFalse(set.contains(value));
+            assertTrue(set.add(value));
+            assertFalse(set.add(value));
+            assertTrue(set.contains(value));
+        }
+        assertEquals(5, set.size());
+        assertEquals(1024, set.capacity());
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(0));
+        assertTrue(set.add(42));
+        assertEquals(1L << 20, OffHeapLongSet.capacityFor((8L << 20) + 100));
+    }
+
+    public void testSetIsFull() {
+        final OffHeapLongSet set = new OffHeapLongSet(4);
+        for (long value = 1; value <= 4; value++) {
+            assertTrue(set.add(value));
+        }
+        assertFalse(set.add(3));
+        try {
+            set.add(5);
+            fail("Added to a full set");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testConcurrentAddsCountEveryValueOnce() throws Exception {
+        final OffHeapLongSet set = new OffHeapLongSet(1 << 16);
+        final AtomicInteger added = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread(() -> {
+                // every thread adds the same values
+                for (long value = 0; value < 20000; value++) {
+                    if (set.add(value * 0x10001)) {
+                        added.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        assertEquals(20000, added.get());
+        assertEquals(20000, set.size());
+    }
+
+    public void testEcbLeaksRepeatedBlocks() throws Exception {
+        // 1000 distinct 16 byte blocks, each written 10 times
+        final byte[] distinct = new byte[16 * 1000];
+        new Random(1).nextBytes(distinct);
+        final byte[] data = new byte[10 * distinct.length];
+        for (int i = 0; i < 10; i++) {
+            System.arraycopy(distinct, 0, data, i * distinct.length, distinct.length);
+        }
+        final Path file = Files.createTempFile("leakage", ".bin");
+        try {
+            Files.write(file, data);
+            final List<LeakageAnalyzer.Report> reports = new LeakageAnalyzer(ALGORITHMS, 3, 4096, 1 << 20)
+                    .analyze(file);
+
+            final LeakageAnalyzer.Report ecb = reports.get(0);
+            assertEquals(10000, ecb.blocks);
+            assertEquals(1000, ecb.distinct);
+            assertEquals(9000, ecb.repeated);
+            assertEquals(0, ecb.unchecked);
+            assertEquals(0.9, ecb.repeatedFraction(), 1e-9);
+
+            for (LeakageAnalyzer.Report report : reports.subList(1, 3)) {
+                assertEquals(report.transformation, 10000, report.blocks);
+                assertEquals(report.transformation, 0, report.repeated);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testBoundedMemoryLeavesBlocksUnchecked() throws Exception {
+        final byte[] data = new byte[16 * 10000];
+        new Random(2).nextBytes(data);
+        final Path file = Files.createTempFile("leakage", ".bin");
+        try {
+            Files.write(file, data);
+            // 1024 slots, of which three quarters are used
+            final LeakageAnalyzer.Report ecb = new LeakageAnalyzer(Arrays.copyOf(ALGORITHMS, 1), 2, 1024, 8192)
+                    .analyze(file).get(0);
+            assertEquals(10000, ecb.blocks);
+            assertEquals(768, ecb.distinct);
+            assertEquals(10000 - 768, ecb.unchecked);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
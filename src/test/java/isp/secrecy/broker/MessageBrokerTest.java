@@ -0,0 +1,135 @@
+package isp.secrecy.broker;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.crypto.KeyManager;
+import junit.framework.TestCase;
+
+import javax.crypto.AEADBadTagException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing, broadcast, session keys and session ciphers of the message broker.
+ */
+public class MessageBrokerTest extends TestCase {
+
+    public void testRoutesToNamedRecipient() throws Exception {
+        final MessageBroker broker = new MessageBroker();
+        broker.register("alice");
+        final Mailbox bob = broker.register("bob");
+        final Mailbox carol = broker.register("carol");
+
+        broker.channel("alice", "bob").send(frame(1));
+
+        final Delivery delivery = bob.take();
+        assertEquals("alice", delivery.sender());
+        assertEquals(1, Frame.decode(delivery.frame()).getLong(FrameField.CHUNK));
+        assertEquals(0, carol.size());
+    }
+
+    public void testBroadcastSkipsSender() throws Exception {
+        final MessageBroker broker = new MessageBroker();
+        final Mailbox alice = broker.register("alice");
+        final Mailbox bob = broker.register("bob");
+        final Mailbox carol = broker.register("carol");
+
+        assertEquals(2, broker.broadcast("alice", frame(7)));
+
+        assertEquals(7, Frame.decode(bob.take().frame()).getLong(FrameField.CHUNK));
+        assertEquals(7, Frame.decode(carol.take().frame()).getLong(FrameField.CHUNK));
+        assertNull(alice.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    public void testSendersWaitForFullMailbox() throws Exception {
+        final MessageBroker broker = new MessageBroker(new KeyManager(16, KeyManager.NEVER, KeyManager.NEVER), 2);
+        final Mailbox bob = broker.register("bob");
+        broker.send("alice", "bob", frame(1));
+        broker.send("alice", "bob", frame(2));
+
+        final Thread sender = new Thread(() -> {
+            try {
+                broker.send("alice", "bob", frame(3));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        sender.start();
+        sender.join(100);
+        assertTrue("Frame queued beyond the capacity", sender.isAlive());
+        assertEquals(2, bob.size());
+
+        assertEquals(1, Frame.decode(bob.take().frame()).getLong(FrameField.CHUNK));
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+        assertEquals(2, Frame.decode(bob.take().frame()).getLong(FrameField.CHUNK));
+        assertEquals(3, Frame.decode(bob.take().frame()).getLong(FrameField.CHUNK));
+    }
+
+    public void testRejectsUnknownRecipientAndDuplicateName() throws Exception {
+        final MessageBroker broker = new MessageBroker();
+        broker.register("alice");
+        try {
+            broker.send("alice", "bob", frame(1));
+            fail("Frame to unknown agent was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            broker.register("alice");
+            fail("Duplicate name was accepted");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testSessionKeyPerPair() throws Exception {
+        final MessageBroker broker = new MessageBroker();
+        assertSame(broker.sessionKey("alice", "bob"), broker.sessionKey("bob", "alice"));
+        assertNotSame(broker.sessionKey("alice", "bob"), broker.sessionKey("alice", "carol"));
+    }
+
+    public void testSessionKeysRotateUnderTraffic() throws Exception {
+        // every message rotates, so all frames in flight were sealed under different keys
+        try (KeyManager keys = new KeyManager(16, 1, KeyManager.NEVER)) {
+            final MessageBroker broker = new MessageBroker(keys);
+            final SessionCipher alice = broker.sessionCipher("alice"), bob = broker.sessionCipher("bob");
+            final List<Frame> inFlight = new ArrayList<>();
+            for (int i = 0; i < KeyManager.KEPT_EPOCHS; i++) {
+                inFlight.add(alice.seal("bob", new byte[]{(byte) i}));
+            }
+            assertEquals(KeyManager.KEPT_EPOCHS - 1, keys.rotations());
+            // sealed before and after the rotations, opened after them
+            for (int i = 0; i < inFlight.size(); i++) {
+                assertEquals(i, bob.open("alice", inFlight.get(i))[0]);
+            }
+
+            alice.seal("bob", new byte[1]);
+            try {
+                bob.open("alice", inFlight.get(0));
+                fail("Key of an epoch " + KeyManager.KEPT_EPOCHS + " rotations ago was kept");
+            } catch (GeneralSecurityException expected) {
+            }
+            final byte[] reply = "reply".getBytes(StandardCharsets.UTF_8);
+            assertEquals("reply", new String(alice.open("bob", bob.seal("alice", reply)), StandardCharsets.UTF_8));
+        }
+    }
+
+    public void testSessionFramesAreBoundToSenderAndRecipient() throws Exception {
+        final MessageBroker broker = new MessageBroker();
+        final SessionCipher alice = broker.sessionCipher("alice"), bob = broker.sessionCipher("bob");
+        final Frame frame = alice.seal("bob", new byte[16]);
+        try {
+            alice.open("bob", frame);
+            fail("Reflected frame accepted");
+        } catch (AEADBadTagException expected) {
+        }
+        assertEquals(16, bob.open("alice", frame).length);
+    }
+
+    private static ByteBuffer frame(long value) {
+        return new Frame().putLong(FrameField.CHUNK, value).encode();
+    }
+}
@@ -0,0 +1,75 @@
+package isp.secrecy.channel;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Encoding and decoding of frames and the string queue adapter.
+ */
+public class FrameTest extends TestCase {
+
+    public void testRoundTrip() {
+        final byte[] iv = {1, 2, 3, 4};
+        final byte[] cipherText = {10, 20, 30};
+        final ByteBuffer encoded = new Frame()
+                .put(FrameField.IV, iv)
+                .put(FrameField.CIPHERTEXT, cipherText)
+                .encode();
+
+        assertEquals(Frame.LENGTH_SIZE + 2 * Frame.FIELD_HEADER_SIZE + 7, encoded.remaining());
+
+        final Frame decoded = Frame.decode(encoded);
+        assertFalse(encoded.hasRemaining());
+        assertTrue(Arrays.equals(iv, decoded.getBytes(FrameField.IV)));
+        assertTrue(Arrays.equals(cipherText, decoded.getBytes(FrameField.CIPHERTEXT)));
+        assertFalse(decoded.has(FrameField.PARAMETERS));
+    }
+
+    public void testDecodesConsecutiveFrames() {
+        final Frame first = new Frame().put(FrameField.CIPHERTEXT, new byte[]{1});
+        final Frame second = new Frame().put(FrameField.CIPHERTEXT, new byte[]{2, 2});
+        final ByteBuffer buffer = ByteBuffer.allocate(first.encodedLength() + second.encodedLength());
+        first.writeTo(buffer);
+        second.writeTo(buffer);
+        buffer.flip();
+
+        assertEquals(1, Frame.decode(buffer).get(FrameField.CIPHERTEXT).remaining());
+        assertEquals(2, Frame.decode(buffer).get(FrameField.CIPHERTEXT).remaining());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    public void testSkipsUnknownFields() {
+        final ByteBuffer buffer = ByteBuffer.allocate(4 + 5 + 2 + 5 + 1);
+        buffer.putInt(5 + 2 + 5 + 1);
+        buffer.put((byte) 127).putInt(2).put(new byte[]{9, 9});
+        buffer.put(FrameField.CIPHERTEXT.tag()).putInt(1).put((byte) 7);
+        buffer.flip();
+
+        final Frame frame = Frame.decode(buffer);
+        assertTrue(Arrays.equals(new byte[]{7}, frame.getBytes(FrameField.CIPHERTEXT)));
+    }
+
+    public void testRejectsTruncatedFrame() {
+        final ByteBuffer encoded = new Frame().put(FrameField.CIPHERTEXT, new byte[16]).encode();
+        encoded.limit(encoded.limit() - 1);
+        try {
+            Frame.decode(encoded);
+            fail("Truncated frame was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testStringQueueAdapter() throws Exception {
+        final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        final StringQueueChannel channel = new StringQueueChannel(queue);
+
+        channel.send(new Frame().put(FrameField.CIPHERTEXT, new byte[]{(byte) 0xCA, (byte) 0xFE}).encode());
+        assertEquals("000000070300000002CAFE", queue.peek());
+
+        final Frame frame = Frame.decode(channel.receive());
+        assertTrue(Arrays.equals(new byte[]{(byte) 0xCA, (byte) 0xFE}, frame.getBytes(FrameField.CIPHERTEXT)));
+    }
+}
@@ -0,0 +1,123 @@
+package isp.secrecy.channel;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Capacity, backpressure and ordering of the single-producer/single-consumer ring buffer.
+ */
+public class SpscRingBufferTest extends TestCase {
+
+    public void testCapacityIsRoundedToPowerOfTwo() {
+        assertEquals(8, new SpscRingBuffer<Integer>(5, WaitStrategy.SPIN).capacity());
+        assertEquals(8, new SpscRingBuffer<Integer>(8, WaitStrategy.SPIN).capacity());
+    }
+
+    public void testRejectsOfferWhenFull() throws Exception {
+        final SpscRingBuffer<Integer> queue = new SpscRingBuffer<>(2, WaitStrategy.PARK);
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertFalse(queue.offer(3));
+        assertFalse(queue.offer(3, 1, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+
+        assertEquals(Integer.valueOf(1), queue.peek());
+        assertEquals(Integer.valueOf(1), queue.poll());
+        assertTrue(queue.offer(3));
+
+        final List<Integer> drained = new ArrayList<>();
+        assertEquals(2, queue.drainTo(drained));
+        assertEquals(List.of(2, 3), drained);
+        assertNull(queue.poll(1, TimeUnit.MILLISECONDS));
+    }
+
+    public void testCollectionMethodsOnTheConsumerThread() {
+        final SpscRingBuffer<Integer> queue = new SpscRingBuffer<>(4, WaitStrategy.SPIN);
+        // wrap around the end of the slots
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.offer(i));
+            assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertTrue(queue.contains(3));
+        assertFalse(queue.contains(5));
+        assertTrue(queue.containsAll(List.of(1, 4)));
+        assertTrue(Arrays.equals(new Object[]{1, 2, 3, 4}, queue.toArray()));
+
+        assertTrue(queue.remove((Object) 3));
+        assertFalse(queue.remove((Object) 3));
+        assertEquals(3, queue.size());
+        assertTrue(queue.offer(5));
+        assertFalse(queue.offer(6));
+
+        final Iterator<Integer> snapshot = queue.iterator();
+        assertEquals(Integer.valueOf(1), snapshot.next());
+        assertEquals(Integer.valueOf(1), queue.poll());
+        try {
+            snapshot.remove();
+            fail("Removed a polled element");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(Integer.valueOf(2), snapshot.next());
+
+        final List<Integer> drained = new ArrayList<>();
+        queue.drainTo(drained);
+        assertEquals(List.of(2, 4, 5), drained);
+        assertFalse(queue.iterator().hasNext());
+    }
+
+    public void testPreservesOrderAcrossThreads() throws Exception {
+        for (WaitStrategy strategy : WaitStrategy.values()) {
+            if (strategy == WaitStrategy.SPIN && Runtime.getRuntime().availableProcessors() < 2) {
+                // a spinning thread holds the only CPU until its time slice runs out
+                continue;
+            }
+            final int count = 50000;
+            final SpscRingBuffer<Integer> queue = new SpscRingBuffer<>(64, strategy);
+            final AtomicReference<Exception> failure = new AtomicReference<>();
+
+            final Thread producer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        queue.put(i);
+                    }
+                } catch (InterruptedException e) {
+                    failure.set(e);
+                }
+            });
+            producer.start();
+
+            for (int i = 0; i < count; i++) {
+                assertEquals(strategy.toString(), i, queue.take().intValue());
+            }
+            producer.join();
+            assertNull(failure.get());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    public void testTakeIsInterruptible() throws Exception {
+        final SpscRingBuffer<Integer> queue = new SpscRingBuffer<>(4, WaitStrategy.PARK);
+        final AtomicReference<Exception> thrown = new AtomicReference<>();
+        final Thread consumer = new Thread(() -> {
+            try {
+                queue.take();
+            } catch (InterruptedException e) {
+                thrown.set(e);
+            }
+        });
+        consumer.start();
+        consumer.interrupt();
+        consumer.join(5000);
+
+        assertTrue(thrown.get() instanceof InterruptedException);
+    }
+}
@@ -0,0 +1,98 @@
+package isp.secrecy.channel;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Hexadecimal and Base64 text codecs.
+ */
+public class TextCodecTest extends TestCase {
+
+    public void testHexMatchesKnownEncoding() {
+        assertEquals("00FF10A5", TextCodec.HEX.encode(new byte[]{0, -1, 16, (byte) 0xa5}));
+        assertTrue(Arrays.equals(new byte[]{0, -1, 16, (byte) 0xa5}, TextCodec.HEX.decode("00ff10A5")));
+        assertEquals("", TextCodec.HEX.encode(new byte[0]));
+    }
+
+    public void testBase64MatchesJdk() {
+        final Random random = new Random(1);
+        for (int length = 0; length < 100; length++) {
+            final byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            final String text = Base64.getEncoder().encodeToString(bytes);
+            assertEquals(text, TextCodec.BASE64.encode(bytes));
+            assertTrue(Arrays.equals(bytes, TextCodec.BASE64.decode(text)));
+            final String unpadded = Base64.getEncoder().withoutPadding().encodeToString(bytes);
+            assertTrue(Arrays.equals(bytes, TextCodec.BASE64.decode(unpadded)));
+        }
+    }
+
+    public void testRejectsMalformedText() {
+        for (String text : new String[]{"0", "0G", "zz", "\u00e9\u00e9"}) {
+            assertMalformed(TextCodec.HEX, text);
+        }
+        for (String text : new String[]{"A", "AB=C", "A===", "AB*D", "ABCDE", "AB=", "\u00e9AAA"}) {
+            assertMalformed(TextCodec.BASE64, text);
+        }
+    }
+
+    private static void assertMalformed(final TextCodec codec, final String text) {
+        try {
+            codec.decode(text);
+            fail("Decoded malformed text " + text);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testBuffers() {
+        final byte[] bytes = new byte[10000];
+        new Random(2).nextBytes(bytes);
+        for (TextCodec codec : new TextCodec[]{TextCodec.HEX, TextCodec.BASE64}) {
+            for (boolean direct : new boolean[]{false, true}) {
+                final ByteBuffer source = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+                source.put(bytes).flip();
+                final CharBuffer text = direct
+                        ? ByteBuffer.allocateDirect(2 * codec.encodedLength(bytes.length)).asCharBuffer()
+                        : CharBuffer.allocate(codec.encodedLength(bytes.length));
+                codec.encode(source, text);
+                assertFalse(source.hasRemaining());
+                assertFalse(text.hasRemaining());
+                text.flip();
+                assertEquals(codec.encode(bytes), text.toString());
+
+                final ByteBuffer decoded = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+                codec.decode(text, decoded);
+                assertFalse(text.hasRemaining());
+                decoded.flip();
+                assertEquals(ByteBuffer.wrap(bytes), decoded);
+            }
+        }
+    }
+
+    public void testArraysAtOffsets() {
+        final byte[] bytes = "offset".getBytes(StandardCharsets.US_ASCII);
+        final byte[] ascii = new byte[20];
+        final int written = TextCodec.BASE64.encode(bytes, 1, 4, ascii, 3);
+        assertEquals(8, written);
+        assertEquals("ZmZzZQ==", new String(ascii, 3, written, StandardCharsets.US_ASCII));
+
+        final byte[] decoded = new byte[10];
+        assertEquals(4, TextCodec.BASE64.decode("..ZmZzZQ==", 2, 8, decoded, 5));
+        assertEquals("ffse", new String(decoded, 5, 4, StandardCharsets.US_ASCII));
+    }
+
+    public void testStringQueueChannelWithBase64() throws Exception {
+        final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        final StringQueueChannel channel = new StringQueueChannel(queue, TextCodec.BASE64);
+        channel.send(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}));
+        assertEquals("AQIDBA==", queue.peek());
+        assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), channel.receive());
+    }
+}
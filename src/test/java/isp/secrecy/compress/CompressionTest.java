@@ -0,0 +1,182 @@
+package isp.secrecy.compress;
+
+import isp.secrecy.SymmetricCipherExample;
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.crypto.CipherPool;
+import isp.secrecy.crypto.FrameCipher;
+import junit.framework.TestCase;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+/**
+ * Codecs, when to compress and compressed frames.
+ */
+public class CompressionTest extends TestCase {
+    private static final Codec[] CODECS = {Codec.DEFLATE, Codec.LZ};
+
+    private static byte[] text(final int length) {
+        final String[] words = {"alice ", "sends ", "bob ", "an ", "order ", "to ", "pay ", "10 ", "EUR ", "\n"};
+        final Random random = new Random(length);
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append(words[random.nextInt(words.length)]);
+        }
+        return text.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] random(final int length) {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    public void testCodecsRoundTrip() throws Exception {
+        final List<byte[]> inputs = new ArrayList<>();
+        for (int length : new int[]{0, 1, 8, 9, 100, 5000, 70000}) {
+            inputs.add(text(length));
+            inputs.add(random(length));
+            // long runs: long match lengths and matches overlapping themselves
+            inputs.add(new byte[length]);
+        }
+        for (Codec codec : CODECS) {
+            assertSame(codec, Codec.forId(codec.id()));
+            for (byte[] input : inputs) {
+                final byte[] compressed = new byte[2 * input.length + 64];
+                final int length = codec.compress(input, 0, input.length, compressed, 3, compressed.length - 3);
+                assertTrue(codec + " " + input.length, length >= 0);
+                final byte[] output = new byte[input.length + 2];
+                codec.decompress(compressed, 3, length, output, 1, input.length);
+                assertTrue(codec + " " + input.length, Arrays.equals(input, Arrays.copyOfRange(output, 1,
+                        input.length + 1)));
+            }
+            assertEquals(-1, codec.compress(text(5000), 0, 5000, new byte[10], 0, 10));
+        }
+        assertNull(Codec.forId((byte) 0));
+        assertNull(Codec.forId((byte) 3));
+    }
+
+    public void testSkipsShortAndIncompressible() throws Exception {
+        for (Codec codec : CODECS) {
+            final Compression compression = new Compression(codec);
+            assertNull(compression.compress(text(Compression.DEFAULT_THRESHOLD - 1), Integer.MAX_VALUE));
+            assertNull(compression.compress(random(1000), Integer.MAX_VALUE));
+            assertNull(compression.compress(random(100000), Integer.MAX_VALUE));
+
+            final byte[] text = text(100000);
+            final byte[] packed = compression.compress(text, Integer.MAX_VALUE);
+            assertTrue(codec + " " + packed.length, packed.length < text.length * 2 / 3);
+            assertTrue(Arrays.equals(text, Compression.decompress(codec, packed)));
+            assertNull("longer than allowed", compression.compress(text, packed.length - 1));
+        }
+    }
+
+    public void testRejectsMalformed() {
+        for (Codec codec : CODECS) {
+            final byte[] packed = new Compression(codec).compress(text(1000), Integer.MAX_VALUE);
+            final List<byte[]> malformed = new ArrayList<>();
+            malformed.add(Arrays.copyOf(packed, 3));
+            malformed.add(Arrays.copyOf(packed, packed.length - 1));
+            // declares a byte more and 2 GB
+            final byte[] longer = packed.clone();
+            longer[3]++;
+            malformed.add(longer);
+            final byte[] huge = packed.clone();
+            huge[0] = 0x7F;
+            malformed.add(huge);
+            for (byte[] bytes : malformed) {
+                try {
+                    Compression.decompress(codec, bytes);
+                    fail(codec + " decompressed " + bytes.length + " malformed bytes");
+                } catch (DataFormatException expected) {
+                } catch (RuntimeException e) {
+                    fail(codec + " threw " + e);
+                }
+            }
+        }
+        try {
+            // 4 literals, then a match 5 back
+            Codec.LZ.decompress(new byte[]{0x40, 1, 2, 3, 4, 5, 0}, 0, 7, new byte[8], 0, 8);
+            fail("Match before the output");
+        } catch (DataFormatException expected) {
+        }
+    }
+
+    public void testCompressedFrames() throws Exception {
+        final byte[] text = text(10000);
+        final List<byte[]> batch = Arrays.asList(text(300), text(400), random(16));
+        for (String[] algorithm : new String[][]{SymmetricCipherExample.ALG4, SymmetricCipherExample.ALG5,
+                SymmetricCipherExample.ALG6}) {
+            final Key key = KeyGenerator.getInstance(algorithm[0]).generateKey();
+            final Key macKey = KeyGenerator.getInstance("HmacSHA256").generateKey();
+            final String mac = algorithm == SymmetricCipherExample.ALG6 ? null : "HmacSHA256";
+            final FrameCipher alice = new FrameCipher(algorithm[1], key, mac, macKey, CipherPool.shared(), 64,
+                    new Compression(Codec.LZ));
+            final FrameCipher bob = new FrameCipher(algorithm[1], key, mac, macKey, CipherPool.shared(), 64);
+
+            final Frame frame = alice.seal(text);
+            assertEquals(Codec.LZ.id(), frame.getBytes(FrameField.CODEC)[0]);
+            assertTrue(frame.getBytes(FrameField.CIPHERTEXT).length < text.length * 2 / 3);
+            assertTrue(Arrays.equals(text, bob.open(frame)));
+            assertFalse(alice.seal(random(10000)).has(FrameField.CODEC));
+
+            final List<byte[]> sink = new ArrayList<>();
+            final Frame batchFrame = alice.sealBatch(batch);
+            assertTrue(batchFrame.has(FrameField.CODEC));
+            assertEquals(3, bob.openBatch(batchFrame, sink));
+            for (int i = 0; i < 3; i++) {
+                assertTrue(Arrays.equals(batch.get(i), sink.get(i)));
+            }
+
+            for (boolean direct : new boolean[]{false, true}) {
+                final ByteBuffer message = direct ? ByteBuffer.allocateDirect(text.length) : ByteBuffer.allocate(
+                        text.length);
+                message.put(text).flip();
+                final ByteBuffer sealed = ByteBuffer.allocate(alice.sealedSize(text.length));
+                alice.seal(message, sealed);
+                assertFalse(message.hasRemaining());
+                sealed.flip();
+                assertTrue(sealed.remaining() < text.length * 2 / 3);
+                assertTrue(Frame.decode(sealed.duplicate()).has(FrameField.CODEC));
+
+                final ByteBuffer opened = direct ? ByteBuffer.allocateDirect(text.length) : ByteBuffer.allocate(
+                        text.length);
+                bob.open(sealed, opened);
+                opened.flip();
+                final byte[] bytes = new byte[opened.remaining()];
+                opened.get(bytes);
+                assertTrue(algorithm[1], Arrays.equals(text, bytes));
+            }
+        }
+    }
+
+    public void testCodecIsAuthenticated() throws Exception {
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        final FrameCipher alice = new FrameCipher("AES/GCM/NoPadding", key, null, null, CipherPool.shared(), 0,
+                new Compression(Codec.DEFLATE));
+        final FrameCipher bob = new FrameCipher("AES/GCM/NoPadding", key);
+
+        final Frame frame = alice.seal(text(2000));
+        final Frame stripped = new Frame();
+        for (FrameField field : FrameField.values()) {
+            if (field != FrameField.CODEC && frame.has(field)) {
+                stripped.put(field, frame.get(field));
+            }
+        }
+        try {
+            bob.open(stripped);
+            fail("Opened a frame without its CODEC");
+        } catch (AEADBadTagException expected) {
+        }
+        assertEquals(2000, bob.open(frame).length);
+    }
+}
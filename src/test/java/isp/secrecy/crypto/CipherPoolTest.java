@@ -0,0 +1,72 @@
+package isp.secrecy.crypto;
+
+import junit.framework.TestCase;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.Key;
+import java.util.Arrays;
+
+/**
+ * Reuse and re-initialization of pooled ciphers.
+ */
+public class CipherPoolTest extends TestCase {
+    private final byte[] message = "I love you Bob. Kisses, Alice.".getBytes();
+
+    public void testReusesInstancePerTransformationModeAndKey() throws Exception {
+        final CipherPool pool = new CipherPool(CipherPool.DEFAULT_CAPACITY);
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+
+        final Cipher first = pool.cipher("AES/ECB/PKCS5Padding", Cipher.ENCRYPT_MODE, key);
+        first.doFinal(message);
+        assertSame(first, pool.cipher("AES/ECB/PKCS5Padding", Cipher.ENCRYPT_MODE, key));
+        assertNotSame(first, pool.cipher("AES/ECB/PKCS5Padding", Cipher.DECRYPT_MODE, key));
+        assertNotSame(first, pool.cipher("AES/ECB/PKCS5Padding", Cipher.ENCRYPT_MODE,
+                KeyGenerator.getInstance("AES").generateKey()));
+
+        assertEquals(1, pool.hits());
+        assertEquals(3, pool.misses());
+    }
+
+    public void testFreshIvOnEveryEncryption() throws Exception {
+        final CipherPool pool = new CipherPool(CipherPool.DEFAULT_CAPACITY);
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+
+        final Cipher encryption = pool.cipher("AES/GCM/NoPadding", Cipher.ENCRYPT_MODE, key);
+        final byte[] firstIv = encryption.getIV();
+        final byte[] cipherText = encryption.doFinal(message);
+
+        final byte[] secondIv = pool.cipher("AES/GCM/NoPadding", Cipher.ENCRYPT_MODE, key).getIV();
+        assertFalse(Arrays.equals(firstIv, secondIv));
+
+        final Cipher decryption = pool.cipher("AES/GCM/NoPadding", Cipher.DECRYPT_MODE, key,
+                new GCMParameterSpec(128, firstIv));
+        assertTrue(Arrays.equals(message, decryption.doFinal(cipherText)));
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final CipherPool pool = new CipherPool(1);
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+
+        pool.cipher("AES/ECB/PKCS5Padding", Cipher.ENCRYPT_MODE, key);
+        pool.cipher("AES/ECB/PKCS5Padding", Cipher.DECRYPT_MODE, key);
+        pool.cipher("AES/ECB/PKCS5Padding", Cipher.ENCRYPT_MODE, key);
+
+        assertEquals(0, pool.hits());
+        assertEquals(3, pool.misses());
+    }
+
+    public void testMacIsResetBetweenUses() throws Exception {
+        final CipherPool pool = new CipherPool(CipherPool.DEFAULT_CAPACITY);
+        final Key key = KeyGenerator.getInstance("HmacSHA256").generateKey();
+
+        final Mac mac = pool.mac("HmacSHA256", key);
+        mac.update((byte) 1);
+        final byte[] expected = pool.mac("HmacSHA256", key).doFinal(message);
+
+        assertTrue(Arrays.equals(expected, pool.mac("HmacSHA256", key).doFinal(message)));
+        assertEquals(2, pool.hits());
+    }
+}
@@ -0,0 +1,145 @@
+package isp.secrecy.crypto;
+
+import junit.framework.TestCase;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.RSAPrivateKeySpec;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Parallel in-order RSA decryption.
+ */
+public class DecryptionPoolTest extends TestCase {
+    private static KeyPair keyPair;
+
+    @Override
+    protected void setUp() throws Exception {
+        if (keyPair == null) {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(1024);
+            keyPair = generator.generateKeyPair();
+        }
+    }
+
+    public void testDeliversInOrder() throws Exception {
+        roundTrip("RSA/ECB/PKCS1Padding", null);
+    }
+
+    public void testOaep() throws Exception {
+        roundTrip(DecryptionPool.OAEP, DecryptionPool.OAEP_SHA256);
+    }
+
+    private void roundTrip(final String transformation, final AlgorithmParameterSpec parameters) throws Exception {
+        final Cipher encryption = Cipher.getInstance(transformation);
+        encryption.init(Cipher.ENCRYPT_MODE, keyPair.getPublic(), parameters);
+        try (DecryptionPool pool = new DecryptionPool(transformation, parameters, keyPair.getPrivate(), 4, 8)) {
+            final Thread sender = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        pool.submit(encryption.doFinal(("message " + i).getBytes(StandardCharsets.UTF_8)));
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            sender.start();
+            for (int i = 0; i < 50; i++) {
+                assertEquals("message " + i, new String(pool.take(), StandardCharsets.UTF_8));
+            }
+            sender.join();
+        }
+    }
+
+    public void testFailureIsDeliveredInPlace() throws Exception {
+        final Cipher encryption = Cipher.getInstance("RSA");
+        encryption.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        try (DecryptionPool pool = new DecryptionPool("RSA", null, keyPair.getPrivate(), 2, 4)) {
+            final byte[] forged = encryption.doFinal(new byte[]{2});
+            forged[10] ^= 1;
+            pool.submit(encryption.doFinal(new byte[]{1}));
+            pool.submit(forged);
+            pool.submit(encryption.doFinal(new byte[]{3}));
+            assertEquals(1, pool.take()[0]);
+            try {
+                pool.take();
+                fail("Forged cipher text was decrypted");
+            } catch (BadPaddingException expected) {
+            }
+            assertEquals(3, pool.take()[0]);
+        }
+    }
+
+    public void testTakeFailsAfterClose() throws Exception {
+        final Cipher encryption = Cipher.getInstance("RSA");
+        encryption.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+        final byte[][] cipherTexts = new byte[8][];
+        for (int i = 0; i < cipherTexts.length; i++) {
+            cipherTexts[i] = encryption.doFinal(new byte[]{(byte) i});
+        }
+        final DecryptionPool pool = new DecryptionPool("RSA", null, keyPair.getPrivate(), 1, cipherTexts.length);
+        for (byte[] cipherText : cipherTexts) {
+            pool.submit(cipherText);
+        }
+        pool.close();
+
+        int cancelled = 0;
+        for (int i = 0; i < cipherTexts.length; i++) {
+            try {
+                assertEquals(i, pool.take()[0]);
+            } catch (CancellationException e) {
+                cancelled++;
+            }
+        }
+        assertTrue("Queued cipher texts were decrypted after close", cancelled > 0);
+        try {
+            pool.take();
+            fail("Took from a closed, drained pool");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            pool.submit(cipherTexts[0]);
+            fail("Submitted to a closed pool");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    public void testConvertsKeysWithoutCrtParameters() throws Exception {
+        final RSAPrivateCrtKey original = (RSAPrivateCrtKey) keyPair.getPrivate();
+        final PrivateKey plain = KeyFactory.getInstance("RSA").generatePrivate(
+                new RSAPrivateKeySpec(original.getModulus(), original.getPrivateExponent()));
+        assertFalse(plain instanceof RSAPrivateCrtKey);
+
+        try (DecryptionPool pool = new DecryptionPool("RSA", null, plain, 1, 1)) {
+            final RSAPrivateCrtKey converted = (RSAPrivateCrtKey) pool.key();
+            assertEquals(original.getPublicExponent(), converted.getPublicExponent());
+            assertEquals(original.getModulus(), converted.getPrimeP().multiply(converted.getPrimeQ()));
+            assertEquals(original.getCrtCoefficient().equals(converted.getCrtCoefficient()),
+                    original.getPrimeP().equals(converted.getPrimeP()));
+
+            final Cipher encryption = Cipher.getInstance("RSA");
+            encryption.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+            pool.submit(encryption.doFinal(new byte[]{42}));
+            assertEquals(42, pool.take()[0]);
+        }
+
+        try {
+            DecryptionPool.crt((RSAPrivateKey) plain,
+                    ((RSAPublicKey) keyPair.getPublic()).getPublicExponent().add(BigInteger.valueOf(2)));
+            fail("Converted with a wrong public exponent");
+        } catch (InvalidKeyException expected) {
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import junit.framework.TestCase;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+
+/**
+ * Hybrid RSA + AES/GCM envelope encryption.
+ */
+public class EnvelopeTest extends TestCase {
+    private static KeyPair bobKP;
+
+    @Override
+    protected void setUp() throws Exception {
+        if (bobKP == null) {
+            bobKP = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        }
+    }
+
+    public void testWrapsSessionKeyOnlyOnce() throws Exception {
+        final EnvelopeSender alice = new EnvelopeSender(bobKP.getPublic());
+        final EnvelopeReceiver bob = new EnvelopeReceiver(bobKP.getPrivate());
+
+        final byte[] large = new byte[10000];
+        Arrays.fill(large, (byte) 'x');
+
+        final Frame first = alice.seal(large);
+        final Frame second = alice.seal("second".getBytes("UTF-8"));
+        assertTrue(first.has(FrameField.WRAPPED_KEY));
+        assertFalse(second.has(FrameField.WRAPPED_KEY));
+        assertEquals(first.getLong(FrameField.SESSION), second.getLong(FrameField.SESSION));
+
+        assertTrue(Arrays.equals(large, bob.open(Frame.decode(first.encode()))));
+        assertEquals("second", new String(bob.open(Frame.decode(second.encode())), "UTF-8"));
+        assertEquals(1, bob.sessions());
+    }
+
+    public void testRekeyStartsNewSession() throws Exception {
+        final EnvelopeSender alice = new EnvelopeSender(bobKP.getPublic());
+        final long first = alice.seal(new byte[1]).getLong(FrameField.SESSION);
+        alice.rekey();
+        final Frame frame = alice.seal(new byte[1]);
+
+        assertTrue(frame.has(FrameField.WRAPPED_KEY));
+        assertTrue(first != frame.getLong(FrameField.SESSION));
+    }
+
+    public void testRejectsUnknownSession() throws Exception {
+        final EnvelopeSender alice = new EnvelopeSender(bobKP.getPublic());
+        alice.seal(new byte[1]);
+        final Frame withoutKey = alice.seal(new byte[1]);
+
+        try {
+            new EnvelopeReceiver(bobKP.getPrivate()).open(withoutKey);
+            fail("Message of unknown session was accepted");
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+
+    public void testRejectsTamperedMessage() throws Exception {
+        final EnvelopeSender alice = new EnvelopeSender(bobKP.getPublic());
+        final Frame frame = alice.seal("I love you Bob.".getBytes("UTF-8"));
+        final byte[] cipherText = frame.getBytes(FrameField.CIPHERTEXT);
+        cipherText[0] ^= 1;
+        frame.put(FrameField.CIPHERTEXT, cipherText);
+
+        final EnvelopeReceiver bob = new EnvelopeReceiver(bobKP.getPrivate());
+        try {
+            bob.open(frame);
+            fail("Tampered message was accepted");
+        } catch (AEADBadTagException expected) {
+        }
+        assertEquals("key of a forged message cached", 0, bob.sessions());
+    }
+
+    public void testForgedFirstMessageCannotReplaceSessionKey() throws Exception {
+        final EnvelopeSender alice = new EnvelopeSender(bobKP.getPublic());
+        final EnvelopeReceiver bob = new EnvelopeReceiver(bobKP.getPrivate());
+        bob.open(alice.seal(new byte[1]));
+        final Frame second = alice.seal("second".getBytes("UTF-8"));
+        final long sessionId = second.getLong(FrameField.SESSION);
+
+        // anyone with Bob's public key can wrap a key of their own for Alice's session
+        final KeyGenerator generator = KeyGenerator.getInstance(EnvelopeSender.SESSION_ALGORITHM);
+        generator.init(EnvelopeSender.SESSION_KEY_SIZE);
+        final SecretKey malloryKey = generator.generateKey();
+        final Cipher wrap = Cipher.getInstance(EnvelopeSender.WRAP_ALGORITHM);
+        wrap.init(Cipher.WRAP_MODE, bobKP.getPublic());
+        final Cipher cipher = Cipher.getInstance(EnvelopeSender.SESSION_CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, malloryKey);
+        cipher.updateAAD(EnvelopeSender.sessionAad(sessionId));
+        final Frame forged = new Frame()
+                .put(FrameField.WRAPPED_KEY, wrap.wrap(malloryKey))
+                .putLong(FrameField.SESSION, sessionId)
+                .put(FrameField.IV, cipher.getIV())
+                .put(FrameField.CIPHERTEXT, cipher.doFinal(new byte[1]));
+
+        try {
+            bob.open(forged);
+            fail("Forged session key was accepted");
+        } catch (AEADBadTagException expected) {
+        }
+        assertEquals("second", new String(bob.open(second), "UTF-8"));
+        assertEquals(1, bob.sessions());
+    }
+}
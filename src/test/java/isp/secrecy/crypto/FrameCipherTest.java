@@ -0,0 +1,179 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.Agent;
+import isp.secrecy.SymmetricCipherExample;
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.channel.QueueChannel;
+import junit.framework.TestCase;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sealing single messages and batches into frames.
+ */
+public class FrameCipherTest extends TestCase {
+    private static final String[][] ALGORITHMS = {
+            SymmetricCipherExample.ALG1, SymmetricCipherExample.ALG2, SymmetricCipherExample.ALG3,
+            SymmetricCipherExample.ALG4, SymmetricCipherExample.ALG5, SymmetricCipherExample.ALG6
+    };
+
+    public void testSealAndOpenWithEveryAlgorithm() throws Exception {
+        final byte[] message = "I love you Bob. Kisses, Alice.".getBytes(StandardCharsets.UTF_8);
+        for (String[] alg : ALGORITHMS) {
+            final FrameCipher cipher = new FrameCipher(alg[1], KeyGenerator.getInstance(alg[0]).generateKey());
+            final Frame frame = Frame.decode(cipher.seal(message).encode());
+            assertTrue(alg[1], Arrays.equals(message, cipher.open(frame)));
+        }
+    }
+
+    public void testBatchRoundTrip() throws Exception {
+        final List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            messages.add(new byte[i % 7 == 0 ? 0 : i]);
+            Arrays.fill(messages.get(i), (byte) i);
+        }
+        for (String[] alg : ALGORITHMS) {
+            final FrameCipher cipher = new FrameCipher(alg[1], KeyGenerator.getInstance(alg[0]).generateKey());
+            final Frame frame = cipher.sealBatch(messages);
+            assertEquals(100, frame.getLong(FrameField.BATCH));
+
+            final List<byte[]> received = new ArrayList<>();
+            assertEquals(100, cipher.openBatch(Frame.decode(frame.encode()), received));
+            for (int i = 0; i < messages.size(); i++) {
+                assertTrue(alg[1] + " message " + i, Arrays.equals(messages.get(i), received.get(i)));
+            }
+        }
+    }
+
+    public void testEncryptThenMacRejectsTamperedFields() throws Exception {
+        final FrameCipher cipher = new FrameCipher(SymmetricCipherExample.ALG4[1],
+                KeyGenerator.getInstance("AES").generateKey(), "HmacSHA256",
+                KeyGenerator.getInstance("HmacSHA256").generateKey(), new CipherPool(4));
+        final byte[] message = "I love you Bob. Kisses, Alice.".getBytes(StandardCharsets.UTF_8);
+        final Frame sealed = cipher.seal(message);
+        assertTrue(sealed.has(FrameField.MAC));
+        assertTrue(Arrays.equals(message, cipher.open(Frame.decode(sealed.encode()))));
+
+        for (FrameField field : new FrameField[]{FrameField.PARAMETERS, FrameField.CIPHERTEXT, FrameField.MAC}) {
+            final Frame tampered = Frame.decode(sealed.encode());
+            final byte[] value = tampered.getBytes(field);
+            value[value.length - 1] ^= 1;
+            assertRejected(cipher, tampered.put(field, value), field.toString());
+        }
+        assertRejected(cipher, Frame.decode(sealed.encode()).put(FrameField.MAC, (byte[]) null), "missing MAC");
+    }
+
+    public void testBufferRoundTripWithEveryAlgorithm() throws Exception {
+        final byte[] message = "I love you Bob. Kisses, Alice.".getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer clearText = ByteBuffer.allocateDirect(64), frame = ByteBuffer.allocateDirect(256);
+        for (String[] alg : ALGORITHMS) {
+            final FrameCipher cipher = new FrameCipher(alg[1], KeyGenerator.getInstance(alg[0]).generateKey(),
+                    "HmacSHA256", KeyGenerator.getInstance("HmacSHA256").generateKey(), new CipherPool(4));
+            for (int round = 0; round < 3; round++) {
+                clearText.clear();
+                clearText.put(message).flip();
+                frame.clear();
+                cipher.seal(clearText, frame);
+                assertEquals(0, clearText.remaining());
+                frame.flip();
+
+                clearText.clear();
+                cipher.open(frame, clearText);
+                assertEquals(0, frame.remaining());
+                clearText.flip();
+                final byte[] received = new byte[clearText.remaining()];
+                clearText.get(received);
+                assertTrue(alg[1], Arrays.equals(message, received));
+            }
+        }
+    }
+
+    public void testBufferAndFrameApisInteroperate() throws Exception {
+        final byte[] message = "I love you Bob. Kisses, Alice.".getBytes(StandardCharsets.UTF_8);
+        final FrameCipher cipher = new FrameCipher(SymmetricCipherExample.ALG6[1],
+                KeyGenerator.getInstance("AES").generateKey(), "HmacSHA256",
+                KeyGenerator.getInstance("HmacSHA256").generateKey(), new CipherPool(4));
+
+        final ByteBuffer frame = ByteBuffer.allocate(cipher.sealedSize(message.length));
+        cipher.seal(ByteBuffer.wrap(message), frame);
+        frame.flip();
+        assertTrue(Arrays.equals(message, cipher.open(Frame.decode(frame))));
+
+        final ByteBuffer clearText = ByteBuffer.allocate(message.length);
+        cipher.open(cipher.seal(message).encode(), clearText);
+        assertTrue(Arrays.equals(message, clearText.array()));
+    }
+
+    public void testBufferOpenRejectsTamperedFrame() throws Exception {
+        final FrameCipher cipher = new FrameCipher(SymmetricCipherExample.ALG4[1],
+                KeyGenerator.getInstance("AES").generateKey(), "HmacSHA256",
+                KeyGenerator.getInstance("HmacSHA256").generateKey(), new CipherPool(4));
+        final ByteBuffer frame = ByteBuffer.allocate(cipher.sealedSize(100));
+        cipher.seal(ByteBuffer.allocate(100), frame);
+        frame.flip();
+        frame.put(frame.limit() - 40, (byte) 1);
+        try {
+            cipher.open(frame, ByteBuffer.allocate(100));
+            fail("Tampered frame was accepted");
+        } catch (AEADBadTagException expected) {
+            assertEquals(0, frame.position());
+        }
+    }
+
+    private static void assertRejected(FrameCipher cipher, Frame frame, String what) throws Exception {
+        try {
+            cipher.open(frame);
+            fail(what + " was accepted");
+        } catch (AEADBadTagException expected) {
+        }
+    }
+
+    public void testAgentsExchangeBatches() throws Exception {
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        final QueueChannel alice2bob = new QueueChannel();
+        final List<byte[]> received = new ArrayList<>();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        final Agent alice = new Agent(alice2bob, null, key, SymmetricCipherExample.ALG4[1], null, null) {
+            @Override
+            public void run() {
+                try {
+                    for (int batch = 0; batch < 3; batch++) {
+                        sendAll(Arrays.asList(new byte[]{(byte) batch}, new byte[]{(byte) batch, 1}));
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        final Agent bob = new Agent(null, alice2bob, key, SymmetricCipherExample.ALG4[1], null, null) {
+            @Override
+            public void run() {
+                try {
+                    while (received.size() < 6) {
+                        drainTo(received);
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        bob.start();
+        alice.start();
+        alice.join();
+        bob.join(5000);
+
+        assertNull(failure.get());
+        assertEquals(6, received.size());
+        assertTrue(Arrays.equals(new byte[]{2, 1}, received.get(5)));
+    }
+}
@@ -0,0 +1,155 @@
+package isp.secrecy.crypto;
+
+import junit.framework.TestCase;
+
+import java.security.Key;
+import java.security.KeyPair;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pregenerated key pairs, session keys per pair, their rotation and eviction.
+ */
+public class KeyManagerTest extends TestCase {
+    private final List<KeyManager> managers = new ArrayList<>();
+
+    @Override
+    protected void tearDown() {
+        for (KeyManager manager : managers) {
+            manager.close();
+        }
+    }
+
+    public void testKeyPairsArePregenerated() throws Exception {
+        final KeyManager keys = manager(new KeyManager("RSA", 1024, 2, 16, KeyManager.NEVER, KeyManager.NEVER));
+        for (int i = 0; i < 500 && keys.readyKeyPairs() < 2; i++) {
+            Thread.sleep(20);
+        }
+        final KeyPair first = keys.keyPair(), second = keys.keyPair();
+        assertNotSame(first.getPrivate(), second.getPrivate());
+        assertEquals(0, keys.inlineKeyPairs());
+    }
+
+    public void testSessionKeysArePregenerated() throws Exception {
+        final KeyManager keys = manager(new KeyManager(16, 1, KeyManager.NEVER));
+        awaitReadySessionKeys(keys);
+        for (int i = 0; i < KeyManager.READY_SESSION_KEYS / 2; i++) {
+            keys.next("alice", "bob");
+        }
+        assertEquals(KeyManager.READY_SESSION_KEYS / 2 - 1, keys.rotations());
+        assertEquals(0, keys.inlineSessionKeys());
+    }
+
+    public void testBackToBackRotationsKeepRecentEpochs() throws Exception {
+        final KeyManager keys = manager(new KeyManager(16, 1, KeyManager.NEVER));
+        // more frames in flight than messages per key
+        final List<KeyManager.SessionKey> inFlight = new ArrayList<>();
+        for (int i = 0; i < KeyManager.KEPT_EPOCHS + 2; i++) {
+            inFlight.add(keys.next("alice", "bob"));
+        }
+        for (int i = 0; i < inFlight.size(); i++) {
+            final KeyManager.SessionKey sealed = inFlight.get(i);
+            final Key key = keys.key("bob", "alice", sealed.epoch());
+            if (i < 2) {
+                assertNull("epoch " + i + " kept", key);
+            } else {
+                assertSame("epoch " + i + " dropped", sealed.key(), key);
+            }
+        }
+    }
+
+    public void testSessionKeyIsSharedByPair() throws Exception {
+        final KeyManager keys = manager(new KeyManager(16, KeyManager.NEVER, KeyManager.NEVER));
+        assertSame(keys.next("alice", "bob").key(), keys.next("bob", "alice").key());
+        assertNotSame(keys.current("alice", "bob").key(), keys.current("alice", "carol").key());
+        assertNull(keys.key("alice", "dave", 1));
+    }
+
+    public void testRotatesAfterMessages() throws Exception {
+        final KeyManager keys = manager(new KeyManager(16, 3, KeyManager.NEVER));
+        final KeyManager.SessionKey first = keys.next("alice", "bob");
+        assertSame(first, keys.next("alice", "bob"));
+        assertSame(first, keys.next("bob", "alice"));
+
+        final KeyManager.SessionKey second = keys.next("alice", "bob");
+        assertNotSame(first.key(), second.key());
+        assertTrue(second.epoch() > first.epoch());
+        assertEquals(1, keys.rotations());
+
+        // messages sealed with the previous key can still be opened
+        assertSame(first.key(), keys.key("bob", "alice", first.epoch()));
+        assertSame(second.key(), keys.key("bob", "alice", second.epoch()));
+
+        for (int i = 0; i < 3 * (KeyManager.KEPT_EPOCHS - 1); i++) {
+            keys.next("alice", "bob");
+        }
+        assertNull(keys.key("bob", "alice", first.epoch()));
+    }
+
+    public void testRotatesAfterTime() throws Exception {
+        final KeyManager keys = manager(new KeyManager(16, KeyManager.NEVER, 50));
+        final KeyManager.SessionKey first = keys.current("alice", "bob");
+        assertSame(first, keys.next("alice", "bob"));
+        Thread.sleep(100);
+        assertNotSame(first, keys.current("alice", "bob"));
+    }
+
+    public void testLeastRecentlyUsedPairsAreDropped() throws Exception {
+        final KeyManager keys = manager(new KeyManager(2, KeyManager.NEVER, KeyManager.NEVER));
+        final KeyManager.SessionKey ab = keys.current("alice", "bob");
+        keys.current("alice", "carol");
+        keys.current("alice", "bob");
+        keys.current("alice", "dave");
+
+        assertSame(ab.key(), keys.key("alice", "bob", ab.epoch()));
+        assertNotSame(ab.key(), keys.current("alice", "carol").key());
+        assertNull(keys.key("alice", "dave", 3));
+    }
+
+    public void testEvictsInBatchesAndKeepsRecentlyUsed() throws Exception {
+        final KeyManager keys = manager(new KeyManager(64, KeyManager.NEVER, KeyManager.NEVER));
+        final KeyManager.SessionKey ab = keys.current("alice", "bob");
+        for (int i = 0; i < 200; i++) {
+            keys.current("carol", "agent-" + i);
+            assertSame("recently used pair dropped", ab.key(), keys.key("bob", "alice", ab.epoch()));
+        }
+        assertTrue(keys.toString(), keys.size() > 64 - 64 / 16 - 1 && keys.size() <= 64);
+    }
+
+    public void testConcurrentFirstUseSharesOneKey() throws Exception {
+        final KeyManager keys = manager(new KeyManager(16, KeyManager.NEVER, KeyManager.NEVER));
+        final Thread[] threads = new Thread[4];
+        final KeyManager.SessionKey[] seen = new KeyManager.SessionKey[threads.length];
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    seen[index] = keys.next("alice", "bob");
+                } catch (Exception e) {
+                    failures.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        for (KeyManager.SessionKey key : seen) {
+            assertSame(seen[0], key);
+        }
+    }
+
+    private KeyManager manager(final KeyManager manager) {
+        managers.add(manager);
+        return manager;
+    }
+
+    private static void awaitReadySessionKeys(final KeyManager keys) throws InterruptedException {
+        for (int i = 0; i < 500 && keys.readySessionKeys() < KeyManager.READY_SESSION_KEYS; i++) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import junit.framework.TestCase;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Calibration and negotiation of cipher suites.
+ */
+public class NegotiationTest extends TestCase {
+    private static final Key SECRET = new SecretKeySpec(new byte[32], "HmacSHA256");
+
+    public void testInsecureTransformations() {
+        for (String transformation : new String[]{"AES/ECB/PKCS5Padding", "AES", "RC4", "ARCFOUR",
+                "DES/CBC/PKCS5Padding", "DESede/CBC/PKCS5Padding"}) {
+            assertFalse(transformation, Algorithms.isSecure(transformation));
+        }
+        for (CipherSuite suite : CipherSuite.values()) {
+            assertTrue(suite.transformation(), Algorithms.isSecure(suite.transformation()));
+        }
+    }
+
+    public void testCalibrationRanksAvailableSuites() {
+        final Calibration calibration = Calibration.run(256, 20_000_000);
+        assertTrue(calibration.ranking().contains(CipherSuite.AES_128_GCM));
+        long previous = 0;
+        for (CipherSuite suite : calibration.ranking()) {
+            assertTrue(calibration.nanos(suite) >= previous);
+            previous = calibration.nanos(suite);
+        }
+        assertEquals(calibration.ranking().get(0), calibration.fastest());
+    }
+
+    public void testChoosesLowestCombinedCost() throws Exception {
+        // GCM is fastest for the initiator, ChaCha20 for the responder, CTR is best in sum
+        final Calibration initiator = calibration(100, 1000, 150, 500);
+        final Calibration responder = calibration(1000, 1000, 150, 100);
+        final Frame offer = Negotiation.offer(initiator);
+        final CipherSuite chosen = Negotiation.choose(offer, responder);
+        assertEquals(CipherSuite.AES_128_CTR_HMAC_SHA256, chosen);
+
+        final Frame answer = Negotiation.answer(chosen);
+        assertEquals(chosen, Negotiation.accept(offer, answer));
+
+        final byte[] transcript = Negotiation.transcript(offer, answer);
+        final FrameCipher alice = chosen.frameCipher(SECRET, transcript, true, new CipherPool(4));
+        final FrameCipher bob = chosen.frameCipher(SECRET, transcript, false, new CipherPool(4));
+        final byte[] message = "negotiated".getBytes(StandardCharsets.UTF_8);
+        assertTrue(Arrays.equals(message, bob.open(alice.seal(message))));
+        assertTrue(Arrays.equals(message, alice.open(bob.seal(message))));
+        try {
+            alice.open(alice.seal(message));
+            fail("Initiator accepted its own frame");
+        } catch (AEADBadTagException expected) {
+        }
+    }
+
+    public void testTamperedNegotiationYieldsDifferentKeys() throws Exception {
+        final Calibration calibration = calibration(100, 200, 300, 400);
+        final Frame offer = Negotiation.offer(calibration);
+        final Frame answer = Negotiation.answer(CipherSuite.AES_128_GCM);
+        final Frame forged = new Frame().put(FrameField.SUITES,
+                "AES_128_GCM=100".getBytes(StandardCharsets.UTF_8));
+        assertEquals(CipherSuite.AES_128_GCM, Negotiation.accept(forged, answer));
+
+        final FrameCipher alice = CipherSuite.AES_128_GCM.frameCipher(SECRET,
+                Negotiation.transcript(offer, answer), true, new CipherPool(4));
+        final FrameCipher bob = CipherSuite.AES_128_GCM.frameCipher(SECRET,
+                Negotiation.transcript(forged, answer), false, new CipherPool(4));
+        try {
+            bob.open(alice.seal(new byte[16]));
+            fail("Keys derived from different transcripts must differ");
+        } catch (AEADBadTagException expected) {
+        }
+    }
+
+    public void testRejectsUnofferedOrUnknownSuites() throws Exception {
+        final Frame offer = new Frame().put(FrameField.SUITES,
+                "AES_128_GCM=100,RC4=1,FUTURE_SUITE=5".getBytes(StandardCharsets.UTF_8));
+        assertEquals(CipherSuite.AES_128_GCM, Negotiation.choose(offer, calibration(100, 100, 100, 100)));
+        try {
+            Negotiation.accept(offer, Negotiation.answer(CipherSuite.CHACHA20_POLY1305));
+            fail("Accepted a suite that was not offered");
+        } catch (NoSuchAlgorithmException expected) {
+        }
+        try {
+            Negotiation.choose(offer, calibration(-1, 100, 100, 100));
+            fail("Chose a suite that is not available");
+        } catch (NoSuchAlgorithmException expected) {
+        }
+    }
+
+    /**
+     * @param nanos costs of the suites in declaration order, negative if not available
+     */
+    private static Calibration calibration(long... nanos) {
+        final Map<CipherSuite, Long> costs = new EnumMap<>(CipherSuite.class);
+        for (CipherSuite suite : CipherSuite.values()) {
+            if (nanos[suite.ordinal()] >= 0) {
+                costs.put(suite, nanos[suite.ordinal()]);
+            }
+        }
+        return new Calibration(64, costs);
+    }
+}
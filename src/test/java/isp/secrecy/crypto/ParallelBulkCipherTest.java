@@ -0,0 +1,106 @@
+package isp.secrecy.crypto;
+
+import junit.framework.TestCase;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.KeyGenerator;
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Segmented parallel AES/GCM encryption.
+ */
+public class ParallelBulkCipherTest extends TestCase {
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    @Override
+    protected void tearDown() {
+        pool.shutdown();
+    }
+
+    public void testRoundTripForVariousLengths() throws Exception {
+        final ParallelBulkCipher cipher = new ParallelBulkCipher(key(), 1000, pool);
+        for (int length : new int[]{0, 1, 999, 1000, 1001, 64 * 1000 + 17}) {
+            final byte[] clearText = payload(length);
+            final byte[] cipherText = cipher.encrypt(clearText);
+            assertEquals(cipher.encryptedSize(length), cipherText.length);
+            assertTrue("length " + length, Arrays.equals(clearText, cipher.decrypt(cipherText)));
+        }
+    }
+
+    public void testDirectBuffers() throws Exception {
+        final ParallelBulkCipher cipher = new ParallelBulkCipher(key(), 4096, pool);
+        final byte[] clearText = payload(100000);
+        final ByteBuffer in = ByteBuffer.allocateDirect(clearText.length);
+        in.put(clearText).flip();
+        final ByteBuffer encrypted = ByteBuffer.allocateDirect((int) cipher.encryptedSize(clearText.length));
+        cipher.encrypt(in, encrypted);
+        encrypted.flip();
+
+        final ByteBuffer out = ByteBuffer.allocateDirect((int) ParallelBulkCipher.clearTextLength(encrypted));
+        cipher.decrypt(encrypted, out);
+        out.flip();
+        final byte[] decrypted = new byte[out.remaining()];
+        out.get(decrypted);
+        assertTrue(Arrays.equals(clearText, decrypted));
+    }
+
+    public void testDetectsTamperedSegment() throws Exception {
+        final ParallelBulkCipher cipher = new ParallelBulkCipher(key(), 1000, pool);
+        final byte[] cipherText = cipher.encrypt(payload(5000));
+        cipherText[ParallelBulkCipher.HEADER_SIZE + 3 * 1016 + 5] ^= 1;
+        assertRejected(cipher, cipherText);
+    }
+
+    public void testDetectsSwappedSegments() throws Exception {
+        final ParallelBulkCipher cipher = new ParallelBulkCipher(key(), 1000, pool);
+        final byte[] cipherText = cipher.encrypt(payload(5000));
+        final int first = ParallelBulkCipher.HEADER_SIZE, second = first + 1016;
+        final byte[] segment = Arrays.copyOfRange(cipherText, first, second);
+        System.arraycopy(cipherText, second, cipherText, first, 1016);
+        System.arraycopy(segment, 0, cipherText, second, 1016);
+        assertRejected(cipher, cipherText);
+    }
+
+    public void testDetectsTruncation() throws Exception {
+        final ParallelBulkCipher cipher = new ParallelBulkCipher(key(), 1000, pool);
+        final byte[] cipherText = cipher.encrypt(payload(5000));
+        assertRejected(cipher, Arrays.copyOf(cipherText, cipherText.length - 1016));
+    }
+
+    public void testRejectsForgedHeaderBeforeAllocating() throws Exception {
+        final ParallelBulkCipher cipher = new ParallelBulkCipher(key(), 1000, pool);
+        assertRejected(cipher, new byte[ParallelBulkCipher.HEADER_SIZE - 1]);
+        final byte[] cipherText = cipher.encrypt(payload(5000));
+        for (long length : new long[]{Integer.MAX_VALUE - 1, Long.MAX_VALUE, -1, 5001}) {
+            final byte[] forged = cipherText.clone();
+            ByteBuffer.wrap(forged).putLong(12, length);
+            // an allocation of the forged length would throw OutOfMemoryError
+            assertRejected(cipher, forged);
+        }
+        final byte[] forged = cipherText.clone();
+        ByteBuffer.wrap(forged).putInt(8, 0);
+        assertRejected(cipher, forged);
+    }
+
+    private static void assertRejected(ParallelBulkCipher cipher, byte[] cipherText) throws Exception {
+        try {
+            cipher.decrypt(cipherText);
+            fail("Modified cipher text was accepted");
+        } catch (AEADBadTagException expected) {
+        }
+    }
+
+    private static Key key() throws Exception {
+        return KeyGenerator.getInstance("AES").generateKey();
+    }
+
+    private static byte[] payload(int size) {
+        final byte[] payload = new byte[size];
+        new Random(size).nextBytes(payload);
+        return payload;
+    }
+}
@@ -0,0 +1,192 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.SymmetricCipherExample;
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import junit.framework.TestCase;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Sliding replay window and sequenced frames.
+ */
+public class ReplayWindowTest extends TestCase {
+
+    public void testRejectsDuplicatesAndTooOld() {
+        final ReplayWindow window = new ReplayWindow(128);
+        assertEquals(-1, window.highest());
+        assertTrue(window.update(5));
+        assertFalse(window.update(5));
+        assertTrue(window.update(3));
+        assertTrue(window.update(200));
+        assertFalse("too old", window.check(72));
+        assertTrue(window.update(73));
+        assertFalse(window.check(73));
+        assertFalse(window.check(-1));
+        assertEquals(200, window.highest());
+    }
+
+    public void testSlidingFarClearsTheBitmap() {
+        final ReplayWindow window = new ReplayWindow(64);
+        for (long i = 0; i < 64; i++) {
+            assertTrue(window.update(i));
+        }
+        assertTrue(window.update(1_000_000));
+        for (long i = 1_000_000 - 63; i < 1_000_000; i++) {
+            assertTrue("sequence " + i, window.check(i));
+        }
+        assertFalse(window.check(1_000_000 - 64));
+    }
+
+    public void testMatchesASetWithinTheWindow() {
+        final ReplayWindow window = new ReplayWindow(256);
+        final Random random = new Random(3);
+        final Set<Long> seen = new HashSet<>();
+        long highest = -1;
+        for (int i = 0; i < 100000; i++) {
+            final long sequence = Math.max(0, highest + random.nextInt(300) - 280);
+            final boolean expected = !seen.contains(sequence) && highest - sequence < 256;
+            assertEquals("sequence " + sequence, expected, window.update(sequence));
+            if (expected) {
+                seen.add(sequence);
+                highest = Math.max(highest, sequence);
+            }
+        }
+    }
+
+    public void testSequencedFramesOfEverySuite() throws Exception {
+        final Key secret = new SecretKeySpec(new byte[32], "HmacSHA256");
+        for (CipherSuite suite : CipherSuite.values()) {
+            final FrameCipher alice = suite.frameCipher(secret, new byte[0], true, new CipherPool(8), 64);
+            final FrameCipher bob = suite.frameCipher(secret, new byte[0], false, new CipherPool(8), 64);
+            final Frame first = alice.seal(new byte[]{1}), second = alice.seal(new byte[]{2});
+            assertEquals(0, first.getLong(FrameField.SEQUENCE));
+            assertEquals(1, second.getLong(FrameField.SEQUENCE));
+
+            assertTrue(Arrays.equals(new byte[]{2}, bob.open(Frame.decode(second.encode()))));
+            assertTrue("reordered", Arrays.equals(new byte[]{1}, bob.open(Frame.decode(first.encode()))));
+            assertReplayRejected(bob, second, suite.name());
+
+            final ByteBuffer frame = ByteBuffer.allocate(alice.sealedSize(1));
+            alice.seal(ByteBuffer.wrap(new byte[]{3}), frame);
+            frame.flip();
+            final ByteBuffer clearText = ByteBuffer.allocate(32);
+            bob.open(frame.duplicate(), clearText);
+            assertEquals(1, clearText.position());
+            assertEquals(3, clearText.get(0));
+            try {
+                bob.open(frame, ByteBuffer.allocate(32));
+                fail(suite + ": replayed buffer accepted");
+            } catch (GeneralSecurityException expected) {
+                assertEquals(0, frame.position());
+            }
+        }
+    }
+
+    public void testCounterNoncesAndAuthenticatedSequence() throws Exception {
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        final FrameCipher alice = new FrameCipher(SymmetricCipherExample.ALG6[1], key, null, null, new CipherPool(4), 64);
+        final FrameCipher bob = new FrameCipher(SymmetricCipherExample.ALG6[1], key, null, null, new CipherPool(4), 64);
+
+        final ByteBuffer frame = ByteBuffer.allocate(alice.sealedSize(4));
+        for (long sequence = 0; sequence < 3; sequence++) {
+            frame.clear();
+            alice.seal(ByteBuffer.allocate(4), frame);
+            frame.flip();
+            // the IV ends with the sequence number
+            assertEquals(sequence, Frame.decode(frame.duplicate()).get(FrameField.IV).getLong(4));
+        }
+
+        final Frame sealed = alice.seal(new byte[4]);
+        final Frame forged = Frame.decode(sealed.encode()).putLong(FrameField.SEQUENCE, 100);
+        try {
+            bob.open(forged);
+            fail("Changed sequence number accepted");
+        } catch (AEADBadTagException expected) {
+        }
+        assertTrue(Arrays.equals(new byte[4], bob.open(sealed)));
+        assertReplayRejected(bob, Frame.decode(sealed.encode()).put(FrameField.SEQUENCE, (byte[]) null), "missing");
+    }
+
+    public void testFramesAreBoundToTheirSender() throws Exception {
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        final Key macKey = KeyGenerator.getInstance("HmacSHA256").generateKey();
+        for (String transformation : new String[]{SymmetricCipherExample.ALG6[1], SymmetricCipherExample.ALG4[1]}) {
+            final FrameCipher alice = new FrameCipher(transformation, key, "HmacSHA256", macKey, new CipherPool(4), 64);
+            final FrameCipher bob = new FrameCipher(transformation, key, "HmacSHA256", macKey, new CipherPool(4), 64);
+            final FrameCipher carol = new FrameCipher(transformation, key, "HmacSHA256", macKey, new CipherPool(4), 64);
+
+            // same sequence number and IV, yet different keys
+            final Frame fromAlice = alice.seal(new byte[16]), fromCarol = carol.seal(new byte[16]);
+            assertFalse(Arrays.equals(fromAlice.getBytes(FrameField.CIPHERTEXT),
+                    fromCarol.getBytes(FrameField.CIPHERTEXT)));
+            assertReplayRejected(alice, fromAlice, transformation + " reflected");
+
+            assertTrue(Arrays.equals(new byte[16], bob.open(fromAlice)));
+            assertReplayRejected(bob, fromCarol, transformation + " another sender");
+
+            final Frame forged = Frame.decode(alice.seal(new byte[16]).encode())
+                    .putLong(FrameField.SENDER, fromCarol.getLong(FrameField.SENDER));
+            try {
+                new FrameCipher(transformation, key, "HmacSHA256", macKey, new CipherPool(4), 64).open(forged);
+                fail(transformation + ": changed sender accepted");
+            } catch (AEADBadTagException expected) {
+            }
+        }
+    }
+
+    public void testForgedSendersMissNoCiphers() throws Exception {
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        final Key macKey = KeyGenerator.getInstance("HmacSHA256").generateKey();
+        final Random random = new Random(5);
+        for (String macAlgorithm : new String[]{"HmacSHA256", null}) {
+            final String transformation = SymmetricCipherExample.ALG6[1];
+            final FrameCipher alice = new FrameCipher(transformation, key, macAlgorithm, macKey, new CipherPool(4), 64);
+            final CipherPool pool = new CipherPool(4);
+            // unsequenced, so it accepts frames of any sender
+            final FrameCipher bob = new FrameCipher(transformation, key, macAlgorithm, macKey, pool);
+            // the first frame of a sender is decrypted outside the pool, the second one warms it
+            for (int i = 0; i < 2; i++) {
+                assertTrue(Arrays.equals(new byte[16], bob.open(alice.seal(new byte[16]))));
+            }
+            final long misses = pool.misses();
+
+            for (int i = 0; i < 100; i++) {
+                final Frame forged = Frame.decode(alice.seal(new byte[16]).encode())
+                        .putLong(FrameField.SENDER, random.nextLong());
+                try {
+                    bob.open(forged);
+                    fail(macAlgorithm + ": forged sender accepted");
+                } catch (AEADBadTagException expected) {
+                }
+                try {
+                    bob.open(forged.encode(), ByteBuffer.allocate(16));
+                    fail(macAlgorithm + ": forged sender accepted");
+                } catch (AEADBadTagException expected) {
+                }
+            }
+            assertEquals(macAlgorithm + ": misses", misses, pool.misses());
+            assertTrue(Arrays.equals(new byte[16], bob.open(alice.seal(new byte[16]))));
+            assertEquals(macAlgorithm + ": real sender evicted", misses, pool.misses());
+        }
+    }
+
+    private static void assertReplayRejected(FrameCipher cipher, Frame frame, String what) throws Exception {
+        try {
+            cipher.open(Frame.decode(frame.encode()));
+            fail(what + ": replay accepted");
+        } catch (AEADBadTagException e) {
+            fail(what + ": rejected by the MAC instead of the window");
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package isp.secrecy.crypto;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.channel.QueueChannel;
+import junit.framework.TestCase;
+
+import javax.crypto.KeyGenerator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Chunked encryption over frame channels.
+ */
+public class StreamingCipherTest extends TestCase {
+
+    public void testStreamRoundTripOverBoundedChannel() throws Exception {
+        for (String transformation : new String[]{"AES/CBC/PKCS5Padding", "AES/CTR/NoPadding", "AES/GCM/NoPadding"}) {
+            final byte[] payload = payload(100 * 1024 + 13);
+            final StreamingCipher cipher = new StreamingCipher(transformation, key(), 4096);
+            final QueueChannel channel = new QueueChannel(new ArrayBlockingQueue<ByteBuffer>(2));
+
+            final AtomicReference<Exception> failure = new AtomicReference<>();
+            final Thread sender = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        cipher.encrypt(new ByteArrayInputStream(payload), channel);
+                    } catch (Exception e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            sender.start();
+
+            final ByteArrayOutputStream received = new ByteArrayOutputStream();
+            assertEquals(payload.length, cipher.decrypt(channel, received));
+            sender.join();
+
+            assertNull(failure.get());
+            assertTrue(transformation, Arrays.equals(payload, received.toByteArray()));
+        }
+    }
+
+    public void testFileChannelRoundTrip() throws Exception {
+        final byte[] payload = payload(3 * StreamingCipher.DEFAULT_CHUNK_SIZE);
+        final File source = File.createTempFile("stream", ".in");
+        final File target = File.createTempFile("stream", ".out");
+        try {
+            write(source, payload);
+            final StreamingCipher cipher = new StreamingCipher("AES/CBC/PKCS5Padding", key());
+            final QueueChannel channel = new QueueChannel();
+
+            try (FileChannel in = new RandomAccessFile(source, "r").getChannel();
+                 FileChannel out = new RandomAccessFile(target, "rw").getChannel()) {
+                assertEquals(payload.length, cipher.encrypt(in, channel));
+                assertEquals(payload.length, cipher.decrypt(channel, out));
+            }
+            assertTrue(Arrays.equals(payload, read(target)));
+        } finally {
+            source.delete();
+            target.delete();
+        }
+    }
+
+    public void testRejectsReorderedChunks() throws Exception {
+        final StreamingCipher cipher = new StreamingCipher("AES/CBC/PKCS5Padding", key(), 16);
+        final QueueChannel channel = new QueueChannel();
+        cipher.encrypt(new ByteArrayInputStream(payload(64)), channel);
+
+        final ByteBuffer first = channel.receive();
+        final ByteBuffer second = channel.receive();
+        final QueueChannel reordered = new QueueChannel();
+        reordered.send(second);
+        reordered.send(first);
+        assertEquals(1, Frame.decode(second.duplicate()).getLong(FrameField.CHUNK));
+
+        try {
+            cipher.decrypt(reordered, new ByteArrayOutputStream());
+            fail("Reordered stream was accepted");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static Key key() throws Exception {
+        return KeyGenerator.getInstance("AES").generateKey();
+    }
+
+    private static byte[] payload(int size) {
+        final byte[] payload = new byte[size];
+        new Random(size).nextBytes(payload);
+        return payload;
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.write(content);
+        }
+    }
+
+    private static byte[] read(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            final byte[] content = new byte[(int) in.length()];
+            in.readFully(content);
+            return content;
+        }
+    }
+}
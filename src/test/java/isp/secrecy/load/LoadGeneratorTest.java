@@ -0,0 +1,118 @@
+package isp.secrecy.load;
+
+import junit.framework.TestCase;
+
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Soak test of the agent examples and the failures it must catch.
+ * <p/>
+ * Runs for a second per scenario by default; before an upgrade, soak for longer with
+ * -Dsoak.seconds=600.
+ */
+public class LoadGeneratorTest extends TestCase {
+    private static final Duration SOAK = Duration.ofMillis((long) (1000
+            * Double.parseDouble(System.getProperty("soak.seconds", "1"))));
+
+    public void testSoak() throws Exception {
+        final String[] transformations = {"AES/CBC/PKCS5Padding", "AES/GCM/NoPadding", "RC4"};
+        for (LoadGenerator.Scenario scenario : LoadGenerator.Scenario.values()) {
+            for (String transformation : transformations) {
+                final LoadGenerator.Report report = new LoadGenerator(scenario, transformation, 2, 500,
+                        MessageSizes.logUniform(0, 16384), SOAK, 7).run();
+                assertTrue(report.toString(), report.passed());
+                assertEquals(2 * Math.round(500 * SOAK.toNanos() / 1e9), report.sent);
+                assertEquals(report.received, report.latency.getCount());
+                if (scenario == LoadGenerator.Scenario.PLAIN || scenario == LoadGenerator.Scenario.ENVELOPE) {
+                    break;
+                }
+            }
+        }
+    }
+
+    public void testUnpaced() throws Exception {
+        final LoadGenerator.Report report = new LoadGenerator(LoadGenerator.Scenario.SYMMETRIC,
+                "AES/CTR/NoPadding", 3, 0, MessageSizes.fixed(64), Duration.ofMillis(200), 1).run();
+        assertTrue(report.toString(), report.passed());
+        assertTrue(report.sent > 0);
+    }
+
+    public void testFailsOnCorruptedMessage() throws Exception {
+        for (LoadGenerator.Scenario scenario : LoadGenerator.Scenario.values()) {
+            final AtomicInteger index = new AtomicInteger();
+            final LoadGenerator.Report report = generator(scenario).run(text -> {
+                if (index.getAndIncrement() != 5) {
+                    return text;
+                }
+                // flip a hex digit in the middle
+                final char[] chars = text.toCharArray();
+                final int i = chars.length / 2;
+                chars[i] = chars[i] == '0' ? '1' : '0';
+                return new String(chars);
+            });
+            assertFalse(scenario.toString(), report.passed());
+            assertEquals(scenario.toString(), 1, report.errors);
+            assertEquals(0, report.lost);
+            assertEquals(report.sent - 1, report.received);
+            assertTrue(report.firstError instanceof GeneralSecurityException);
+        }
+    }
+
+    public void testEnvelopeSessionsUnderLoad() throws Exception {
+        final LoadGenerator.Report report = new LoadGenerator(LoadGenerator.Scenario.ENVELOPE, null, 2, 0,
+                MessageSizes.fixed(64), Duration.ofMillis(300), 1).run();
+        assertTrue(report.toString(), report.passed());
+        assertTrue("no new sessions", report.sent > 2 * LoadGenerator.ENVELOPE_SESSION_MESSAGES);
+    }
+
+    public void testFailsOnLostMessage() throws Exception {
+        final AtomicInteger index = new AtomicInteger();
+        final LoadGenerator.Report report = generator(LoadGenerator.Scenario.AUTHENTICATED)
+                .run(text -> index.getAndIncrement() == 3 ? null : text);
+        assertFalse(report.passed());
+        assertEquals(0, report.errors);
+        assertEquals(1, report.lost);
+    }
+
+    public void testFailsOnReplayedMessage() throws Exception {
+        final AtomicInteger index = new AtomicInteger();
+        final String[] recorded = new String[1];
+        final LoadGenerator.Report report = generator(LoadGenerator.Scenario.PLAIN).run(text -> {
+            final int i = index.getAndIncrement();
+            if (i == 2) {
+                recorded[0] = text;
+            }
+            return i == 4 ? recorded[0] : text;
+        });
+        assertFalse(report.passed());
+        assertEquals(1, report.errors);
+    }
+
+    public void testMessageSizes() {
+        final Random random = new Random(1);
+        assertEquals(100, MessageSizes.parse("100").next(random));
+        assertEquals("10-20", MessageSizes.parse("10-20").toString());
+        int small = 0;
+        final MessageSizes sizes = MessageSizes.parse("0~65535");
+        for (int i = 0; i < 10000; i++) {
+            final int size = sizes.next(random);
+            assertTrue(size >= 0 && size <= 65535);
+            small += size < 256 ? 1 : 0;
+        }
+        // half of the powers of two are below 256
+        assertEquals(5000, small, 300);
+        try {
+            MessageSizes.parse("20-10");
+            fail("Parsed a negative range");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static LoadGenerator generator(final LoadGenerator.Scenario scenario) {
+        return new LoadGenerator(scenario, "AES/GCM/NoPadding", 1, 1000, MessageSizes.uniform(0, 512),
+                Duration.ofMillis(20), 3);
+    }
+}
@@ -0,0 +1,146 @@
+package isp.secrecy.log;
+
+import isp.secrecy.Agent;
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import junit.framework.TestCase;
+
+import javax.crypto.KeyGenerator;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Appending to and replaying from memory-mapped segments.
+ */
+public class SegmentLogTest extends TestCase {
+    private Path directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("segment-log");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    public void testReplayAcrossSegments() throws Exception {
+        final SegmentLog log = new SegmentLog(directory, 1000);
+        final List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            offsets.add(log.append(ByteBuffer.wrap(record(i))));
+        }
+        assertTrue(countSegments() > 2);
+
+        final SegmentLog.Cursor cursor = log.cursor(offsets.get(42));
+        for (int i = 42; i < 100; i++) {
+            assertEquals(ByteBuffer.wrap(record(i)), log.cursor(cursor.offset()).next());
+            assertEquals(ByteBuffer.wrap(record(i)), cursor.next());
+        }
+        assertNull(cursor.next());
+        assertEquals(log.endOffset(), cursor.offset());
+    }
+
+    public void testReopenContinuesAfterLastRecord() throws Exception {
+        final SegmentLog log = new SegmentLog(directory, 1000);
+        for (int i = 0; i < 30; i++) {
+            log.append(ByteBuffer.wrap(record(i)));
+        }
+        final long end = log.endOffset();
+        log.force();
+        log.close();
+
+        final SegmentLog reopened = new SegmentLog(directory, 1000);
+        assertEquals(end, reopened.endOffset());
+        reopened.append(ByteBuffer.wrap(record(30)));
+
+        final SegmentLog.Cursor cursor = reopened.cursor(reopened.startOffset());
+        for (int i = 0; i <= 30; i++) {
+            assertEquals(ByteBuffer.wrap(record(i)), cursor.next());
+        }
+        assertNull(cursor.next());
+    }
+
+    public void testDeleteBefore() throws Exception {
+        final SegmentLog log = new SegmentLog(directory, 1000);
+        long offset = 0;
+        for (int i = 0; i < 100; i++) {
+            offset = log.append(ByteBuffer.wrap(record(i)));
+        }
+        final int segments = countSegments();
+        assertEquals(segments - 1, log.deleteBefore(offset));
+        assertEquals(1, countSegments());
+        assertEquals(ByteBuffer.wrap(record(99)), log.cursor(offset).next());
+        try {
+            log.cursor(0).next();
+            fail("Deleted offset was read");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testAgentsCommunicateThroughLog() throws Exception {
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        final SegmentLog log = new SegmentLog(directory, 4096);
+        final List<String> received = new ArrayList<>();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        final Agent alice = new Agent(new SegmentLogChannel(log), null, key, "AES/GCM/NoPadding", null, null) {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        send(frameCipher().seal(("message " + i).getBytes(StandardCharsets.UTF_8)));
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        final Agent bob = new Agent(null, new SegmentLogChannel(log), key, "AES/GCM/NoPadding", null, null) {
+            @Override
+            public void run() {
+                try {
+                    while (received.size() < 200) {
+                        final Frame frame = receive();
+                        assertTrue(frame.has(FrameField.CIPHERTEXT));
+                        received.add(new String(frameCipher().open(frame), StandardCharsets.UTF_8));
+                    }
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        };
+        bob.start();
+        alice.start();
+        alice.join();
+        bob.join(10000);
+
+        assertNull(failure.get());
+        assertEquals(200, received.size());
+        assertEquals("message 199", received.get(199));
+    }
+
+    private int countSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return (int) files.count();
+        }
+    }
+
+    private static byte[] record(int i) {
+        final byte[] record = new byte[1 + i % 50];
+        record[0] = (byte) i;
+        return record;
+    }
+}
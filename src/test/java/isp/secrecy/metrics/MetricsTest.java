@@ -0,0 +1,101 @@
+package isp.secrecy.metrics;
+
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import isp.secrecy.channel.QueueChannel;
+import isp.secrecy.crypto.CipherPool;
+import isp.secrecy.crypto.FrameCipher;
+import junit.framework.TestCase;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.KeyGenerator;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Histograms, instrumented channels and the JMX view of the metrics.
+ */
+public class MetricsTest extends TestCase {
+
+    public void testHistogramPercentiles() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        final HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500500.0, snapshot.getMean(), 0.001);
+        assertEquals(1000000, snapshot.getMax());
+        assertEquals(500000, snapshot.getP50(), 500000 / 16);
+        assertEquals(990000, snapshot.getP99(), 990000 / 16);
+        assertTrue(snapshot.getP50() >= 500000);
+        assertTrue(snapshot.getP999() <= snapshot.getMax());
+    }
+
+    public void testBucketsCoverEveryValue() {
+        long previous = -1;
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            final long highest = Histogram.highestValue(i);
+            assertEquals(i, Histogram.index(previous + 1));
+            assertEquals(i, Histogram.index(highest));
+            previous = highest;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    public void testInstrumentedChannel() throws Exception {
+        final Metrics metrics = new Metrics();
+        final InstrumentedChannel channel = new InstrumentedChannel("test", new QueueChannel(), metrics);
+        channel.send(new Frame().encode());
+        channel.send(new Frame().encode());
+        assertEquals(Long.valueOf(2), metrics.getGauges().get("channel.test.depth"));
+
+        channel.receive();
+        assertEquals(Long.valueOf(1), metrics.getGauges().get("channel.test.depth"));
+        assertEquals(Long.valueOf(2), metrics.getCounters().get("channel.test.frames"));
+        assertEquals(Long.valueOf(8), metrics.getCounters().get("channel.test.bytes"));
+        assertEquals(1, metrics.getHistograms().get("channel.test.receive.nanos").getCount());
+    }
+
+    public void testCipherMetricsOverJmxAndDump() throws Exception {
+        final String transformation = "AES/CTR/NoPadding";
+        final Metrics metrics = Metrics.global();
+        final long bytes = metrics.counter("cipher." + transformation + ".bytes").sum();
+        final long macFailures = metrics.counter("mac.failures").sum();
+        final FrameCipher cipher = new FrameCipher(transformation, KeyGenerator.getInstance("AES").generateKey(),
+                "HmacSHA256", KeyGenerator.getInstance("HmacSHA256").generateKey(), new CipherPool(4));
+        final Frame frame = cipher.seal("hello".getBytes(StandardCharsets.UTF_8));
+        cipher.open(frame);
+        try {
+            cipher.open(frame.put(FrameField.MAC, new byte[32]));
+            fail("Forged MAC was accepted");
+        } catch (AEADBadTagException expected) {
+        }
+        assertEquals(macFailures + 1, metrics.counter("mac.failures").sum());
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        final TabularData counters = (TabularData) server.getAttribute(name, "Counters");
+        assertEquals(bytes + 10, counters.get(new Object[]{"cipher." + transformation + ".bytes"}).get("value"));
+        final TabularData histograms = (TabularData) server.getAttribute(name, "Histograms");
+        final String encrypt = "cipher." + transformation + ".encrypt.nanos";
+        final CompositeData snapshot = (CompositeData) histograms.get(new Object[]{encrypt}).get("value");
+        assertEquals(metrics.histogram(encrypt).count(), snapshot.get("count"));
+
+        final Path file = Files.createTempFile("metrics", ".txt");
+        try {
+            metrics.dump(file);
+            final List<String> lines = Files.readAllLines(file);
+            assertTrue(lines.contains("mac.failures " + (macFailures + 1)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
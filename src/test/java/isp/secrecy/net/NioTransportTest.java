@@ -0,0 +1,221 @@
+package isp.secrecy.net;
+
+import isp.secrecy.Agent;
+import isp.secrecy.channel.Frame;
+import isp.secrecy.channel.FrameField;
+import junit.framework.TestCase;
+
+import javax.crypto.KeyGenerator;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Agents exchanging frames over loopback TCP.
+ */
+public class NioTransportTest extends TestCase {
+    private static final int CHANNELS = 4, MESSAGES = 2000;
+
+    private NioTransport server, client;
+    private Connection serverSide, clientSide;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new NioTransport();
+        client = new NioTransport();
+        final InetSocketAddress address = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        clientSide = client.connect(address);
+        serverSide = server.accept();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    public void testAgentsShareOneConnection() throws Exception {
+        final Key key = KeyGenerator.getInstance("AES").generateKey();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Agent> agents = new ArrayList<>();
+
+        for (int c = 0; c < CHANNELS; c++) {
+            final NetChannel toBob = clientSide.channel(c), toAlice = serverSide.channel(c);
+            agents.add(new Agent(toBob, toBob, key, "AES/GCM/NoPadding", null, null) {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < MESSAGES; i++) {
+                            send(frameCipher().seal(ByteBuffer.allocate(4).putInt(0, i).array()));
+                        }
+                        for (int i = 0; i < MESSAGES; i++) {
+                            assertEquals(-i, ByteBuffer.wrap(frameCipher().open(receive())).getInt());
+                        }
+                    } catch (Exception | AssertionError e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            agents.add(new Agent(toAlice, toAlice, key, "AES/GCM/NoPadding", null, null) {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < MESSAGES; i++) {
+                            final int received = ByteBuffer.wrap(frameCipher().open(receive())).getInt();
+                            assertEquals(i, received);
+                            send(frameCipher().seal(ByteBuffer.allocate(4).putInt(0, -received).array()));
+                        }
+                    } catch (Exception | AssertionError e) {
+                        failure.set(e);
+                    }
+                }
+            });
+        }
+        for (Agent agent : agents) {
+            agent.start();
+        }
+        for (Agent agent : agents) {
+            agent.join(30000);
+        }
+        assertNull(failure.get());
+    }
+
+    public void testLargeFrames() throws Exception {
+        final byte[] payload = new byte[1024 * 1024];
+        payload[payload.length - 1] = 42;
+        final Frame frame = new Frame().put(FrameField.CIPHERTEXT, payload);
+        for (int i = 0; i < 3; i++) {
+            clientSide.channel(7).send(frame.encode());
+        }
+        for (int i = 0; i < 3; i++) {
+            final Frame received = Frame.decode(serverSide.channel(7).receive());
+            assertEquals(ByteBuffer.wrap(payload), received.get(FrameField.CIPHERTEXT));
+        }
+        // the second frame is read after the read that dispatched the first has finished
+        for (int i = 0; i < 2; i++) {
+            clientSide.channel(7).send(new Frame().encode());
+            serverSide.channel(7).receive();
+        }
+        assertTrue("Read buffer kept at " + serverSide.readBufferSize(), serverSide.readBufferSize() < payload.length);
+    }
+
+    public void testSendersWaitWhileThePeerDoesNotRead() throws Exception {
+        try (ServerSocketChannel stalled = ServerSocketChannel.open()) {
+            stalled.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final Connection connection = client.connect(stalled.getLocalAddress());
+            final AtomicReference<Exception> thrown = new AtomicReference<>();
+            final AtomicInteger sent = new AtomicInteger();
+            final Thread sender = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 64; i++) {
+                        connection.channel(0).send(ByteBuffer.allocate(1024 * 1024));
+                        sent.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    thrown.set(e);
+                }
+            });
+            sender.start();
+            final SocketChannel peer = stalled.accept();
+            try {
+                awaitWaiting(sender);
+                assertTrue("Sent " + sent.get() + " MB", sent.get() < 64);
+
+                connection.close();
+                sender.join(5000);
+                assertTrue(thrown.get() instanceof IOException);
+            } finally {
+                peer.close();
+            }
+        }
+    }
+
+    public void testReceiversHoldBackTheSender() throws Exception {
+        final int frames = 64;
+        final AtomicReference<Exception> thrown = new AtomicReference<>();
+        final AtomicInteger sent = new AtomicInteger();
+        final Thread sender = new Thread(() -> {
+            try {
+                for (int i = 0; i < frames; i++) {
+                    final byte[] payload = new byte[1024 * 1024];
+                    payload[0] = (byte) i;
+                    clientSide.channel(3).send(new Frame().put(FrameField.CIPHERTEXT, payload).encode());
+                    sent.incrementAndGet();
+                }
+            } catch (Exception e) {
+                thrown.set(e);
+            }
+        });
+        sender.start();
+        // nothing is taken, so the server stops reading and the client's queue fills up
+        awaitStalled(sender, sent);
+        // 4 MB queued by the client, 4 MB and a frame held by the server, and the socket buffers
+        assertTrue("Sent " + sent.get() + " MB", sent.get() < frames / 2);
+
+        for (int i = 0; i < frames; i++) {
+            assertEquals(i, Frame.decode(serverSide.channel(3).receive()).get(FrameField.CIPHERTEXT).get(0));
+        }
+        sender.join(5000);
+        assertNull(thrown.get());
+        assertEquals(frames, sent.get());
+    }
+
+    public void testPeerCannotOpenUnlimitedChannels() throws Exception {
+        for (int id = 0; id <= Connection.MAX_CHANNELS; id++) {
+            clientSide.channel(id).send(new Frame().encode());
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (serverSide.isOpen() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(serverSide.isOpen());
+        serverSide.channel(0).receive();
+        try {
+            serverSide.channel(Connection.MAX_CHANNELS).receive();
+            fail("Frame beyond the channel limit received");
+        } catch (EOFException expected) {
+        }
+    }
+
+    public void testReceiveFailsAfterClose() throws Exception {
+        clientSide.channel(1).send(new Frame().encode());
+        assertEquals(0, Frame.decode(serverSide.channel(1).receive()).encodedLength() - Frame.LENGTH_SIZE);
+        clientSide.close();
+        try {
+            serverSide.channel(1).receive();
+            fail("Received from a closed connection");
+        } catch (EOFException expected) {
+        }
+    }
+
+    /**
+     * Waits until the thread has been waiting without sending anything for a while.
+     */
+    private static void awaitStalled(final Thread thread, final AtomicInteger sent) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        int before;
+        do {
+            before = sent.get();
+            Thread.sleep(300);
+        } while ((sent.get() != before || thread.getState() != Thread.State.WAITING) && System.nanoTime() < deadline);
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    private static void awaitWaiting(final Thread thread) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (thread.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+}
@@ -0,0 +1,92 @@
+package isp.secrecy.runtime;
+
+import isp.secrecy.Agent;
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Blocking and event-driven agents on executor based runtimes.
+ */
+public class AgentRuntimeTest extends TestCase {
+
+    public void testRunsAnonymousAgentsOnForkJoinPool() throws Exception {
+        final BlockingQueue<String> alice2bob = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> bob2alice = new LinkedBlockingQueue<>();
+        final AtomicReference<String> received = new AtomicReference<>();
+
+        final Agent alice = new Agent(alice2bob, bob2alice, null, null, null, null) {
+            @Override
+            public void run() {
+                outgoing.add("I love you Bob. Kisses, Alice.");
+            }
+        };
+        final Agent bob = new Agent(bob2alice, alice2bob, null, null, null, null) {
+            @Override
+            public void run() {
+                try {
+                    received.set(incoming.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        try (AgentRuntime runtime = AgentRuntime.forkJoin(2)) {
+            runtime.start(bob);
+            runtime.start(alice).get(5, TimeUnit.SECONDS);
+            assertTrue(runtime.shutdown(5, TimeUnit.SECONDS));
+        }
+        assertEquals("I love you Bob. Kisses, Alice.", received.get());
+        assertFalse("Agent thread must not be started", bob.isAlive());
+    }
+
+    public void testHundredThousandIdleAgentsOnEventLoop() throws Exception {
+        final int agents = 100000;
+        final CountDownLatch handled = new CountDownLatch(agents);
+        final Inbox[] inboxes = new Inbox[agents];
+
+        try (AgentRuntime runtime = AgentRuntime.eventLoop()) {
+            for (int i = 0; i < agents; i++) {
+                final int id = i;
+                inboxes[i] = runtime.spawn(frame -> {
+                    if (frame.getInt(0) == id) {
+                        handled.countDown();
+                    }
+                });
+            }
+            for (int i = 0; i < agents; i++) {
+                inboxes[i].send(ByteBuffer.allocate(4).putInt(0, i));
+            }
+            assertTrue(handled.await(30, TimeUnit.SECONDS));
+        }
+    }
+
+    public void testHandlesFramesOfOneAgentSequentially() throws Exception {
+        final int frames = 10000;
+        final CountDownLatch handled = new CountDownLatch(frames);
+        final int[] last = {-1};
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        try (AgentRuntime runtime = AgentRuntime.forkJoin(4)) {
+            final Inbox inbox = runtime.spawn(frame -> {
+                final int value = frame.getInt(0);
+                if (value != last[0] + 1) {
+                    failure.set("Frame " + value + " after " + last[0]);
+                }
+                last[0] = value;
+                handled.countDown();
+            });
+            for (int i = 0; i < frames; i++) {
+                inbox.send(ByteBuffer.allocate(4).putInt(0, i));
+            }
+            assertTrue(handled.await(30, TimeUnit.SECONDS));
+        }
+        assertNull(failure.get());
+    }
+}